@@ -17,6 +17,7 @@
 package org.openstack.burrow.backend;
 
 import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
 
 import org.openstack.burrow.client.Account;
@@ -141,4 +142,114 @@ public interface AsyncBackend extends Backend {
    *         return any information.
    */
   public Future<List<Message>> executeAsync(UpdateMessages request);
+
+  /**
+   * Executes a CreateMessage request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the Message executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<Message> executeStage(CreateMessage request);
+
+  /**
+   * Executes a DeleteAccounts request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the list executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<List<Account>> executeStage(DeleteAccounts request);
+
+  /**
+   * Executes a DeleteMessage request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the Message executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<Message> executeStage(DeleteMessage request);
+
+  /**
+   * Executes a DeleteMessages request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the list executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<List<Message>> executeStage(DeleteMessages request);
+
+  /**
+   * Executes a DeleteQueues request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the list executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<List<Queue>> executeStage(DeleteQueues request);
+
+  /**
+   * Executes a GetAccounts request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the list executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<List<Account>> executeStage(GetAccounts request);
+
+  /**
+   * Executes a GetMessage request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the Message executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<Message> executeStage(GetMessage request);
+
+  /**
+   * Executes a GetMessages request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the list executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<List<Message>> executeStage(GetMessages request);
+
+  /**
+   * Executes a GetQueues request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the list executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<List<Queue>> executeStage(GetQueues request);
+
+  /**
+   * Executes an UpdateMessage request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the Message executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<Message> executeStage(UpdateMessage request);
+
+  /**
+   * Executes an UpdateMessages request without blocking, returning a
+   * stage to which further requests may be chained.
+   * 
+   * @param request The request to execute.
+   * @return A stage completed with the list executeAsync(request) would
+   *         produce.
+   */
+  public CompletionStage<List<Message>> executeStage(UpdateMessages request);
 }
@@ -22,6 +22,7 @@ import org.openstack.burrow.client.Queue;
 import org.openstack.burrow.client.methods.*;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public interface Backend {
   /**
@@ -130,4 +131,33 @@ public interface Backend {
    *         return any information.
    */
   public List<Message> execute(UpdateMessages request) throws BurrowException;
+
+  /**
+   * Start the backend, so that the threads and connections it needs are set
+   * up before the first request rather than by it. Starting a backend which
+   * has already started does nothing.
+   * 
+   * @throws IllegalStateException Thrown if the backend has been shut down.
+   */
+  public void start();
+
+  /**
+   * Shut the backend down at once, releasing its threads and connections.
+   * Requests in flight may be cancelled or fail, and the backend may not be
+   * used afterwards.
+   */
+  public void shutdown();
+
+  /**
+   * Shut the backend down gracefully. Requests made afterwards are rejected,
+   * and those in flight are given until the timeout to finish before the
+   * backend shuts down as shutdown() does.
+   * 
+   * @param timeout The most time to wait for requests in flight.
+   * @param unit The unit of the timeout.
+   * @return True if every request in flight finished in time.
+   * @throws InterruptedException Thrown if interrupted while waiting, in
+   *           which case requests in flight are left to finish.
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException;
 }
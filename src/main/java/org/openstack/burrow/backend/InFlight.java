@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * InFlight counts the requests a backend is executing, so that the backend can
+ * stop accepting new ones when it shuts down and wait for the rest to finish.
+ * Synchronous requests are counted in and out around their execution;
+ * asynchronous ones are tracked until their future completes, so that those
+ * still unfinished when the wait runs out can be cancelled.
+ */
+public class InFlight {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition idle = lock.newCondition();
+  private final Set<Future<?>> futures =
+      Collections.newSetFromMap(new ConcurrentHashMap<Future<?>, Boolean>());
+  private int count = 0;
+  private boolean closed = false;
+
+  /**
+   * Count a request in. Every call which returns must be matched by a call to
+   * exit once the request has finished, however it went.
+   *
+   * @throws RejectedExecutionException Thrown if the backend has been shut
+   *           down.
+   */
+  public void enter() {
+    lock.lock();
+    try {
+      if (closed)
+        throw new RejectedExecutionException("Backend has been shut down.");
+      count++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Count a finished request out.
+   */
+  public void exit() {
+    lock.lock();
+    try {
+      if (--count == 0)
+        idle.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Count a request in until its future completes.
+   *
+   * @param future The future of the request.
+   * @return The future.
+   * @throws RejectedExecutionException Thrown if the backend has been shut
+   *           down.
+   */
+  public <T> CompletableFuture<T> track(final CompletableFuture<T> future) {
+    enter();
+    futures.add(future);
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      public void accept(T result, Throwable failure) {
+        futures.remove(future);
+        exit();
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Get the number of requests in flight.
+   *
+   * @return The number of requests counted in but not yet out.
+   */
+  public int getCount() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop accepting requests. Those already in flight are unaffected.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Find whether requests are no longer accepted.
+   *
+   * @return True once close or await has been called.
+   */
+  public boolean isClosed() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop accepting requests, then wait for those in flight to finish.
+   *
+   * @param timeout The most time to wait.
+   * @param unit The unit of the timeout.
+   * @return True if every request finished, false if the time ran out first.
+   * @throws InterruptedException Thrown if interrupted while waiting.
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lock();
+    try {
+      closed = true;
+      while (count > 0) {
+        if (nanos <= 0)
+          return false;
+        nanos = idle.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Cancel every tracked future which has not yet completed.
+   */
+  public void cancelAll() {
+    for (Future<?> future : futures)
+      future.cancel(true);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import org.openstack.burrow.client.Message;
+
+/**
+ * A MessageHandler receives the messages of a list request one at a time, as
+ * each is decoded, instead of in a List once all have been. This lets a caller
+ * start on the first message of a large batch while the rest are still
+ * arriving, and never hold the whole batch.
+ */
+public interface MessageHandler {
+  /**
+   * Handles one message. Messages are handed over in the order the server
+   * lists them, one at a time, on whichever thread is decoding the response;
+   * an asynchronous backend's I/O thread should not be blocked for long.
+   * 
+   * @param message A Message instance populated with the information returned
+   *          by the queue about the message.
+   */
+  public void handle(Message message);
+}
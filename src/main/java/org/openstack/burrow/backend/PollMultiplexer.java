@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.DeleteMessages;
+
+/**
+ * A PollMultiplexer watches many queues through an AsyncBackend with a bounded
+ * number of long polls outstanding, so that watching thousands of queues needs
+ * neither a thread nor a connection per queue. Each poll is a DeleteMessages
+ * with a wait, and the messages it takes are passed to the handler of its
+ * queue.
+ * <p>
+ * Queues are polled in turn: a queue has at most one poll outstanding, and
+ * once it is answered the queue goes to the back of the line and the next in
+ * line is polled at once. With more queues than polls, a queue may therefore
+ * go unpolled for up to about queues / maxPolls waits, so a short wait suits
+ * a large number of queues. A queue whose poll fails, other than with a
+ * CommandException, is polled again after an exponential backoff with full
+ * jitter, so that a failing server is not polled in a tight loop. A message
+ * handler which throws is reported to the FailureHandler, by default the
+ * polling thread's uncaught exception handler.
+ */
+public class PollMultiplexer {
+  /** The most polls outstanding at once by default. */
+  public static final int DEFAULT_MAX_POLLS = 8;
+
+  /** The number of seconds each poll waits for messages by default. */
+  public static final long DEFAULT_WAIT = 20;
+
+  /** The backoff after a queue's first failed poll, in milliseconds. */
+  public static final long DEFAULT_BASE_DELAY = 100;
+
+  /** The longest backoff after failed polls, in milliseconds. */
+  public static final long DEFAULT_MAX_DELAY = 30000;
+
+  /**
+   * The time a poll is given beyond its wait before it is abandoned, in
+   * milliseconds, so that a poll lost along with its connection does not hold
+   * its place forever.
+   */
+  static final long POLL_GRACE = 10000;
+
+  private final AsyncBackend backend;
+  private final int maxPolls;
+  private final long wait;
+  private final Long limit;
+  private final long baseDelay;
+  private final long maxDelay;
+  private final ScheduledExecutorService executor;
+  private final FailureHandler failureHandler;
+  private final Map<List<String>, Watch> watches = new HashMap<List<String>, Watch>();
+  private final Deque<Watch> ready = new ArrayDeque<Watch>();
+  private int polling = 0;
+  private boolean shutdown = false;
+
+  /**
+   * A FailureHandler is told of the messages whose handlers threw. Each such
+   * message has already been taken from its queue, so this is the last chance
+   * to act on it.
+   */
+  public interface FailureHandler {
+    /**
+     * Handles the failure of a message handler. It is called on the thread
+     * which ran the handler, and should not throw.
+     *
+     * @param queue The queue from which the message was taken.
+     * @param message The message the handler was given.
+     * @param e The exception the handler threw.
+     */
+    void failed(Queue queue, Message message, RuntimeException e);
+  }
+
+  /**
+   * Reports a handler's failure as uncaught on the thread which ran it,
+   * without ending that thread.
+   */
+  private static final FailureHandler UNCAUGHT = new FailureHandler() {
+    public void failed(Queue queue, Message message, RuntimeException e) {
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+  };
+
+  /**
+   * A watched queue and its handler.
+   */
+  private class Watch {
+    final Queue queue;
+    final MessageHandler handler;
+    CompletableFuture<List<Message>> poll = null;
+    boolean watched = true;
+    int failures = 0;
+
+    Watch(Queue queue, MessageHandler handler) {
+      this.queue = queue;
+      this.handler = handler;
+    }
+  }
+
+  /**
+   * Construct a PollMultiplexer with DEFAULT_MAX_POLLS polls outstanding, each
+   * waiting DEFAULT_WAIT seconds and taking as many messages as there are.
+   *
+   * @param backend The backend through which to poll.
+   */
+  public PollMultiplexer(AsyncBackend backend) {
+    this(backend, DEFAULT_MAX_POLLS, DEFAULT_WAIT, null);
+  }
+
+  /**
+   * Construct a PollMultiplexer which backs off on the shared Scheduler.
+   *
+   * @param backend The backend through which to poll.
+   * @param maxPolls The most polls outstanding at once.
+   * @param wait The number of seconds each poll waits for messages, at least
+   *          one.
+   * @param limit The most messages each poll takes, or null for no limit. A
+   *          limit keeps a busy queue from holding up the others for long.
+   */
+  public PollMultiplexer(AsyncBackend backend, int maxPolls, long wait, Long limit) {
+    this(backend, maxPolls, wait, limit, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY,
+        TimeUnit.MILLISECONDS, Scheduler.getDefault());
+  }
+
+  /**
+   * Construct a PollMultiplexer which backs off on the given executor, and
+   * reports failed handlers as uncaught.
+   *
+   * @param backend The backend through which to poll.
+   * @param maxPolls The most polls outstanding at once.
+   * @param wait The number of seconds each poll waits for messages, at least
+   *          one.
+   * @param limit The most messages each poll takes, or null for no limit.
+   * @param baseDelay The backoff after a queue's first failed poll, which
+   *          doubles for each further failure in a row.
+   * @param maxDelay The longest backoff.
+   * @param unit The unit of baseDelay and maxDelay.
+   * @param executor The executor on which to poll again after a backoff.
+   */
+  public PollMultiplexer(AsyncBackend backend, int maxPolls, long wait, Long limit,
+      long baseDelay, long maxDelay, TimeUnit unit, ScheduledExecutorService executor) {
+    this(backend, maxPolls, wait, limit, baseDelay, maxDelay, unit, executor, UNCAUGHT);
+  }
+
+  /**
+   * Construct a PollMultiplexer which backs off on the given executor.
+   *
+   * @param backend The backend through which to poll.
+   * @param maxPolls The most polls outstanding at once.
+   * @param wait The number of seconds each poll waits for messages, at least
+   *          one, since a poll which does not wait would be sent again at once.
+   * @param limit The most messages each poll takes, or null for no limit.
+   * @param baseDelay The backoff after a queue's first failed poll, which
+   *          doubles for each further failure in a row.
+   * @param maxDelay The longest backoff.
+   * @param unit The unit of baseDelay and maxDelay.
+   * @param executor The executor on which to poll again after a backoff.
+   * @param failureHandler Told of each message whose handler threw.
+   */
+  public PollMultiplexer(AsyncBackend backend, int maxPolls, long wait, Long limit,
+      long baseDelay, long maxDelay, TimeUnit unit, ScheduledExecutorService executor,
+      FailureHandler failureHandler) {
+    if (backend == null || executor == null || failureHandler == null)
+      throw new IllegalArgumentException("Backend, executor and failure handler may not be null.");
+    if (maxPolls < 1)
+      throw new IllegalArgumentException("There must be at least one poll.");
+    if (wait < 1)
+      throw new IllegalArgumentException("Wait must be positive.");
+    if (limit != null && limit < 1)
+      throw new IllegalArgumentException("Limit must be positive.");
+    if (baseDelay <= 0 || maxDelay < baseDelay)
+      throw new IllegalArgumentException("Delays must be positive, and the base at most the max.");
+    this.backend = backend;
+    this.maxPolls = maxPolls;
+    this.wait = wait;
+    this.limit = limit;
+    this.baseDelay = unit.toNanos(baseDelay);
+    this.maxDelay = unit.toNanos(maxDelay);
+    this.executor = executor;
+    this.failureHandler = failureHandler;
+  }
+
+  private static List<String> keyOf(Queue queue) {
+    return Arrays.asList(queue.getAccount().getId(), queue.getId());
+  }
+
+  /**
+   * Start watching a queue. Messages taken from it are passed to the handler
+   * on whichever thread completes the poll, which for an asynchronous HTTP
+   * backend is its I/O thread, so the handler should hand any lengthy work
+   * elsewhere. A handler which throws does not keep the rest of a poll's
+   * messages from being handled; its exception is passed to the
+   * FailureHandler.
+   *
+   * @param queue The queue to watch.
+   * @param handler The handler for the queue's messages.
+   * @throws IllegalStateException Thrown if the queue is already watched, or
+   *           the multiplexer has been shut down.
+   */
+  public void watch(Queue queue, MessageHandler handler) {
+    if (queue == null || handler == null)
+      throw new IllegalArgumentException("Queue and handler may not be null.");
+    synchronized (this) {
+      if (shutdown)
+        throw new IllegalStateException("Multiplexer has been shut down.");
+      List<String> key = keyOf(queue);
+      if (watches.containsKey(key))
+        throw new IllegalStateException("Queue is already watched.");
+      Watch watch = new Watch(queue, handler);
+      watches.put(key, watch);
+      ready.addLast(watch);
+    }
+    pump();
+  }
+
+  /**
+   * Stop watching a queue, cancelling its outstanding poll. Messages the
+   * server had already taken for that poll are lost, as they are whenever a
+   * DeleteMessages is cancelled.
+   *
+   * @param queue The queue to stop watching.
+   * @return True if the queue was being watched.
+   */
+  public boolean unwatch(Queue queue) {
+    CompletableFuture<List<Message>> poll;
+    synchronized (this) {
+      Watch watch = watches.remove(keyOf(queue));
+      if (watch == null)
+        return false;
+      watch.watched = false;
+      ready.remove(watch);
+      poll = watch.poll;
+    }
+    if (poll != null)
+      poll.cancel(true);
+    return true;
+  }
+
+  /**
+   * Stop watching every queue, cancelling the outstanding polls.
+   */
+  public void shutdown() {
+    List<CompletableFuture<List<Message>>> polls =
+        new ArrayList<CompletableFuture<List<Message>>>();
+    synchronized (this) {
+      shutdown = true;
+      for (Watch watch : watches.values()) {
+        watch.watched = false;
+        if (watch.poll != null)
+          polls.add(watch.poll);
+      }
+      watches.clear();
+      ready.clear();
+    }
+    for (CompletableFuture<List<Message>> poll : polls)
+      poll.cancel(true);
+  }
+
+  /**
+   * Get the number of queues watched.
+   *
+   * @return The number of queues watched.
+   */
+  public synchronized int getWatched() {
+    return watches.size();
+  }
+
+  /**
+   * Get the number of polls outstanding.
+   *
+   * @return The number of polls sent but not yet answered.
+   */
+  public synchronized int getPolling() {
+    return polling;
+  }
+
+  /**
+   * Poll the queues next in line, as far as the limit on outstanding polls
+   * allows.
+   */
+  private void pump() {
+    while (true) {
+      Watch watch;
+      synchronized (this) {
+        if (shutdown || polling >= maxPolls || ready.isEmpty())
+          return;
+        watch = ready.pollFirst();
+        polling++;
+      }
+      poll(watch);
+    }
+  }
+
+  private void poll(final Watch watch) {
+    DeleteMessages request = watch.queue.deleteMessages().withWait(wait).withDetail("all");
+    if (limit != null)
+      request = request.withLimit(limit);
+    request = request.withTimeout(wait * 1000 + POLL_GRACE, TimeUnit.MILLISECONDS);
+    CompletableFuture<List<Message>> poll;
+    try {
+      poll = backend.executeStage(request).toCompletableFuture();
+    } catch (RuntimeException e) {
+      poll = new CompletableFuture<List<Message>>();
+      poll.completeExceptionally(e);
+    }
+    boolean cancel;
+    synchronized (this) {
+      watch.poll = poll;
+      cancel = !watch.watched;
+    }
+    if (cancel)
+      poll.cancel(true);
+    poll.whenComplete(new BiConsumer<List<Message>, Throwable>() {
+      public void accept(List<Message> messages, Throwable failure) {
+        answered(watch, messages, failure);
+      }
+    });
+  }
+
+  /**
+   * Hand a poll's messages to its queue's handler, and put the queue back in
+   * line, after a backoff if the poll failed.
+   */
+  private void answered(final Watch watch, List<Message> messages, Throwable failure) {
+    if (failure instanceof CompletionException && failure.getCause() != null)
+      failure = failure.getCause();
+    if (messages != null) {
+      for (Message message : messages) {
+        try {
+          watch.handler.handle(message);
+        } catch (RuntimeException e) {
+          // The message has been taken from the queue, so the rest must still
+          // be handed over.
+          try {
+            failureHandler.failed(watch.queue, message, e);
+          } catch (RuntimeException ignored) {
+            // Nor may the failure handler stop them.
+          }
+        }
+      }
+    }
+    long delay = -1;
+    synchronized (this) {
+      watch.poll = null;
+      polling--;
+      // An empty queue is reported as not found, which is no failure.
+      if (failure == null || failure instanceof CommandException) {
+        watch.failures = 0;
+        if (watch.watched)
+          ready.addLast(watch);
+      } else if (watch.watched) {
+        long backoff = Math.min(maxDelay, baseDelay << Math.min(watch.failures, 30));
+        delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+        watch.failures++;
+      }
+    }
+    if (delay >= 0) {
+      executor.schedule(new Runnable() {
+        public void run() {
+          synchronized (PollMultiplexer.this) {
+            if (!watch.watched)
+              return;
+            ready.addLast(watch);
+          }
+          pump();
+        }
+      }, delay, TimeUnit.NANOSECONDS);
+    }
+    pump();
+  }
+}
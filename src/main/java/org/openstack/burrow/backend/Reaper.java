@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Reaper reclaims dead data, such as expired messages and empty queues, in the
+ * background so that requests do not have to. It periodically gives each
+ * registered Target a bounded slice of time in which to make progress on a
+ * sweep of its data. A sweep may span many slices.
+ */
+public class Reaper {
+  /** The period between runs used by the default Reaper, in milliseconds. */
+  public static final long DEFAULT_PERIOD = 1000;
+
+  /** The time each target may spend per run in the default Reaper, in milliseconds. */
+  public static final long DEFAULT_SLICE = 10;
+
+  private static Reaper defaultReaper = null;
+
+  private final ScheduledExecutorService executor;
+  private final boolean ownExecutor;
+  private final ScheduledFuture<?> task;
+  private final long sliceNanos;
+  private final CopyOnWriteArrayList<Registration> registrations;
+  private final AtomicLong reclaimed;
+  private final AtomicLong sweeps;
+
+  /**
+   * Something with dead data for a Reaper to reclaim.
+   */
+  public interface Target {
+    /**
+     * Continue the current sweep, picking up where the previous call left off,
+     * until it is complete or the slice is over. Implementations should check
+     * slice.isOver() often enough that they do not overrun it by much.
+     *
+     * @param slice The slice of time granted, to which any work done should be
+     *          reported.
+     * @return True if the sweep was completed, in which case the next call
+     *         begins a new sweep.
+     */
+    public boolean reap(Slice slice);
+  }
+
+  /**
+   * A bounded slice of time given to a Target.
+   */
+  public static class Slice {
+    private final long deadline;
+    private long reclaimed;
+
+    /**
+     * Construct a Slice ending at the given time.
+     *
+     * @param deadline The System.nanoTime() at which the slice ends.
+     */
+    public Slice(long deadline) {
+      this.deadline = deadline;
+      this.reclaimed = 0;
+    }
+
+    /**
+     * Test whether the slice is over.
+     *
+     * @return True if the target should stop and return.
+     */
+    public boolean isOver() {
+      return System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Record work done during the slice.
+     *
+     * @param count The number of items reclaimed.
+     */
+    public void reclaimed(long count) {
+      reclaimed += count;
+    }
+
+    /**
+     * Get the work done during the slice.
+     *
+     * @return The number of items reclaimed.
+     */
+    public long getReclaimed() {
+      return reclaimed;
+    }
+  }
+
+  /**
+   * A registered Target, with the time its current sweep began.
+   */
+  private static class Registration {
+    final Target target;
+    volatile long sweepStart;
+
+    Registration(Target target) {
+      this.target = target;
+      this.sweepStart = System.nanoTime();
+    }
+  }
+
+  /**
+   * Construct a Reaper with its own daemon thread, running every period and
+   * giving each target up to slice per run.
+   *
+   * @param period The time between the end of one run and the start of the
+   *          next.
+   * @param slice The time each target may spend per run.
+   * @param unit The unit of period and slice.
+   */
+  public Reaper(long period, long slice, TimeUnit unit) {
+    this(Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "burrow-reaper");
+        t.setDaemon(true);
+        return t;
+      }
+    }), true, period, slice, unit);
+  }
+
+  /**
+   * Construct a Reaper which runs on the given executor, every period and
+   * giving each target up to slice per run. The executor is not shut down by
+   * shutdown().
+   *
+   * @param executor The executor on which to run.
+   * @param period The time between the end of one run and the start of the
+   *          next.
+   * @param slice The time each target may spend per run.
+   * @param unit The unit of period and slice.
+   */
+  public Reaper(ScheduledExecutorService executor, long period, long slice, TimeUnit unit) {
+    this(executor, false, period, slice, unit);
+  }
+
+  private Reaper(ScheduledExecutorService executor, boolean ownExecutor, long period, long slice,
+      TimeUnit unit) {
+    if (executor == null)
+      throw new IllegalArgumentException("Executor may not be null.");
+    if (period <= 0 || slice <= 0)
+      throw new IllegalArgumentException("Period and slice must be positive.");
+    this.executor = executor;
+    this.ownExecutor = ownExecutor;
+    this.sliceNanos = unit.toNanos(slice);
+    this.registrations = new CopyOnWriteArrayList<Registration>();
+    this.reclaimed = new AtomicLong();
+    this.sweeps = new AtomicLong();
+    this.task = executor.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        runOnce();
+      }
+    }, period, period, unit);
+  }
+
+  /**
+   * Get the Reaper shared by backends which are not given one, creating it if
+   * necessary. It runs on the shared Scheduler every DEFAULT_PERIOD
+   * milliseconds.
+   *
+   * @return The default Reaper.
+   */
+  public static synchronized Reaper getDefault() {
+    if (defaultReaper == null)
+      defaultReaper =
+          new Reaper(Scheduler.getDefault(), DEFAULT_PERIOD, DEFAULT_SLICE, TimeUnit.MILLISECONDS);
+    return defaultReaper;
+  }
+
+  /**
+   * Add a target to be given a slice on every run.
+   *
+   * @param target The target to add.
+   */
+  public void register(Target target) {
+    if (target == null)
+      throw new IllegalArgumentException("Target may not be null.");
+    registrations.add(new Registration(target));
+  }
+
+  /**
+   * Remove a target. May be called by the target itself from within reap().
+   *
+   * @param target The target to remove.
+   */
+  public void unregister(Target target) {
+    for (Registration r : registrations) {
+      if (r.target == target) registrations.remove(r);
+    }
+  }
+
+  /**
+   * Give every target one slice. Called by the executor, but may also be called
+   * directly to force a run.
+   */
+  public synchronized void runOnce() {
+    for (Registration r : registrations) {
+      Slice slice = new Slice(System.nanoTime() + sliceNanos);
+      boolean swept;
+
+      try {
+        swept = r.target.reap(slice);
+      } catch (RuntimeException e) {
+        // A failing target must not stop the others, or future runs. Its lag
+        // keeps growing until it recovers.
+        swept = false;
+      }
+
+      reclaimed.addAndGet(slice.getReclaimed());
+      if (swept) {
+        sweeps.incrementAndGet();
+        r.sweepStart = System.nanoTime();
+      }
+    }
+  }
+
+  /**
+   * Get how far reclamation is behind. Anything which became dead more than
+   * this long ago has been reclaimed.
+   *
+   * @param unit The unit in which to express the lag.
+   * @return The time since the start of the oldest sweep still in progress.
+   */
+  public long getLag(TimeUnit unit) {
+    long now = System.nanoTime();
+    long lag = 0;
+
+    for (Registration r : registrations) {
+      lag = Math.max(lag, now - r.sweepStart);
+    }
+
+    return unit.convert(lag, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Get the total number of items reclaimed by all targets.
+   *
+   * @return The number of items reclaimed.
+   */
+  public long getReclaimed() {
+    return reclaimed.get();
+  }
+
+  /**
+   * Get the total number of sweeps completed by all targets.
+   *
+   * @return The number of sweeps completed.
+   */
+  public long getSweeps() {
+    return sweeps.get();
+  }
+
+  /**
+   * Stop running. The executor is shut down only if it was created by this
+   * Reaper.
+   */
+  public void shutdown() {
+    task.cancel(false);
+    registrations.clear();
+    if (ownExecutor) executor.shutdown();
+  }
+}
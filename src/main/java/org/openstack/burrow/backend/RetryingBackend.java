@@ -0,0 +1,609 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.CreateMessage;
+import org.openstack.burrow.client.methods.DeleteAccounts;
+import org.openstack.burrow.client.methods.DeleteMessage;
+import org.openstack.burrow.client.methods.DeleteMessages;
+import org.openstack.burrow.client.methods.DeleteQueues;
+import org.openstack.burrow.client.methods.GetAccounts;
+import org.openstack.burrow.client.methods.GetMessage;
+import org.openstack.burrow.client.methods.GetMessages;
+import org.openstack.burrow.client.methods.GetQueues;
+import org.openstack.burrow.client.methods.UpdateMessage;
+import org.openstack.burrow.client.methods.UpdateMessages;
+
+/**
+ * A RetryingBackend wraps an AsyncBackend and retries the idempotent requests,
+ * GetAccounts, GetQueues, GetMessage and GetMessages, when they fail for any
+ * reason other than a CommandException. Retries are spaced by exponential
+ * backoff with full jitter, so that clients which failed together do not
+ * retry together.
+ * <p>
+ * Optionally, it also hedges them: if a response has not arrived by the time
+ * 95% of recent responses to that type of request had, a duplicate is sent
+ * and whichever response arrives first is used. Requests which wait for
+ * messages to arrive are never hedged. Other requests are passed straight
+ * through.
+ */
+public class RetryingBackend implements AsyncBackend {
+  /** The number of retries made by default. */
+  public static final int DEFAULT_MAX_RETRIES = 3;
+
+  /** The backoff before the first retry by default, in milliseconds. */
+  public static final long DEFAULT_BASE_DELAY = 50;
+
+  /** The longest backoff by default, in milliseconds. */
+  public static final long DEFAULT_MAX_DELAY = 2000;
+
+  /** The number of responses timed before hedging begins. */
+  static final int MIN_SAMPLES = 20;
+
+  private final AsyncBackend backend;
+  private final int maxRetries;
+  private final long baseDelay;
+  private final long maxDelay;
+  private final boolean hedge;
+  private final ScheduledExecutorService executor;
+  private final InFlight inFlight = new InFlight();
+  private final Latency accountReads = new Latency();
+  private final Latency messageReads = new Latency();
+  private final Latency messageListReads = new Latency();
+  private final Latency queueReads = new Latency();
+
+  /**
+   * Construct a RetryingBackend which makes up to DEFAULT_MAX_RETRIES retries
+   * and does not hedge.
+   *
+   * @param backend The backend to wrap.
+   */
+  public RetryingBackend(AsyncBackend backend) {
+    this(backend, DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY,
+        TimeUnit.MILLISECONDS, false);
+  }
+
+  /**
+   * Construct a RetryingBackend which waits on the shared Scheduler.
+   *
+   * @param backend The backend to wrap.
+   * @param maxRetries The most retries made of any one request.
+   * @param baseDelay The backoff before the first retry, which doubles for
+   *          each further retry.
+   * @param maxDelay The longest backoff.
+   * @param unit The unit of baseDelay and maxDelay.
+   * @param hedge Whether to send a duplicate of slow requests.
+   */
+  public RetryingBackend(AsyncBackend backend, int maxRetries, long baseDelay, long maxDelay,
+      TimeUnit unit, boolean hedge) {
+    this(backend, maxRetries, baseDelay, maxDelay, unit, hedge, Scheduler.getDefault());
+  }
+
+  /**
+   * Construct a RetryingBackend which waits on the given executor.
+   *
+   * @param backend The backend to wrap.
+   * @param maxRetries The most retries made of any one request.
+   * @param baseDelay The backoff before the first retry, which doubles for
+   *          each further retry.
+   * @param maxDelay The longest backoff.
+   * @param unit The unit of baseDelay and maxDelay.
+   * @param hedge Whether to send a duplicate of slow requests.
+   * @param executor The executor on which to send retries and hedges.
+   */
+  public RetryingBackend(AsyncBackend backend, int maxRetries, long baseDelay, long maxDelay,
+      TimeUnit unit, boolean hedge, ScheduledExecutorService executor) {
+    if (backend == null || executor == null)
+      throw new IllegalArgumentException("Backend and executor may not be null.");
+    if (maxRetries < 0)
+      throw new IllegalArgumentException("Retries may not be negative.");
+    if (baseDelay <= 0 || maxDelay < baseDelay)
+      throw new IllegalArgumentException("Delays must be positive, and the base at most the max.");
+    this.backend = backend;
+    this.maxRetries = maxRetries;
+    this.baseDelay = unit.toNanos(baseDelay);
+    this.maxDelay = unit.toNanos(maxDelay);
+    this.hedge = hedge;
+    this.executor = executor;
+  }
+
+  /**
+   * The times taken by recent responses to one type of request.
+   */
+  static class Latency {
+    private final long[] samples = new long[128];
+    private int count = 0;
+    private int next = 0;
+
+    /**
+     * Record the time taken by a response.
+     *
+     * @param nanos The time from sending the request to the response.
+     */
+    synchronized void record(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % samples.length;
+      if (count < samples.length)
+        count++;
+    }
+
+    /**
+     * Get the time by which 95% of recent responses had arrived.
+     *
+     * @return The time in nanoseconds, or -1 if too few have been timed.
+     */
+    synchronized long getP95() {
+      if (count < MIN_SAMPLES)
+        return -1;
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      return sorted[(int) Math.ceil(0.95 * count) - 1];
+    }
+  }
+
+  /**
+   * Sends one copy of a request.
+   *
+   * @param <T> The type of the response.
+   */
+  private interface Send<T> {
+    CompletionStage<T> send();
+  }
+
+  /**
+   * An idempotent request, completed by the first of its attempts to succeed.
+   *
+   * @param <T> The type of the response.
+   */
+  private class Call<T> extends CompletableFuture<T> {
+    private final Send<T> send;
+    private final Latency latency;
+    private final List<CompletableFuture<T>> pending = new ArrayList<CompletableFuture<T>>();
+    private int retries = 0;
+
+    /**
+     * @param send Sends one copy of the request.
+     * @param latency The times of recent responses, or null if this request is
+     *          not to be timed or hedged.
+     */
+    Call(Send<T> send, Latency latency) {
+      this.send = send;
+      this.latency = latency;
+    }
+
+    /**
+     * Send a copy of the request, and schedule a hedge for it if that is
+     * wanted.
+     *
+     * @param mayHedge False if this copy is itself a hedge.
+     */
+    void attempt(boolean mayHedge) {
+      if (isDone())
+        return;
+      final long start = System.nanoTime();
+      final CompletableFuture<T> response;
+      try {
+        response = send.send().toCompletableFuture();
+      } catch (RuntimeException e) {
+        completeExceptionally(e);
+        return;
+      }
+      synchronized (this) {
+        pending.add(response);
+      }
+      response.whenComplete(new BiConsumer<T, Throwable>() {
+        public void accept(T result, Throwable t) {
+          synchronized (Call.this) {
+            pending.remove(response);
+          }
+          if (t != null) {
+            failed(t);
+          } else {
+            if (latency != null)
+              latency.record(System.nanoTime() - start);
+            if (complete(result))
+              cancelPending();
+          }
+        }
+      });
+
+      long delay = (hedge && mayHedge && latency != null) ? latency.getP95() : -1;
+      if (delay >= 0) {
+        executor.schedule(new Runnable() {
+          public void run() {
+            synchronized (Call.this) {
+              if (!pending.contains(response))
+                return;
+            }
+            attempt(false);
+          }
+        }, delay, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private void failed(Throwable t) {
+      if (t instanceof CompletionException && t.getCause() != null)
+        t = t.getCause();
+      if (isDone())
+        return;
+      if (t instanceof CommandException || t instanceof CancellationException) {
+        // Trying again would give the same answer.
+        completeExceptionally(t);
+        cancelPending();
+        return;
+      }
+      long delay;
+      synchronized (this) {
+        if (!pending.isEmpty()) {
+          // Another copy of the request may yet succeed.
+          return;
+        }
+        if (retries >= maxRetries) {
+          completeExceptionally(t);
+          return;
+        }
+        // Full jitter: anywhere from no wait up to the exponential backoff.
+        long backoff = Math.min(maxDelay, baseDelay << Math.min(retries, 30));
+        delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+        retries++;
+      }
+      executor.schedule(new Runnable() {
+        public void run() {
+          attempt(true);
+        }
+      }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void cancelPending() {
+      List<CompletableFuture<T>> cancelled;
+      synchronized (this) {
+        cancelled = new ArrayList<CompletableFuture<T>>(pending);
+      }
+      for (CompletableFuture<T> response : cancelled)
+        response.cancel(true);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled)
+        cancelPending();
+      return cancelled;
+    }
+
+    @Override
+    public boolean completeExceptionally(Throwable ex) {
+      // Also reached when the request's timeout runs out.
+      boolean completed = super.completeExceptionally(ex);
+      if (completed)
+        cancelPending();
+      return completed;
+    }
+  }
+
+  /**
+   * Make a call, whose request's timeout, if it has one, is a deadline for
+   * all of its attempts together, as well as for each on its own.
+   *
+   * @param send Sends one copy of the request.
+   * @param latency The times of recent responses, or null if this request is
+   *          not to be timed or hedged.
+   * @param timeout The request's timeout in milliseconds, or null.
+   * @return The call.
+   */
+  private <T> CompletableFuture<T> call(Send<T> send, Latency latency, Long timeout) {
+    Call<T> call = new Call<T>(send, latency);
+    try {
+      inFlight.track(call);
+      if (timeout != null)
+        Scheduler.orTimeout(call, timeout, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      call.completeExceptionally(e);
+      return call;
+    }
+    call.attempt(true);
+    return call;
+  }
+
+  /**
+   * Starts the wrapped backend.
+   */
+  @Override
+  public void start() {
+    backend.start();
+  }
+
+  /**
+   * Cancels every request, whether it is in flight or waiting to be retried,
+   * and shuts down the wrapped backend. The executor is left running, since
+   * it may be shared.
+   */
+  @Override
+  public void shutdown() {
+    inFlight.close();
+    inFlight.cancelAll();
+    backend.shutdown();
+  }
+
+  /**
+   * Rejects new requests and waits for those made to finish, retries and all,
+   * then cancels any which have not and shuts down the wrapped backend
+   * gracefully in whatever time is left.
+   *
+   * @param timeout The most time to wait for requests in flight.
+   * @param unit The unit of the timeout.
+   * @return True if every request in flight finished in time.
+   * @throws InterruptedException Thrown if interrupted while waiting.
+   */
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    boolean drained = inFlight.await(timeout, unit);
+    inFlight.cancelAll();
+    return backend.shutdown(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+        && drained;
+  }
+
+  /**
+   * Waits for a response, rethrowing the exception it failed with.
+   *
+   * @param future The future of the response.
+   * @return The response.
+   * @throws BurrowException Thrown if the request failed.
+   */
+  private static <T> T await(Future<T> future) throws BurrowException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof BurrowException)
+        throw (BurrowException) t;
+      if (t instanceof RuntimeException)
+        throw (RuntimeException) t;
+      throw new BurrowRuntimeException("ExecutionException executing request", e);
+    }
+  }
+
+  @Override
+  public Message execute(CreateMessage request) throws BurrowException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Account> execute(DeleteAccounts request) throws BurrowException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public Message execute(DeleteMessage request) throws BurrowException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Message> execute(DeleteMessages request) throws BurrowException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Queue> execute(DeleteQueues request) throws BurrowException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Account> execute(GetAccounts request) throws BurrowException {
+    return await(executeStage(request));
+  }
+
+  @Override
+  public Message execute(GetMessage request) throws BurrowException {
+    return await(executeStage(request));
+  }
+
+  @Override
+  public List<Message> execute(GetMessages request) throws BurrowException {
+    return await(executeStage(request));
+  }
+
+  @Override
+  public List<Queue> execute(GetQueues request) throws BurrowException {
+    return await(executeStage(request));
+  }
+
+  @Override
+  public Message execute(UpdateMessage request) throws BurrowException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Message> execute(UpdateMessages request) throws BurrowException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(CreateMessage request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Account>> executeAsync(DeleteAccounts request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(DeleteMessage request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Message>> executeAsync(DeleteMessages request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Queue>> executeAsync(DeleteQueues request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Account>> executeAsync(GetAccounts request) {
+    return executeStage(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(GetMessage request) {
+    return executeStage(request);
+  }
+
+  @Override
+  public Future<List<Message>> executeAsync(GetMessages request) {
+    return executeStage(request);
+  }
+
+  @Override
+  public Future<List<Queue>> executeAsync(GetQueues request) {
+    return executeStage(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(UpdateMessage request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Message>> executeAsync(UpdateMessages request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public CompletionStage<Message> executeStage(CreateMessage request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletionStage<List<Account>> executeStage(DeleteAccounts request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletionStage<Message> executeStage(DeleteMessage request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletionStage<List<Message>> executeStage(DeleteMessages request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletionStage<List<Queue>> executeStage(DeleteQueues request) {
+    return backend.executeStage(request);
+  }
+
+  /**
+   * Executes a GetAccounts request without blocking, retrying or hedging it as
+   * configured.
+   *
+   * @param request The request to execute.
+   * @return A CompletableFuture for the first response received.
+   */
+  @Override
+  public CompletableFuture<List<Account>> executeStage(final GetAccounts request) {
+    return call(new Send<List<Account>>() {
+      public CompletionStage<List<Account>> send() {
+        return backend.executeStage(request);
+      }
+    }, accountReads, request.getTimeout());
+  }
+
+  /**
+   * Executes a GetMessage request without blocking, retrying or hedging it as
+   * configured.
+   *
+   * @param request The request to execute.
+   * @return A CompletableFuture for the first response received.
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(final GetMessage request) {
+    return call(new Send<Message>() {
+      public CompletionStage<Message> send() {
+        return backend.executeStage(request);
+      }
+    }, request.getWait() == null ? messageReads : null, request.getTimeout());
+  }
+
+  /**
+   * Executes a GetMessages request without blocking, retrying or hedging it as
+   * configured.
+   *
+   * @param request The request to execute.
+   * @return A CompletableFuture for the first response received.
+   */
+  @Override
+  public CompletableFuture<List<Message>> executeStage(final GetMessages request) {
+    return call(new Send<List<Message>>() {
+      public CompletionStage<List<Message>> send() {
+        return backend.executeStage(request);
+      }
+    }, request.getWait() == null ? messageListReads : null, request.getTimeout());
+  }
+
+  /**
+   * Executes a GetQueues request without blocking, retrying or hedging it as
+   * configured.
+   *
+   * @param request The request to execute.
+   * @return A CompletableFuture for the first response received.
+   */
+  @Override
+  public CompletableFuture<List<Queue>> executeStage(final GetQueues request) {
+    return call(new Send<List<Queue>>() {
+      public CompletionStage<List<Queue>> send() {
+        return backend.executeStage(request);
+      }
+    }, queueReads, request.getTimeout());
+  }
+
+  @Override
+  public CompletionStage<Message> executeStage(UpdateMessage request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletionStage<List<Message>> executeStage(UpdateMessages request) {
+    return backend.executeStage(request);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Scheduler holds the one daemon thread on which components that were not
+ * given an executor of their own run their timed work: timeouts, retries and
+ * hedges, poll backoffs, endpoint probes and the default Reaper. Every task run
+ * on it must be short and must not block, since it holds up all the others.
+ */
+public final class Scheduler {
+  private static ScheduledExecutorService shared = null;
+
+  private Scheduler() {
+  }
+
+  /**
+   * Get the shared scheduler, creating it if necessary. Cancelled tasks are
+   * removed from it at once, so that timers which are usually cancelled, such
+   * as timeouts, do not pile up. It must not be shut down.
+   *
+   * @return The shared scheduler.
+   */
+  public static synchronized ScheduledExecutorService getDefault() {
+    if (shared == null) {
+      ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "burrow-scheduler");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      executor.setRemoveOnCancelPolicy(true);
+      shared = executor;
+    }
+    return shared;
+  }
+
+  /**
+   * Fail a future with a TimeoutException if it has not completed within a
+   * timeout, as CompletableFuture.orTimeout does from Java 9 on. The timer
+   * runs on the shared scheduler and is cancelled when the future completes.
+   *
+   * @param future The future to time.
+   * @param timeout The time it is given.
+   * @param unit The unit of the timeout.
+   * @return The future.
+   */
+  public static <T> CompletableFuture<T> orTimeout(final CompletableFuture<T> future,
+      long timeout, TimeUnit unit) {
+    if (future.isDone())
+      return future;
+    final ScheduledFuture<?> timer = getDefault().schedule(new Runnable() {
+      public void run() {
+        future.completeExceptionally(new TimeoutException());
+      }
+    }, timeout, unit);
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      public void accept(T result, Throwable failure) {
+        timer.cancel(false);
+      }
+    });
+    return future;
+  }
+}
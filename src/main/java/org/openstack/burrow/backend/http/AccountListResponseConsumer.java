@@ -17,7 +17,7 @@
 package org.openstack.burrow.backend.http;
 
 import java.io.IOException;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,12 +25,8 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.nio.IOControl;
-import org.apache.http.nio.client.methods.AsyncCharConsumer;
 import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.openstack.burrow.backend.BurrowRuntimeException;
 import org.openstack.burrow.backend.CommandException;
 import org.openstack.burrow.backend.HttpProtocolException;
 import org.openstack.burrow.backend.ProtocolException;
@@ -38,14 +34,16 @@ import org.openstack.burrow.client.Account;
 import org.openstack.burrow.client.methods.AccountListRequest;
 
 /**
- * AccountListResponseConsumer extends AsyncCharConsumer and helps with
- * processing the response asynchronously from the server. Has a StringBuilder,
- * an Exception, and a String denoting mimeType as fields.
+ * AccountListResponseConsumer extends DecodingByteConsumer and helps with
+ * processing the response asynchronously from the server. Each account is
+ * decoded by a JsonArrayDecoder as soon as its bytes have arrived, so the
+ * response is never buffered as text. Has a JsonArrayDecoder, the List being
+ * built, and an Exception as fields.
  */
-public class AccountListResponseConsumer extends AsyncCharConsumer<List<Account>> {
-  private StringBuilder accumulator = null;
+public class AccountListResponseConsumer extends DecodingByteConsumer<List<Account>> {
+  private JsonArrayDecoder decoder = null;
+  private List<Account> accounts = null;
   private Exception exception = null;
-  private String mimeType = null;
 
   /**
    * Constructor for AccountListResponseConsumer that takes an
@@ -69,61 +67,47 @@ public class AccountListResponseConsumer extends AsyncCharConsumer<List<Account>
   protected List<Account> buildResult() throws Exception {
     if (exception != null) {
       throw exception;
-    } else if (accumulator == null) {
+    } else if (decoder == null) {
       // It was not an error condition but we do not care about the response
       // body.
       return null;
-    } else if ("application/json".equals(mimeType)) {
-      try {
-        JSONArray accountsJson = new JSONArray(accumulator.toString());
-        List<Account> accounts = new ArrayList<Account>(accountsJson.length());
-        try {
-          // Assume the array is an array of objects.
-          for (int idx = 0; idx < accountsJson.length(); idx++) {
-            JSONObject accountJson = accountsJson.getJSONObject(idx);
-            Account account = new AccountResponse(accountJson);
-            accounts.add(idx, account);
-          }
-        } catch (JSONException e) {
-          // The array was not an array of objects. Try again assuming an array
-          // of strings.
-          for (int idx = 0; idx < accountsJson.length(); idx++) {
-            String accountId = accountsJson.getString(idx);
-            Account account = new AccountResponse(accountId);
-            accounts.add(idx, account);
-          }
-        }
-        return accounts;
-      } catch (JSONException e) {
-        throw new ProtocolException("Unable to parse server response", e);
-      }
-    } else {
-      throw new BurrowRuntimeException(
-          "Unhandled circumstance in AccountListResponseConsumer; mimeType=" + mimeType + ", acc="
-              + accumulator);
     }
+    try {
+      finishBody();
+      decoder.finish();
+    } catch (JSONException e) {
+      throw new ProtocolException("Unable to parse server response", e);
+    }
+    return accounts;
   }
 
   /**
-   * A function that helps with building the response
+   * Decodes the bytes received so far, adding each account they complete to
+   * the List. Once the response is found to be malformed, the rest of it is
+   * ignored.
    * 
-   * @param buf A CharBuffer that holds the response received so far
+   * @param buf A ByteBuffer that holds the bytes received
    * @param ioctrl An IOControl object
-   * @throws IOException Arises if an issue occurs with adding the received
-   *           character
+   * @throws IOException Arises if an issue occurs reading a account
    */
   @Override
-  protected void onCharReceived(CharBuffer buf, IOControl ioctrl) throws IOException {
-    if (accumulator != null)
-      accumulator.append(buf);
+  protected void onBodyReceived(ByteBuffer buf, IOControl ioctrl) throws IOException {
+    if (decoder == null)
+      return;
+    try {
+      decoder.decode(buf);
+    } catch (JSONException e) {
+      exception = new ProtocolException("Unable to parse server response", e);
+      decoder = null;
+    }
   }
 
   /**
-   * A helper function that clears the class's private StringBuilder field
+   * A helper function that clears the class's private JsonArrayDecoder field
    */
   @Override
   protected void onCleanup() {
-    this.accumulator = null;
+    this.decoder = null;
   }
 
   /**
@@ -139,16 +123,23 @@ public class AccountListResponseConsumer extends AsyncCharConsumer<List<Account>
     int statusCode = status.getStatusCode();
     switch (statusCode) {
       case HttpStatus.SC_OK:
-        mimeType = EntityUtils.getContentMimeType(response.getEntity());
+        String mimeType = EntityUtils.getContentMimeType(response.getEntity());
         if ("application/json".equals(mimeType)) {
-          accumulator = new StringBuilder();
+          accounts = new ArrayList<Account>();
+          decoder =
+              new JsonArrayDecoder(BaseHttp.charsetOf(response.getEntity()),
+                  new JsonArrayDecoder.Handler() {
+                    public void handle(JsonReader element) throws IOException, JSONException {
+                      accounts.add(new AccountResponse(BaseHttp.readId(element)));
+                    }
+                  });
         } else if (mimeType != null) {
           exception = new HttpProtocolException("Unhandled response mime type: " + mimeType);
         }
         return;
       case HttpStatus.SC_NO_CONTENT:
         // This is not an error condition, but we do not care about the body
-        // and thus do not set up the accumulator.
+        // and thus do not set up the decoder.
         return;
       case HttpStatus.SC_NOT_FOUND:
         // This is an error condition, and we do not care about the body.
@@ -16,22 +16,50 @@
 
 package org.openstack.burrow.backend.http;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.impl.conn.ConnectionShutdownException;
 import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
 import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.client.HttpAsyncRequestProducer;
+import org.apache.http.nio.client.HttpAsyncResponseConsumer;
 import org.apache.http.nio.client.methods.HttpAsyncDelete;
 import org.apache.http.nio.client.methods.HttpAsyncGet;
 import org.apache.http.nio.client.methods.HttpAsyncPost;
 import org.apache.http.nio.client.methods.HttpAsyncPut;
 import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.nio.reactor.IOReactorExceptionHandler;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.SyncBasicHttpParams;
+import org.apache.http.protocol.HTTP;
 import org.openstack.burrow.backend.AsyncBackend;
+import org.openstack.burrow.backend.BurrowException;
 import org.openstack.burrow.backend.BurrowRuntimeException;
 import org.openstack.burrow.backend.CommandException;
+import org.openstack.burrow.backend.MessageHandler;
 import org.openstack.burrow.backend.ProtocolException;
+import org.openstack.burrow.backend.Scheduler;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
 import org.openstack.burrow.client.Account;
 import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.Queue;
@@ -52,7 +80,15 @@ import org.openstack.burrow.client.methods.UpdateMessages;
  * to and receive responses from the server
  */
 public class AsyncHttp extends BaseHttp implements AsyncBackend {
+  /** The default number of I/O dispatch threads. */
+  public static final int DEFAULT_IO_THREADS = 2;
+
+  /** The default size of each connection's session buffers, in bytes. */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
   private HttpAsyncClient client;
+  private final ConcurrencyLimiter limiter;
+  private volatile boolean started = false;
 
   /**
    * Constructor for AsyncHttp that takes a host name and a port number as
@@ -60,14 +96,221 @@ public class AsyncHttp extends BaseHttp implements AsyncBackend {
    * 
    * @param host A host name as a String
    * @param port A port number as an int
-   * @throws IOReactorException Thrown if a issue in starting the
+   * @throws IOReactorException Thrown if a issue in creating the
    *           DefaultHttpAsyncClient
    */
   public AsyncHttp(String host, int port) throws IOReactorException {
-    super(host, port);
-    this.client = new DefaultHttpAsyncClient();
-    // TODO: Move this into a Backend.start() method
-    this.client.start();
+    this(host, port, new ConcurrencyLimiter());
+  }
+
+  /**
+   * Constructor for AsyncHttp that takes a host name, a port number and the
+   * ConcurrencyLimiter which bounds the requests in flight as arguments
+   * 
+   * @param host A host name as a String
+   * @param port A port number as an int
+   * @param limiter The ConcurrencyLimiter through which requests are sent
+   * @throws IOReactorException Thrown if a issue in creating the
+   *           DefaultHttpAsyncClient
+   */
+  public AsyncHttp(String host, int port, ConcurrencyLimiter limiter) throws IOReactorException {
+    this(new Endpoints(host, port), limiter);
+  }
+
+  /**
+   * Constructor for AsyncHttp that takes the servers to which to send requests
+   * as an argument. Each request is sent to whichever server the Endpoints
+   * choose.
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   * @throws IOReactorException Thrown if a issue in creating the
+   *           DefaultHttpAsyncClient
+   */
+  public AsyncHttp(Endpoints endpoints) throws IOReactorException {
+    this(endpoints, new ConcurrencyLimiter());
+  }
+
+  /**
+   * Constructor for AsyncHttp that takes the servers to which to send requests
+   * and the ConcurrencyLimiter which bounds the requests in flight as
+   * arguments
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   * @param limiter The ConcurrencyLimiter through which requests are sent
+   * @throws IOReactorException Thrown if a issue in creating the
+   *           DefaultHttpAsyncClient
+   */
+  public AsyncHttp(Endpoints endpoints, ConcurrencyLimiter limiter) throws IOReactorException {
+    this(endpoints, limiter, DEFAULT_IO_THREADS, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor for AsyncHttp that takes the servers to which to send
+   * requests, the ConcurrencyLimiter which bounds the requests in flight and
+   * the I/O reactor settings as arguments. Each dispatch thread serves its
+   * share of the connections, so a busy client wants about one per core. The
+   * client is started by start(), or by the first request.
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   * @param limiter The ConcurrencyLimiter through which requests are sent
+   * @param ioThreads The number of I/O dispatch threads
+   * @param bufferSize The size of each connection's session buffers, in bytes
+   * @throws IOReactorException Thrown if a issue in creating the I/O reactor
+   */
+  public AsyncHttp(Endpoints endpoints, ConcurrencyLimiter limiter, int ioThreads, int bufferSize)
+      throws IOReactorException {
+    super(endpoints);
+    if (limiter == null)
+      throw new IllegalArgumentException("Limiter may not be null.");
+    if (ioThreads <= 0)
+      throw new IllegalArgumentException("There must be at least one I/O thread.");
+    if (bufferSize <= 0)
+      throw new IllegalArgumentException("Buffer size must be positive.");
+    this.limiter = limiter;
+    HttpParams params = new SyncBasicHttpParams();
+    DefaultHttpAsyncClient.setDefaultHttpParams(params);
+    HttpConnectionParams.setSocketBufferSize(params, bufferSize);
+    DefaultConnectingIOReactor reactor = new DefaultConnectingIOReactor(ioThreads, params);
+    reactor.setExceptionHandler(new IOReactorExceptionHandler() {
+      public boolean handle(IOException ex) {
+        return false;
+      }
+
+      public boolean handle(RuntimeException ex) {
+        // An exchange aborted just as it was given its connection finds the
+        // connection shut down. Only that exchange is lost, not the reactor.
+        return ex instanceof ConnectionShutdownException;
+      }
+    });
+    DefaultHttpAsyncClient client =
+        new DefaultHttpAsyncClient(new PoolingClientConnectionManager(reactor), params);
+    client.addRequestInterceptor(new AcceptEncoding());
+    this.client = client;
+  }
+
+  /**
+   * Starts the I/O dispatch threads. Requests start the client if it has not
+   * been, so calling this is only needed to have the threads running before
+   * the first request.
+   * 
+   * @throws IllegalStateException Thrown if the backend has been shut down
+   */
+  @Override
+  public synchronized void start() {
+    if (inFlight.isClosed())
+      throw new IllegalStateException("Backend has been shut down.");
+    if (!started) {
+      client.start();
+      started = true;
+    }
+  }
+
+  /**
+   * Cancels every request in flight or waiting on the limiter, then stops the
+   * I/O dispatch threads, closing every connection, and stops probing the
+   * servers. Requests made afterwards fail with a RejectedExecutionException.
+   */
+  @Override
+  public void shutdown() {
+    inFlight.close();
+    inFlight.cancelAll();
+    stop();
+  }
+
+  /**
+   * Rejects new requests and waits for those in flight or waiting on the
+   * limiter to finish, then cancels any which have not and stops the client
+   * as shutdown() does.
+   * 
+   * @param timeout The most time to wait for requests in flight
+   * @param unit The unit of the timeout
+   * @return True if every request in flight finished in time
+   * @throws InterruptedException Thrown if interrupted while waiting
+   */
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    boolean drained = inFlight.await(timeout, unit);
+    shutdown();
+    return drained;
+  }
+
+  /**
+   * Stops the client, if it was started, and the Endpoints' prober
+   */
+  private synchronized void stop() {
+    try {
+      if (started)
+        client.shutdown();
+    } catch (InterruptedException e) {
+      // The reactor carries on shutting down without us.
+      Thread.currentThread().interrupt();
+    } finally {
+      started = false;
+      endpoints.shutdown();
+    }
+  }
+
+  /**
+   * An HttpAsyncPut whose body has been compressed by compressBody
+   */
+  private static class CompressedPut extends HttpAsyncPut {
+    private final String encoding;
+
+    CompressedPut(URI uri, byte[] body, String encoding) {
+      super(uri, body, "application/json; charset=UTF-8");
+      this.encoding = encoding;
+    }
+
+    @Override
+    protected HttpEntityEnclosingRequest createRequest(URI uri, HttpEntity entity) {
+      HttpEntityEnclosingRequest request = super.createRequest(uri, entity);
+      request.addHeader(HTTP.CONTENT_ENCODING, encoding);
+      return request;
+    }
+  }
+
+  /**
+   * Sends another producer's request to the chosen server instead of the one
+   * in its URI
+   */
+  private static class RoutedProducer implements HttpAsyncRequestProducer {
+    private final HttpAsyncRequestProducer producer;
+    private final HttpHost target;
+
+    RoutedProducer(HttpAsyncRequestProducer producer, HttpHost target) {
+      this.producer = producer;
+      this.target = target;
+    }
+
+    public HttpHost getTarget() {
+      return target;
+    }
+
+    public HttpRequest generateRequest() throws IOException, HttpException {
+      return producer.generateRequest();
+    }
+
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+      producer.produceContent(encoder, ioctrl);
+    }
+
+    public boolean isRepeatable() {
+      return producer.isRepeatable();
+    }
+
+    public void resetRequest() {
+      producer.resetRequest();
+    }
+  }
+
+  /**
+   * Gets the ConcurrencyLimiter which bounds the requests in flight, from which
+   * its current limit may be read
+   * 
+   * @return The ConcurrencyLimiter
+   */
+  public ConcurrencyLimiter getLimiter() {
+    return limiter;
   }
 
   /**
@@ -357,149 +600,488 @@ public class AsyncHttp extends BaseHttp implements AsyncBackend {
 
   /**
    * Executes a CreateMessage request by calling execute method of
-   * HttpAsyncClient
+   * HttpAsyncClient, completing the stage from its callback
    * 
    * @param request The CreateMessage request object to execute
-   * @return A Future<Message> object
+   * @return A CompletableFuture<Message> object
    */
   @Override
-  public Future<Message> executeAsync(CreateMessage request) {
+  public CompletableFuture<Message> executeStage(CreateMessage request) {
     URI uri = getUri(request);
+    String encoding = getCompression();
+    byte[] compressed = compressBody(request.getBody(), encoding);
     HttpAsyncPut httpRequest =
-        new HttpAsyncPut(uri, request.getBody(), "application/json", "UTF-8");
-    return client.execute(httpRequest, new SingleMessageResponseConsumer(request), null);
+        compressed == null ? new HttpAsyncPut(uri, request.getBody(), "application/json", "UTF-8")
+            : new CompressedPut(uri, compressed, encoding);
+    String account = request.getQueue().getAccount().getId();
+    return send(account, true, request.getTimeout(), httpRequest,
+        new SingleMessageResponseConsumer(request));
+  }
+
+  /**
+   * Executes a CreateMessage request through executeStage
+   * 
+   * @param request The CreateMessage request object to execute
+   * @return A Future<Message> object
+   */
+  @Override
+  public Future<Message> executeAsync(CreateMessage request) {
+    return executeStage(request);
   }
 
   /**
    * Executes a DeleteAccounts request by calling execute method of
-   * HttpAsyncClient
+   * HttpAsyncClient, completing the stage from its callback
+   * 
+   * @param request The DeleteAccounts request object to execute
+   * @return A CompletableFuture<List<Account>> object
+   */
+  @Override
+  public CompletableFuture<List<Account>> executeStage(DeleteAccounts request) {
+    URI uri = getUri(request);
+    HttpAsyncDelete httpRequest = new HttpAsyncDelete(uri);
+    return send(null, true, request.getTimeout(), httpRequest,
+        new AccountListResponseConsumer(request));
+  }
+
+  /**
+   * Executes a DeleteAccounts request through executeStage
    * 
    * @param request The DeleteAccounts request object to execute
    * @return A Future<List<Account>> object
    */
   @Override
   public Future<List<Account>> executeAsync(DeleteAccounts request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteMessage request by calling execute method of
+   * HttpAsyncClient, completing the stage from its callback
+   * 
+   * @param request The DeleteMessage request object to execute
+   * @return A CompletableFuture<Message> object
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(DeleteMessage request) {
     URI uri = getUri(request);
     HttpAsyncDelete httpRequest = new HttpAsyncDelete(uri);
-    return client.execute(httpRequest, new AccountListResponseConsumer(request), null);
+    String account = request.getQueue().getAccount().getId();
+    return send(account, true, request.getTimeout(), httpRequest,
+        new SingleMessageResponseConsumer(request));
   }
 
   /**
-   * Executes a DeleteMessage request by calling execute method of
-   * HttpAsyncClient
+   * Executes a DeleteMessage request through executeStage
    * 
    * @param request The DeleteMessage request object to execute
    * @return A Future<Message> object
    */
   @Override
   public Future<Message> executeAsync(DeleteMessage request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteMessages request by calling execute method of
+   * HttpAsyncClient, completing the stage from its callback
+   * 
+   * @param request The DeleteMessages request object to execute
+   * @return A CompletableFuture<List<Message>> object
+   */
+  @Override
+  public CompletableFuture<List<Message>> executeStage(DeleteMessages request) {
     URI uri = getUri(request);
     HttpAsyncDelete httpRequest = new HttpAsyncDelete(uri);
-    return client.execute(httpRequest, new SingleMessageResponseConsumer(request), null);
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return send(account, timed, request.getTimeout(), httpRequest,
+        new MessageListResponseConsumer(request));
   }
 
   /**
-   * Executes a DeleteMessages request by calling execute method of
-   * HttpAsyncClient
+   * Executes a DeleteMessages request through executeStage
    * 
    * @param request The DeleteMessages request object to execute
    * @return A Future<List<Message>> object
    */
   @Override
   public Future<List<Message>> executeAsync(DeleteMessages request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteQueues by calling execute method of HttpAsyncClient,
+   * completing the stage from its callback
+   * 
+   * @param request The DeleteQueues request object to execute
+   * @return A CompletableFuture<List<Queue>> object
+   */
+  @Override
+  public CompletableFuture<List<Queue>> executeStage(DeleteQueues request) {
     URI uri = getUri(request);
     HttpAsyncDelete httpRequest = new HttpAsyncDelete(uri);
-    return client.execute(httpRequest, new MessageListResponseConsumer(request), null);
+    String account = request.getAccount().getId();
+    return send(account, true, request.getTimeout(), httpRequest,
+        new QueueListResponseConsumer(request));
   }
 
   /**
-   * Executes a DeleteQueues by calling execute method of HttpAsyncClient
+   * Executes a DeleteQueues through executeStage
    * 
    * @param request The DeleteQueues request object to execute
    * @return A Future<List<Queue>> object
    */
   @Override
   public Future<List<Queue>> executeAsync(DeleteQueues request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetAccounts by calling execute method of HttpAsyncClient,
+   * completing the stage from its callback
+   * 
+   * @param request The GetAccounts request object to execute
+   * @return A CompletableFuture<List<Account>> object
+   */
+  @Override
+  public CompletableFuture<List<Account>> executeStage(GetAccounts request) {
     URI uri = getUri(request);
-    HttpAsyncDelete httpRequest = new HttpAsyncDelete(uri);
-    return client.execute(httpRequest, new QueueListResponseConsumer(request), null);
+    HttpAsyncGet httpRequest = new HttpAsyncGet(uri);
+    return send(null, true, request.getTimeout(), httpRequest,
+        new AccountListResponseConsumer(request));
   }
 
   /**
-   * Executes a GetAccounts by calling execute method of HttpAsyncClient
+   * Executes a GetAccounts through executeStage
    * 
    * @param request The GetAccounts request object to execute
    * @return A Future<List<Account>> object
    */
   @Override
   public Future<List<Account>> executeAsync(GetAccounts request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetMessage by calling execute method of HttpAsyncClient,
+   * completing the stage from its callback
+   * 
+   * @param request The GetMessage request object to execute
+   * @return A CompletableFuture<Message> object
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(GetMessage request) {
     URI uri = getUri(request);
     HttpAsyncGet httpRequest = new HttpAsyncGet(uri);
-    return client.execute(httpRequest, new AccountListResponseConsumer(request), null);
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return send(account, timed, request.getTimeout(), httpRequest,
+        new SingleMessageResponseConsumer(request));
   }
 
   /**
-   * Executes a GetMessage by calling execute method of HttpAsyncClient
+   * Executes a GetMessage through executeStage
    * 
    * @param request The GetMessage request object to execute
    * @return A Future<Message> object
    */
   @Override
   public Future<Message> executeAsync(GetMessage request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetMessages by calling execute method of HttpAsyncClient,
+   * completing the stage from its callback
+   * 
+   * @param request The GetMessages request object to execute
+   * @return A CompletableFuture<List<Message>> object
+   */
+  @Override
+  public CompletableFuture<List<Message>> executeStage(GetMessages request) {
     URI uri = getUri(request);
     HttpAsyncGet httpRequest = new HttpAsyncGet(uri);
-    return client.execute(httpRequest, new SingleMessageResponseConsumer(request), null);
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return send(account, timed, request.getTimeout(), httpRequest,
+        new MessageListResponseConsumer(request));
   }
 
   /**
-   * Executes a GetMessages by calling execute method of HttpAsyncClient
+   * Executes a GetMessages through executeStage
    * 
    * @param request The GetMessages request object to execute
    * @return A Future<List<Message>> object
    */
   @Override
   public Future<List<Message>> executeAsync(GetMessages request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetQueues by calling execute method of HttpAsyncClient,
+   * completing the stage from its callback
+   * 
+   * @param request The GetQueues request object to execute
+   * @return A CompletableFuture<List<Queue>> object
+   */
+  @Override
+  public CompletableFuture<List<Queue>> executeStage(GetQueues request) {
     URI uri = getUri(request);
     HttpAsyncGet httpRequest = new HttpAsyncGet(uri);
-    return client.execute(httpRequest, new MessageListResponseConsumer(request), null);
+    String account = request.getAccount().getId();
+    return send(account, true, request.getTimeout(), httpRequest,
+        new QueueListResponseConsumer(request));
   }
 
   /**
-   * Executes a GetQueues by calling execute method of HttpAsyncClient
+   * Executes a GetQueues through executeStage
    * 
    * @param request The GetQueues request object to execute
    * @return A Future<List<Queue>> object
    */
   @Override
   public Future<List<Queue>> executeAsync(GetQueues request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes an UpdateMessage by calling execute method of HttpAsyncClient,
+   * completing the stage from its callback
+   * 
+   * @param request The UpdateMessage request object to execute
+   * @return A CompletableFuture<Message> object
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(UpdateMessage request) {
     URI uri = getUri(request);
-    HttpAsyncGet httpRequest = new HttpAsyncGet(uri);
-    return client.execute(httpRequest, new QueueListResponseConsumer(request), null);
+    HttpAsyncPost httpRequest = new HttpAsyncPost(uri, "");
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return send(account, timed, request.getTimeout(), httpRequest,
+        new SingleMessageResponseConsumer(request));
   }
 
   /**
-   * Executes an UpdateMessage by calling execute method of HttpAsyncClient
+   * Executes an UpdateMessage through executeStage
    * 
    * @param request The UpdateMessage request object to execute
    * @return A Future<Message> object
    */
   @Override
   public Future<Message> executeAsync(UpdateMessage request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes an UpdateMessages by calling execute method of HttpAsyncClient,
+   * completing the stage from its callback
+   * 
+   * @param request The UpdateMessages request object to execute
+   * @return A CompletableFuture<List<Message>> object
+   */
+  @Override
+  public CompletableFuture<List<Message>> executeStage(UpdateMessages request) {
     URI uri = getUri(request);
     HttpAsyncPost httpRequest = new HttpAsyncPost(uri, "");
-    return client.execute(httpRequest, new SingleMessageResponseConsumer(request), null);
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return send(account, timed, request.getTimeout(), httpRequest,
+        new MessageListResponseConsumer(request));
   }
 
   /**
-   * Executes an UpdateMessages by calling execute method of HttpAsyncClient
+   * Executes an UpdateMessages through executeStage
    * 
    * @param request The UpdateMessages request object to execute
    * @return A Future<List<Message>> object
    */
   @Override
   public Future<List<Message>> executeAsync(UpdateMessages request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteMessages request, passing each Message to a MessageHandler as
+   * soon as it is decoded instead of building a List. The handler is called on
+   * the I/O reactor thread, so it should hand any lengthy work elsewhere.
+   * 
+   * @param request The DeleteMessages request object to execute
+   * @param handler The MessageHandler to which to pass each Message
+   * @return A CompletableFuture<Void> completed once every Message has been
+   *         handled, or completed exceptionally if the request or the handler
+   *         failed
+   */
+  public CompletableFuture<Void> executeStage(DeleteMessages request, MessageHandler handler) {
+    if (handler == null)
+      throw new IllegalArgumentException("Handler may not be null.");
+    URI uri = getUri(request);
+    HttpAsyncDelete httpRequest = new HttpAsyncDelete(uri);
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return stream(account, timed, request.getTimeout(), httpRequest,
+        new MessageListResponseConsumer(request, handler));
+  }
+
+  /**
+   * Executes a GetMessages request, passing each Message to a MessageHandler as
+   * soon as it is decoded instead of building a List. The handler is called on
+   * the I/O reactor thread, so it should hand any lengthy work elsewhere.
+   * 
+   * @param request The GetMessages request object to execute
+   * @param handler The MessageHandler to which to pass each Message
+   * @return A CompletableFuture<Void> completed once every Message has been
+   *         handled, or completed exceptionally if the request or the handler
+   *         failed
+   */
+  public CompletableFuture<Void> executeStage(GetMessages request, MessageHandler handler) {
+    if (handler == null)
+      throw new IllegalArgumentException("Handler may not be null.");
+    URI uri = getUri(request);
+    HttpAsyncGet httpRequest = new HttpAsyncGet(uri);
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return stream(account, timed, request.getTimeout(), httpRequest,
+        new MessageListResponseConsumer(request, handler));
+  }
+
+  /**
+   * Executes a UpdateMessages request, passing each Message to a MessageHandler as
+   * soon as it is decoded instead of building a List. The handler is called on
+   * the I/O reactor thread, so it should hand any lengthy work elsewhere.
+   * 
+   * @param request The UpdateMessages request object to execute
+   * @param handler The MessageHandler to which to pass each Message
+   * @return A CompletableFuture<Void> completed once every Message has been
+   *         handled, or completed exceptionally if the request or the handler
+   *         failed
+   */
+  public CompletableFuture<Void> executeStage(UpdateMessages request, MessageHandler handler) {
+    if (handler == null)
+      throw new IllegalArgumentException("Handler may not be null.");
     URI uri = getUri(request);
     HttpAsyncPost httpRequest = new HttpAsyncPost(uri, "");
-    return client.execute(httpRequest, new MessageListResponseConsumer(request), null);
+    String account = request.getQueue().getAccount().getId();
+    // Long polls take as long as they take, whatever the load.
+    boolean timed = request.getWait() == null;
+    return stream(account, timed, request.getTimeout(), httpRequest,
+        new MessageListResponseConsumer(request, handler));
+  }
+
+  /**
+   * Executes a request whose messages are streamed to a MessageHandler by the
+   * given consumer. Cancelling the returned stage cancels the exchange.
+   * 
+   * @param account The account the request is for
+   * @param timed Whether the round trip reflects the server's load
+   * @param timeout The time within which the exchange must finish, in
+   *          milliseconds, or null
+   * @param httpRequest The request to send
+   * @param consumer The consumer which passes each Message to the handler
+   * @return A CompletableFuture<Void> completed when the exchange is
+   */
+  private CompletableFuture<Void> stream(String account, boolean timed, Long timeout,
+      HttpAsyncRequestProducer httpRequest, MessageListResponseConsumer consumer) {
+    final HttpStage<List<Message>> exchange =
+        send(account, timed, timeout, httpRequest, consumer);
+    final CompletableFuture<Void> done = new CompletableFuture<Void>() {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        exchange.cancel(mayInterruptIfRunning);
+        return super.cancel(mayInterruptIfRunning);
+      }
+    };
+    exchange.whenComplete(new BiConsumer<List<Message>, Throwable>() {
+      public void accept(List<Message> ignored, Throwable failure) {
+        if (failure == null)
+          done.complete(null);
+        else
+          done.completeExceptionally(failure);
+      }
+    });
+    return done;
+  }
+
+  /**
+   * Sends a request to the server the Endpoints choose once the limiter
+   * allows, completing the returned stage from the HttpAsyncClient's callback.
+   * If the limiter's queue is full, or the backend has been shut down, the
+   * stage fails with a RejectedExecutionException; if the timeout runs out
+   * first, whether waiting for a permit, a connection or the response, it
+   * fails with a TimeoutException and the exchange is aborted.
+   * 
+   * @param account The account the request is for, or null
+   * @param timed Whether the round trip reflects the server's load, which it
+   *          does not for long polls
+   * @param timeout The time within which the exchange must finish, in
+   *          milliseconds, or null
+   * @param httpRequest The request to send
+   * @param consumer The consumer of the response
+   * @return An HttpStage completed when the exchange is
+   */
+  private <T> HttpStage<T> send(final String account, final boolean timed, Long timeout,
+      final HttpAsyncRequestProducer httpRequest, final HttpAsyncResponseConsumer<T> consumer) {
+    final HttpStage<T> stage = new HttpStage<T>();
+    try {
+      inFlight.track(stage);
+      if (timeout != null)
+        Scheduler.orTimeout(stage, timeout, TimeUnit.MILLISECONDS);
+      if (!started)
+        start();
+      final Runnable abandon = limiter.acquire(account, new Runnable() {
+        public void run() {
+          if (stage.isDone()) {
+            // Cancelled while waiting for a permit.
+            limiter.release(account, System.nanoTime(), -1, false);
+            return;
+          }
+          final Endpoint endpoint = endpoints.choose();
+          final long sent = System.nanoTime();
+          stage.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T result, Throwable failure) {
+              // A request cancelled, or timed out by its own deadline, was
+              // given up by the caller, which says nothing about the server.
+              boolean abandoned =
+                  failure instanceof CancellationException || failure instanceof TimeoutException;
+              boolean dropped =
+                  failure != null && !(failure instanceof CommandException) && !abandoned;
+              limiter.release(account, sent, timed && failure == null ? System.nanoTime() - sent
+                  : -1, dropped);
+              // Any BurrowException means the server answered, if unhelpfully.
+              if (failure == null || failure instanceof BurrowException)
+                endpoint.succeeded();
+              else if (!abandoned)
+                endpoint.failed();
+              endpoint.release();
+            }
+          });
+          HttpAsyncRequestProducer routed = new RoutedProducer(httpRequest, endpoint.getHost());
+          stage.attach(client.execute(routed, consumer, stage.getContext(), stage));
+        }
+      });
+      if (abandon != null) {
+        // Give up the place in the limiter's queue if cancelled or timed out
+        // while waiting.
+        stage.whenComplete(new BiConsumer<T, Throwable>() {
+          public void accept(T result, Throwable failure) {
+            abandon.run();
+          }
+        });
+      }
+    } catch (RejectedExecutionException e) {
+      stage.completeExceptionally(e);
+    } catch (IllegalStateException e) {
+      // Shut down between being tracked and starting the client.
+      stage.completeExceptionally(new RejectedExecutionException(e.getMessage()));
+    }
+    return stage;
   }
 }
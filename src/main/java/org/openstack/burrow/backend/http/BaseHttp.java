@@ -17,6 +17,8 @@
 package org.openstack.burrow.backend.http;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
@@ -26,10 +28,12 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.openstack.burrow.backend.*;
@@ -38,12 +42,19 @@ import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.Queue;
 import org.openstack.burrow.client.methods.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.apache.http.HttpStatus.*;
 
@@ -52,10 +63,27 @@ import static org.apache.http.HttpStatus.*;
  * and create http requests as well as process an http response,
  */
 abstract class BaseHttp {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
 
   /**
-   * Processes an HttpResponse. First gets all necessary information from the
-   * response's JSONObject and then builds the List of Accounts
+   * The gzip content coding, for use with setCompression
+   */
+  public static final String GZIP = "gzip";
+
+  /**
+   * The deflate content coding, for use with setCompression
+   */
+  public static final String DEFLATE = "deflate";
+
+  /**
+   * The smallest message body, in bytes, compressed by default. Smaller bodies
+   * gain too little to be worth the work.
+   */
+  public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+  /**
+   * Processes an HttpResponse. Decodes the List of Accounts from the
+   * response's JSON as the entity is read, without buffering the body
    * 
    * @param response An HttpResponse from the server that should contain
    *          requested Accounts
@@ -75,41 +103,24 @@ abstract class BaseHttp {
     switch (status.getStatusCode()) {
       case SC_OK:
         if (mimeType.equals("application/json")) {
+          JsonReader reader = null;
           try {
-            String body = EntityUtils.toString(entity);
-            JSONArray arrayJson = new JSONArray(body);
-            List<Account> accounts = new ArrayList<Account>(arrayJson.length());
-            try {
-              // Assume the response is an array of JSON Objects.
-              for (int idx = 0; idx < arrayJson.length(); idx++) {
-                JSONObject accountJson = arrayJson.getJSONObject(idx);
-                Account account = new AccountResponse(accountJson);
-                accounts.add(idx, account);
-              }
-            } catch (JSONException e) {
-              // The response was not an array of JSON Objects. Try again,
-              // assuming it was an array of strings.
-              for (int idx = 0; idx < arrayJson.length(); idx++) {
-                String accountId = arrayJson.getString(idx);
-                Account account = new AccountResponse(accountId);
-                accounts.add(idx, account);
-              }
-            }
+            reader = newJsonReader(entity);
+            List<Account> accounts = new ArrayList<Account>();
+            // The response is an array of either JSON Objects or strings.
+            reader.beginArray();
+            while (reader.hasNext())
+              accounts.add(new AccountResponse(readId(reader)));
+            reader.endArray();
             return accounts;
           } catch (IOException e) {
-            try {
-              // Consume the entity to release HttpClient resources.
-              EntityUtils.consume(entity);
-            } catch (IOException e1) {
-              // If we ever stop throwing an exception in the outside block,
-              // this needs to be handled.
-            }
             throw new HttpProtocolException("IOException reading http response");
           } catch (JSONException e) {
-            // It is not necessary to consume the entity because at the
-            // first point where this exception can be thrown,
-            // the entity has already been consumed by toString();
             throw new HttpProtocolException("JSONException reading response");
+          } finally {
+            // Closing the reader consumes the rest of the entity to release
+            // HttpClient resources.
+            closeQuietly(reader);
           }
         } else {
           // This situation cannot be handled.
@@ -145,8 +156,8 @@ abstract class BaseHttp {
   }
 
   /**
-   * Processes an HttpResponse. First gets all necessary information from the
-   * response's JSONObject and then builds the List of Messages requested
+   * Processes an HttpResponse. Decodes the List of Messages requested from the
+   * response's JSON as the entity is read, without buffering the body
    * 
    * @param response An HttpResponse from the server that should contain
    *          requested Messages
@@ -158,40 +169,55 @@ abstract class BaseHttp {
    */
   static List<Message> handleMultipleMessageHttpResponse(HttpResponse response)
           throws HttpProtocolException, CommandException {
+    final List<Message> messages = new ArrayList<Message>();
+    boolean listed = handleMultipleMessageHttpResponse(response, new MessageHandler() {
+      public void handle(Message message) {
+        messages.add(message);
+      }
+    });
+    return listed ? messages : null;
+  }
+
+  /**
+   * Processes an HttpResponse. Decodes the Messages requested from the
+   * response's JSON as the entity is read, passing each to a MessageHandler as
+   * soon as it is decoded
+   * 
+   * @param response An HttpResponse from the server that should contain
+   *          requested Messages
+   * @param handler The MessageHandler to which to pass each Message
+   * @return False if the response had no body listing the Messages
+   * @throws HttpProtocolException Thrown if an issue with processes
+   *           HttpResponse occurs
+   * @throws MessageNotFoundException Thrown if the requested Messages were not
+   *           found
+   */
+  static boolean handleMultipleMessageHttpResponse(HttpResponse response, MessageHandler handler)
+          throws HttpProtocolException, CommandException {
     StatusLine status = response.getStatusLine();
     HttpEntity entity = response.getEntity();
     if (entity == null)
-      return null; // Is this actually the right thing to do?
+      return false; // Is this actually the right thing to do?
     String mimeType = EntityUtils.getContentMimeType(entity);
     switch (status.getStatusCode()) {
       case SC_OK:
         if (mimeType.equals("application/json")) {
+          JsonReader reader = null;
           try {
-            String body = EntityUtils.toString(entity);
-            JSONArray arrayJson = new JSONArray(body);
-            List<Message> messages = new ArrayList<Message>(arrayJson.length());
-            for (int idx = 0; idx < arrayJson.length(); idx++) {
-              JSONObject messageJson = arrayJson.getJSONObject(idx);
-              Message message = new MessageResponse(messageJson);
-              messages.add(idx, message);
-            }
-            EntityUtils.consume(entity);
-            return messages;
+            reader = newJsonReader(entity);
+            reader.beginArray();
+            while (reader.hasNext())
+              handler.handle(new MessageResponse(reader));
+            reader.endArray();
+            return true;
           } catch (IOException e) {
-            try {
-              // Consume the entity to release HttpClient resources.
-              EntityUtils.consume(entity);
-
-            } catch (IOException e1) {
-              // If we ever stop throwing an exception in the outside block,
-              // this needs to be handled.
-            }
             throw new HttpProtocolException("IOException reading http response");
           } catch (JSONException e) {
-            // It is not necessary to consume the entity because at the
-            // first point where this exception can be thrown,
-            // the entity has already been consumed by toString();
             throw new HttpProtocolException("JSONException reading response");
+          } finally {
+            // Closing the reader consumes the rest of the entity to release
+            // HttpClient resources.
+            closeQuietly(reader);
           }
         } else {
           // This situation cannot be handled.
@@ -212,7 +238,7 @@ abstract class BaseHttp {
         } catch (IOException e) {
           throw new HttpProtocolException("Failed to consume HttpEntity");
         }
-        return null;
+        return false;
       case SC_NOT_FOUND:
         try {
           EntityUtils.consume(entity);
@@ -235,8 +261,8 @@ abstract class BaseHttp {
   }
 
   /**
-   * Processes an HttpResponse. First gets all necessary information from the
-   * response's JSONObject and then builds the List of Queues
+   * Processes an HttpResponse. Decodes the List of Queues from the
+   * response's JSON as the entity is read, without buffering the body
    * 
    * @param response An HttpResponse from the server that should contain
    *          requested Queues
@@ -255,43 +281,24 @@ abstract class BaseHttp {
     switch (status.getStatusCode()) {
       case SC_OK:
         if (mimeType.equals("application/json")) {
+          JsonReader reader = null;
           try {
-            String body = EntityUtils.toString(entity);
-            JSONArray arrayJson = new JSONArray(body);
-            List<Queue> queues = new ArrayList<Queue>(arrayJson.length());
-            try {
-              // Assume the response is an array of JSON Objects.
-              for (int idx = 0; idx < arrayJson.length(); idx++) {
-                JSONObject queueJson = arrayJson.getJSONObject(idx);
-                Queue queue = new QueueResponse(account, queueJson);
-                queues.add(idx, queue);
-              }
-            } catch (JSONException e) {
-              // The response was not an array of JSON Objects. Try again,
-              // assuming it was an array of strings.
-              for (int idx = 0; idx < arrayJson.length(); idx++) {
-                String queueId = arrayJson.getString(idx);
-                Queue queue = new QueueResponse(account, queueId);
-                queues.add(idx, queue);
-              }
-            }
+            reader = newJsonReader(entity);
+            List<Queue> queues = new ArrayList<Queue>();
+            // The response is an array of either JSON Objects or strings.
+            reader.beginArray();
+            while (reader.hasNext())
+              queues.add(new QueueResponse(account, readId(reader)));
+            reader.endArray();
             return queues;
           } catch (IOException e) {
-            try {
-              // Consume the entity to release HttpClient resources.
-              EntityUtils.consume(entity);
-            } catch (IOException e1) {
-              // If we ever stop throwing an exception in the outside block,
-              // this needs to be handled.
-            }
-            e.printStackTrace();
             throw new HttpProtocolException("IOException reading http response");
           } catch (JSONException e) {
-            // It is not necessary to consume the entity because at the
-            // first point where this exception can be thrown,
-            // the entity has already been consumed by toString();
-            e.printStackTrace();
             throw new HttpProtocolException("JSONException reading response");
+          } finally {
+            // Closing the reader consumes the rest of the entity to release
+            // HttpClient resources.
+            closeQuietly(reader);
           }
         } else {
           // This situation cannot be handled.
@@ -414,9 +421,84 @@ abstract class BaseHttp {
     }
   }
 
+  /**
+   * Creates a JsonReader over an HttpEntity's content, decoded with the
+   * entity's charset, or UTF-8 if it has none
+   * 
+   * @param entity The HttpEntity to read
+   * @return A JsonReader positioned at the start of the entity
+   * @throws IOException Thrown if the entity's content cannot be opened
+   */
+  static JsonReader newJsonReader(HttpEntity entity) throws IOException {
+    return new JsonReader(new InputStreamReader(entity.getContent(), charsetOf(entity)));
+  }
+
+  /**
+   * Gets the charset in which an HttpEntity is encoded, defaulting to UTF-8 as
+   * JSON does
+   * 
+   * @param entity The HttpEntity, which may be null
+   * @return The entity's charset
+   */
+  static Charset charsetOf(HttpEntity entity) {
+    String charset = entity == null ? null : EntityUtils.getContentCharSet(entity);
+    try {
+      if (charset != null)
+        return Charset.forName(charset);
+    } catch (IllegalArgumentException e) {
+      // The server named a charset unknown here; JSON ought to be UTF-8.
+    }
+    return UTF_8;
+  }
+
+  /**
+   * Reads the id of an account or queue, which the server sends either as a
+   * JSON Object with an id member or as a bare string
+   * 
+   * @param reader A JsonReader positioned at the account or queue
+   * @return The id
+   * @throws IOException Thrown if the response cannot be read
+   * @throws JSONException Thrown if the value has no id
+   */
+  static String readId(JsonReader reader) throws IOException, JSONException {
+    if (reader.peek() != JsonReader.Token.BEGIN_OBJECT)
+      return reader.nextString();
+    String id = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("id".equals(reader.nextName()))
+        id = reader.nextString();
+      else
+        reader.skipValue();
+    }
+    reader.endObject();
+    if (id == null)
+      throw new JSONException("JSONObject[\"id\"] not found.");
+    return id;
+  }
+
+  /**
+   * Closes a Reader or stream, ignoring any failure
+   * 
+   * @param closeable The object to close, or null
+   */
+  static void closeQuietly(Closeable closeable) {
+    if (closeable == null)
+      return;
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // The response has already been handled; there is nothing left to do.
+    }
+  }
+
+  protected final Endpoints endpoints;
+  protected final InFlight inFlight = new InFlight();
   protected String host;
   protected int port;
   protected String scheme = "http";
+  private volatile String compression = null;
+  private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
 
   /**
    * Constructor for BaseHttp that takes a host name and port number as
@@ -426,12 +508,135 @@ abstract class BaseHttp {
    * @param port A port number as an int
    */
   protected BaseHttp(String host, int port) {
-    this.host = host;
-    this.port = port;
+    this(new Endpoints(host, port));
+  }
+
+  /**
+   * Constructor for BaseHttp that takes the servers to which to send requests
+   * as an argument. Request URIs are built with the first server's address,
+   * and each request is sent to the server the Endpoints choose for it.
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   */
+  protected BaseHttp(Endpoints endpoints) {
+    if (endpoints == null)
+      throw new IllegalArgumentException("Endpoints may not be null.");
+    this.endpoints = endpoints;
+    this.host = endpoints.getPrimary().getHostName();
+    this.port = endpoints.getPrimary().getPort();
+    this.scheme = endpoints.getPrimary().getSchemeName();
+  }
+
+  /**
+   * Gets the servers to which requests are sent, with their health and load
+   * 
+   * @return The Endpoints
+   */
+  public Endpoints getEndpoints() {
+    return endpoints;
+  }
+
+  /**
+   * Chooses the server to which to send a synchronous request, counting the
+   * request in flight until the server is released
+   * 
+   * @return The server, as chosen by the Endpoints
+   * @throws RejectedExecutionException Thrown if the backend has been shut
+   *           down
+   */
+  protected Endpoints.Endpoint choose() {
+    inFlight.enter();
+    return endpoints.choose();
+  }
+
+  /**
+   * Releases a server chosen by choose(), once the request is finished with it
+   * 
+   * @param endpoint The server
+   */
+  protected void release(Endpoints.Endpoint endpoint) {
+    endpoint.release();
+    inFlight.exit();
+  }
+
+  /**
+   * Turns on compression with the default threshold. See setCompression(String,
+   * int).
+   * 
+   * @param encoding GZIP or DEFLATE, or null to turn compression off
+   */
+  public void setCompression(String encoding) {
+    setCompression(encoding, DEFAULT_COMPRESSION_THRESHOLD);
+  }
+
+  /**
+   * Turns on compression, which is off by default. Message bodies of at least
+   * threshold bytes are sent with the given Content-Encoding, and the server
+   * is told that compressed responses are accepted. Compressed responses are
+   * always decoded, whether or not compression is on.
+   * 
+   * @param encoding GZIP or DEFLATE, or null to turn compression off
+   * @param threshold The smallest message body, in bytes, to compress
+   */
+  public void setCompression(String encoding, int threshold) {
+    if (encoding != null && !GZIP.equals(encoding) && !DEFLATE.equals(encoding))
+      throw new IllegalArgumentException("Unsupported content encoding: " + encoding);
+    if (threshold < 0)
+      throw new IllegalArgumentException("Compression threshold must not be negative.");
+    this.compressionThreshold = threshold;
+    this.compression = encoding;
+  }
+
+  /**
+   * Gets the Content-Encoding applied to large message bodies
+   * 
+   * @return GZIP or DEFLATE, or null if compression is off
+   */
+  public String getCompression() {
+    return compression;
   }
 
   /**
-   * Generates an HttpPut in order for a CreateMessage request to be carried out
+   * Compresses a message body, if the body is large enough and compresses well
+   * enough to be worth sending that way
+   * 
+   * @param body The message body
+   * @param encoding The value of getCompression() for this request
+   * @return The body coded with encoding, or null to send it as it is
+   */
+  protected byte[] compressBody(String body, String encoding) {
+    if (encoding == null)
+      return null;
+    byte[] bytes = body.getBytes(UTF_8);
+    if (bytes.length < compressionThreshold)
+      return null;
+    ByteArrayOutputStream coded = new ByteArrayOutputStream(bytes.length / 2);
+    try {
+      DeflaterOutputStream out =
+          GZIP.equals(encoding) ? new GZIPOutputStream(coded) : new DeflaterOutputStream(coded);
+      out.write(bytes);
+      out.close();
+    } catch (IOException e) {
+      // This should be impossible when writing to memory.
+      throw new BurrowRuntimeException("Unable to compress message body: " + e);
+    }
+    return coded.size() < bytes.length ? coded.toByteArray() : null;
+  }
+
+  /**
+   * Asks the server for compressed responses while compression is on
+   */
+  protected class AcceptEncoding implements HttpRequestInterceptor {
+    public void process(HttpRequest request, HttpContext context) {
+      if (compression != null && !request.containsHeader("Accept-Encoding"))
+        request.addHeader("Accept-Encoding", GZIP + "," + DEFLATE);
+    }
+  }
+
+  /**
+   * Generates an HttpPut in order for a CreateMessage request to be carried
+   * out. The body is compressed if compression is on and compressBody says it
+   * should be.
    * 
    * @param request A CreateMessage request object
    * @return An HttpPut command
@@ -439,6 +644,15 @@ abstract class BaseHttp {
   protected HttpPut getHttpRequest(CreateMessage request) {
     URI uri = getUri(request);
     HttpPut httpRequest = new HttpPut(uri);
+    String encoding = getCompression();
+    byte[] compressed = compressBody(request.getBody(), encoding);
+    if (compressed != null) {
+      ByteArrayEntity bodyEntity = new ByteArrayEntity(compressed);
+      bodyEntity.setContentType(HTTP.PLAIN_TEXT_TYPE + HTTP.CHARSET_PARAM + "UTF-8");
+      bodyEntity.setContentEncoding(encoding);
+      httpRequest.setEntity(bodyEntity);
+      return httpRequest;
+    }
     try {
       HttpEntity bodyEntity = new StringEntity(request.getBody(), "UTF-8");
       httpRequest.setEntity(bodyEntity);
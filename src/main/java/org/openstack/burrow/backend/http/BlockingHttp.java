@@ -0,0 +1,563 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.DefaultHttpClientConnection;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.protocol.ImmutableHttpProcessor;
+import org.apache.http.protocol.RequestConnControl;
+import org.apache.http.protocol.RequestContent;
+import org.apache.http.protocol.RequestTargetHost;
+import org.openstack.burrow.backend.Backend;
+import org.openstack.burrow.backend.BurrowException;
+import org.openstack.burrow.backend.BurrowRuntimeException;
+import org.openstack.burrow.backend.CommandException;
+import org.openstack.burrow.backend.HttpProtocolException;
+import org.openstack.burrow.backend.Scheduler;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.CreateMessage;
+import org.openstack.burrow.client.methods.DeleteAccounts;
+import org.openstack.burrow.client.methods.DeleteMessage;
+import org.openstack.burrow.client.methods.DeleteMessages;
+import org.openstack.burrow.client.methods.DeleteQueues;
+import org.openstack.burrow.client.methods.GetAccounts;
+import org.openstack.burrow.client.methods.GetMessage;
+import org.openstack.burrow.client.methods.GetMessages;
+import org.openstack.burrow.client.methods.GetQueues;
+import org.openstack.burrow.client.methods.Request;
+import org.openstack.burrow.client.methods.UpdateMessage;
+import org.openstack.burrow.client.methods.UpdateMessages;
+
+/**
+ * BlockingHttp extends BaseHttp and provides a synchronous service meant to be
+ * called from very many threads at once, virtual threads in particular. Unlike
+ * Http, nothing it does while a request is in flight holds a monitor: requests
+ * are sent with httpcore's blocking connections, which take no locks, from a
+ * ConnectionPool per server whose waits park. A thread waiting for a
+ * connection or a response therefore frees its carrier thread, and tens of
+ * thousands of them can block in execute at once, each server seeing no more
+ * than the pool's limit of concurrent requests.
+ */
+public class BlockingHttp extends BaseHttp implements Backend {
+  /** The default limit on requests in flight to each server at once. */
+  public static final int DEFAULT_MAX_PER_HOST = 200;
+
+  private final Map<Endpoint, ConnectionPool> pools;
+  private final HttpParams params = new BasicHttpParams();
+  private final HttpProcessor processor;
+  private final HttpRequestExecutor executor = new HttpRequestExecutor();
+  private final ConnectionReuseStrategy reuseStrategy = new DefaultConnectionReuseStrategy();
+
+  /**
+   * Constructor for BlockingHttp that takes a host name and port number as
+   * arguments
+   * 
+   * @param host A host name as a String
+   * @param port A port number as an int
+   */
+  public BlockingHttp(String host, int port) {
+    this(new Endpoints(host, port));
+  }
+
+  /**
+   * Constructor for BlockingHttp that takes the servers to which to send
+   * requests as an argument, with the default pool settings
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   */
+  public BlockingHttp(Endpoints endpoints) {
+    this(endpoints, DEFAULT_MAX_PER_HOST, Http.DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * Constructor for BlockingHttp that takes the servers to which to send
+   * requests and pool settings as arguments. Requests beyond the limit wait
+   * for a connection to be released.
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   * @param maxPerHost The most requests in flight to each server at once
+   * @param idleTimeout The time in milliseconds a connection may sit idle in
+   *          the pool
+   */
+  public BlockingHttp(Endpoints endpoints, int maxPerHost, long idleTimeout) {
+    super(endpoints);
+    if (maxPerHost <= 0)
+      throw new IllegalArgumentException("Connection limit must be positive.");
+    if (idleTimeout <= 0)
+      throw new IllegalArgumentException("Idle timeout must be positive.");
+    Map<Endpoint, ConnectionPool> pools = new HashMap<Endpoint, ConnectionPool>();
+    for (Endpoint endpoint : endpoints.getEndpoints())
+      pools.put(endpoint, new ConnectionPool(endpoint.getHost(), params, maxPerHost, idleTimeout));
+    this.pools = Collections.unmodifiableMap(pools);
+    this.processor =
+        new ImmutableHttpProcessor(new HttpRequestInterceptor[] { new RequestContent(),
+            new RequestTargetHost(), new RequestConnControl(), new AcceptEncoding() },
+            new HttpResponseInterceptor[] { new ResponseContentEncoding() });
+  }
+
+  /**
+   * Connections are opened as requests need them, so there is nothing to
+   * start.
+   */
+  @Override
+  public void start() {
+    if (inFlight.isClosed())
+      throw new IllegalStateException("Backend has been shut down.");
+  }
+
+  /**
+   * Close all idle connections, and the others as they are released, and stop
+   * probing the servers. Requests made afterwards are rejected.
+   */
+  @Override
+  public void shutdown() {
+    inFlight.close();
+    for (ConnectionPool pool : pools.values())
+      pool.shutdown();
+    endpoints.shutdown();
+  }
+
+  /**
+   * Reject new requests and wait for those in flight to finish, then close
+   * all pooled connections as shutdown() does.
+   * 
+   * @param timeout The most time to wait for requests in flight
+   * @param unit The unit of the timeout
+   * @return True if every request in flight finished in time
+   * @throws InterruptedException Thrown if interrupted while waiting
+   */
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    boolean drained = inFlight.await(timeout, unit);
+    shutdown();
+    return drained;
+  }
+
+  /**
+   * Gets the number of idle connections pooled for a server
+   * 
+   * @param endpoint One of the Endpoints
+   * @return The number of connections open to it but not in use
+   */
+  int getIdle(Endpoint endpoint) {
+    return pools.get(endpoint).getIdle();
+  }
+
+  /**
+   * Sends a request on a pooled connection to the server the Endpoints
+   * choose, decoding the response with the given handler before releasing the
+   * connection. The request's timeout is a deadline for the whole exchange:
+   * each wait, for a connection to be released or to connect, or for the
+   * server to accept or answer, is given only the time left, and a connection
+   * still in use when it passes is closed, however slowly the server was
+   * sending. Running out of it does not count against the server.
+   * 
+   * @param request The request object, whose timeout the exchange is given
+   * @param httpRequest The request, whose URI is rewritten for the connection
+   * @param handler The handler which decodes the response
+   * @return The result of the handler
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request, or the deadline passes
+   */
+  private <T> T send(Request request, HttpRequestBase httpRequest, ResponseHandler<T> handler)
+      throws CommandException, HttpProtocolException {
+    Long timeout = request.getTimeout();
+    long deadline =
+        timeout == null ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    Endpoint endpoint = choose();
+    ConnectionPool pool = pools.get(endpoint);
+    DefaultHttpClientConnection connection = null;
+    ScheduledFuture<?> expiry = null;
+    HttpResponse response = null;
+    boolean reusable = false;
+    try {
+      HttpContext context = new BasicHttpContext();
+      context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, endpoint.getHost());
+      context.setAttribute(ExecutionContext.HTTP_REQUEST, httpRequest);
+      httpRequest.setURI(URIUtils.rewriteURI(httpRequest.getURI(), null));
+      executor.preProcess(httpRequest, processor, context);
+      while (response == null) {
+        if (expired(deadline))
+          throw new HttpProtocolException("Request timed out after " + timeout + " ms");
+        connection = pool.lease(remaining(deadline));
+        connection.setSocketTimeout(remaining(deadline));
+        expiry = expire(connection, deadline);
+        context.setAttribute(ExecutionContext.HTTP_CONNECTION, connection);
+        boolean reused = connection.getMetrics().getRequestCount() > 0;
+        try {
+          response = executor.execute(httpRequest, connection, context);
+        } catch (IOException e) {
+          // The server may have closed a pooled connection since it was last
+          // used, without having seen the request, so it is sent again on
+          // another, as HttpClient's retry handler would: only if the request
+          // was never written, or the server closed the connection without
+          // answering. After a timeout the server may still be acting on it.
+          if (!reused || !resendable(e, context))
+            throw e;
+          if (expiry != null)
+            expiry.cancel(false);
+          pool.release(connection, false);
+          connection = null;
+        }
+      }
+      endpoint.succeeded();
+      reusable = reuseStrategy.keepAlive(response, context);
+      HttpEntity entity = response.getEntity();
+      InputStream content = entity == null ? null : entity.getContent();
+      try {
+        executor.postProcess(response, processor, context);
+        return handler.handle(response);
+      } finally {
+        // Closing the content reads whatever the handler left of it, so that
+        // the connection can be reused.
+        if (content != null)
+          content.close();
+      }
+    } catch (CommandException e) {
+      throw e;
+    } catch (HttpProtocolException e) {
+      throw e;
+    } catch (BurrowException e) {
+      throw new HttpProtocolException("Error handling HTTP response: " + e, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BurrowRuntimeException("InterruptedException waiting for a connection", e);
+    } catch (URISyntaxException e) {
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } catch (HttpException e) {
+      reusable = false;
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } catch (IOException e) {
+      reusable = false;
+      // Running out of pooled connections, or of the request's own time, is
+      // the caller's limit rather than the server's failure.
+      if (response == null && !expired(deadline)
+          && !(deadline != 0 && e instanceof InterruptedIOException))
+        endpoint.failed();
+      if (expired(deadline))
+        throw new HttpProtocolException("Request timed out after " + timeout + " ms");
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      // A connection the deadline has closed, or is closing, cannot be reused.
+      if (expiry != null && !expiry.cancel(false))
+        reusable = false;
+      if (connection != null)
+        pool.release(connection, reusable);
+      release(endpoint);
+    }
+  }
+
+  /**
+   * Tells whether a request that failed on a reused connection may be sent
+   * again on another
+   * 
+   * @param e The exception with which the exchange failed
+   * @param context The context of the exchange
+   * @return True if the server cannot have acted on the request
+   */
+  private static boolean resendable(IOException e, HttpContext context) {
+    if (e instanceof InterruptedIOException)
+      return false;
+    if (e instanceof NoHttpResponseException)
+      return true;
+    return !Boolean.TRUE.equals(context.getAttribute(ExecutionContext.HTTP_REQ_SENT));
+  }
+
+  /**
+   * Closes a connection when a deadline passes, so that a server trickling its
+   * response cannot hold the exchange past it one read at a time
+   * 
+   * @param connection The leased connection
+   * @param deadline The deadline, as of System.nanoTime, or zero for none
+   * @return The task that closes the connection, to be cancelled once the
+   *         exchange is over, or null if there is no deadline
+   */
+  private static ScheduledFuture<?> expire(final DefaultHttpClientConnection connection,
+      long deadline) {
+    if (deadline == 0)
+      return null;
+    return Scheduler.getDefault().schedule(new Runnable() {
+      public void run() {
+        try {
+          connection.shutdown();
+        } catch (IOException e) {
+          // The connection is closed all the same.
+        }
+      }
+    }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Tells whether a deadline has passed
+   * 
+   * @param deadline The deadline, as of System.nanoTime, or zero for none
+   * @return True if there is a deadline and it has passed
+   */
+  private static boolean expired(long deadline) {
+    return deadline != 0 && deadline - System.nanoTime() <= 0;
+  }
+
+  /**
+   * Gets the time left before a deadline, as a timeout for a socket or the
+   * ConnectionPool
+   * 
+   * @param deadline The deadline, as of System.nanoTime, or zero for none
+   * @return The milliseconds left, at least one, or zero for no deadline; a
+   *         deadline that has passed must be caught with expired first
+   */
+  private static int remaining(long deadline) {
+    if (deadline == 0)
+      return 0;
+    long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime() + 999999);
+    return (int) Math.max(1, Math.min(millis, Integer.MAX_VALUE));
+  }
+
+  /**
+   * Executes a CreateMessage request synchronously
+   * 
+   * @param request The CreateMessage request object to execute
+   * @return The Message object requested
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(CreateMessage request) throws CommandException, HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteAccounts request synchronously
+   * 
+   * @param request The DeleteAccounts request object to execute
+   * @return The List of Accounts object requested
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Account> execute(DeleteAccounts request) throws CommandException,
+      HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Account>>() {
+      public List<Account> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleAccountHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteMessage request synchronously
+   * 
+   * @param request The DeleteMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(DeleteMessage request) throws CommandException, HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteMessages request synchronously
+   * 
+   * @param request The DeleteMessages request object to execute
+   * @return A List of Messages
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Message> execute(DeleteMessages request) throws CommandException,
+      HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Message>>() {
+      public List<Message> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteQueues request synchronously
+   * 
+   * @param request The DeleteQueues request object to execute
+   * @return A List of Queues
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Queue> execute(DeleteQueues request) throws CommandException, HttpProtocolException {
+    final Account account = request.getAccount();
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Queue>>() {
+      public List<Queue> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleQueueHttpResponse(account, response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetAccounts request synchronously
+   * 
+   * @param request The GetAccounts request object to execute
+   * @return A List of Accounts
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Account> execute(GetAccounts request) throws CommandException, HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Account>>() {
+      public List<Account> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleAccountHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetMessage request synchronously
+   * 
+   * @param request The GetMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(GetMessage request) throws CommandException, HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetMessages request synchronously
+   * 
+   * @param request The GetMessages request object to execute
+   * @return A List of Messages
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Message> execute(GetMessages request) throws CommandException, HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Message>>() {
+      public List<Message> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetQueues request synchronously
+   * 
+   * @param request The GetQueues request object to execute
+   * @return A List of Queues
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Queue> execute(GetQueues request) throws CommandException, HttpProtocolException {
+    final Account account = request.getAccount();
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Queue>>() {
+      public List<Queue> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleQueueHttpResponse(account, response);
+      }
+    });
+  }
+
+  /**
+   * Executes a UpdateMessage request synchronously
+   * 
+   * @param request The UpdateMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(UpdateMessage request) throws CommandException, HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a UpdateMessages request synchronously
+   * 
+   * @param request The UpdateMessages request object to execute
+   * @return A List of Message objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Message> execute(UpdateMessages request) throws CommandException,
+      HttpProtocolException {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Message>>() {
+      public List<Message> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleMessageHttpResponse(response);
+      }
+    });
+  }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.openstack.burrow.backend.AsyncBackend;
+import org.openstack.burrow.backend.BurrowRuntimeException;
+import org.openstack.burrow.backend.CommandException;
+import org.openstack.burrow.backend.ProtocolException;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.CreateMessage;
+import org.openstack.burrow.client.methods.DeleteAccounts;
+import org.openstack.burrow.client.methods.DeleteMessage;
+import org.openstack.burrow.client.methods.DeleteMessages;
+import org.openstack.burrow.client.methods.DeleteQueues;
+import org.openstack.burrow.client.methods.GetAccounts;
+import org.openstack.burrow.client.methods.GetMessage;
+import org.openstack.burrow.client.methods.GetMessages;
+import org.openstack.burrow.client.methods.GetQueues;
+import org.openstack.burrow.client.methods.UpdateMessage;
+import org.openstack.burrow.client.methods.UpdateMessages;
+
+/**
+ * CoalescingBackend wraps an AsyncHttp so that identical reads made at the
+ * same time share one round trip. A GetAccounts, GetQueues or GetMessage
+ * request whose URI, as built by the AsyncHttp, matches one already in flight
+ * waits for that response instead of sending its own. Each waiter gets its own
+ * future, and its own copy of any List, so cancelling or modifying a result
+ * does not affect the others; the shared request is only cancelled once every
+ * waiter has cancelled.
+ * <p>
+ * All other requests are passed straight through, as are reads with a
+ * timeout, so that one caller's timeout never cuts short another's response.
+ */
+public class CoalescingBackend implements AsyncBackend {
+  private final AsyncHttp backend;
+  private final ConcurrentMap<URI, Flight<List<Account>>> accountReads =
+      new ConcurrentHashMap<URI, Flight<List<Account>>>();
+  private final ConcurrentMap<URI, Flight<Message>> messageReads =
+      new ConcurrentHashMap<URI, Flight<Message>>();
+  private final ConcurrentMap<URI, Flight<List<Queue>>> queueReads =
+      new ConcurrentHashMap<URI, Flight<List<Queue>>>();
+
+  /**
+   * Constructor for CoalescingBackend that takes the AsyncHttp to wrap as an
+   * argument
+   *
+   * @param backend The AsyncHttp which sends requests to the server
+   */
+  public CoalescingBackend(AsyncHttp backend) {
+    if (backend == null)
+      throw new IllegalArgumentException("backend must not be null");
+    this.backend = backend;
+  }
+
+  /**
+   * A request in flight and the number of callers waiting for it.
+   *
+   * @param <T> The type of the response.
+   */
+  private static class Flight<T> {
+    private final List<Waiter<T>> waiters = new ArrayList<Waiter<T>>();
+    private CompletableFuture<T> response = null;
+    private int waiting = 0;
+    private boolean abandoned = false;
+
+    /**
+     * Add a waiter for the response.
+     *
+     * @return The waiter's future, or null if every earlier waiter has
+     *         cancelled and the request was abandoned
+     */
+    synchronized Waiter<T> join() {
+      if (abandoned)
+        return null;
+      Waiter<T> waiter = new Waiter<T>(this);
+      waiters.add(waiter);
+      waiting++;
+      return waiter;
+    }
+
+    /**
+     * Remove a waiter which has cancelled, abandoning the request if it was the
+     * last.
+     */
+    void leave() {
+      CompletableFuture<T> response;
+      synchronized (this) {
+        if (--waiting > 0 || abandoned)
+          return;
+        abandoned = true;
+        response = this.response;
+      }
+      if (response != null)
+        response.cancel(true);
+    }
+
+    synchronized void start(CompletableFuture<T> response) {
+      this.response = response;
+      if (abandoned)
+        response.cancel(true);
+    }
+
+    /**
+     * Pass the response to every waiter still waiting for it.
+     */
+    @SuppressWarnings("unchecked")
+    void finish(T result, Throwable t) {
+      List<Waiter<T>> waiters;
+      synchronized (this) {
+        abandoned = true;
+        waiters = new ArrayList<Waiter<T>>(this.waiters);
+      }
+      for (Waiter<T> waiter : waiters) {
+        if (t != null)
+          waiter.completeExceptionally(t);
+        else if (result instanceof List)
+          waiter.complete((T) new ArrayList<Object>((List<Object>) result));
+        else
+          waiter.complete(result);
+      }
+    }
+  }
+
+  /**
+   * One caller's view of a shared response.
+   *
+   * @param <T> The type of the response.
+   */
+  private static class Waiter<T> extends CompletableFuture<T> {
+    private final Flight<T> flight;
+
+    Waiter(Flight<T> flight) {
+      this.flight = flight;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      if (cancelled)
+        flight.leave();
+      return cancelled;
+    }
+  }
+
+  /**
+   * Starts a read of a URI.
+   *
+   * @param <T> The type of the response.
+   */
+  private interface Read<T> {
+    CompletableFuture<T> start();
+  }
+
+  /**
+   * Waits for the read of a URI already in flight, or starts it.
+   *
+   * @param flights The reads of this type in flight
+   * @param uri The URI of the read
+   * @param read Starts the read, if none is in flight
+   * @return A future for the response to the read
+   */
+  private static <T> CompletableFuture<T> coalesce(final ConcurrentMap<URI, Flight<T>> flights,
+      final URI uri, Read<T> read) {
+    while (true) {
+      Flight<T> flight = flights.get(uri);
+      if (flight != null) {
+        Waiter<T> waiter = flight.join();
+        if (waiter != null)
+          return waiter;
+        // Every waiter cancelled; the next caller must start afresh.
+        flights.remove(uri, flight);
+        continue;
+      }
+
+      final Flight<T> created = new Flight<T>();
+      if (flights.putIfAbsent(uri, created) != null)
+        continue;
+      Waiter<T> waiter = created.join();
+      CompletableFuture<T> response;
+      try {
+        response = read.start();
+      } catch (RuntimeException e) {
+        // Fail anyone who joined in the meantime, too.
+        flights.remove(uri, created);
+        created.finish(null, e);
+        throw e;
+      }
+      created.start(response);
+      response.whenComplete(new BiConsumer<T, Throwable>() {
+        public void accept(T result, Throwable t) {
+          // Callers arriving from now on must not be given this response.
+          flights.remove(uri, created);
+          created.finish(result, t);
+        }
+      });
+      return waiter;
+    }
+  }
+
+  /**
+   * Waits for a response, unwrapping the exceptions the request may fail with
+   * just as AsyncHttp does
+   *
+   * @param future The future of the response
+   * @return The response
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  private static <T> T await(Future<T> future) throws CommandException, ProtocolException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Starts the wrapped AsyncHttp.
+   */
+  @Override
+  public void start() {
+    backend.start();
+  }
+
+  /**
+   * Shuts down the wrapped AsyncHttp, which cancels the shared reads and so
+   * fails every caller waiting on one.
+   */
+  @Override
+  public void shutdown() {
+    backend.shutdown();
+  }
+
+  /**
+   * Shuts down the wrapped AsyncHttp gracefully. Every shared read is a
+   * request in flight there, so waiting for those waits for every caller.
+   *
+   * @param timeout The most time to wait for requests in flight
+   * @param unit The unit of the timeout
+   * @return True if every request in flight finished in time
+   * @throws InterruptedException Thrown if interrupted while waiting
+   */
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    return backend.shutdown(timeout, unit);
+  }
+
+  @Override
+  public Message execute(CreateMessage request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Account> execute(DeleteAccounts request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public Message execute(DeleteMessage request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Message> execute(DeleteMessages request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Queue> execute(DeleteQueues request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  /**
+   * Executes a GetAccounts request, sharing the response with any identical
+   * request in flight
+   *
+   * @param request The GetAccounts request object to execute
+   * @return A List of Account objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Account> execute(GetAccounts request) throws CommandException, ProtocolException {
+    return await(executeStage(request));
+  }
+
+  /**
+   * Executes a GetMessage request, sharing the response with any identical
+   * request in flight
+   *
+   * @param request The GetMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(GetMessage request) throws CommandException, ProtocolException {
+    return await(executeStage(request));
+  }
+
+  @Override
+  public List<Message> execute(GetMessages request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  /**
+   * Executes a GetQueues request, sharing the response with any identical
+   * request in flight
+   *
+   * @param request The GetQueues request object to execute
+   * @return A List of Queue objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Queue> execute(GetQueues request) throws CommandException, ProtocolException {
+    return await(executeStage(request));
+  }
+
+  @Override
+  public Message execute(UpdateMessage request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public List<Message> execute(UpdateMessages request) throws CommandException, ProtocolException {
+    return backend.execute(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(CreateMessage request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Account>> executeAsync(DeleteAccounts request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(DeleteMessage request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Message>> executeAsync(DeleteMessages request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Queue>> executeAsync(DeleteQueues request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Account>> executeAsync(GetAccounts request) {
+    return executeStage(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(GetMessage request) {
+    return executeStage(request);
+  }
+
+  @Override
+  public Future<List<Message>> executeAsync(GetMessages request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Queue>> executeAsync(GetQueues request) {
+    return executeStage(request);
+  }
+
+  @Override
+  public Future<Message> executeAsync(UpdateMessage request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public Future<List<Message>> executeAsync(UpdateMessages request) {
+    return backend.executeAsync(request);
+  }
+
+  @Override
+  public CompletableFuture<Message> executeStage(CreateMessage request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletableFuture<List<Account>> executeStage(DeleteAccounts request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletableFuture<Message> executeStage(DeleteMessage request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletableFuture<List<Message>> executeStage(DeleteMessages request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletableFuture<List<Queue>> executeStage(DeleteQueues request) {
+    return backend.executeStage(request);
+  }
+
+  /**
+   * Executes a GetAccounts request without blocking, sharing the response with
+   * any identical request in flight
+   *
+   * @param request The GetAccounts request object to execute
+   * @return A CompletableFuture for this caller's copy of the List of Accounts
+   */
+  @Override
+  public CompletableFuture<List<Account>> executeStage(final GetAccounts request) {
+    if (request.getTimeout() != null)
+      return backend.executeStage(request);
+    return coalesce(accountReads, backend.getUri(request), new Read<List<Account>>() {
+      public CompletableFuture<List<Account>> start() {
+        return backend.executeStage(request);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetMessage request without blocking, sharing the response with
+   * any identical request in flight
+   *
+   * @param request The GetMessage request object to execute
+   * @return A CompletableFuture for the Message
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(final GetMessage request) {
+    if (request.getTimeout() != null)
+      return backend.executeStage(request);
+    return coalesce(messageReads, backend.getUri(request), new Read<Message>() {
+      public CompletableFuture<Message> start() {
+        return backend.executeStage(request);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<Message>> executeStage(GetMessages request) {
+    return backend.executeStage(request);
+  }
+
+  /**
+   * Executes a GetQueues request without blocking, sharing the response with
+   * any identical request in flight
+   *
+   * @param request The GetQueues request object to execute
+   * @return A CompletableFuture for this caller's copy of the List of Queues
+   */
+  @Override
+  public CompletableFuture<List<Queue>> executeStage(final GetQueues request) {
+    if (request.getTimeout() != null)
+      return backend.executeStage(request);
+    return coalesce(queueReads, backend.getUri(request), new Read<List<Queue>>() {
+      public CompletableFuture<List<Queue>> start() {
+        return backend.executeStage(request);
+      }
+    });
+  }
+
+  @Override
+  public CompletableFuture<Message> executeStage(UpdateMessage request) {
+    return backend.executeStage(request);
+  }
+
+  @Override
+  public CompletableFuture<List<Message>> executeStage(UpdateMessages request) {
+    return backend.executeStage(request);
+  }
+}
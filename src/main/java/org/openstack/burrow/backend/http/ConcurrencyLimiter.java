@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * ConcurrencyLimiter bounds the number of requests an AsyncHttp has in flight,
+ * adapting the bound to the server by additive increase, multiplicative
+ * decrease. Each response which arrives promptly raises the limit by about one
+ * per round trip's worth of responses; a failure, or a round trip more than
+ * twice the shortest seen lately, cuts it by a tenth, at most once per round
+ * trip. The limit so settles near the concurrency the server can sustain
+ * instead of letting requests queue up in it.
+ * <p>
+ * No one account may have more than a share of the limit in flight, so that a
+ * busy account cannot starve the others. Requests beyond either bound wait in
+ * a FIFO queue, and once that is full are rejected. A waiting request which is
+ * abandoned leaves the queue at once, so that it does not hold a place which a
+ * live request could use.
+ */
+public class ConcurrencyLimiter {
+  /** The limit a ConcurrencyLimiter starts at by default. */
+  public static final int DEFAULT_INITIAL_LIMIT = 20;
+
+  /** The highest limit by default. */
+  public static final int DEFAULT_MAX_LIMIT = 1000;
+
+  /** The share of the limit one account may use by default. */
+  public static final double DEFAULT_ACCOUNT_SHARE = 0.5;
+
+  /** The most requests waiting for a permit by default. */
+  public static final int DEFAULT_MAX_QUEUED = 1000;
+
+  private static final double BACKOFF = 0.9;
+  private static final double TOLERANCE = 2.0;
+  private static final int RTT_WINDOW = 1000;
+
+  private final int maxLimit;
+  private final double accountShare;
+  private final int maxQueued;
+  private final LinkedHashSet<Waiting> queue = new LinkedHashSet<Waiting>();
+  private final Map<String, Integer> accounts = new HashMap<String, Integer>();
+  private double limit;
+  private int inFlight = 0;
+  private long minRtt = Long.MAX_VALUE;
+  private long windowMinRtt = Long.MAX_VALUE;
+  private int windowSamples = 0;
+  private long lastDecrease;
+
+  /**
+   * The requests still to be started by the release running on this thread,
+   * so that a request which releases its permit as it starts does not start
+   * the next one from within the release which started it.
+   */
+  private final ThreadLocal<Deque<Runnable>> starting = new ThreadLocal<Deque<Runnable>>();
+
+  /**
+   * A request waiting for a permit.
+   */
+  private static class Waiting {
+    final String account;
+    final Runnable start;
+
+    Waiting(String account, Runnable start) {
+      this.account = account;
+      this.start = start;
+    }
+  }
+
+  /**
+   * Construct a ConcurrencyLimiter with the default settings.
+   */
+  public ConcurrencyLimiter() {
+    this(DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_ACCOUNT_SHARE, DEFAULT_MAX_QUEUED);
+  }
+
+  /**
+   * Construct a ConcurrencyLimiter.
+   *
+   * @param initialLimit The limit to start at, before any round trips have
+   *          been measured.
+   * @param maxLimit The highest the limit may rise to.
+   * @param accountShare The fraction of the limit one account may use, greater
+   *          than 0 and at most 1.
+   * @param maxQueued The most requests which may wait for a permit.
+   */
+  public ConcurrencyLimiter(int initialLimit, int maxLimit, double accountShare, int maxQueued) {
+    if (initialLimit < 1 || maxLimit < initialLimit)
+      throw new IllegalArgumentException(
+          "Limits must be positive, and the initial at most the max.");
+    if (accountShare <= 0 || accountShare > 1)
+      throw new IllegalArgumentException("Account share must be greater than 0 and at most 1.");
+    if (maxQueued < 0)
+      throw new IllegalArgumentException("Queue length may not be negative.");
+    this.limit = initialLimit;
+    this.maxLimit = maxLimit;
+    this.accountShare = accountShare;
+    this.maxQueued = maxQueued;
+    this.lastDecrease = System.nanoTime();
+  }
+
+  /**
+   * Get the current limit.
+   *
+   * @return The most requests which may now be in flight.
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * Get the number of requests in flight.
+   *
+   * @return The number of permits held.
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Get the number of requests waiting for a permit.
+   *
+   * @return The length of the queue.
+   */
+  public synchronized int getQueued() {
+    return queue.size();
+  }
+
+  /**
+   * Start a request once it has a permit: now if one is free, otherwise when
+   * enough earlier requests have been released. The request must be released
+   * when it finishes, however it finishes.
+   *
+   * @param account The account the request is for, or null if it is not for
+   *          any one account.
+   * @param start Sends the request. It is run on the releasing thread if the
+   *          request had to wait.
+   * @return A Runnable which takes the request out of the queue if it is still
+   *         waiting, for when it is cancelled or times out, or null if it was
+   *         started at once.
+   * @throws RejectedExecutionException Thrown if the request cannot be started
+   *           and the queue is full.
+   */
+  Runnable acquire(String account, Runnable start) throws RejectedExecutionException {
+    synchronized (this) {
+      // Any waiting request which could be started has been, so one which can
+      // be started now does not jump the queue.
+      if (!tryAcquire(account)) {
+        if (queue.size() >= maxQueued)
+          throw new RejectedExecutionException("Too many requests waiting for the server.");
+        final Waiting waiting = new Waiting(account, start);
+        queue.add(waiting);
+        return new Runnable() {
+          public void run() {
+            synchronized (ConcurrencyLimiter.this) {
+              queue.remove(waiting);
+            }
+          }
+        };
+      }
+    }
+    start.run();
+    return null;
+  }
+
+  /**
+   * Release the permit of a finished request, adjusting the limit by how it
+   * went, and start any waiting requests it makes room for.
+   *
+   * @param account The account the request was for, as given to acquire.
+   * @param sent The System.nanoTime() at which the request was sent.
+   * @param rtt The time the request took in nanoseconds, or -1 if that says
+   *          nothing about the server's load, as for long polls and requests
+   *          cancelled before they were sent.
+   * @param dropped True if the request failed in a way which suggests the
+   *          server is overloaded.
+   */
+  void release(String account, long sent, long rtt, boolean dropped) {
+    List<Runnable> ready = new ArrayList<Runnable>();
+    synchronized (this) {
+      inFlight--;
+      if (account != null) {
+        int count = accounts.get(account) - 1;
+        if (count == 0)
+          accounts.remove(account);
+        else
+          accounts.put(account, count);
+      }
+
+      if (rtt >= 0)
+        sample(rtt);
+      boolean congested = dropped || (rtt >= 0 && rtt > minRtt * TOLERANCE);
+      if (congested) {
+        // Only requests sent since the last cut reflect it.
+        if (sent - lastDecrease > 0) {
+          limit = Math.max(1, limit * BACKOFF);
+          lastDecrease = System.nanoTime();
+        }
+      } else if (rtt >= 0 && inFlight + 1 >= limit / 2) {
+        // Only grow while the limit is actually being used.
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+
+      Iterator<Waiting> it = queue.iterator();
+      while (it.hasNext() && inFlight < (int) limit) {
+        Waiting waiting = it.next();
+        if (tryAcquire(waiting.account)) {
+          it.remove();
+          ready.add(waiting.start);
+        }
+      }
+    }
+    start(ready);
+  }
+
+  /**
+   * Start requests which have been given permits. A request which finished
+   * while it waited releases its permit as soon as it is started, so when
+   * called from within a start this leaves the requests to the loop already
+   * running further up the stack, rather than recursing once per such request.
+   */
+  private void start(List<Runnable> ready) {
+    Deque<Runnable> pending = starting.get();
+    if (pending != null) {
+      pending.addAll(ready);
+      return;
+    }
+    pending = new ArrayDeque<Runnable>(ready);
+    starting.set(pending);
+    try {
+      Runnable start;
+      while ((start = pending.pollFirst()) != null)
+        start.run();
+    } finally {
+      starting.remove();
+    }
+  }
+
+  private boolean tryAcquire(String account) {
+    if (inFlight >= (int) limit)
+      return false;
+    if (account != null) {
+      Integer count = accounts.get(account);
+      int accountLimit = Math.max(1, (int) Math.ceil(limit * accountShare));
+      if (count != null && count >= accountLimit)
+        return false;
+      accounts.put(account, count == null ? 1 : count + 1);
+    }
+    inFlight++;
+    return true;
+  }
+
+  private void sample(long rtt) {
+    // The shortest round trip is tracked over a sliding window, so that the
+    // limiter adapts if the server's unloaded latency changes.
+    windowMinRtt = Math.min(windowMinRtt, rtt);
+    minRtt = Math.min(minRtt, rtt);
+    if (++windowSamples >= RTT_WINDOW) {
+      minRtt = windowMinRtt;
+      windowMinRtt = Long.MAX_VALUE;
+      windowSamples = 0;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.DefaultHttpClientConnection;
+import org.apache.http.params.HttpParams;
+
+/**
+ * ConnectionPool holds the blocking connections a BlockingHttp has open to one
+ * server. At most a fixed number are leased at once; further leases wait on a
+ * Semaphore, which parks the waiting thread rather than blocking it on a
+ * monitor, as does everything else here, so that the pool suits virtual
+ * threads. Idle connections are reused most recently released first, so that
+ * those left over after a burst go idle for good and are closed.
+ */
+class ConnectionPool {
+  /**
+   * The time a connection may sit idle before it is checked for having been
+   * closed by the server, in milliseconds. The check costs a millisecond.
+   */
+  static final long STALE_CHECK_IDLE = 1000;
+
+  private final HttpHost host;
+  private final HttpParams params;
+  private final Semaphore permits;
+  private final long idleTimeout;
+  private final Deque<Idle> idle = new ConcurrentLinkedDeque<Idle>();
+  private volatile boolean shutdown = false;
+
+  /**
+   * An idle connection, and when it was released.
+   */
+  private static class Idle {
+    final DefaultHttpClientConnection connection;
+    final long since;
+
+    Idle(DefaultHttpClientConnection connection, long since) {
+      this.connection = connection;
+      this.since = since;
+    }
+  }
+
+  /**
+   * Construct a ConnectionPool.
+   *
+   * @param host The server to connect to.
+   * @param params The parameters with which to bind each connection.
+   * @param maxLeased The most connections which may be leased at once.
+   * @param idleTimeout The time a connection may sit idle before it is
+   *          closed, in milliseconds.
+   */
+  ConnectionPool(HttpHost host, HttpParams params, int maxLeased, long idleTimeout) {
+    this.host = host;
+    this.params = params;
+    this.permits = new Semaphore(maxLeased, true);
+    this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+  }
+
+  /**
+   * Lease a connection, waiting for one of the others to be released if the
+   * most are already leased. The connection must be released, however the
+   * request on it goes.
+   *
+   * @return An open connection to the server.
+   * @throws IOException Thrown if no connection could be opened.
+   * @throws InterruptedException Thrown if interrupted while waiting.
+   */
+  DefaultHttpClientConnection lease() throws IOException, InterruptedException {
+    return lease(0);
+  }
+
+  /**
+   * Lease a connection, waiting no longer than the timeout for one of the
+   * others to be released, and again for a new one to connect.
+   *
+   * @param timeout The most time to wait each time, in milliseconds, or zero
+   *          to wait as long as it takes.
+   * @return An open connection to the server.
+   * @throws ConnectionPoolTimeoutException Thrown if no connection was
+   *           released in time.
+   * @throws IOException Thrown if no connection could be opened.
+   * @throws InterruptedException Thrown if interrupted while waiting.
+   */
+  DefaultHttpClientConnection lease(int timeout) throws IOException, InterruptedException {
+    if (shutdown)
+      throw new IllegalStateException("Connection pool has been shut down.");
+    if (timeout == 0)
+      permits.acquire();
+    else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+      throw new ConnectionPoolTimeoutException("Timeout waiting for a connection to " + host);
+    try {
+      Idle entry;
+      while ((entry = idle.pollFirst()) != null) {
+        long idleFor = System.nanoTime() - entry.since;
+        if (idleFor < idleTimeout
+            && (idleFor < TimeUnit.MILLISECONDS.toNanos(STALE_CHECK_IDLE) || !entry.connection
+                .isStale()))
+          return entry.connection;
+        closeQuietly(entry.connection);
+      }
+      return open(timeout);
+    } catch (IOException e) {
+      permits.release();
+      throw e;
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Release a leased connection, keeping it for reuse if it can be.
+   *
+   * @param connection The connection.
+   * @param reusable Whether the last response was read in full and the server
+   *          means to keep the connection open.
+   */
+  void release(DefaultHttpClientConnection connection, boolean reusable) {
+    long now = System.nanoTime();
+    if (reusable && !shutdown && connection.isOpen())
+      idle.offerFirst(new Idle(connection, now));
+    else
+      closeQuietly(connection);
+    permits.release();
+    // Those least recently released have been idle the longest.
+    Idle oldest;
+    while ((oldest = idle.peekLast()) != null && (shutdown || now - oldest.since >= idleTimeout)) {
+      if (idle.removeLastOccurrence(oldest))
+        closeQuietly(oldest.connection);
+    }
+  }
+
+  /**
+   * Get the number of idle connections.
+   *
+   * @return The number of connections open but not leased.
+   */
+  int getIdle() {
+    return idle.size();
+  }
+
+  /**
+   * Close every idle connection, and every leased one as it is released.
+   */
+  void shutdown() {
+    shutdown = true;
+    Idle entry;
+    while ((entry = idle.pollFirst()) != null)
+      closeQuietly(entry.connection);
+  }
+
+  private DefaultHttpClientConnection open(int timeout) throws IOException {
+    int port = host.getPort() < 0 ? 80 : host.getPort();
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(host.getHostName(), port), timeout);
+      DefaultHttpClientConnection connection = new DefaultHttpClientConnection();
+      connection.bind(socket, params);
+      return connection;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(DefaultHttpClientConnection connection) {
+    try {
+      connection.close();
+    } catch (IOException e) {
+      // The connection is being discarded anyway.
+    }
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import org.apache.http.util.ByteArrayBuffer;
+
+/**
+ * ContentInflater decodes a gzip or deflate content-coded body pushed to it in
+ * chunks, as they arrive, passing the decoded bytes on to a Sink. It is the
+ * non-blocking counterpart of GzipDecompressingEntity and
+ * DeflateDecompressingEntity, for use by the async response consumers.
+ */
+class ContentInflater {
+  /**
+   * Receives decoded bytes.
+   */
+  interface Sink {
+    /**
+     * Accept a chunk of the decoded body.
+     *
+     * @param buf The decoded bytes, which are only valid during the call
+     * @throws IOException Thrown if the bytes cannot be accepted
+     */
+    void write(ByteBuffer buf) throws IOException;
+  }
+
+  private static final int FHCRC = 2;
+  private static final int FEXTRA = 4;
+  private static final int FNAME = 8;
+  private static final int FCOMMENT = 16;
+
+  // Where in the coded body the inflater is.
+  private static final int HEADER = 0;
+  private static final int BODY = 1;
+  private static final int TRAILER = 2;
+  private static final int DONE = 3;
+
+  private final boolean gzip;
+  private final byte[] output = new byte[8192];
+  private final ByteArrayBuffer pending = new ByteArrayBuffer(16);
+  private final CRC32 crc = new CRC32();
+  private Inflater inflater = null;
+  private long written = 0;
+  private int state;
+
+  private ContentInflater(boolean gzip) {
+    this.gzip = gzip;
+    this.state = HEADER;
+  }
+
+  /**
+   * Create a ContentInflater for a Content-Encoding.
+   *
+   * @param encoding The value of the response's Content-Encoding header, or
+   *          null if it had none
+   * @return A ContentInflater, or null if the body is not coded
+   * @throws ZipException Thrown if the coding is not one this client supports
+   */
+  static ContentInflater forEncoding(String encoding) throws ZipException {
+    if (encoding == null || encoding.trim().length() == 0
+        || "identity".equalsIgnoreCase(encoding.trim()))
+      return null;
+    else if ("gzip".equalsIgnoreCase(encoding.trim()) || "x-gzip".equalsIgnoreCase(encoding.trim()))
+      return new ContentInflater(true);
+    else if ("deflate".equalsIgnoreCase(encoding.trim()))
+      return new ContentInflater(false);
+    else
+      throw new ZipException("Unsupported content encoding: " + encoding);
+  }
+
+  /**
+   * Decode the next chunk of the body.
+   *
+   * @param in The coded bytes received, which are all consumed
+   * @param sink The Sink to which to pass any bytes decoded
+   * @throws IOException Thrown if the body is not validly coded, or the Sink
+   *           fails
+   */
+  void inflate(ByteBuffer in, Sink sink) throws IOException {
+    while (in.hasRemaining()) {
+      switch (state) {
+        case HEADER:
+          pending.append(in.get());
+          if (gzip) {
+            if (gzipHeaderLength() < 0)
+              break;
+            inflater = new Inflater(true);
+            pending.clear();
+            state = BODY;
+          } else {
+            // deflate should be zlib-wrapped, but some servers send it raw.
+            int cmf = pending.byteAt(0) & 0xff;
+            boolean zlibMethod = (cmf & 0x0f) == 8 && (cmf >> 4) <= 7;
+            if (zlibMethod && pending.length() < 2)
+              break;
+            boolean zlib = zlibMethod && ((cmf << 8) | (pending.byteAt(1) & 0xff)) % 31 == 0;
+            inflater = new Inflater(!zlib);
+            ByteBuffer head = ByteBuffer.wrap(pending.toByteArray());
+            pending.clear();
+            state = BODY;
+            // The Inflater reads the zlib header itself.
+            inflate(head, sink);
+          }
+          break;
+        case BODY:
+          byte[] chunk = new byte[in.remaining()];
+          in.get(chunk);
+          inflater.setInput(chunk);
+          drain(sink);
+          if (inflater.finished()) {
+            int remaining = inflater.getRemaining();
+            in = ByteBuffer.wrap(chunk, chunk.length - remaining, remaining);
+            inflater.end();
+            state = gzip ? TRAILER : DONE;
+          }
+          break;
+        case TRAILER:
+          pending.append(in.get());
+          if (pending.length() == 8) {
+            checkTrailer();
+            state = DONE;
+          }
+          break;
+        case DONE:
+          throw new ZipException("Unexpected data after the end of the coded body");
+      }
+    }
+  }
+
+  /**
+   * Check, once there are no more bytes, that the whole body was received.
+   *
+   * @throws ZipException Thrown if the body was cut short
+   */
+  void finish() throws ZipException {
+    if (state != DONE) {
+      if (inflater != null)
+        inflater.end();
+      throw new ZipException("Unexpected end of the coded body");
+    }
+  }
+
+  private void drain(Sink sink) throws IOException {
+    try {
+      int count;
+      while ((count = inflater.inflate(output)) > 0) {
+        if (gzip)
+          crc.update(output, 0, count);
+        written += count;
+        sink.write(ByteBuffer.wrap(output, 0, count));
+      }
+      if (inflater.needsDictionary())
+        throw new ZipException("Deflate dictionaries are not supported");
+    } catch (DataFormatException e) {
+      throw new ZipException("Invalid coded body: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Find the length of the gzip header in the pending bytes.
+   *
+   * @return The length of the header, or -1 if more bytes are needed
+   * @throws ZipException Thrown if the header is not a gzip header
+   */
+  private int gzipHeaderLength() throws ZipException {
+    byte[] b = pending.buffer();
+    int len = pending.length();
+
+    if (len < 10)
+      return -1;
+    if ((b[0] & 0xff) != 0x1f || (b[1] & 0xff) != 0x8b)
+      throw new ZipException("Not in gzip format");
+    if (b[2] != 8)
+      throw new ZipException("Unsupported gzip compression method");
+
+    int flags = b[3] & 0xff;
+    int pos = 10;
+    if ((flags & FEXTRA) != 0) {
+      if (len < pos + 2)
+        return -1;
+      pos += 2 + ((b[pos] & 0xff) | ((b[pos + 1] & 0xff) << 8));
+    }
+    if ((flags & FNAME) != 0) {
+      pos = skipZeroTerminated(b, pos, len);
+      if (pos < 0)
+        return -1;
+    }
+    if ((flags & FCOMMENT) != 0) {
+      pos = skipZeroTerminated(b, pos, len);
+      if (pos < 0)
+        return -1;
+    }
+    if ((flags & FHCRC) != 0)
+      pos += 2;
+    return len < pos ? -1 : pos;
+  }
+
+  private static int skipZeroTerminated(byte[] b, int pos, int len) {
+    while (pos < len) {
+      if (b[pos++] == 0)
+        return pos;
+    }
+    return -1;
+  }
+
+  private void checkTrailer() throws ZipException {
+    byte[] b = pending.buffer();
+    long expectedCrc = readInt(b, 0);
+    long expectedSize = readInt(b, 4);
+    if (expectedCrc != crc.getValue())
+      throw new ZipException("Corrupt gzip body: CRC mismatch");
+    if (expectedSize != (written & 0xffffffffL))
+      throw new ZipException("Corrupt gzip body: size mismatch");
+  }
+
+  private static long readInt(byte[] b, int off) {
+    return (b[off] & 0xffL) | ((b[off + 1] & 0xffL) << 8) | ((b[off + 2] & 0xffL) << 16)
+        | ((b[off + 3] & 0xffL) << 24);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.AsyncByteConsumer;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * DecodingByteConsumer extends AsyncByteConsumer to undo any gzip or deflate
+ * Content-Encoding of the response as its bytes arrive, so that the consumers
+ * built on it see only the decoded body, just as ResponseContentEncoding
+ * arranges for the synchronous client.
+ */
+abstract class DecodingByteConsumer<T> extends AsyncByteConsumer<T> {
+  private ContentInflater inflater = null;
+
+  /**
+   * Receive the decoded bytes of the response body.
+   *
+   * @param buf A ByteBuffer that holds the bytes decoded
+   * @param ioctrl An IOControl object
+   * @throws IOException Arises if an issue occurs with the bytes received
+   */
+  protected abstract void onBodyReceived(ByteBuffer buf, IOControl ioctrl) throws IOException;
+
+  /**
+   * Check that a coded response body was received in full. Consumers should
+   * call this before making use of the body.
+   *
+   * @throws IOException Thrown if the coded body was cut short
+   */
+  protected void finishBody() throws IOException {
+    if (inflater != null)
+      inflater.finish();
+  }
+
+  /**
+   * Set up decoding for the response's Content-Encoding, if any, before
+   * handing the response on.
+   *
+   * @param response The HttpResponse received
+   * @throws IOException Thrown if the Content-Encoding is not supported
+   */
+  @Override
+  public synchronized void responseReceived(HttpResponse response) throws IOException,
+      HttpException {
+    Header encoding = response.getFirstHeader(HTTP.CONTENT_ENCODING);
+    inflater = ContentInflater.forEncoding(encoding == null ? null : encoding.getValue());
+    super.responseReceived(response);
+  }
+
+  @Override
+  protected final void onByteReceived(ByteBuffer buf, final IOControl ioctrl) throws IOException {
+    if (inflater == null) {
+      onBodyReceived(buf, ioctrl);
+    } else {
+      inflater.inflate(buf, new ContentInflater.Sink() {
+        public void write(ByteBuffer decoded) throws IOException {
+          onBodyReceived(decoded, ioctrl);
+        }
+      });
+    }
+  }
+}
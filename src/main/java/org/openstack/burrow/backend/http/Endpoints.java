@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpHost;
+import org.openstack.burrow.backend.Scheduler;
+
+/**
+ * Endpoints is the set of burrow servers an Http or AsyncHttp spreads its
+ * requests over. Each request goes to the less loaded of two healthy endpoints
+ * picked at random, load being the number of requests outstanding, which
+ * comes close to always picking the least loaded without every client piling
+ * onto the same one.
+ * <p>
+ * An endpoint is ejected after FAILURE_THRESHOLD requests to it fail in a row,
+ * or when a health probe of it fails or takes longer than the probe timeout.
+ * Every endpoint is probed in the background, and an ejected one is
+ * re-admitted as soon as a probe of it succeeds. If every endpoint has been
+ * ejected, requests are spread over all of them regardless. A single endpoint
+ * is never probed.
+ * <p>
+ * The schedule only starts the probes, which block, on threads of their own,
+ * all at once. A dead server then holds up neither the probes of the others
+ * nor anything else on the schedule's executor, and a server still being
+ * probed from the last round is skipped rather than probed twice.
+ */
+public class Endpoints {
+  /** The time between probes of each endpoint by default, in milliseconds. */
+  public static final long DEFAULT_PROBE_INTERVAL = 5000;
+
+  /** The time a probe may take by default, in milliseconds. */
+  public static final int DEFAULT_PROBE_TIMEOUT = 1000;
+
+  /** The number of requests which must fail in a row to eject an endpoint. */
+  public static final int FAILURE_THRESHOLD = 3;
+
+  private static ExecutorService probeThreads = null;
+
+  private final List<Endpoint> endpoints;
+  private final int probeTimeout;
+  private final ScheduledFuture<?> probes;
+
+  /**
+   * A burrow server, and the requests outstanding to it.
+   */
+  public static class Endpoint {
+    private final HttpHost host;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean probing = new AtomicBoolean();
+    private volatile boolean healthy = true;
+
+    Endpoint(HttpHost host) {
+      this.host = host;
+    }
+
+    /**
+     * Get the server's address.
+     *
+     * @return The scheme, host and port of the server.
+     */
+    public HttpHost getHost() {
+      return host;
+    }
+
+    /**
+     * Get the number of requests to the server which have not finished.
+     *
+     * @return The number of requests outstanding.
+     */
+    public int getOutstanding() {
+      return outstanding.get();
+    }
+
+    /**
+     * Test whether the server is taking requests.
+     *
+     * @return False if the server has been ejected.
+     */
+    public boolean isHealthy() {
+      return healthy;
+    }
+
+    /**
+     * Record that a request to the server got a response.
+     */
+    void succeeded() {
+      failures.set(0);
+    }
+
+    /**
+     * Record that a request to the server got no response, ejecting it if
+     * enough have failed in a row.
+     */
+    void failed() {
+      if (failures.incrementAndGet() >= FAILURE_THRESHOLD)
+        healthy = false;
+    }
+
+    /**
+     * Record that a request to the server has finished.
+     */
+    void release() {
+      outstanding.decrementAndGet();
+    }
+
+    void probed(boolean ok) {
+      if (ok)
+        failures.set(0);
+      healthy = ok;
+    }
+
+    @Override
+    public String toString() {
+      return host.toURI();
+    }
+  }
+
+  /**
+   * Construct Endpoints for the given servers, probing them from the shared
+   * Scheduler every DEFAULT_PROBE_INTERVAL milliseconds.
+   *
+   * @param hosts The servers.
+   */
+  public Endpoints(List<HttpHost> hosts) {
+    this(hosts, DEFAULT_PROBE_INTERVAL, DEFAULT_PROBE_TIMEOUT, Scheduler.getDefault());
+  }
+
+  /**
+   * Construct Endpoints for the given servers.
+   *
+   * @param hosts The servers.
+   * @param probeInterval The time between probes of each server, in
+   *          milliseconds.
+   * @param probeTimeout The time a probe may take before the server is deemed
+   *          too slow, in milliseconds.
+   * @param executor The executor on which to schedule the probes, which run
+   *          on threads of their own.
+   */
+  public Endpoints(List<HttpHost> hosts, long probeInterval, int probeTimeout,
+      ScheduledExecutorService executor) {
+    if (hosts == null || hosts.isEmpty())
+      throw new IllegalArgumentException("There must be at least one endpoint.");
+    if (probeInterval <= 0 || probeTimeout <= 0)
+      throw new IllegalArgumentException("Probe interval and timeout must be positive.");
+    List<Endpoint> endpoints = new ArrayList<Endpoint>(hosts.size());
+    for (HttpHost host : hosts)
+      endpoints.add(new Endpoint(host));
+    this.endpoints = Collections.unmodifiableList(endpoints);
+    this.probeTimeout = probeTimeout;
+    if (endpoints.size() > 1)
+      this.probes =
+          executor.scheduleWithFixedDelay(new Prober(this), probeInterval, probeInterval,
+              TimeUnit.MILLISECONDS);
+    else
+      this.probes = null;
+  }
+
+  /**
+   * Construct Endpoints for a single server, which is never probed.
+   *
+   * @param host The host name of the server.
+   * @param port The port of the server.
+   */
+  Endpoints(String host, int port) {
+    this(Collections.singletonList(new HttpHost(host, port)));
+  }
+
+  /**
+   * Probes every endpoint, for as long as the Endpoints are in use.
+   */
+  private static class Prober implements Runnable {
+    private final WeakReference<Endpoints> endpoints;
+
+    Prober(Endpoints endpoints) {
+      this.endpoints = new WeakReference<Endpoints>(endpoints);
+    }
+
+    public void run() {
+      Endpoints endpoints = this.endpoints.get();
+      if (endpoints == null) {
+        // Throwing cancels the schedule.
+        throw new IllegalStateException("Endpoints no longer in use.");
+      }
+      endpoints.probeAll();
+    }
+  }
+
+  private static synchronized ExecutorService getProbeThreads() {
+    if (probeThreads == null) {
+      // Idle threads exit after a minute, so there are none between rounds
+      // with the default interval.
+      probeThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "burrow-probe");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return probeThreads;
+  }
+
+  /**
+   * Start a probe of every server not still being probed, each on a thread of
+   * its own, without waiting for them to finish.
+   */
+  void probeAll() {
+    for (final Endpoint endpoint : endpoints) {
+      if (!endpoint.probing.compareAndSet(false, true))
+        continue;
+      getProbeThreads().execute(new Runnable() {
+        public void run() {
+          try {
+            endpoint.probed(probe(endpoint));
+          } finally {
+            endpoint.probing.set(false);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Get the servers.
+   *
+   * @return An unmodifiable List of the Endpoints.
+   */
+  public List<Endpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  /**
+   * Get the server whose address requests are built with.
+   *
+   * @return The first server given.
+   */
+  HttpHost getPrimary() {
+    return endpoints.get(0).getHost();
+  }
+
+  /**
+   * Choose the server to which to send a request. The request is counted as
+   * outstanding until the Endpoint is released.
+   *
+   * @return The less loaded of two healthy servers chosen at random.
+   */
+  Endpoint choose() {
+    Endpoint chosen;
+    if (endpoints.size() == 1) {
+      chosen = endpoints.get(0);
+    } else {
+      List<Endpoint> candidates = new ArrayList<Endpoint>(endpoints.size());
+      for (Endpoint endpoint : endpoints) {
+        if (endpoint.isHealthy())
+          candidates.add(endpoint);
+      }
+      if (candidates.isEmpty())
+        candidates = endpoints;
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      chosen = candidates.get(random.nextInt(candidates.size()));
+      if (candidates.size() > 1) {
+        int other = random.nextInt(candidates.size() - 1);
+        Endpoint second = candidates.get(other >= candidates.indexOf(chosen) ? other + 1 : other);
+        if (second.getOutstanding() < chosen.getOutstanding())
+          chosen = second;
+      }
+    }
+    chosen.outstanding.incrementAndGet();
+    return chosen;
+  }
+
+  /**
+   * Check that a server answers a cheap request promptly. Any response other
+   * than a server error will do.
+   *
+   * @param endpoint The server to probe.
+   * @return True if the server is healthy.
+   */
+  boolean probe(Endpoint endpoint) {
+    HttpURLConnection connection = null;
+    try {
+      URL url = new URL(endpoint.getHost().toURI() + "/v1.0?limit=1&detail=none");
+      connection = (HttpURLConnection) url.openConnection();
+      connection.setConnectTimeout(probeTimeout);
+      connection.setReadTimeout(probeTimeout);
+      connection.setUseCaches(false);
+      long start = System.nanoTime();
+      int status = connection.getResponseCode();
+      InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+      if (body != null) {
+        // A server which answers slowly is no healthier for answering at all.
+        byte[] buf = new byte[1024];
+        while (body.read(buf) != -1) {
+        }
+        body.close();
+      }
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      return status < 500 && elapsed <= probeTimeout;
+    } catch (IOException e) {
+      return false;
+    } finally {
+      if (connection != null)
+        connection.disconnect();
+    }
+  }
+
+  /**
+   * Stop probing the servers.
+   */
+  public void shutdown() {
+    if (probes != null)
+      probes.cancel(false);
+  }
+}
@@ -16,8 +16,13 @@
 
 package org.openstack.burrow.backend.http;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
@@ -26,10 +31,26 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SchemeSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 import org.openstack.burrow.backend.Backend;
 import org.openstack.burrow.backend.CommandException;
 import org.openstack.burrow.backend.HttpProtocolException;
+import org.openstack.burrow.backend.MessageHandler;
+import org.openstack.burrow.backend.Reaper;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
 import org.openstack.burrow.client.Account;
 import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.Queue;
@@ -50,17 +71,307 @@ import org.openstack.burrow.client.methods.UpdateMessages;
  * and receive responses from the server
  */
 public class Http extends BaseHttp implements Backend {
+  /** The default limit on open connections, in total and to the server. */
+  public static final int DEFAULT_MAX_CONNECTIONS = 200;
+
+  /**
+   * The default time a pooled connection may sit idle before it is closed, in
+   * milliseconds.
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
   private HttpClient client;
+  private ThreadSafeClientConnManager connectionManager;
+  private Evictor evictor;
 
   /**
-   * Constructor for Http that takes a host name and port number as arguments
+   * Constructor for Http that takes a host name and port number as arguments.
+   * Connections are pooled, up to DEFAULT_MAX_CONNECTIONS, and idle ones are
+   * closed by the default Reaper.
    * 
    * @param host A host name as a String
    * @param port A port number as an int
    */
   public Http(String host, int port) {
-    super(host, port);
-    this.client = new DefaultHttpClient();
+    this(host, port, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT,
+        Reaper.getDefault());
+  }
+
+  /**
+   * Constructor for Http that takes a host name, port number and connection
+   * pool settings as arguments. The instance may be shared by any number of
+   * threads; each request takes a connection from the pool, opening one if
+   * none is idle and the limits allow, and returns it for reuse when the
+   * response has been read.
+   * 
+   * @param host A host name as a String
+   * @param port A port number as an int
+   * @param maxTotal The most connections open at once, to any route
+   * @param maxPerRoute The most connections open at once to one route
+   * @param idleTimeout The time in milliseconds a connection may sit idle in
+   *          the pool, or be kept alive when the server does not say
+   * @param reaper The Reaper which closes expired and idle connections
+   */
+  public Http(String host, int port, int maxTotal, int maxPerRoute, long idleTimeout,
+      Reaper reaper) {
+    this(new Endpoints(host, port), maxTotal, maxPerRoute, idleTimeout, reaper);
+  }
+
+  /**
+   * Constructor for Http that takes the servers to which to send requests as
+   * an argument, with the default connection pool settings. Each request is
+   * sent to whichever server the Endpoints choose.
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   */
+  public Http(Endpoints endpoints) {
+    this(endpoints, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT,
+        Reaper.getDefault());
+  }
+
+  /**
+   * Constructor for Http that takes the servers to which to send requests and
+   * connection pool settings as arguments. The connection limits apply to
+   * each server separately as well as in total.
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   * @param maxTotal The most connections open at once, to any route
+   * @param maxPerRoute The most connections open at once to one route
+   * @param idleTimeout The time in milliseconds a connection may sit idle in
+   *          the pool, or be kept alive when the server does not say
+   * @param reaper The Reaper which closes expired and idle connections
+   */
+  public Http(Endpoints endpoints, int maxTotal, int maxPerRoute, long idleTimeout,
+      Reaper reaper) {
+    this(endpoints, SchemeRegistryFactory.createDefault(), maxTotal, maxPerRoute, idleTimeout,
+        reaper);
+  }
+
+  /**
+   * Constructor for Http that takes the path of the Unix domain socket a
+   * burrow server on this host listens on as an argument, with the default
+   * connection pool settings. Requests are the same as over TCP, but skip the
+   * loopback network stack. Unix domain sockets need Java 16 or later, both
+   * to build and to run.
+   * 
+   * @param socket The socket file of the server
+   * @throws UnsupportedOperationException Thrown if run on a Java older than
+   *           16, or built without Unix domain socket support
+   */
+  public Http(File socket) {
+    this(socket, DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT, Reaper.getDefault());
+  }
+
+  /**
+   * Constructor for Http that takes the path of the Unix domain socket a
+   * burrow server on this host listens on and connection pool settings as
+   * arguments.
+   * 
+   * @param socket The socket file of the server
+   * @param maxConnections The most connections open at once
+   * @param idleTimeout The time in milliseconds a connection may sit idle in
+   *          the pool, or be kept alive when the server does not say
+   * @param reaper The Reaper which closes expired and idle connections
+   * @throws UnsupportedOperationException Thrown if run on a Java older than
+   *           16, or built without Unix domain socket support
+   */
+  public Http(File socket, int maxConnections, long idleTimeout, Reaper reaper) {
+    // The host and port only name the server in requests; every connection
+    // goes to the socket.
+    this(new Endpoints("localhost", 80), unixSchemes(socket), maxConnections, maxConnections,
+        idleTimeout, reaper);
+  }
+
+  private Http(Endpoints endpoints, SchemeRegistry schemes, int maxTotal, int maxPerRoute,
+      long idleTimeout, Reaper reaper) {
+    super(endpoints);
+    if (maxTotal <= 0 || maxPerRoute <= 0)
+      throw new IllegalArgumentException("Connection limits must be positive.");
+    if (idleTimeout <= 0)
+      throw new IllegalArgumentException("Idle timeout must be positive.");
+    this.connectionManager = new ThreadSafeClientConnManager(schemes);
+    this.connectionManager.setMaxTotal(maxTotal);
+    this.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+    DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+    client.setKeepAliveStrategy(new KeepAliveStrategy(idleTimeout));
+    client.addRequestInterceptor(new AcceptEncoding());
+    client.addResponseInterceptor(new ResponseContentEncoding());
+    this.client = client;
+    this.evictor = new Evictor(this, connectionManager, idleTimeout, reaper);
+    reaper.register(evictor);
+  }
+
+  /**
+   * Builds a SchemeRegistry which connects http requests to a Unix domain
+   * socket. UnixSocketFactory is built for Java 16 apart from the rest, and
+   * only when the build runs on Java 16 or later, so it is loaded by name.
+   * 
+   * @param socket The socket file of the server
+   * @return The SchemeRegistry
+   * @throws UnsupportedOperationException Thrown if this Java or this build
+   *           lacks Unix domain sockets
+   */
+  private static SchemeRegistry unixSchemes(File socket) {
+    SchemeSocketFactory factory;
+    try {
+      factory =
+          (SchemeSocketFactory) Class.forName(Http.class.getPackage().getName()
+              + ".UnixSocketFactory").getDeclaredConstructor(File.class).newInstance(socket);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException(e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later.", e);
+    } catch (LinkageError e) {
+      throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later.", e);
+    }
+    SchemeRegistry schemes = new SchemeRegistry();
+    schemes.register(new Scheme("http", 80, factory));
+    return schemes;
+  }
+
+  /**
+   * Keeps connections alive for as long as the server allows, but no longer
+   * than the idle timeout, past which the evictor would close them anyway.
+   */
+  static class KeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+    private final long idleTimeout;
+
+    KeepAliveStrategy(long idleTimeout) {
+      this.idleTimeout = idleTimeout;
+    }
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+      long duration = super.getKeepAliveDuration(response, context);
+      return duration < 0 ? idleTimeout : Math.min(duration, idleTimeout);
+    }
+  }
+
+  /**
+   * Closes pooled connections which have expired or sat idle too long, so
+   * that the pool does not hand out sockets the server has given up on. It
+   * holds the backend weakly, and shuts the pool down once the backend is
+   * gone.
+   */
+  private static class Evictor implements Reaper.Target {
+    private final WeakReference<Http> http;
+    private final ThreadSafeClientConnManager connectionManager;
+    private final long idleTimeout;
+    private final Reaper reaper;
+
+    Evictor(Http http, ThreadSafeClientConnManager connectionManager, long idleTimeout,
+        Reaper reaper) {
+      this.http = new WeakReference<Http>(http);
+      this.connectionManager = connectionManager;
+      this.idleTimeout = idleTimeout;
+      this.reaper = reaper;
+    }
+
+    public boolean reap(Reaper.Slice slice) {
+      if (http.get() == null) {
+        shutdown();
+        return true;
+      }
+
+      int before = connectionManager.getConnectionsInPool();
+      connectionManager.closeExpiredConnections();
+      connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+      slice.reclaimed(Math.max(0, before - connectionManager.getConnectionsInPool()));
+      return true;
+    }
+
+    void shutdown() {
+      reaper.unregister(this);
+      connectionManager.shutdown();
+    }
+  }
+
+  /**
+   * Get the number of connections in the pool.
+   * 
+   * @return The number of connections open, whether leased or idle
+   */
+  int getPooled() {
+    return connectionManager.getConnectionsInPool();
+  }
+
+  /**
+   * Connections are opened as requests need them, so there is nothing to
+   * start.
+   */
+  @Override
+  public void start() {
+    if (inFlight.isClosed())
+      throw new IllegalStateException("Backend has been shut down.");
+  }
+
+  /**
+   * Close all pooled connections, and stop evicting idle ones and probing the
+   * servers. Requests in flight fail as their connections are closed, and any
+   * made afterwards are rejected.
+   */
+  @Override
+  public void shutdown() {
+    inFlight.close();
+    evictor.shutdown();
+    endpoints.shutdown();
+  }
+
+  /**
+   * Reject new requests and wait for those in flight to finish, then close
+   * all pooled connections as shutdown() does.
+   * 
+   * @param timeout The most time to wait for requests in flight
+   * @param unit The unit of the timeout
+   * @return True if every request in flight finished in time
+   * @throws InterruptedException Thrown if interrupted while waiting
+   */
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    boolean drained = inFlight.await(timeout, unit);
+    shutdown();
+    return drained;
+  }
+
+  /**
+   * Sends a request to a server, keeping track of whether the server answers.
+   * A timeout bounds each wait the request makes: for a pooled connection, to
+   * connect, and for each read of the response, which HttpClient takes from
+   * the request's parameters over its own. Running out of the timeout, or of
+   * pooled connections, is the caller's limit rather than the server's
+   * failure, so does not count against the server.
+   * 
+   * @param endpoint The server, as chosen by the Endpoints
+   * @param httpRequest The request, whose URI is rewritten for the server
+   * @param timeout The timeout in milliseconds, or null for none
+   * @return The server's response
+   * @throws IOException Thrown if the server cannot be reached, or the timeout
+   *           runs out
+   */
+  @SuppressWarnings("deprecation")
+  private HttpResponse send(Endpoint endpoint, HttpUriRequest httpRequest, Long timeout)
+      throws IOException {
+    if (timeout != null) {
+      HttpParams params = httpRequest.getParams();
+      int millis = (int) Math.min(timeout, Integer.MAX_VALUE);
+      // HttpClient 4.1 bounds the wait for a pooled connection by the connect
+      // timeout, while 4.0 and 4.2 on read the connection manager's timeout.
+      ConnManagerParams.setTimeout(params, millis);
+      HttpConnectionParams.setConnectionTimeout(params, millis);
+      HttpConnectionParams.setSoTimeout(params, millis);
+    }
+    try {
+      HttpResponse response = client.execute(endpoint.getHost(), httpRequest);
+      endpoint.succeeded();
+      return response;
+    } catch (IOException e) {
+      if (!(e instanceof ConnectionPoolTimeoutException)
+          && !(timeout != null && e instanceof InterruptedIOException))
+        endpoint.failed();
+      throw e;
+    }
   }
 
   /**
@@ -75,8 +386,9 @@ public class Http extends BaseHttp implements Backend {
   @Override
   public Message execute(CreateMessage request) throws CommandException, HttpProtocolException {
     HttpPut httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleSingleMessageHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -84,6 +396,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -100,8 +414,9 @@ public class Http extends BaseHttp implements Backend {
   public List<Account> execute(DeleteAccounts request) throws CommandException,
       HttpProtocolException {
     HttpDelete httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleMultipleAccountHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -109,6 +424,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -124,8 +441,9 @@ public class Http extends BaseHttp implements Backend {
   @Override
   public Message execute(DeleteMessage request) throws CommandException, HttpProtocolException {
     HttpDelete httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleSingleMessageHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -133,6 +451,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -149,8 +469,9 @@ public class Http extends BaseHttp implements Backend {
   public List<Message> execute(DeleteMessages request) throws CommandException,
       HttpProtocolException {
     HttpDelete httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleMultipleMessageHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -158,6 +479,38 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
+    }
+  }
+
+  /**
+   * Executes a DeleteMessages request synchronously, passing each Message to a
+   * MessageHandler as it is decoded instead of returning a List
+   * 
+   * @param request The DeleteMessages request object to execute
+   * @param handler The MessageHandler to which to pass each Message
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  public void execute(DeleteMessages request, MessageHandler handler) throws CommandException,
+      HttpProtocolException {
+    if (handler == null)
+      throw new IllegalArgumentException("Handler may not be null.");
+    HttpDelete httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
+    try {
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
+      handleMultipleMessageHttpResponse(response, handler);
+    } catch (ClientProtocolException e) {
+      // Thrown by client.execute()
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } catch (IOException e) {
+      // Thrown by client.execute()
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -174,8 +527,9 @@ public class Http extends BaseHttp implements Backend {
   public List<Queue> execute(DeleteQueues request) throws CommandException, HttpProtocolException {
     HttpDelete httpRequest = getHttpRequest(request);
     Account account = request.getAccount();
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleMultipleQueueHttpResponse(account, response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -183,6 +537,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -198,8 +554,9 @@ public class Http extends BaseHttp implements Backend {
   @Override
   public List<Account> execute(GetAccounts request) throws CommandException, HttpProtocolException {
     HttpGet httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleMultipleAccountHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -207,6 +564,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -222,8 +581,9 @@ public class Http extends BaseHttp implements Backend {
   @Override
   public Message execute(GetMessage request) throws CommandException, HttpProtocolException {
     HttpGet httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleSingleMessageHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -231,6 +591,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -246,8 +608,9 @@ public class Http extends BaseHttp implements Backend {
   @Override
   public List<Message> execute(GetMessages request) throws CommandException, HttpProtocolException {
     HttpGet httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleMultipleMessageHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -255,6 +618,38 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
+    }
+  }
+
+  /**
+   * Executes a GetMessages request synchronously, passing each Message to a
+   * MessageHandler as it is decoded instead of returning a List
+   * 
+   * @param request The GetMessages request object to execute
+   * @param handler The MessageHandler to which to pass each Message
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  public void execute(GetMessages request, MessageHandler handler) throws CommandException,
+      HttpProtocolException {
+    if (handler == null)
+      throw new IllegalArgumentException("Handler may not be null.");
+    HttpGet httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
+    try {
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
+      handleMultipleMessageHttpResponse(response, handler);
+    } catch (ClientProtocolException e) {
+      // Thrown by client.execute()
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } catch (IOException e) {
+      // Thrown by client.execute()
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -271,8 +666,9 @@ public class Http extends BaseHttp implements Backend {
   public List<Queue> execute(GetQueues request) throws CommandException, HttpProtocolException {
     HttpGet httpRequest = getHttpRequest(request);
     Account account = request.getAccount();
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleMultipleQueueHttpResponse(account, response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -280,6 +676,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -295,8 +693,9 @@ public class Http extends BaseHttp implements Backend {
   @Override
   public Message execute(UpdateMessage request) throws CommandException, HttpProtocolException {
     HttpPost httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleSingleMessageHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -304,6 +703,8 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 
@@ -320,8 +721,9 @@ public class Http extends BaseHttp implements Backend {
   public List<Message> execute(UpdateMessages request) throws CommandException,
       HttpProtocolException {
     HttpPost httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
     try {
-      HttpResponse response = client.execute(httpRequest);
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
       return handleMultipleMessageHttpResponse(response);
     } catch (ClientProtocolException e) {
       // Thrown by client.execute()
@@ -329,6 +731,38 @@ public class Http extends BaseHttp implements Backend {
     } catch (IOException e) {
       // Thrown by client.execute()
       throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
+    }
+  }
+
+  /**
+   * Executes a UpdateMessages request synchronously, passing each Message to a
+   * MessageHandler as it is decoded instead of returning a List
+   * 
+   * @param request The UpdateMessages request object to execute
+   * @param handler The MessageHandler to which to pass each Message
+   * @throws CommandException Thrown if cannot process the request
+   * @throws HttpProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  public void execute(UpdateMessages request, MessageHandler handler) throws CommandException,
+      HttpProtocolException {
+    if (handler == null)
+      throw new IllegalArgumentException("Handler may not be null.");
+    HttpPost httpRequest = getHttpRequest(request);
+    Endpoint endpoint = choose();
+    try {
+      HttpResponse response = send(endpoint, httpRequest, request.getTimeout());
+      handleMultipleMessageHttpResponse(response, handler);
+    } catch (ClientProtocolException e) {
+      // Thrown by client.execute()
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } catch (IOException e) {
+      // Thrown by client.execute()
+      throw new HttpProtocolException("Error executing HTTP request: " + e);
+    } finally {
+      release(endpoint);
     }
   }
 }
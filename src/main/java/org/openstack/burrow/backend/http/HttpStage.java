@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.nio.concurrent.FutureCallback;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.SyncBasicHttpContext;
+
+/**
+ * HttpStage is a CompletableFuture completed by the HttpAsyncClient's callback
+ * when an exchange finishes, so that dependent stages run on the I/O dispatch
+ * thread instead of on a thread blocked in get(). Cancelling the stage, or
+ * completing it exceptionally, as a timeout does, aborts the exchange: the
+ * future of the exchange is cancelled, and the connection it was given is shut
+ * down, at once if it already has one and as soon as it is leased otherwise.
+ *
+ * @param <T> The type of the response consumer's result.
+ */
+class HttpStage<T> extends CompletableFuture<T> implements FutureCallback<T> {
+  private volatile Future<?> exchange;
+  private volatile boolean aborted = false;
+  private final HttpContext context = new SyncBasicHttpContext(null) {
+    @Override
+    public void setAttribute(String id, Object obj) {
+      super.setAttribute(id, obj);
+      if (aborted && ExecutionContext.HTTP_CONNECTION.equals(id))
+        abortConnection(obj);
+    }
+  };
+
+  /**
+   * Attach the future returned by HttpAsyncClient.execute, so that it can be
+   * cancelled along with the stage.
+   *
+   * @param exchange The future of the exchange completing this stage.
+   * @return This stage.
+   */
+  HttpStage<T> attach(Future<?> exchange) {
+    this.exchange = exchange;
+    if (aborted) exchange.cancel(true);
+    return this;
+  }
+
+  /**
+   * Get the context in which to execute the exchange, through which the
+   * exchange's connection is found when it is to be aborted.
+   *
+   * @return The context of the exchange.
+   */
+  HttpContext getContext() {
+    return context;
+  }
+
+  @Override
+  public void completed(T result) {
+    complete(result);
+  }
+
+  @Override
+  public void failed(Exception ex) {
+    // The exchange is over, so there is nothing to abort.
+    super.completeExceptionally(ex);
+  }
+
+  @Override
+  public void cancelled() {
+    super.cancel(false);
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+    if (cancelled) abort();
+    return cancelled;
+  }
+
+  @Override
+  public boolean completeExceptionally(Throwable ex) {
+    boolean completed = super.completeExceptionally(ex);
+    if (completed) abort();
+    return completed;
+  }
+
+  private void abort() {
+    aborted = true;
+    Future<?> exchange = this.exchange;
+    if (exchange != null) exchange.cancel(true);
+    abortConnection(context.getAttribute(ExecutionContext.HTTP_CONNECTION));
+  }
+
+  private static void abortConnection(Object connection) {
+    // A connection already released by a finished exchange ignores this.
+    if (connection instanceof ConnectionReleaseTrigger) {
+      try {
+        ((ConnectionReleaseTrigger) connection).abortConnection();
+      } catch (IOException e) {
+        // The connection is being discarded anyway.
+      }
+    }
+  }
+}
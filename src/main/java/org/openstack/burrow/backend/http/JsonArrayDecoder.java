@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.apache.http.util.ByteArrayBuffer;
+import org.json.JSONException;
+
+/**
+ * JsonArrayDecoder decodes a JSON array pushed to it in chunks of raw bytes,
+ * as they arrive from the network, and hands each element to a Handler as
+ * soon as its last byte has been seen. Only the bytes of the element being
+ * received are held; each is decoded from the response charset and parsed
+ * with a JsonReader when it is complete, so decoding overlaps the transfer of
+ * the rest of the array.
+ * <p>
+ * Elements are found by scanning the bytes for JSON structure outside of
+ * strings, which is sound for UTF-8 and any other charset in which those
+ * characters are single ASCII bytes.
+ */
+class JsonArrayDecoder {
+  /**
+   * Receives the elements of the array.
+   */
+  interface Handler {
+    /**
+     * Decode one element.
+     *
+     * @param element A JsonReader over exactly one element, which should be
+     *          consumed
+     * @throws IOException Thrown if the element cannot be read
+     * @throws JSONException Thrown if the element is not what is expected
+     */
+    void handle(JsonReader element) throws IOException, JSONException;
+  }
+
+  // Where in the array the decoder is.
+  private static final int BEFORE_ARRAY = 0;
+  private static final int FIRST_ELEMENT = 1;
+  private static final int NEXT_ELEMENT = 2;
+  private static final int IN_ELEMENT = 3;
+  private static final int AFTER_ELEMENT = 4;
+  private static final int AFTER_ARRAY = 5;
+
+  private final Charset charset;
+  private final Handler handler;
+  private final ByteArrayBuffer element = new ByteArrayBuffer(256);
+  private int state = BEFORE_ARRAY;
+  private int nesting = 0;
+  private boolean inString = false;
+  private boolean escaped = false;
+
+  /**
+   * Constructor for JsonArrayDecoder that takes the response charset and the
+   * Handler for elements as arguments
+   *
+   * @param charset The charset in which the array is encoded
+   * @param handler The Handler to which to pass each element
+   */
+  JsonArrayDecoder(Charset charset, Handler handler) {
+    this.charset = charset;
+    this.handler = handler;
+  }
+
+  /**
+   * Decode the next chunk of the array, passing any elements it completes to
+   * the Handler.
+   *
+   * @param buf The bytes received, which are all consumed
+   * @throws IOException Thrown if the Handler cannot read an element
+   * @throws JSONException Thrown if the bytes are not part of a well-formed
+   *           JSON array
+   */
+  void decode(ByteBuffer buf) throws IOException, JSONException {
+    while (buf.hasRemaining()) {
+      byte b = buf.get();
+
+      if (state == IN_ELEMENT) {
+        if (inString) {
+          element.append(b);
+          if (escaped)
+            escaped = false;
+          else if (b == '\\')
+            escaped = true;
+          else if (b == '"') {
+            inString = false;
+            if (nesting == 0)
+              complete();
+          }
+          continue;
+        } else if (nesting == 0) {
+          // A number or literal ends at the first byte which is not part of it.
+          if (!isWhitespace(b) && b != ',' && b != ']') {
+            element.append(b);
+            continue;
+          }
+          complete();
+        } else {
+          element.append(b);
+          if (b == '"')
+            inString = true;
+          else if (b == '{' || b == '[')
+            nesting++;
+          else if ((b == '}' || b == ']') && --nesting == 0)
+            complete();
+          continue;
+        }
+      }
+
+      if (isWhitespace(b))
+        continue;
+
+      switch (state) {
+        case BEFORE_ARRAY:
+          if (b != '[')
+            throw new JSONException("A JSONArray text must start with '['");
+          state = FIRST_ELEMENT;
+          break;
+        case FIRST_ELEMENT:
+        case NEXT_ELEMENT:
+          if (b == ']' && state == FIRST_ELEMENT) {
+            state = AFTER_ARRAY;
+          } else if (b == ',' || b == ']') {
+            throw new JSONException("Missing value in JSONArray");
+          } else {
+            element.append(b);
+            if (b == '"')
+              inString = true;
+            else if (b == '{' || b == '[')
+              nesting = 1;
+            state = IN_ELEMENT;
+          }
+          break;
+        case AFTER_ELEMENT:
+          if (b == ',')
+            state = NEXT_ELEMENT;
+          else if (b == ']')
+            state = AFTER_ARRAY;
+          else
+            throw new JSONException("Expected a ',' or ']'");
+          break;
+        case AFTER_ARRAY:
+          throw new JSONException("Unexpected data after the end of the JSONArray");
+      }
+    }
+  }
+
+  /**
+   * Check that the whole array has been decoded, once there are no more
+   * bytes.
+   *
+   * @throws JSONException Thrown if the array was not closed
+   */
+  void finish() throws JSONException {
+    if (state != AFTER_ARRAY)
+      throw new JSONException("Unterminated JSONArray");
+  }
+
+  private void complete() throws IOException, JSONException {
+    JsonReader reader =
+        new JsonReader(new InputStreamReader(new ByteArrayInputStream(element.buffer(), 0, element
+            .length()), charset));
+    handler.handle(reader);
+    if (reader.peek() != JsonReader.Token.END_DOCUMENT)
+      throw new JSONException("Element was not fully decoded");
+    element.clear();
+    state = AFTER_ELEMENT;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+}
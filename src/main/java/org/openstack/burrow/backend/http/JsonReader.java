@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONException;
+
+/**
+ * JsonReader is a pull-style JSON decoder. It reads tokens from a Reader one
+ * at a time, on demand, so that a response can be turned into Messages,
+ * Queues or Accounts as it is read, without holding the whole body as a
+ * String or as a JSONArray. Only a small buffer and the current value are
+ * held.
+ */
+class JsonReader implements Closeable {
+  /**
+   * The kinds of token a JsonReader can return from peek().
+   */
+  enum Token {
+    BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL,
+    END_DOCUMENT
+  }
+
+  // What the reader is inside of, and what it expects next there.
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_ARRAY = 2;
+  private static final int NONEMPTY_ARRAY = 3;
+  private static final int EMPTY_OBJECT = 4;
+  private static final int DANGLING_NAME = 5;
+  private static final int NONEMPTY_OBJECT = 6;
+
+  private final Reader in;
+  private final char[] buffer = new char[1024];
+  private int pos = 0;
+  private int limit = 0;
+  private int[] stack = new int[16];
+  private int depth = 0;
+  private Token peeked = null;
+  private String value = null;
+  private final StringBuilder builder = new StringBuilder();
+
+  /**
+   * Constructor for JsonReader that takes the Reader to decode as an argument
+   *
+   * @param in A Reader positioned at the start of a JSON document
+   */
+  JsonReader(Reader in) {
+    if (in == null)
+      throw new IllegalArgumentException("Reader may not be null.");
+    this.in = in;
+    push(EMPTY_DOCUMENT);
+  }
+
+  /**
+   * Get the kind of the next token without consuming it.
+   *
+   * @return The next token
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the input is not well-formed JSON
+   */
+  Token peek() throws IOException, JSONException {
+    if (peeked != null)
+      return peeked;
+
+    int c;
+    switch (stack[depth - 1]) {
+      case EMPTY_DOCUMENT:
+        stack[depth - 1] = NONEMPTY_DOCUMENT;
+        break;
+      case NONEMPTY_DOCUMENT:
+        if (nextNonWhitespace() != -1)
+          throw syntaxError("Unexpected data after the end of the document");
+        return peeked = Token.END_DOCUMENT;
+      case EMPTY_ARRAY:
+        c = nextNonWhitespace();
+        if (c == ']')
+          return peeked = Token.END_ARRAY;
+        if (c != -1)
+          pos--;
+        stack[depth - 1] = NONEMPTY_ARRAY;
+        break;
+      case NONEMPTY_ARRAY:
+        c = nextNonWhitespace();
+        if (c == ']')
+          return peeked = Token.END_ARRAY;
+        if (c != ',')
+          throw syntaxError("Expected ',' or ']'");
+        break;
+      case EMPTY_OBJECT:
+      case NONEMPTY_OBJECT:
+        c = nextNonWhitespace();
+        if (c == '}')
+          return peeked = Token.END_OBJECT;
+        if (stack[depth - 1] == NONEMPTY_OBJECT) {
+          if (c != ',')
+            throw syntaxError("Expected ',' or '}'");
+          c = nextNonWhitespace();
+        }
+        if (c != '"')
+          throw syntaxError("Expected a name");
+        value = readString();
+        stack[depth - 1] = DANGLING_NAME;
+        return peeked = Token.NAME;
+      case DANGLING_NAME:
+        if (nextNonWhitespace() != ':')
+          throw syntaxError("Expected ':'");
+        stack[depth - 1] = NONEMPTY_OBJECT;
+        break;
+    }
+
+    c = nextNonWhitespace();
+    switch (c) {
+      case '[':
+        return peeked = Token.BEGIN_ARRAY;
+      case '{':
+        return peeked = Token.BEGIN_OBJECT;
+      case '"':
+        value = readString();
+        return peeked = Token.STRING;
+      case 't':
+      case 'f':
+        value = readLiteral(c);
+        if (!"true".equals(value) && !"false".equals(value))
+          throw syntaxError("Unexpected literal " + value);
+        return peeked = Token.BOOLEAN;
+      case 'n':
+        value = readLiteral(c);
+        if (!"null".equals(value))
+          throw syntaxError("Unexpected literal " + value);
+        return peeked = Token.NULL;
+      case -1:
+        throw syntaxError("Unexpected end of input");
+      default:
+        if (c != '-' && (c < '0' || c > '9'))
+          throw syntaxError("Unexpected character '" + (char) c + "'");
+        value = readLiteral(c);
+        return peeked = Token.NUMBER;
+    }
+  }
+
+  /**
+   * Test whether the current array or object has another element.
+   *
+   * @return False if the next token ends the array, object or document
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the input is not well-formed JSON
+   */
+  boolean hasNext() throws IOException, JSONException {
+    Token token = peek();
+    return token != Token.END_ARRAY && token != Token.END_OBJECT && token != Token.END_DOCUMENT;
+  }
+
+  /**
+   * Consume the start of an array.
+   *
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token does not begin an array
+   */
+  void beginArray() throws IOException, JSONException {
+    expect(Token.BEGIN_ARRAY);
+    push(EMPTY_ARRAY);
+  }
+
+  /**
+   * Consume the end of the current array.
+   *
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token does not end an array
+   */
+  void endArray() throws IOException, JSONException {
+    expect(Token.END_ARRAY);
+    depth--;
+  }
+
+  /**
+   * Consume the start of an object.
+   *
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token does not begin an object
+   */
+  void beginObject() throws IOException, JSONException {
+    expect(Token.BEGIN_OBJECT);
+    push(EMPTY_OBJECT);
+  }
+
+  /**
+   * Consume the end of the current object.
+   *
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token does not end an object
+   */
+  void endObject() throws IOException, JSONException {
+    expect(Token.END_OBJECT);
+    depth--;
+  }
+
+  /**
+   * Consume the name of the next member of the current object.
+   *
+   * @return The name
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token is not a name
+   */
+  String nextName() throws IOException, JSONException {
+    expect(Token.NAME);
+    return value;
+  }
+
+  /**
+   * Consume a string value. Numbers are returned as their text.
+   *
+   * @return The string
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token is not a string or number
+   */
+  String nextString() throws IOException, JSONException {
+    Token token = peek();
+    if (token != Token.STRING && token != Token.NUMBER)
+      throw syntaxError("Expected a string but was " + token);
+    peeked = null;
+    return value;
+  }
+
+  /**
+   * Consume a numeric value as a long. Fractions are truncated, as by
+   * JSONObject.getLong().
+   *
+   * @return The number
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token is not a number, or a string
+   *           holding one
+   */
+  long nextLong() throws IOException, JSONException {
+    String number = nextString();
+    try {
+      return Long.parseLong(number);
+    } catch (NumberFormatException e) {
+      try {
+        return (long) Double.parseDouble(number);
+      } catch (NumberFormatException e1) {
+        throw syntaxError("Expected a number but was " + number);
+      }
+    }
+  }
+
+  /**
+   * Consume a boolean value.
+   *
+   * @return The boolean
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token is not a boolean
+   */
+  boolean nextBoolean() throws IOException, JSONException {
+    expect(Token.BOOLEAN);
+    return "true".equals(value);
+  }
+
+  /**
+   * Consume a null value.
+   *
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the next token is not null
+   */
+  void nextNull() throws IOException, JSONException {
+    expect(Token.NULL);
+  }
+
+  /**
+   * Consume the next value, including everything nested within it.
+   *
+   * @throws IOException Thrown if the underlying Reader fails
+   * @throws JSONException Thrown if the input is not well-formed JSON
+   */
+  void skipValue() throws IOException, JSONException {
+    int nesting = 0;
+    do {
+      switch (peek()) {
+        case BEGIN_ARRAY:
+          beginArray();
+          nesting++;
+          break;
+        case BEGIN_OBJECT:
+          beginObject();
+          nesting++;
+          break;
+        case END_ARRAY:
+          endArray();
+          nesting--;
+          break;
+        case END_OBJECT:
+          endObject();
+          nesting--;
+          break;
+        case END_DOCUMENT:
+          throw syntaxError("Unexpected end of document");
+        default:
+          peeked = null;
+      }
+    } while (nesting > 0);
+  }
+
+  /**
+   * Close the underlying Reader.
+   *
+   * @throws IOException Thrown if the underlying Reader fails to close
+   */
+  public void close() throws IOException {
+    peeked = null;
+    in.close();
+  }
+
+  private void expect(Token token) throws IOException, JSONException {
+    Token next = peek();
+    if (next != token)
+      throw syntaxError("Expected " + token + " but was " + next);
+    peeked = null;
+  }
+
+  private void push(int scope) {
+    if (depth == stack.length) {
+      int[] grown = new int[depth * 2];
+      System.arraycopy(stack, 0, grown, 0, depth);
+      stack = grown;
+    }
+    stack[depth++] = scope;
+  }
+
+  private boolean fill() throws IOException {
+    pos = 0;
+    limit = 0;
+    int count;
+    while ((count = in.read(buffer)) == 0) {
+      // A Reader may return zero characters without being at the end.
+    }
+    if (count < 0)
+      return false;
+    limit = count;
+    return true;
+  }
+
+  private int read() throws IOException {
+    if (pos == limit && !fill())
+      return -1;
+    return buffer[pos++];
+  }
+
+  private int nextNonWhitespace() throws IOException {
+    int c;
+    do {
+      c = read();
+    } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+    return c;
+  }
+
+  /**
+   * Read the rest of a string whose opening quote has been consumed, copying
+   * unescaped runs straight from the buffer.
+   */
+  private String readString() throws IOException, JSONException {
+    builder.setLength(0);
+    while (true) {
+      int start = pos;
+      while (pos < limit) {
+        char c = buffer[pos++];
+        if (c == '"') {
+          builder.append(buffer, start, pos - 1 - start);
+          return builder.toString();
+        } else if (c == '\\') {
+          builder.append(buffer, start, pos - 1 - start);
+          builder.append(readEscape());
+          start = pos;
+        }
+      }
+      builder.append(buffer, start, pos - start);
+      if (!fill())
+        throw syntaxError("Unterminated string");
+    }
+  }
+
+  private char readEscape() throws IOException, JSONException {
+    int c = read();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return (char) c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int code = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit < 0)
+            throw syntaxError("Malformed unicode escape");
+          code = (code << 4) | digit;
+        }
+        return (char) code;
+      default:
+        throw syntaxError("Invalid escape sequence");
+    }
+  }
+
+  /**
+   * Read a number or a bare word, the first character of which has been
+   * consumed.
+   */
+  private String readLiteral(int first) throws IOException {
+    builder.setLength(0);
+    builder.append((char) first);
+    while (true) {
+      int c = read();
+      if (c == -1)
+        break;
+      if ((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.'
+          || c == 'E') {
+        builder.append((char) c);
+      } else {
+        pos--;
+        break;
+      }
+    }
+    return builder.toString();
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at depth " + depth);
+  }
+}
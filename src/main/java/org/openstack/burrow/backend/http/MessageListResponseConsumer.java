@@ -17,7 +17,7 @@
 package org.openstack.burrow.backend.http;
 
 import java.io.IOException;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,27 +25,29 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.nio.IOControl;
-import org.apache.http.nio.client.methods.AsyncCharConsumer;
 import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.openstack.burrow.backend.BurrowRuntimeException;
 import org.openstack.burrow.backend.HttpProtocolException;
+import org.openstack.burrow.backend.MessageHandler;
 import org.openstack.burrow.backend.ProtocolException;
 import org.openstack.burrow.backend.QueueNotFoundException;
 import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.methods.MessageListRequest;
 
 /**
- * MessageListResponseConsumer extends AsyncCharConsumer and helps with
- * processing the response asynchronously from the server. Has a StringBuilder,
- * an Exception, a String denoting mimeType, and a MessageListRequest as fields.
+ * MessageListResponseConsumer extends DecodingByteConsumer and helps with
+ * processing the response asynchronously from the server. Each message is
+ * decoded by a JsonArrayDecoder as soon as its bytes have arrived, so the
+ * response is never buffered as text. Each is added to a List or, if the
+ * consumer was given one, passed straight to a MessageHandler. Has a
+ * JsonArrayDecoder, the List being built, a MessageHandler, and an Exception as
+ * fields.
  */
-public class MessageListResponseConsumer extends AsyncCharConsumer<List<Message>> {
-  private StringBuilder accumulator = null;
+public class MessageListResponseConsumer extends DecodingByteConsumer<List<Message>> {
+  private JsonArrayDecoder decoder = null;
+  private List<Message> messages = null;
+  private MessageHandler handler;
   private Exception exception = null;
-  private String mimeType = null;
   private MessageListRequest request;
 
   /**
@@ -55,65 +57,81 @@ public class MessageListResponseConsumer extends AsyncCharConsumer<List<Message>
    * @param request A MessageListRequest object
    */
   MessageListResponseConsumer(MessageListRequest request) {
+    this(request, null);
+  }
+
+  /**
+   * Constructor for MessageListResponse that takes a MessageListRequest object
+   * and a MessageHandler as arguments. The handler is called on the I/O
+   * reactor thread as each message is decoded, and the result is null.
+   * 
+   * @param request A MessageListRequest object
+   * @param handler The MessageHandler to which to pass each Message, or null
+   *          to build a List
+   */
+  MessageListResponseConsumer(MessageListRequest request, MessageHandler handler) {
     this.request = request;
+    this.handler = handler;
   }
 
   /**
    * Processes the response and builds a List of Messages to be returned to
    * client
    * 
-   * @return A List of Message objects
+   * @return A List of Message objects, or null if they were passed to a
+   *         MessageHandler
    * @throws Exception Arises if an issue has occurred with the response from
    *           the server
    */
   @Override
   protected List<Message> buildResult() throws Exception {
-    if (exception != null)
+    if (exception != null) {
       throw exception;
-    else if (accumulator == null) {
+    } else if (decoder == null) {
       // It was not an error condition but we do not care about the response
       // body.
       return null;
-    } else if ("application/json".equals(mimeType)) {
-      try {
-        JSONArray messagesJson = new JSONArray(accumulator.toString());
-        List<Message> messages = new ArrayList<Message>(messagesJson.length());
-        for (int idx = 0; idx < messagesJson.length(); idx++) {
-          JSONObject messageJson = messagesJson.getJSONObject(idx);
-          Message message = new MessageResponse(request, messageJson);
-          messages.add(idx, message);
-        }
-        return messages;
-      } catch (JSONException e) {
-        throw new ProtocolException("Unable to parse server response", e);
-      }
-    } else {
-      throw new BurrowRuntimeException(
-          "Unhandled circumstance in MessageListResponseConsumer; mimeType=" + mimeType + ", acc="
-              + accumulator);
     }
+    try {
+      finishBody();
+      decoder.finish();
+    } catch (JSONException e) {
+      throw new ProtocolException("Unable to parse server response", e);
+    }
+    return messages;
   }
 
   /**
-   * A function that helps with building the response
+   * Decodes the bytes received so far, handing over each message they
+   * complete. Once the response is found to be malformed, or the handler
+   * fails, the rest of it is ignored.
    * 
-   * @param buf A CharBuffer that holds the response received so far
+   * @param buf A ByteBuffer that holds the bytes received
    * @param ioctrl An IOControl object
-   * @throws IOException Arises if an issue occurs with adding the received
-   *           character
+   * @throws IOException Arises if an issue occurs reading a message
    */
   @Override
-  protected void onCharReceived(CharBuffer buf, IOControl ioctrl) throws IOException {
-    if (accumulator != null)
-      accumulator.append(buf);
+  protected void onBodyReceived(ByteBuffer buf, IOControl ioctrl) throws IOException {
+    if (decoder == null)
+      return;
+    try {
+      decoder.decode(buf);
+    } catch (JSONException e) {
+      exception = new ProtocolException("Unable to parse server response", e);
+      decoder = null;
+    } catch (RuntimeException e) {
+      // Thrown by the handler; it must not reach the I/O reactor.
+      exception = e;
+      decoder = null;
+    }
   }
 
   /**
-   * A helper function that clears the class's private StringBuilder field
+   * A helper function that clears the class's private JsonArrayDecoder field
    */
   @Override
   protected void onCleanup() {
-    this.accumulator = null;
+    this.decoder = null;
   }
 
   /**
@@ -129,16 +147,30 @@ public class MessageListResponseConsumer extends AsyncCharConsumer<List<Message>
     int statusCode = status.getStatusCode();
     switch (statusCode) {
       case HttpStatus.SC_OK:
-        mimeType = EntityUtils.getContentMimeType(response.getEntity());
+        String mimeType = EntityUtils.getContentMimeType(response.getEntity());
         if ("application/json".equals(mimeType)) {
-          accumulator = new StringBuilder();
+          if (handler == null) {
+            messages = new ArrayList<Message>();
+            handler = new MessageHandler() {
+              public void handle(Message message) {
+                messages.add(message);
+              }
+            };
+          }
+          decoder =
+              new JsonArrayDecoder(BaseHttp.charsetOf(response.getEntity()),
+                  new JsonArrayDecoder.Handler() {
+                    public void handle(JsonReader element) throws IOException, JSONException {
+                      handler.handle(new MessageResponse(request, element));
+                    }
+                  });
         } else if (mimeType != null) {
           exception = new HttpProtocolException("Unhandled response mime type: " + mimeType);
         }
         return;
       case HttpStatus.SC_NO_CONTENT:
         // This is not an error condition, but we do not care about the body
-        // and thus do not set up the accumulator.
+        // and thus do not set up the decoder.
         return;
       case HttpStatus.SC_NOT_FOUND:
         // This is an error condition, and we do not care about the body.
@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.backend.http;
 
+import java.io.IOException;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.openstack.burrow.client.Message;
@@ -41,7 +43,35 @@ class MessageResponse extends Message {
     if (message.has("ttl"))
       setTtl(message.getLong("ttl"));
     if (message.has("hide"))
-      setTtl(message.getLong("hide"));
+      setHide(message.getLong("hide"));
+  }
+
+  /**
+   * Constructor for MessageResponse that reads the message from a JsonReader
+   * 
+   * @param reader A JsonReader positioned at a JSON Object that contains the
+   *          id, body, ttl, and hide of the message
+   * @throws IOException Thrown if an issue occurs reading the response
+   * @throws JSONException Thrown if the message is not a JSON Object
+   */
+  MessageResponse(JsonReader reader) throws IOException, JSONException {
+    read(reader);
+  }
+
+  /**
+   * Constructor for MessageResponse that takes a MessageListRequest and a
+   * JsonReader as arguments
+   * 
+   * @param request A MessageListRequest object
+   * @param reader A JsonReader positioned at a JSON Object that contains the
+   *          id, body, ttl, and hide of the message
+   * @throws IOException Thrown if an issue occurs reading the response
+   * @throws JSONException Thrown if the message is not a JSON Object
+   */
+  MessageResponse(MessageListRequest request, JsonReader reader) throws IOException,
+      JSONException {
+    super(request);
+    read(reader);
   }
 
   /**
@@ -60,7 +90,7 @@ class MessageResponse extends Message {
     if (message.has("ttl"))
       setTtl(message.getLong("ttl"));
     if (message.has("hide"))
-      setTtl(message.getLong("hide"));
+      setHide(message.getLong("hide"));
   }
 
   /**
@@ -79,18 +109,62 @@ class MessageResponse extends Message {
     if (message.has("ttl"))
       setTtl(message.getLong("ttl"));
     if (message.has("hide"))
-      setTtl(message.getLong("hide"));
+      setHide(message.getLong("hide"));
   }
 
   /**
-   * Constructor for MessageResponse that takes a StringBuilder and a
+   * Constructor for MessageResponse that takes a SingleMessageRequest and a
+   * JsonReader as arguments
+   * 
+   * @param request A SingleMessageRequest object
+   * @param reader A JsonReader positioned at a JSON Object that contains the
+   *          id, body, ttl, and hide of the message
+   * @throws IOException Thrown if an issue occurs reading the response
+   * @throws JSONException Thrown if the message is not a JSON Object
+   */
+  MessageResponse(SingleMessageRequest request, JsonReader reader) throws IOException,
+      JSONException {
+    super(request);
+    read(reader);
+  }
+
+  /**
+   * Constructor for MessageResponse that takes a String body and a
    * SingleMessageRequest as arguments
    * 
    * @param request A SingleMessageRequest object
-   * @param accumulator A StringBuilder that will hold response information
+   * @param body The message body, as sent by the server
    */
-  MessageResponse(SingleMessageRequest request, StringBuilder accumulator) {
+  MessageResponse(SingleMessageRequest request, String body) {
     super(request);
-    setBody(accumulator.toString());
+    setBody(body);
+  }
+
+  /**
+   * Reads the members of a message from a JsonReader, ignoring any this
+   * client does not know
+   * 
+   * @param reader A JsonReader positioned at a JSON Object
+   * @throws IOException Thrown if an issue occurs reading the response
+   * @throws JSONException Thrown if the message is not a JSON Object
+   */
+  private void read(JsonReader reader) throws IOException, JSONException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonReader.Token.NULL)
+        reader.nextNull();
+      else if ("id".equals(name))
+        setId(reader.nextString());
+      else if ("body".equals(name))
+        setBody(reader.nextString());
+      else if ("ttl".equals(name))
+        setTtl(reader.nextLong());
+      else if ("hide".equals(name))
+        setHide(reader.nextLong());
+      else
+        reader.skipValue();
+    }
+    reader.endObject();
   }
 }
@@ -17,7 +17,7 @@
 package org.openstack.burrow.backend.http;
 
 import java.io.IOException;
-import java.nio.CharBuffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,26 +25,24 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.nio.IOControl;
-import org.apache.http.nio.client.methods.AsyncCharConsumer;
 import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.openstack.burrow.backend.AccountNotFoundException;
-import org.openstack.burrow.backend.BurrowRuntimeException;
 import org.openstack.burrow.backend.ProtocolException;
 import org.openstack.burrow.client.Queue;
 import org.openstack.burrow.client.methods.QueueListRequest;
 
 /**
- * QueueListResponseConsumer extends AsyncCharConsumer and helps with processing
- * the response asynchronously from the server. Has a StringBuilder, an
- * Exception, a String denoting mimeType, and a QueueListRequest as fields.
+ * QueueListResponseConsumer extends DecodingByteConsumer and helps with
+ * processing the response asynchronously from the server. Each queue is
+ * decoded by a JsonArrayDecoder as soon as its bytes have arrived, so the
+ * response is never buffered as text. Has a JsonArrayDecoder, the List being
+ * built, and an Exception as fields.
  */
-public class QueueListResponseConsumer extends AsyncCharConsumer<List<Queue>> {
-  private StringBuilder accumulator = null;
+public class QueueListResponseConsumer extends DecodingByteConsumer<List<Queue>> {
+  private JsonArrayDecoder decoder = null;
+  private List<Queue> queues = null;
   private Exception exception = null;
-  private String mimeType = null;
   private QueueListRequest request;
 
   /**
@@ -66,63 +64,49 @@ public class QueueListResponseConsumer extends AsyncCharConsumer<List<Queue>> {
    */
   @Override
   protected List<Queue> buildResult() throws Exception {
-    if (exception != null)
+    if (exception != null) {
       throw exception;
-    else if (accumulator == null) {
+    } else if (decoder == null) {
       // It was not an error condition but we do not care about the response
       // body.
       return null;
-    } else if ("application/json".equals(mimeType)) {
-      try {
-        JSONArray queuesJson = new JSONArray(accumulator.toString());
-        List<Queue> queues = new ArrayList<Queue>(queuesJson.length());
-        try {
-          // Assume the array is an array of objects.
-          for (int idx = 0; idx < queuesJson.length(); idx++) {
-            JSONObject queueJson = queuesJson.getJSONObject(idx);
-            Queue message = new QueueResponse(request, queueJson);
-            queues.add(idx, message);
-          }
-        } catch (JSONException e) {
-          // The array was not an array of objects. Try again assuming an array
-          // of strings.
-          for (int idx = 0; idx < queuesJson.length(); idx++) {
-            String queueId = queuesJson.getString(idx);
-            Queue message = new QueueResponse(request, queueId);
-            queues.add(idx, message);
-          }
-        }
-        return queues;
-      } catch (JSONException e) {
-        throw new ProtocolException("Unable to parse server response", e);
-      }
-    } else {
-      throw new BurrowRuntimeException(
-          "Unhandled circumstance in QueueListResponseConsumer; mimeType=" + mimeType + ", acc="
-              + accumulator);
     }
+    try {
+      finishBody();
+      decoder.finish();
+    } catch (JSONException e) {
+      throw new ProtocolException("Unable to parse server response", e);
+    }
+    return queues;
   }
 
   /**
-   * A function that helps with building the response
+   * Decodes the bytes received so far, adding each queue they complete to
+   * the List. Once the response is found to be malformed, the rest of it is
+   * ignored.
    * 
-   * @param buf A CharBuffer that holds the response received so far
+   * @param buf A ByteBuffer that holds the bytes received
    * @param ioctrl An IOControl object
-   * @throws IOException Arises if an issue occurs with adding the received
-   *           character
+   * @throws IOException Arises if an issue occurs reading a queue
    */
   @Override
-  protected void onCharReceived(CharBuffer buf, IOControl ioctrl) throws IOException {
-    if (accumulator != null)
-      accumulator.append(buf);
+  protected void onBodyReceived(ByteBuffer buf, IOControl ioctrl) throws IOException {
+    if (decoder == null)
+      return;
+    try {
+      decoder.decode(buf);
+    } catch (JSONException e) {
+      exception = new ProtocolException("Unable to parse server response", e);
+      decoder = null;
+    }
   }
 
   /**
-   * A helper function that clears the class's private StringBuilder field
+   * A helper function that clears the class's private JsonArrayDecoder field
    */
   @Override
   protected void onCleanup() {
-    this.accumulator = null;
+    this.decoder = null;
   }
 
   /**
@@ -138,16 +122,23 @@ public class QueueListResponseConsumer extends AsyncCharConsumer<List<Queue>> {
     int statusCode = status.getStatusCode();
     switch (statusCode) {
       case HttpStatus.SC_OK:
-        mimeType = EntityUtils.getContentMimeType(response.getEntity());
+        String mimeType = EntityUtils.getContentMimeType(response.getEntity());
         if ("application/json".equals(mimeType)) {
-          accumulator = new StringBuilder();
+          queues = new ArrayList<Queue>();
+          decoder =
+              new JsonArrayDecoder(BaseHttp.charsetOf(response.getEntity()),
+                  new JsonArrayDecoder.Handler() {
+                    public void handle(JsonReader element) throws IOException, JSONException {
+                      queues.add(new QueueResponse(request, BaseHttp.readId(element)));
+                    }
+                  });
         } else if (mimeType != null) {
           exception = new ProtocolException("Unhandled response mime type: " + mimeType);
         }
         return;
       case HttpStatus.SC_NO_CONTENT:
         // This is not an error condition, but we do not care about the body
-        // and thus do not set up the accumulator.
+        // and thus do not set up the decoder.
         return;
       case HttpStatus.SC_NOT_FOUND:
         // This is an error condition, and we do not care about the body.
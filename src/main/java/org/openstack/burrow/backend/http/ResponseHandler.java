@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import org.apache.http.HttpResponse;
+import org.openstack.burrow.backend.BurrowException;
+
+/**
+ * ResponseHandler decodes the response to one kind of request, typically by
+ * calling one of BaseHttp's handle*Response methods.
+ *
+ * @param <T> The type of the result.
+ */
+interface ResponseHandler<T> {
+  /**
+   * Decode a response.
+   *
+   * @param response The response from the server.
+   * @return The result of the request.
+   * @throws BurrowException Thrown if the response reports an error.
+   */
+  T handle(HttpResponse response) throws BurrowException;
+}
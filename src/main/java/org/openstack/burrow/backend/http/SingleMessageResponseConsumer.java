@@ -16,17 +16,19 @@
 
 package org.openstack.burrow.backend.http;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.CharBuffer;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.nio.IOControl;
-import org.apache.http.nio.client.methods.AsyncCharConsumer;
+import org.apache.http.util.ByteArrayBuffer;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.openstack.burrow.backend.HttpProtocolException;
 import org.openstack.burrow.backend.MessageNotFoundException;
 import org.openstack.burrow.backend.ProtocolException;
@@ -34,12 +36,15 @@ import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.methods.SingleMessageRequest;
 
 /**
- * SingleMessageResponseConsumer extends AsyncCharConsumer and helps with
- * processing the response asynchronously from the server. Has a StringBuilder,
- * an Exception, a String denoting mimeType, and a SingMessageRequest as fields.
+ * SingleMessageResponseConsumer extends DecodingByteConsumer and helps with
+ * processing the response asynchronously from the server. The body is kept as
+ * bytes until it is complete, then decoded once. Has a ByteArrayBuffer, an
+ * Exception, a String denoting mimeType, the body's Charset, and a
+ * SingleMessageRequest as fields.
  */
-public class SingleMessageResponseConsumer extends AsyncCharConsumer<Message> {
-  private StringBuilder accumulator = null;
+public class SingleMessageResponseConsumer extends DecodingByteConsumer<Message> {
+  private ByteArrayBuffer accumulator = null;
+  private Charset charset = null;
   private Exception exception = null;
   private String mimeType = null;
   private SingleMessageRequest request;
@@ -69,37 +74,52 @@ public class SingleMessageResponseConsumer extends AsyncCharConsumer<Message> {
       // It was not an error condition but we do not care about the response
       // body.
       return null;
-    } else if ("application/json".equals(mimeType)) {
+    }
+    finishBody();
+    if ("application/json".equals(mimeType)) {
+      JsonReader reader =
+          new JsonReader(new InputStreamReader(new ByteArrayInputStream(accumulator.buffer(), 0,
+              accumulator.length()), charset));
       try {
-        JSONObject messageJson = new JSONObject(accumulator.toString());
-        return new MessageResponse(request, messageJson);
+        Message message = new MessageResponse(request, reader);
+        if (reader.peek() != JsonReader.Token.END_DOCUMENT)
+          throw new JSONException("Unexpected data after the message");
+        return message;
       } catch (JSONException e) {
         throw new ProtocolException("Unable to parse server response", e);
       }
     } else if ("application/octet-stream".equals(mimeType)) {
-      return new MessageResponse(request, accumulator);
+      return new MessageResponse(request, new String(accumulator.buffer(), 0, accumulator
+          .length(), charset));
     } else {
       throw new RuntimeException("Unhandled circumstance in SingleMessageConsumer; mimeType="
-          + mimeType + ", acc=" + accumulator);
+          + mimeType + ", length=" + accumulator.length());
     }
   }
 
   /**
    * A function that helps with building the response
    * 
-   * @param buf A CharBuffer that holds the response received so far
+   * @param buf A ByteBuffer that holds the bytes received
    * @param ioctrl An IOControl object
    * @throws IOException Arises if an issue occurs with adding the received
-   *           character
+   *           bytes
    */
   @Override
-  protected void onCharReceived(CharBuffer buf, IOControl ioctrl) throws IOException {
-    if (accumulator != null)
-      accumulator.append(buf);
+  protected void onBodyReceived(ByteBuffer buf, IOControl ioctrl) throws IOException {
+    if (accumulator == null)
+      return;
+    if (buf.hasArray()) {
+      accumulator.append(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      buf.position(buf.limit());
+    } else {
+      while (buf.hasRemaining())
+        accumulator.append(buf.get());
+    }
   }
 
   /**
-   * A helper function that clears the class's private StringBuilder field
+   * A helper function that clears the class's private ByteArrayBuffer field
    */
   @Override
   protected void onCleanup() {
@@ -122,7 +142,8 @@ public class SingleMessageResponseConsumer extends AsyncCharConsumer<Message> {
       case HttpStatus.SC_CREATED:
         mimeType = EntityUtils.getContentMimeType(response.getEntity());
         if (("application/json".equals(mimeType)) || ("application/octet-stream".equals(mimeType))) {
-          accumulator = new StringBuilder();
+          accumulator = new ByteArrayBuffer(1024);
+          charset = BaseHttp.charsetOf(response.getEntity());
         } else if (mimeType != null) {
           exception = new HttpProtocolException("Unhandled response mime type: " + mimeType);
         }
@@ -1,15 +1,202 @@
 package org.openstack.burrow.backend.memory;
 
 import org.openstack.burrow.backend.AsyncBackend;
+import org.openstack.burrow.backend.InFlight;
+import org.openstack.burrow.backend.Reaper;
+import org.openstack.burrow.backend.Scheduler;
 import org.openstack.burrow.client.Account;
 import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.Queue;
 import org.openstack.burrow.client.methods.*;
 
+import java.lang.reflect.Method;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
+/**
+ * A Memory backend whose asynchronous requests are run on an executor, so that callers are never blocked.  Requests
+ * which wait for messages occupy no thread at all: they leave a waiter on their queue, timed on the shared Scheduler,
+ * and only their result is handed to the executor.  The returned futures are CompletableFutures; cancelling one, or
+ * the request's timeout running out, takes its waiter off the queue, and interrupts any other request still running.
+ *
+ * By default requests are run on a virtual thread per task where the JVM supports it, and otherwise on a pool of
+ * daemon threads.
+ */
 public class AsyncMemory extends Memory implements AsyncBackend {
+    private final Executor executor;
+    private final InFlight inFlight = new InFlight();
+
+    /**
+     * Construct an AsyncMemory backend running requests on the default executor.
+     */
+    public AsyncMemory() {
+        this(defaultExecutor());
+    }
+
+    /**
+     * Construct an AsyncMemory backend running requests on the given executor.
+     *
+     * @param executor The executor to run requests on.
+     */
+    public AsyncMemory(Executor executor) {
+        this(executor, Reaper.getDefault());
+    }
+
+    /**
+     * Construct an AsyncMemory backend running requests on the given executor, whose expired messages and empty queues
+     * are reclaimed by the given Reaper.
+     *
+     * @param executor The executor to run requests on.
+     * @param reaper The Reaper to register with.
+     */
+    public AsyncMemory(Executor executor, Reaper reaper) {
+        super(reaper);
+        if (executor == null) throw new IllegalArgumentException("Executor may not be null.");
+        this.executor = executor;
+    }
+
+    /**
+     * Create an executor which starts a virtual thread per task, if the JVM supports virtual threads.
+     *
+     * @return The executor, or null if virtual threads are not available.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create the executor used when none is given: a virtual thread per task if possible, otherwise a cached pool of
+     * daemon threads.
+     *
+     * @return The executor.
+     */
+    public static ExecutorService defaultExecutor() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) return virtual;
+
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "burrow-memory-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Run a request on the executor.  If it has not finished within the timeout, its future fails with a
+     * TimeoutException and the request is interrupted.
+     *
+     * @param timeout The timeout in milliseconds, or null for none.
+     * @param task The request to run.
+     * @return A future for the request's result.
+     */
+    private <V> MemoryFuture<V> submit(Long timeout, Callable<V> task) {
+        MemoryFuture<V> future = new MemoryFuture<V>(task);
+        try {
+            inFlight.track(future);
+            if (timeout != null) Scheduler.orTimeout(future, timeout, TimeUnit.MILLISECONDS);
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * A list request, run without blocking through Memory's waiters.
+     */
+    private interface ListRequest {
+        void run(ScheduledExecutorService timer, CompletableFuture<List<Message>> result);
+    }
+
+    /**
+     * Run a list request without holding a thread while it waits for messages.  Its waiter is left on the queue and
+     * timed on the shared Scheduler, and its result is handed to the executor, so that stages depending on it never
+     * run on the Scheduler's thread.  However the returned future ends before the waiter is answered, whether it is
+     * cancelled, with or without mayInterruptIfRunning, or times out, the waiter is taken off the queue.
+     *
+     * @param timeout The timeout in milliseconds, or null for none.
+     * @param request The request to run.
+     * @return A future for the request's result.
+     */
+    private CompletableFuture<List<Message>> submitList(Long timeout, ListRequest request) {
+        final CompletableFuture<List<Message>> future = new CompletableFuture<List<Message>>();
+        final CompletableFuture<List<Message>> result = new CompletableFuture<List<Message>>();
+        try {
+            inFlight.track(future);
+            if (timeout != null) Scheduler.orTimeout(future, timeout, TimeUnit.MILLISECONDS);
+            future.whenComplete(new BiConsumer<List<Message>, Throwable>() {
+                public void accept(List<Message> messages, Throwable failure) {
+                    if (failure != null) result.completeExceptionally(failure);
+                }
+            });
+            result.whenComplete(new BiConsumer<List<Message>, Throwable>() {
+                public void accept(final List<Message> messages, final Throwable failure) {
+                    if (future.isDone()) return;
+                    Runnable handoff = new Runnable() {
+                        public void run() {
+                            if (failure == null) future.complete(messages);
+                            else future.completeExceptionally(failure);
+                        }
+                    };
+                    try {
+                        executor.execute(handoff);
+                    } catch (RejectedExecutionException e) {
+                        handoff.run();
+                    }
+                }
+            });
+            request.run(Scheduler.getDefault(), result);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Interrupt every request running or waiting on the executor, and stop reclaiming expired messages.  Requests
+     * made afterwards fail with a RejectedExecutionException.  The executor is left running, since it may be shared.
+     */
+    public void shutdown() {
+        inFlight.close();
+        inFlight.cancelAll();
+        super.shutdown();
+    }
+
+    /**
+     * Reject new requests and wait for those in flight, including any waiting for messages, to finish, then
+     * interrupt any which have not as shutdown() does.
+     *
+     * @param timeout The most time to wait for requests in flight.
+     * @param unit The unit of the timeout.
+     * @return True if every request in flight finished in time.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        boolean drained = inFlight.await(timeout, unit);
+        shutdown();
+        return drained;
+    }
+
     /**
      * Asynchronously executes a CreateMessage request.
      *
@@ -19,13 +206,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         return any information.
      */
     public Future<Message> executeAsync(CreateMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a CreateMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final CreateMessage request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<Message>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<Message>(e);
-        }
+        return submit(request.getTimeout(), new Callable<Message>() {
+            public Message call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -36,13 +234,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         about the accounts, or null if no information was returned.
      */
     public Future<List<Account>> executeAsync(DeleteAccounts request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteAccounts request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Account>> executeStage(final DeleteAccounts request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<List<Account>>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<List<Account>>(e);
-        }
+        return submit(request.getTimeout(), new Callable<List<Account>>() {
+            public List<Account> call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -54,13 +263,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         return any information.
      */
     public Future<Message> executeAsync(DeleteMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final DeleteMessage request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<Message>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<Message>(e);
-        }
+        return submit(request.getTimeout(), new Callable<Message>() {
+            public Message call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -72,13 +292,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         not return any information.
      */
     public Future<List<Message>> executeAsync(DeleteMessages request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteMessages request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Message>> executeStage(final DeleteMessages request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<List<Message>>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<List<Message>>(e);
-        }
+        return submitList(request.getTimeout(), new ListRequest() {
+            public void run(ScheduledExecutorService timer, CompletableFuture<List<Message>> result) {
+                execute(request, timer, result);
+            }
+        });
     }
 
     /**
@@ -89,13 +320,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         about the queues, or null if no information was returned.
      */
     public Future<List<Queue>> executeAsync(DeleteQueues request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteQueues request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Queue>> executeStage(final DeleteQueues request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<List<Queue>>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<List<Queue>>(e);
-        }
+        return submit(request.getTimeout(), new Callable<List<Queue>>() {
+            public List<Queue> call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -106,13 +348,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         about the accounts, or null if no information was returned.
      */
     public Future<List<Account>> executeAsync(GetAccounts request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetAccounts request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Account>> executeStage(final GetAccounts request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<List<Account>>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<List<Account>>(e);
-        }
+        return submit(request.getTimeout(), new Callable<List<Account>>() {
+            public List<Account> call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -124,13 +377,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         information.
      */
     public Future<Message> executeAsync(GetMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final GetMessage request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<Message>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<Message>(e);
-        }
+        return submit(request.getTimeout(), new Callable<Message>() {
+            public Message call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -142,13 +406,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         return any information.
      */
     public Future<List<Message>> executeAsync(GetMessages request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetMessages request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Message>> executeStage(final GetMessages request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<List<Message>>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<List<Message>>(e);
-        }
+        return submitList(request.getTimeout(), new ListRequest() {
+            public void run(ScheduledExecutorService timer, CompletableFuture<List<Message>> result) {
+                execute(request, timer, result);
+            }
+        });
     }
 
     /**
@@ -160,13 +435,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         any information.
      */
     public Future<List<Queue>> executeAsync(GetQueues request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetQueues request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Queue>> executeStage(final GetQueues request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<List<Queue>>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<List<Queue>>(e);
-        }
+        return submit(request.getTimeout(), new Callable<List<Queue>>() {
+            public List<Queue> call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -178,13 +464,24 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         information.
      */
     public Future<Message> executeAsync(UpdateMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes an UpdateMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final UpdateMessage request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<Message>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<Message>(e);
-        }
+        return submit(request.getTimeout(), new Callable<Message>() {
+            public Message call() throws Exception {
+                return execute(request);
+            }
+        });
     }
 
     /**
@@ -196,12 +493,23 @@ public class AsyncMemory extends Memory implements AsyncBackend {
      *         return any information.
      */
     public Future<List<Message>> executeAsync(UpdateMessages request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes an UpdateMessages request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Message>> executeStage(final UpdateMessages request) {
         if (request == null)
                 throw new IllegalArgumentException("Request may not be null");
-        try {
-            return new MemoryFuture<List<Message>>(execute(request));
-        } catch (Exception e) {
-            return new MemoryFuture<List<Message>>(e);
-        }
+        return submitList(request.getTimeout(), new ListRequest() {
+            public void run(ScheduledExecutorService timer, CompletableFuture<List<Message>> result) {
+                execute(request, timer, result);
+            }
+        });
     }
 }
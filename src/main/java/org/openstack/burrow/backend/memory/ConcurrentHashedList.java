@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.memory;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent counterpart to HashedList, with the same insertion-order and marker semantics.
+ *
+ * Lookups and iteration take no locks.  Writers lock one of a fixed set of stripes chosen by key, so that operations
+ * on the same key are atomic with respect to each other, and hold a separate list lock only for the few pointer
+ * updates needed to link or unlink an entry from the insertion order list.
+ *
+ * Iterators are weakly consistent: they never throw ConcurrentModificationException, never return an entry twice,
+ * and return entries in insertion order.  Entries removed after the iterator was created are skipped if the iterator
+ * has not yet reached them, and entries added after the iterator was created may or may not be returned.  An entry
+ * which is re-inserted with put() is moved to the back of the list, and so may be returned again by an iterator that
+ * had already passed its old position.
+ *
+ * @param <K> Key type for hash lookups
+ * @param <V> Type of values to be contained.
+ */
+public class ConcurrentHashedList<K, V> {
+    static final int STRIPES = 64;
+
+    private final ConcurrentHashMap<K, Node> map;
+    private final ReentrantLock[] stripes;
+    private final ReentrantLock listLock;
+    private final Node head;
+    private Node tail;
+
+    /**
+     * Construct a new ConcurrentHashedList object
+     */
+    public ConcurrentHashedList() {
+        map = new ConcurrentHashMap<K, Node>();
+        stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new ReentrantLock();
+        listLock = new ReentrantLock();
+        head = new Node(null, null);
+        tail = head;
+    }
+
+    /**
+     * Utility method to find the writer lock guarding a key.
+     *
+     * @param key The key to be written.
+     * @return The stripe lock for key.
+     */
+    private ReentrantLock stripeFor(Object key) {
+        return stripes[HashedList.spread(key.hashCode()) & (STRIPES - 1)];
+    }
+
+    /**
+     * Utility method to add a new entry to the table and the back of the insertion order list, unlinking any entry
+     * it replaces.  Must be called with the key's stripe held.
+     *
+     * @param key The key of the new entry.
+     * @param value The value of the new entry.
+     * @param replaced The entry currently associated with key, or null.
+     */
+    private void insert(K key, V value, Node replaced) {
+        Node e = new Node(key, value);
+
+        listLock.lock();
+        try {
+            if (replaced != null) unlink(replaced);
+            e.prev = tail;
+            tail.next = e;
+            tail = e;
+        } finally {
+            listLock.unlock();
+        }
+
+        map.put(key, e);
+    }
+
+    /**
+     * Utility method to remove an entry from the insertion order list.  Must be called with the list lock held.
+     *
+     * The removed entry keeps its forward pointer so that an iterator currently positioned on it can still move on.
+     *
+     * @param e The entry to be removed
+     */
+    private void unlink(Node e) {
+        e.removed = true;
+        Node prev = e.prev, next = e.next;
+
+        prev.next = next;
+        if (next != null) next.prev = prev;
+        else tail = prev;
+    }
+
+    /**
+     * Utility method to remove an entry from both the table and the list, if it is still current.
+     *
+     * @param e The entry to be removed.
+     * @return True if e was removed, false if it had already been removed or replaced.
+     */
+    private boolean removeEntry(Node e) {
+        ReentrantLock stripe = stripeFor(e.key);
+        stripe.lock();
+        try {
+            if (!map.remove(e.key, e)) return false;
+
+            listLock.lock();
+            try {
+                unlink(e);
+            } finally {
+                listLock.unlock();
+            }
+            return true;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Retrieve a value from the list given the associated key.
+     *
+     * @param key The key to look up
+     * @return The associated value, or null if it does not exist.
+     */
+    public V get(K key) {
+        if (key == null) throw new IllegalArgumentException();
+        Node e = map.get(key);
+        return e == null ? null : e.val;
+    }
+
+    /**
+     * Insert a key/value pair into the map, will overwrite any entry currently
+     * associated with the given key and move it to the back of the list.
+     *
+     * @param key The lookup key to associate with the given value.
+     * @param value The value to be inserted into the map.
+     */
+    public void put(K key, V value) {
+        if ((key == null) || (value == null)) throw new IllegalArgumentException();
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            insert(key, value, map.get(key));
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Insert a key/value pair into the map unless the key is already present.
+     *
+     * @param key The lookup key to associate with the given value.
+     * @param value The value to be inserted into the map.
+     * @return The value already associated with key, or null if value was inserted.
+     */
+    public V putIfAbsent(K key, V value) {
+        if ((key == null) || (value == null)) throw new IllegalArgumentException();
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            Node e = map.get(key);
+            if (e != null) return e.val;
+
+            insert(key, value, null);
+            return null;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Update the value associated with a given key, or insert the pair into the map
+     * if the key does not exist.  update() varies from put() in that update() will not
+     * affect the position of the pair in the entry list.
+     *
+     * @param key The lookup key of the value to be updated.
+     * @param value The new value to be associated with the given key.
+     */
+    public void update(K key, V value) {
+        if ((key == null) || (value == null)) throw new IllegalArgumentException();
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            Node e = map.get(key);
+
+            if (e == null) insert(key, value, null);
+            else e.val = value;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Remove the key and its associated value from the map.
+     *
+     * @param key the key to be removed
+     * @return The removed value, or null if the key did not exist.
+     */
+    public V remove(K key) {
+        if (key == null) throw new IllegalArgumentException();
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            Node e = map.remove(key);
+            if (e == null) return null;
+
+            listLock.lock();
+            try {
+                unlink(e);
+            } finally {
+                listLock.unlock();
+            }
+            return e.val;
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Remove the key only if it is currently associated with the given value.
+     *
+     * @param key the key to be removed
+     * @param value the value key must be associated with
+     * @return True if the key was removed, false otherwise.
+     */
+    public boolean remove(K key, V value) {
+        if ((key == null) || (value == null)) throw new IllegalArgumentException();
+        ReentrantLock stripe = stripeFor(key);
+        stripe.lock();
+        try {
+            Node e = map.get(key);
+            if (e == null || e.val != value) return false;
+
+            return removeEntry(e);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Test if there are any entries in the map.
+     *
+     * @return True if there no entries in the map, false otherwise.
+     */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * Count the entries in the map.
+     *
+     * @return The number of entries in the map.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Test whether a key exists in the map.
+     *
+     * @param key The key to check for existence
+     * @return True if the key exists in the map, false otherwise.
+     */
+    public boolean containsKey(K key) {
+        if (key == null) throw new IllegalArgumentException();
+        return map.containsKey(key);
+    }
+
+    /**
+     * Node class for both map and list.
+     */
+    protected class Node extends Entry<K, V> {
+        volatile V val;
+        volatile Node next;
+        volatile boolean removed;
+        Node prev;
+
+        /**
+         * Contruct a new entry
+         *
+         * @param key The key to be stored in the entry
+         * @param value The value to be stored in the entry
+         */
+        Node(K key, V value) {
+            this.key = key;
+            this.val = value;
+        }
+
+        /**
+         * Get the value stored in this entry.
+         *
+         * @return The value stored in this entry.
+         */
+        @Override
+        public V getValue() {
+            return val;
+        }
+    }
+
+    /**
+     * Iterator class to walking the entries in the list.
+     */
+    protected class IteratorFrom implements Iterator<Entry<K, V>> {
+        Node nextEntry, curr;
+
+        /**
+         * Construct an iterator starting at the entry following the given node.
+         *
+         * @param start The node preceding the desired start position, or null for an empty iterator.
+         */
+        IteratorFrom(Node start) {
+            nextEntry = start == null ? null : following(start);
+            curr = null;
+        }
+
+        /**
+         * Find the first entry after the given node which has not been removed.
+         *
+         * @param e The node to start from.
+         * @return The following live node, or null if there is none.
+         */
+        private Node following(Node e) {
+            Node n = e.next;
+            while (n != null && n.removed) n = n.next;
+            return n;
+        }
+
+        /**
+         * Fetch the next entry in the list
+         *
+         * @return The next entry in the list
+         */
+        public Entry<K, V> next() {
+            if (nextEntry == null) throw new NoSuchElementException();
+            curr = nextEntry;
+            nextEntry = following(curr);
+            return curr;
+        }
+
+        /**
+         * Check if there is another item in the list
+         *
+         * @return True if there are more entries in the list, false otherwise
+         */
+        public boolean hasNext() {
+            return nextEntry != null;
+        }
+
+        /**
+         * Remove the current item from the map, it is an error to call remove() before next(),
+         * or more than once per call to next().  Does nothing if the entry has already been
+         * removed or replaced by another thread.
+         */
+        public void remove() {
+            if (curr == null) throw new IllegalStateException();
+            removeEntry(curr);
+            curr = null;
+        }
+    }
+
+    /**
+     * Get an iterator starting at the beginning of the list.
+     *
+     * @return The iterator
+     */
+    public Iterator<Entry<K, V>> newIterator() {
+        return new IteratorFrom(head);
+    }
+
+    /**
+     * Get an iterator starting at the position following the given key.  If the key is not present the iterator
+     * is empty.
+     *
+     * @param key The key preceding the desired start position.
+     * @return The iterator
+     */
+    public Iterator<Entry<K, V>> newIteratorFrom(K key) {
+        if (key == null) throw new IllegalArgumentException();
+        return new IteratorFrom(map.get(key));
+    }
+}
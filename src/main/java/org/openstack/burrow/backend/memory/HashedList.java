@@ -4,7 +4,6 @@ import java.lang.reflect.Array;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.lang.Math;
 
 /**
  * A Hash table which maintains an order of insertion list of its contents.
@@ -17,10 +16,18 @@ import java.lang.Math;
  * list.  The members of LinkedHashMap which would need to be altered to change this behaviour are all package or
  * private access, and the license under which it is distributed does not allow direct copying and modification.
  *
+ * The table is open addressed with linear probing, and is resized to keep its load between MIN_LOAD and MAX_LOAD so
+ * that probe sequences stay short regardless of how many entries are held.  Removal uses backward shift deletion, so
+ * no tombstones are left behind.
+ *
  * @param <K> Key type for hash lookups
  * @param <V> Type of values to be contained.
  */
 public class HashedList<K, V> {
+    static final int MIN_CAPACITY = 16;
+    static final float MAX_LOAD = 0.5f;
+    static final float MIN_LOAD = 0.125f;
+
     PrivEntry[] table;
     PrivEntry front, back;
     int population;
@@ -29,11 +36,34 @@ public class HashedList<K, V> {
      * Construct a new HashedList object
      */
     public HashedList() {
-        table = (PrivEntry[]) Array.newInstance(PrivEntry.class, 967);
+        table = newTable(MIN_CAPACITY);
         front = null;
         back = null;
     }
 
+    /**
+     * Utility method for allocating a table.
+     *
+     * @param capacity The number of slots, must be a power of two.
+     * @return An empty table of the given capacity.
+     */
+    @SuppressWarnings("unchecked")
+    private PrivEntry[] newTable(int capacity) {
+        return (PrivEntry[]) Array.newInstance(PrivEntry.class, capacity);
+    }
+
+    /**
+     * Spread the bits of a key's hash code so that keys differing only in their high bits do not collide in the
+     * low bits used to index the table.
+     *
+     * @param h The key's hash code
+     * @return The spread hash
+     */
+    static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
     /**
      * Utility method for fetching table entries
      *
@@ -42,30 +72,29 @@ public class HashedList<K, V> {
      */
     protected PrivEntry getEntry(K key) {
         if (key == null) throw new IllegalArgumentException();
-        int ind = Math.abs(key.hashCode()) % table.length;
-        PrivEntry curr = table[ind];
+        int hash = spread(key.hashCode());
+        int mask = table.length - 1;
 
-        while (curr != null) {
-            if (key.equals(curr.key)) return curr;
+        for (int ind = hash & mask; table[ind] != null; ind = (ind + 1) & mask) {
+            PrivEntry curr = table[ind];
+            if (curr.hash == hash && key.equals(curr.key)) return curr;
         }
 
         return null;
     }
 
-
     /**
-     * Utility method to add an entry to a hash chain
+     * Utility method to add an entry to the table.  The entry must not already be present.
      *
      * @param e The entry to be added
      */
-    protected void chainAdd(PrivEntry e) {
-        if (table[e.ind] == null) {
-            table[e.ind] = e;
-        } else {
-            table[e.ind].chainPrev = e;
-            e.chainNext = table[e.ind];
-            table[e.ind] = e;
-        }
+    protected void tableAdd(PrivEntry e) {
+        int mask = table.length - 1;
+        int ind = e.hash & mask;
+
+        while (table[ind] != null) ind = (ind + 1) & mask;
+
+        table[ind] = e;
     }
 
     /**
@@ -85,23 +114,28 @@ public class HashedList<K, V> {
     }
 
     /**
-     * Utility method to remove an entry from a hash chain.
+     * Utility method to remove an entry from the table.  Entries following it in the same probe run are shifted
+     * back so that lookups never stop early on the emptied slot.
      *
      * @param e The entry to be removed.
      */
-    protected void chainRemove(PrivEntry e) {
-        if (table[e.ind] == e) {
-            table[e.ind] = e.chainNext;
-            if (table[e.ind] != null) table[e.ind].chainPrev = null;
-        } else {
-            e.chainPrev.chainNext = e.chainNext;
-            if (e.chainNext != null) {
-                e.chainNext.chainPrev = e.chainPrev;
+    protected void tableRemove(PrivEntry e) {
+        int mask = table.length - 1;
+        int hole = e.hash & mask;
+
+        while (table[hole] != e) hole = (hole + 1) & mask;
+        table[hole] = null;
+
+        for (int ind = (hole + 1) & mask; table[ind] != null; ind = (ind + 1) & mask) {
+            int home = table[ind].hash & mask;
+            boolean reachable = hole <= ind ? (hole < home && home <= ind) : (hole < home || home <= ind);
+
+            if (!reachable) {
+                table[hole] = table[ind];
+                table[ind] = null;
+                hole = ind;
             }
         }
-
-        e.chainNext = null;
-        e.chainPrev = null;
     }
 
     /**
@@ -130,6 +164,18 @@ public class HashedList<K, V> {
         e.listPrev = null;
     }
 
+    /**
+     * Utility method to rebuild the table at a new capacity.  The insertion order list is left untouched, and is
+     * used to enumerate the entries to be rehashed.
+     *
+     * @param capacity The new number of slots, must be a power of two.
+     */
+    private void resize(int capacity) {
+        table = newTable(capacity);
+
+        for (PrivEntry e = front; e != null; e = e.listNext) tableAdd(e);
+    }
+
     /**
      * Retrieve a value from the list given the associated key.
      *
@@ -153,23 +199,21 @@ public class HashedList<K, V> {
      */
     public synchronized void put(K key, V value) {
         if ((key == null) || (value == null)) throw new IllegalArgumentException();
-		int ind = Math.abs(key.hashCode()) % table.length;
-        PrivEntry curr = table[ind];
-
-        while (curr != null) {
-            if (curr.key.equals(key)) {
-                curr.value = value;
-                listRemove(curr);
-                listAdd(curr);
-                return;
-            }
+        PrivEntry curr = getEntry(key);
+
+        if (curr != null) {
+            curr.value = value;
+            listRemove(curr);
+            listAdd(curr);
+            return;
         }
 
-        PrivEntry newEntry = new PrivEntry(key, value, ind);
-        chainAdd(newEntry);
+        PrivEntry newEntry = new PrivEntry(key, value, spread(key.hashCode()));
+        tableAdd(newEntry);
         listAdd(newEntry);
 
         population++;
+        if (population > table.length * MAX_LOAD) resize(table.length << 1);
     }
 
     /**
@@ -213,9 +257,10 @@ public class HashedList<K, V> {
      */
     private void removeEntry(PrivEntry e) {
         listRemove(e);
-        chainRemove(e);
+        tableRemove(e);
 
         population--;
+        if (table.length > MIN_CAPACITY && population < table.length * MIN_LOAD) resize(table.length >> 1);
     }
 
     /**
@@ -243,8 +288,7 @@ public class HashedList<K, V> {
      * Node class for both map and list.
      */
     protected class PrivEntry extends Entry<K, V> {
-        int ind;
-        PrivEntry chainNext, chainPrev;
+        final int hash;
         PrivEntry listNext, listPrev;
 
         /**
@@ -252,14 +296,12 @@ public class HashedList<K, V> {
          *
          * @param key The key to be stored in the entry
          * @param value The value to be stored in the entry
-         * @param ind The index which key maps to in the containing table
+         * @param hash The spread hash of key
          */
-        PrivEntry(K key, V value, int ind) {
+        PrivEntry(K key, V value, int hash) {
             this.key = key;
             this.value = value;
-            this.ind = ind;
-            this.chainNext = null;
-            this.chainPrev = null;
+            this.hash = hash;
             this.listNext = null;
             this.listPrev = null;
         }
@@ -21,33 +21,136 @@ import org.openstack.burrow.backend.MessageNotFoundException;
 import org.openstack.burrow.backend.QueueNotFoundException;
 import org.openstack.burrow.backend.Backend;
 import org.openstack.burrow.backend.CommandException;
+import org.openstack.burrow.backend.Reaper;
 import org.openstack.burrow.client.Account;
 import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.Queue;
 import org.openstack.burrow.client.methods.*;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
-//TODO: Handle 'detail' and 'wait'
+//TODO: Handle 'detail'
 
 public class Memory implements Backend {
-    private HashedList<String, MemoryAccount> accountMap;
+    private ConcurrentHashedList<String, MemoryAccount> accountMap;
+    private final Reaper reaper;
+    private final Collector collector;
 
+    /**
+     * Construct a Memory backend whose expired messages and empty queues are reclaimed by the default Reaper.
+     */
     public Memory() {
-        accountMap = new HashedList<String, MemoryAccount>();
+        this(Reaper.getDefault());
+    }
+
+    /**
+     * Construct a Memory backend whose expired messages and empty queues are reclaimed by the given Reaper.
+     *
+     * @param reaper The Reaper to register with.
+     */
+    public Memory(Reaper reaper) {
+        if (reaper == null) throw new IllegalArgumentException("Reaper may not be null.");
+        accountMap = new ConcurrentHashedList<String, MemoryAccount>();
+        this.reaper = reaper;
+        this.collector = new Collector(this, reaper);
+        reaper.register(collector);
+    }
+
+    /**
+     * Memory needs no threads or connections of its own, so there is nothing to start.
+     */
+    public void start() {
+    }
+
+    /**
+     * Stop reclaiming expired messages.  Requests run on the caller's thread, so there is nothing else to stop.
+     */
+    public void shutdown() {
+        reaper.unregister(collector);
+    }
+
+    /**
+     * Stop reclaiming expired messages.  Requests run on the caller's thread, so none are left to wait for.
+     *
+     * @param timeout The most time to wait for requests in flight.
+     * @param unit The unit of the timeout.
+     * @return True.
+     * @throws InterruptedException Never thrown here, but may be by subclasses.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown();
+        return true;
+    }
+
+    /**
+     * Reclaims expired messages, then empty queues and accounts, on behalf of a Reaper.  Walks every queue of every
+     * account in turn, resuming where it stopped when its slice ran out.  Holds the backend weakly, and unregisters
+     * itself once the backend is no longer in use.
+     */
+    private static class Collector implements Reaper.Target {
+        private final WeakReference<Memory> memory;
+        private final Reaper reaper;
+        private Iterator<Entry<String, MemoryAccount>> accounts;
+        private Entry<String, MemoryAccount> account;
+        private Iterator<Entry<String, MemoryQueue>> queues;
+        private Entry<String, MemoryQueue> queue;
+
+        Collector(Memory memory, Reaper reaper) {
+            this.memory = new WeakReference<Memory>(memory);
+            this.reaper = reaper;
+        }
+
+        public boolean reap(Reaper.Slice slice) {
+            Memory m = memory.get();
+            if (m == null) {
+                reaper.unregister(this);
+                return true;
+            }
+
+            if (accounts == null) accounts = m.accountMap.newIterator();
+
+            while (!slice.isOver()) {
+                if (queue != null) {
+                    MemoryQueue mq = queue.getValue();
+                    if (!mq.reap(slice)) return false;
+                    if (mq.retire() && account.getValue().remove(queue.getKey(), mq)) slice.reclaimed(1);
+                    queue = null;
+                } else if (queues != null && queues.hasNext()) {
+                    queue = queues.next();
+                } else if (account != null) {
+                    MemoryAccount ma = account.getValue();
+                    if (ma.retire() && m.accountMap.remove(account.getKey(), ma)) slice.reclaimed(1);
+                    account = null;
+                    queues = null;
+                } else if (accounts.hasNext()) {
+                    account = accounts.next();
+                    queues = account.getValue().newIterator();
+                } else {
+                    accounts = null;
+                    return true;
+                }
+            }
+
+            return false;
+        }
     }
 
     private MemoryAccount createIfAbsent(String account) {
         if (account == null) throw new IllegalArgumentException("Account identifier may be null.");
-        MemoryAccount ma;
+        MemoryAccount ma = accountMap.get(account);
 
-        if (!accountMap.containsKey(account)) {
-            ma = new MemoryAccount();
-            accountMap.put(account, ma);
-        } else {
-            ma = accountMap.get(account);
+        if (ma == null) {
+            MemoryAccount created = new MemoryAccount();
+            ma = accountMap.putIfAbsent(account, created);
+            if (ma == null) ma = created;
         }
 
         return ma;
@@ -57,15 +160,9 @@ public class Memory implements Backend {
         if (account == null || queue == null)
             throw new IllegalArgumentException("Neither account nor queue identifiers may be null.");
 
-        MemoryAccount ma = createIfAbsent(account);
-        MemoryQueue mq;
+        MemoryQueue mq = createIfAbsent(account).get(queue);
 
-        if (!ma.containsKey(queue)) {
-            mq = new MemoryQueue();
-            ma.put(queue, mq);
-        } else {
-            mq = ma.get(queue);
-        }
+        while (mq == null) mq = createIfAbsent(account).addQueue(queue, new MemoryQueue());
 
         return mq;
 	}
@@ -74,18 +171,213 @@ public class Memory implements Backend {
         if (account == null || queue == null)
             throw new IllegalArgumentException("Neither account nor queue identifiers may be null.");
 
-        if (!accountMap.containsKey(account)
-                || accountMap.get(account).isEmpty())
+        MemoryAccount ma = accountMap.get(account);
+        if (ma == null || ma.isEmpty())
             throw new AccountNotFoundException("No such account.");
 
-        if (!accountMap.get(account).containsKey(queue)
-                || accountMap.get(account).get(queue).isEmpty())
+        MemoryQueue mq = ma.get(queue);
+        if (mq == null || mq.isEmpty())
             throw new QueueNotFoundException("No such queue.");
 
-        return accountMap.get(account).get(queue);
+        return mq;
     }
 
+    /**
+     * Get the number of requests waiting on a queue for messages.
+     *
+     * @param account The account id.
+     * @param queue The queue id.
+     * @return The number of waiters, or zero if there is no such queue.
+     */
+    int getWaiting(String account, String queue) {
+        MemoryAccount ma = accountMap.get(account);
+        MemoryQueue mq = ma == null ? null : ma.get(queue);
+        return mq == null ? 0 : mq.getWaiting();
+    }
 
+    /**
+     * Find the queue for a list request.  A request which is willing to wait creates the queue if it does not exist,
+     * so that it has somewhere to wait for messages; other requests require the queue to exist already.
+     */
+    private MemoryQueue lookup(String account, String queue, Long wait) throws CommandException {
+        if (wait != null && wait > 0) return createIfAbsent(account, queue);
+
+        try { //TODO: Fix this when http returns more than a 404
+            return ensurePresent(account, queue);
+        } catch (CommandException ce) {
+            throw new QueueNotFoundException();
+        }
+    }
+
+    /**
+     * Check the result of a list request, treating an empty result from a queue with no messages as a missing queue.
+     */
+    private List<Message> checkFound(MemoryQueue mq, List<Message> messages)
+            throws QueueNotFoundException {
+        if (messages.isEmpty() && mq.isEmpty()) throw new QueueNotFoundException();
+
+        return messages;
+    }
+
+    /**
+     * Selects the operation a list request runs against its queue.
+     */
+    private interface QueueOperation {
+        MemoryQueue.Operation on(MemoryQueue mq);
+    }
+
+    /**
+     * Run a list request without blocking, completing result when it is done.  A request with a wait leaves a waiter
+     * on the queue rather than parking the calling thread, which is taken off the queue at once if result is
+     * cancelled or fails before the waiter is answered.
+     */
+    private void perform(final String account, final String queue, final Long wait, final QueueOperation op,
+                         final ScheduledExecutorService timer, final CompletableFuture<List<Message>> result) {
+        final MemoryQueue mq;
+
+        try {
+            mq = lookup(account, queue, wait);
+        } catch (CommandException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        final Runnable abandon = mq.perform(op.on(mq), wait, timer, new MemoryQueue.Handler() {
+            public void handle(List<Message> messages) {
+                if (messages == null) perform(account, queue, wait, op, timer, result);
+                else if (messages.isEmpty() && mq.isEmpty()) result.completeExceptionally(new QueueNotFoundException());
+                else result.complete(messages);
+            }
+        });
+
+        if (abandon != null) {
+            result.whenComplete(new BiConsumer<List<Message>, Throwable>() {
+                public void accept(List<Message> messages, Throwable failure) {
+                    if (failure == null) return;
+                    try {
+                        abandon.run();
+                    } catch (RejectedExecutionException e) {
+                        // The timer has been shut down, and its waiters with it.
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the creation order of an account.
+     *
+     * @param account The account id.
+     * @return The account's place in the order of creation, or null if it does not exist.
+     */
+    Long accountSeq(String account) {
+        MemoryAccount ma = accountMap.get(account);
+        return ma == null ? null : ma.seq;
+    }
+
+    /**
+     * List accounts created after a given point, in order of creation.
+     *
+     * @param seq The creation order of the account preceding the first to be listed, or -1 to start at the front.
+     * @param limit The maximum number of accounts to list, or -1 for no limit.
+     * @return The accounts' entries.
+     */
+    List<Entry<String, MemoryAccount>> accountsAfter(long seq, long limit) {
+        List<Entry<String, MemoryAccount>> accounts = new ArrayList<Entry<String, MemoryAccount>>();
+        Iterator<Entry<String, MemoryAccount>> iter = accountMap.newIterator();
+
+        while ((limit != 0) && (iter.hasNext())) {
+            Entry<String, MemoryAccount> e = iter.next();
+            if (e.getValue().seq <= seq) continue;
+            accounts.add(e);
+            limit--;
+        }
+
+        return accounts;
+    }
+
+    /**
+     * Delete a single account, if it is still the given one.
+     *
+     * @param account The account id.
+     * @param ma The account expected to be associated with the id.
+     * @return True if the account was deleted.
+     */
+    boolean deleteAccount(String account, MemoryAccount ma) {
+        if (!accountMap.remove(account, ma)) return false;
+        ma.close();
+        return true;
+    }
+
+    /**
+     * Execute a GetMessages request without blocking.
+     *
+     * @param request The request to execute.
+     * @param timer The executor on which waits are timed and results are delivered.
+     * @param result Completed with the messages, or exceptionally with a CommandException.
+     */
+    void execute(final GetMessages request, ScheduledExecutorService timer, CompletableFuture<List<Message>> result) {
+        if (request == null)
+            throw new IllegalArgumentException("Request object may not be null.");
+
+        perform(request.getQueue().getAccount().getId(), request.getQueue().getId(), request.getWait(),
+                new QueueOperation() {
+                    public MemoryQueue.Operation on(MemoryQueue mq) {
+                        return mq.getting(request.getMarker(), request.getLimit(), request.getMatchHidden());
+                    }
+                }, timer, result);
+    }
+
+    /**
+     * Execute a DeleteMessages request without blocking.
+     *
+     * @param request The request to execute.
+     * @param timer The executor on which waits are timed and results are delivered.
+     * @param result Completed with the messages, or exceptionally with a CommandException.
+     */
+    void execute(final DeleteMessages request, ScheduledExecutorService timer, CompletableFuture<List<Message>> result) {
+        if (request == null)
+            throw new IllegalArgumentException("Request object may not be null.");
+
+        perform(request.getQueue().getAccount().getId(), request.getQueue().getId(), request.getWait(),
+                new QueueOperation() {
+                    public MemoryQueue.Operation on(MemoryQueue mq) {
+                        return mq.removing(request.getMarker(), request.getLimit(), request.getMatchHidden());
+                    }
+                }, timer, result);
+    }
+
+    /**
+     * Execute an UpdateMessages request without blocking.
+     *
+     * @param request The request to execute.
+     * @param timer The executor on which waits are timed and results are delivered.
+     * @param result Completed with the messages, or exceptionally with a CommandException.
+     */
+    void execute(final UpdateMessages request, ScheduledExecutorService timer, CompletableFuture<List<Message>> result) {
+        if (request == null)
+            throw new IllegalArgumentException("Request object may not be null.");
+
+        perform(request.getQueue().getAccount().getId(), request.getQueue().getId(), request.getWait(),
+                new QueueOperation() {
+                    public MemoryQueue.Operation on(MemoryQueue mq) {
+                        return mq.updating(request.getMarker(), request.getLimit(), request.getMatchHidden(),
+                                           request.getTtl(), request.getHide());
+                    }
+                }, timer, result);
+    }
+
+    /**
+     * Test whether an account holds any queue with messages in it.  Queues may be held empty while requests wait on
+     * them, and those are not reported.
+     */
+    private boolean hasQueues(MemoryAccount ma) {
+        Iterator<Entry<String, MemoryQueue>> iter = ma.newIterator();
+        while (iter.hasNext()) {
+            if (!iter.next().getValue().isEmpty()) return true;
+        }
+        return false;
+    }
 
     /**
      * Execute a CreateMessage request.
@@ -101,9 +393,14 @@ public class Memory implements Backend {
 
         String account = request.getQueue().getAccount().getId();
         String queue = request.getQueue().getId();
-        MemoryQueue mq = createIfAbsent(account, queue);
+        Message msg;
 
-        return mq.put(request.getId(), request.getBody(), request.getTtl(), request.getHide());
+        do {
+            MemoryQueue mq = createIfAbsent(account, queue);
+            msg = mq.put(request.getId(), request.getBody(), request.getTtl(), request.getHide());
+        } while (msg == null);
+
+        return msg;
     }
 
     /**
@@ -129,6 +426,7 @@ public class Memory implements Backend {
             Entry<String, MemoryAccount> e = iter.next();
             deleted.add(new Account(e.getKey()));
             iter.remove();
+            e.getValue().close();
             limit--;
         }
 
@@ -158,11 +456,7 @@ public class Memory implements Backend {
 	    throw new MessageNotFoundException();
 	}
 
-        Message msg = mq.remove(request.getId());
-
-        if (mq.isEmpty()) accountMap.get(account).remove(queue);
-
-        return msg;
+        return mq.remove(request.getId());
     }
 
     /**
@@ -180,17 +474,15 @@ public class Memory implements Backend {
 
         String account = request.getQueue().getAccount().getId();
         String queue = request.getQueue().getId();
-        
-	MemoryQueue mq = null;
-        try { //TODO: Fix this when http returns more than a 404
-	    mq = ensurePresent(account, queue);
-	} catch (CommandException ce) {
-	    throw new QueueNotFoundException();
-	}
+        List<Message> messages;
+        MemoryQueue mq;
 
-        List<Message> messages = mq.remove(request.getMarker(), request.getLimit(), request.getMatchHidden(), request.getWait());
+        do {
+            mq = lookup(account, queue, request.getWait());
+            messages = mq.remove(request.getMarker(), request.getLimit(), request.getMatchHidden(), request.getWait());
+        } while (messages == null);
 
-        if (mq.isEmpty()) accountMap.get(account).remove(queue);
+        checkFound(mq, messages);
 
         return messages;
     }
@@ -209,14 +501,15 @@ public class Memory implements Backend {
 
         String account = request.getAccount().getId();
 
-        if (!accountMap.containsKey(account)) throw new AccountNotFoundException("No such account");
+        MemoryAccount ma = accountMap.get(account);
+        if (ma == null) throw new AccountNotFoundException("No such account");
 
         List<Queue> deleted = new ArrayList<Queue>();
 
         Iterator<Entry<String, MemoryQueue>> iter;
         if (request.getMarker() != null) {
-            iter = accountMap.get(account).newIteratorFrom(request.getMarker());
-        } else iter = accountMap.get(account).newIterator();
+            iter = ma.newIteratorFrom(request.getMarker());
+        } else iter = ma.newIterator();
 
         long limit = request.getLimit() == null ? -1l : request.getLimit();
 
@@ -224,10 +517,11 @@ public class Memory implements Backend {
             Entry<String, MemoryQueue> e = iter.next();
             deleted.add(new Queue(request.getAccount(), e.getKey()));
             iter.remove();
+            e.getValue().close();
             limit--;
         }
 
-        if (accountMap.get(account).isEmpty()) accountMap.remove(account);
+        if (ma.retire()) accountMap.remove(account, ma);
 
         return deleted;
     }
@@ -304,15 +598,15 @@ public class Memory implements Backend {
         String account = request.getQueue().getAccount().getId();
         String queue = request.getQueue().getId();
 
-	MemoryQueue mq = null;
-        try { //TODO: Fix this when http returns more than a 404
-	    mq = ensurePresent(account, queue);
-	} catch (CommandException ce) {
-	    throw new QueueNotFoundException();
-	}
+        List<Message> messages;
+        MemoryQueue mq;
 
-        return mq.get(request.getMarker(), request.getLimit(), request.getMatchHidden(),
-                      request.getWait());
+        do {
+            mq = lookup(account, queue, request.getWait());
+            messages = mq.get(request.getMarker(), request.getLimit(), request.getMatchHidden(), request.getWait());
+        } while (messages == null);
+
+        return checkFound(mq, messages);
     }
 
     /**
@@ -330,12 +624,9 @@ public class Memory implements Backend {
             throw new IllegalArgumentException("Request object may not be null.");
         if (request.getAccount().getId() == null)
             throw new IllegalArgumentException("Account identifier may not be null");
-        if (!accountMap.containsKey(request.getAccount().getId()))
-                throw new AccountNotFoundException("No such account.");
-
         MemoryAccount ma = accountMap.get(request.getAccount().getId());
 
-        if (ma.isEmpty()) throw new AccountNotFoundException("No such account.");
+        if (ma == null || !hasQueues(ma)) throw new AccountNotFoundException("No such account.");
 
         List<Queue> queues = new ArrayList<Queue>();
         Iterator<Entry<String, MemoryQueue>> iter;
@@ -348,6 +639,7 @@ public class Memory implements Backend {
 
         while ((limit != 0) && (iter.hasNext())) {
             Entry<String, MemoryQueue> e = iter.next();
+            if (e.getValue().isEmpty()) continue;
             queues.add(new Queue(request.getAccount(), e.getKey()));
             limit--;
         }
@@ -398,15 +690,15 @@ public class Memory implements Backend {
         String account = request.getQueue().getAccount().getId();
         String queue = request.getQueue().getId();
 
-	MemoryQueue mq = null;
-        try { //TODO: Fix this when http returns more than a 404
-	    mq = ensurePresent(account, queue);
-	} catch (CommandException ce) {
-	    throw new QueueNotFoundException();
-	}
+        List<Message> messages;
+        MemoryQueue mq;
 
+        do {
+            mq = lookup(account, queue, request.getWait());
+            messages = mq.update(request.getMarker(), request.getLimit(), request.getMatchHidden(),
+                                 request.getTtl(), request.getHide(), request.getWait());
+        } while (messages == null);
 
-        return mq.update(request.getMarker(), request.getLimit(), request.getMatchHidden(),
-                         request.getTtl(), request.getHide(), request.getWait());
+        return checkFound(mq, messages);
     }
 }
\ No newline at end of file
@@ -1,5 +1,53 @@
 package org.openstack.burrow.backend.memory;
 
-class MemoryAccount extends HashedList<String, MemoryQueue> {
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+class MemoryAccount extends ConcurrentHashedList<String, MemoryQueue> {
     //Any auth logic will be here, in overridden methods.
+    private static final AtomicLong nextSeq = new AtomicLong();
+
+    /**
+     * Order of creation among all accounts in all backends, used to list accounts held in several backends in the
+     * order a single backend would.
+     */
+    final long seq = nextSeq.getAndIncrement();
+    private boolean retired = false;
+
+    /**
+     * Add a queue to the account unless one already exists with the same id.
+     *
+     * @param id The queue id.
+     * @param mq The queue to add.
+     * @return The queue now associated with id, or null if the account has been retired and the queue should be added
+     * to its replacement.
+     */
+    synchronized MemoryQueue addQueue(String id, MemoryQueue mq) {
+        if (retired) return null;
+        MemoryQueue existing = putIfAbsent(id, mq);
+        return existing == null ? mq : existing;
+    }
+
+    /**
+     * Mark the account as retired if it holds no queues, so that it may be removed.  A retired account accepts no new
+     * queues.
+     *
+     * @return True if the account is retired, false if it is still in use.
+     */
+    synchronized boolean retire() {
+        if (isEmpty()) retired = true;
+        return retired;
+    }
+
+    /**
+     * Retire the account unconditionally, as when it is deleted, and close each of its queues.
+     */
+    void close() {
+        synchronized (this) {
+            retired = true;
+        }
+
+        Iterator<Entry<String, MemoryQueue>> iter = newIterator();
+        while (iter.hasNext()) iter.next().getValue().close();
+    }
 }
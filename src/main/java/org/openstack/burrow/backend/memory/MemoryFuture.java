@@ -1,85 +1,85 @@
 package org.openstack.burrow.backend.memory;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 /**
- *  Implements a trivial future type for use with the asynchronous memory backend.
+ * The future type returned by the asynchronous memory backend for requests run on its executor.  It runs its request
+ * when executed, and may be composed with other stages.  Cancelling it, with or without mayInterruptIfRunning, or
+ * completing it exceptionally from outside, as a timeout does, interrupts the thread running the request, since its
+ * result is no longer wanted.
  */
-class MemoryFuture<V> implements Future<V> {
-    private V value;
-    private ExecutionException thrown;
+class MemoryFuture<V> extends CompletableFuture<V> implements Runnable {
+    private final Callable<V> task;
+    private Thread runner;
 
     /**
-     * Constructs a Future object to contain the result of a successful operation
-     * @param value The operations result.
+     * Constructs a Future for the result of a request yet to be run.
+     *
+     * @param task The request.
      */
-    MemoryFuture(V value) {
-        this.value = value;
-        thrown = null;
+    MemoryFuture(Callable<V> task) {
+        this.task = task;
+        this.runner = null;
     }
 
     /**
-     * Constructs a Future object to contain the result of an unsuccessful operation
-     * @param thrown The exception thrown by the operation.
+     * Run the request, unless the future has already been cancelled.
      */
-    MemoryFuture(Throwable thrown) {
-        this.thrown = new ExecutionException(thrown);
-        this.value = null;
-    }
+    public void run() {
+        synchronized (this) {
+            if (isDone()) return;
+            runner = Thread.currentThread();
+        }
 
-    /**
-     * Always returns false.
-     *
-     * @param b ignored
-     * @return Always false
-     */
-    public boolean cancel(boolean b) {
-        return false;
+        try {
+            complete(task.call());
+        } catch (Throwable t) {
+            completeExceptionally(t);
+        } finally {
+            synchronized (this) {
+                runner = null;
+                // Don't leak an interrupt from a late cancel() onto a pooled thread.
+                Thread.interrupted();
+            }
+        }
     }
 
     /**
-     * Always returns false.
+     * Cancel the request, interrupting it if it is running on another thread.  A CompletableFuture ignores
+     * mayInterruptIfRunning, and so does this: a request left running after its future is cancelled could still
+     * consume messages no one will see.
      *
-     * @return Always false
+     * @param mayInterruptIfRunning Ignored.
+     * @return True if the future was cancelled.
      */
-    public boolean isCancelled() {
-        return false;
-    }
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
 
-    /**
-     * Always returns true.
-     *
-     * @return Always true
-     */
-    public boolean isDone() {
-        return true;
-    }
+        if (cancelled) {
+            synchronized (this) {
+                if (runner != null && runner != Thread.currentThread()) runner.interrupt();
+            }
+        }
 
-    /**
-     * Retrieve the result of the underlying operation.
-     *
-     * @return The result of the underlying operation
-     * @throws InterruptedException Never.
-     * @throws ExecutionException If the underlying operation threw an exception
-     */
-    public V get() throws InterruptedException, ExecutionException {
-        if (thrown != null) throw thrown;
-         return value;
+        return cancelled;
     }
 
     /**
-     * Retrieve the result of the underlying operation.
+     * Fail the request, interrupting it if it is running on another thread.
      *
-     * @return The result of the underlying operation
-     * @throws InterruptedException Never.
-     * @throws TimeoutException Never.
-     * @throws ExecutionException If the underlying operation threw an exception
+     * @param ex The exception with which the request fails.
+     * @return True if this completed the future.
      */
-    public V get(long l, TimeUnit timeUnit) throws InterruptedException, ExecutionException, TimeoutException {
-        if (thrown != null) throw thrown;
-        return value;
+    public boolean completeExceptionally(Throwable ex) {
+        boolean completed = super.completeExceptionally(ex);
+
+        if (completed) {
+            synchronized (this) {
+                if (runner != null && runner != Thread.currentThread()) runner.interrupt();
+            }
+        }
+
+        return completed;
     }
 }
@@ -1,190 +1,788 @@
 package org.openstack.burrow.backend.memory;
 
 import org.openstack.burrow.backend.MessageNotFoundException;
+import org.openstack.burrow.backend.Reaper;
 import org.openstack.burrow.client.Message;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 class MemoryQueue {
     public static final long DEFAULT_TTL = 600;
     private HashedList<String, MessageRecord> queue;
+    private TreeMap<Long, MessageRecord> visible;
+    private TreeSet<MessageRecord> hidden;
+    private TreeSet<MessageRecord> expiry;
+    private long nextSeq;
+    private final ReentrantLock lock;
+    private final LinkedList<Waiter> waiters;
+    private boolean pending;
+    private boolean retired;
+
+    /**
+     * Orders records by the instant at which they expire, breaking ties by order of creation.
+     */
+    private static final Comparator<MessageRecord> BY_EXPIRY = new Comparator<MessageRecord>() {
+        public int compare(MessageRecord a, MessageRecord b) {
+            if (a.expiresAt != b.expiresAt) return a.expiresAt < b.expiresAt ? -1 : 1;
+            if (a.seq != b.seq) return a.seq < b.seq ? -1 : 1;
+            return 0;
+        }
+    };
+
+    /**
+     * Orders records by the instant at which they become visible, breaking ties by order of creation.
+     */
+    private static final Comparator<MessageRecord> BY_REVEAL = new Comparator<MessageRecord>() {
+        public int compare(MessageRecord a, MessageRecord b) {
+            if (a.revealAt != b.revealAt) return a.revealAt < b.revealAt ? -1 : 1;
+            if (a.seq != b.seq) return a.seq < b.seq ? -1 : 1;
+            return 0;
+        }
+    };
+
+    /**
+     * The queue's clock, in milliseconds.  Derived from System.nanoTime() so that deadlines are unaffected by changes
+     * to the wall clock; only differences between two readings are meaningful.  Tests override this to control the
+     * passage of time.
+     *
+     * @return The current time in milliseconds.
+     */
+    long now() {
+        return System.nanoTime() / 1000000;
+    }
 
-    private class MessageRecord extends Message {
-            long lastTick;
+    /**
+     * Convert a number of milliseconds remaining until a deadline into the whole seconds used by the rest of burrow.
+     * Rounds up, so that a deadline which has not yet passed is never reported as zero.
+     *
+     * @param remaining Milliseconds until the deadline, may be negative if it has passed.
+     * @return The remaining time in seconds.
+     */
+    static long toSeconds(long remaining) {
+        return remaining <= 0 ? 0 : (remaining + 999) / 1000;
+    }
 
-            private MessageRecord(String id, String body, Long ttl, Long hide) {
+    /**
+     * A message as stored in the queue.  Only the absolute deadlines are kept, the ttl and hide seen by callers are
+     * computed from them in snapshot().
+     */
+    private class MessageRecord {
+            final String id;
+            final String body;
+            final long seq;
+            long expiresAt;
+            long revealAt;
+            boolean inHidden;
+
+            private MessageRecord(String id, String body, Long ttl, Long hide, long now) {
                 if (ttl == null) ttl = 0l;
 				if (hide == null) hide = 0l;
-				this.ttl = ttl == 0l ? DEFAULT_TTL : ttl; //No way to detect a null arg here due to autoboxing
-                this.hide =  hide;
+				if (ttl == 0l) ttl = DEFAULT_TTL; //No way to detect a null arg here due to autoboxing
                 this.body = body;
                 this.id = id;
+                this.seq = nextSeq++;
 
+                expiresAt = now + ttl * 1000;
+                revealAt = now + hide * 1000;
+            }
 
-                lastTick = System.currentTimeMillis() / 1000;
+            private boolean isHidden(long now) {
+                return revealAt > now;
             }
 
-            private void tick() {
-                //The rest of burrow operates in seconds, no easy way to avoid it here.
-                long now = System.currentTimeMillis() / 1000;
+            private boolean isExpired(long now) {
+                return expiresAt <= now;
+            }
 
-                ttl = ttl - (now - lastTick);
-                if (ttl < 0) ttl = 0l;
+            private void update(Long ttl, Long hide, long now) {
+                if (ttl != null) expiresAt = now + ttl * 1000;
+                if (hide != null) revealAt = now + hide * 1000;
+            }
 
-                if (hide != 0) {
-                    hide = hide - (now - lastTick);
-                    if (hide < 0) hide = 0l;
-                }
+            private Message snapshot(long now) {
+                return new Snapshot(id, body, toSeconds(expiresAt - now), toSeconds(revealAt - now));
+            }
+        }
 
-                lastTick = now;
+    /**
+     * An immutable copy of a record at the time it was returned from the queue.
+     */
+    private static class Snapshot extends Message {
+            private Snapshot(String id, String body, long ttl, long hide) {
+                this.id = id;
+                this.body = body;
+                this.ttl = ttl;
+                this.hide = hide;
             }
+        }
+
+    /**
+     * One of the list operations, kept by a waiter so that it can be retried as messages arrive.
+     */
+    abstract class Operation {
+            /**
+             * Run the operation against the queue.  Called with the queue locked.
+             *
+             * @param now The current time, as returned by now().
+             * @return The messages matched, which may be empty.
+             */
+            abstract List<Message> attempt(long now);
+        }
 
-            private void update(Long ttl, Long hide) {
-                long now = System.currentTimeMillis() / 1000;
+    /**
+     * A caller waiting for an operation to match at least one message.  Waiters are served in the order they arrived:
+     * whichever thread makes messages available runs their operations and hands the results over directly.
+     */
+    abstract class Waiter {
+            final Operation op;
 
-                if (ttl != null) this.ttl = ttl;
-                else {
-                    this.ttl = this.ttl - (now - lastTick);
-                    this.ttl = this.ttl < 0 ? 0 : this.ttl;
+            Waiter(Operation op) {
+                this.op = op;
+            }
+
+            /**
+             * Hand the waiter its result.  Called with the queue locked, after the waiter has been removed from the
+             * queue's waiters.
+             *
+             * @param messages The messages matched by the waiter's operation, empty if the queue was closed.
+             */
+            abstract void deliver(List<Message> messages);
+
+            /**
+             * Called with the queue locked when this waiter becomes the first in line, or when the next hidden message
+             * to be revealed changes.  The first waiter is responsible for waking up to reveal hidden messages.
+             */
+            abstract void wake();
+        }
+
+    /**
+     * A waiter belonging to a thread parked in block().
+     */
+    private class BlockingWaiter extends Waiter {
+            final Condition ready;
+            List<Message> result;
+
+            BlockingWaiter(Operation op) {
+                super(op);
+                ready = lock.newCondition();
+            }
+
+            void deliver(List<Message> messages) {
+                result = messages;
+                ready.signal();
+            }
+
+            void wake() {
+                ready.signal();
+            }
+        }
+
+    /**
+     * Receives the result of an operation run by perform() without blocking.
+     */
+    interface Handler {
+            void handle(List<Message> messages);
+        }
+
+    /**
+     * A waiter with no thread behind it.  Its handler is run on the timer, never with the queue locked, and the timer
+     * also stands in for the parked thread in giving up at the deadline and in waking up to reveal hidden messages.
+     */
+    private class CallbackWaiter extends Waiter {
+            final ScheduledExecutorService timer;
+            final Handler handler;
+            ScheduledFuture<?> timeout;
+            ScheduledFuture<?> revealer;
+            boolean done;
+
+            CallbackWaiter(Operation op, ScheduledExecutorService timer, Handler handler) {
+                super(op);
+                this.timer = timer;
+                this.handler = handler;
+                this.done = false;
+            }
+
+            /**
+             * Schedule the waiter to give up after the given delay.  Must be called with the queue locked.
+             */
+            void expire(long delay) {
+                timeout = timer.schedule(new Runnable() {
+                    public void run() {
+                        lock.lock();
+                        try {
+                            if (done) return;
+                            leave(CallbackWaiter.this);
+                            finish();
+                        } finally {
+                            lock.unlock();
+                        }
+                        handler.handle(new ArrayList<Message>());
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+
+            /**
+             * Take the waiter off the queue if it is still waiting, so that it is never handed messages.  Its handler
+             * is not called.
+             */
+            void abandon() {
+                lock.lock();
+                try {
+                    if (done) return;
+                    leave(this);
+                    finish();
+                } finally {
+                    lock.unlock();
                 }
+            }
 
-                if (hide != null) this.hide = hide;
-                else {
-                    this.hide = this.hide - (now - lastTick);
-                    this.hide = this.hide < 0 ? 0 : this.hide;
+            private void finish() {
+                done = true;
+                if (timeout != null) timeout.cancel(false);
+                if (revealer != null) revealer.cancel(false);
+            }
+
+            void deliver(final List<Message> messages) {
+                finish();
+                Runnable handoff = new Runnable() {
+                    public void run() {
+                        handler.handle(messages);
+                    }
+                };
+                try {
+                    timer.execute(handoff);
+                } catch (RejectedExecutionException e) {
+                    // The timer is shutting down, but the messages have been taken, so they must still be handed over.
+                    handoff.run();
                 }
+            }
 
-                lastTick = now;
+            void wake() {
+                if (done) return;
+                if (revealer != null) revealer.cancel(false);
+                revealer = null;
+                if (waiters.peekFirst() != this || hidden.isEmpty()) return;
+
+                try {
+                    revealer = timer.schedule(new Runnable() {
+                        public void run() {
+                            lock.lock();
+                            try {
+                                long now = now();
+                                reveal(now);
+                                dispatch(now);
+                                if (!done) wake();
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    }, Math.max(0, hidden.first().revealAt - now()), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // The timer is shutting down; the waiter is still answered when its wait runs out.
+                }
             }
         }
 
         MemoryQueue() {
             queue = new HashedList<String, MessageRecord>();
+            visible = new TreeMap<Long, MessageRecord>();
+            hidden = new TreeSet<MessageRecord>(BY_REVEAL);
+            expiry = new TreeSet<MessageRecord>(BY_EXPIRY);
+            nextSeq = 0;
+            lock = new ReentrantLock();
+            waiters = new LinkedList<Waiter>();
+            pending = false;
+            retired = false;
+        }
+
+        /**
+         * Test whether the queue holds any messages which have not expired.  Expired messages may not yet have been
+         * reaped, but are never returned.
+         *
+         * @return True if every message in the queue has expired.
+         */
+        boolean isEmpty() {
+            lock.lock();
+            try {
+                return isEmpty(now());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isEmpty(long now) {
+            return expiry.isEmpty() || expiry.last().isExpired(now);
+        }
+
+        /**
+         * Count the callers waiting on the queue for messages to arrive.
+         *
+         * @return The number of waiters.
+         */
+        int getWaiting() {
+            lock.lock();
+            try {
+                return waiters.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Mark the queue as retired if it holds no messages and nobody is waiting on it, so that it may be removed from
+         * its account.  A retired queue accepts no new messages or waiters, see put().
+         *
+         * @return True if the queue is retired, false if it is still in use.
+         */
+        boolean retire() {
+            lock.lock();
+            try {
+                long now = now();
+                reveal(now);
+                dispatch(now);
+                if (isEmpty(now) && waiters.isEmpty()) retired = true;
+                return retired;
+            } finally {
+                lock.unlock();
+            }
         }
 
-        synchronized boolean isEmpty() {
-            clean();
-            return queue.isEmpty();
+        /**
+         * Retire the queue unconditionally, as when it is deleted, and release everyone waiting on it with an empty
+         * result.
+         */
+        void close() {
+            lock.lock();
+            try {
+                retired = true;
+                while (!waiters.isEmpty()) waiters.removeFirst().deliver(Collections.<Message>emptyList());
+            } finally {
+                lock.unlock();
+            }
         }
 
-        synchronized Message put(String messageId, String body, Long ttl, Long hide) {
-            clean();
-            MessageRecord msg = new MessageRecord(messageId, body, ttl, hide);
-            queue.put(messageId, msg);
-            return msg;
+        /**
+         * Add a message to the queue.
+         *
+         * @return The message as stored, or null if the queue has been retired and the message should be put in its
+         * replacement.
+         */
+        Message put(String messageId, String body, Long ttl, Long hide) {
+            lock.lock();
+            try {
+                if (retired) return null;
+
+                long now = now();
+                reveal(now);
+                MessageRecord msg = new MessageRecord(messageId, body, ttl, hide, now);
+                MessageRecord old = queue.get(messageId);
+                if (old != null) unindex(old);
+                queue.put(messageId, msg);
+                index(msg, now);
+                pending = true;
+                dispatch(now);
+                return msg.snapshot(now);
+            } finally {
+                lock.unlock();
+            }
         }
 
-        synchronized Message get(String messageId) throws MessageNotFoundException {
-            clean();
+        Message get(String messageId) throws MessageNotFoundException {
+            lock.lock();
+            try {
+                long now = now();
+                reveal(now);
+                dispatch(now);
 
-            MessageRecord msg = queue.get(messageId);
+                MessageRecord msg = queue.get(messageId);
 
-            if (msg == null) throw new MessageNotFoundException();
-  
-            return msg;
+                if (msg == null || msg.isExpired(now)) throw new MessageNotFoundException();
+
+                return msg.snapshot(now);
+            } finally {
+                lock.unlock();
+            }
         }
 
-        synchronized List<Message> get(String marker, Long limit, Boolean matchHidden, Long wait) {
-            clean();
-            List<Message> messages = new ArrayList<Message>();
+        List<Message> get(String marker, Long limit, Boolean matchHidden, Long wait) {
+            return perform(getting(marker, limit, matchHidden), wait);
+        }
 
-            Iterator<Entry<String, MessageRecord>> iter;
-            if (marker != null) iter = queue.newIteratorFrom(marker);
-            else iter = queue.newIterator();
+        Operation getting(final String marker, final Long limit, final Boolean matchHidden) {
+            return new Operation() {
+                List<Message> attempt(long now) {
+                    List<Message> messages = new ArrayList<Message>();
 
-            if (limit == null) limit = -1l;
-            if (matchHidden == null) matchHidden = false;
+                    for (MessageRecord msg : select(marker, limit, matchHidden, now)) {
+                        messages.add(msg.snapshot(now));
+                    }
 
-            while ((limit != 0) && (iter.hasNext())) {
-                MessageRecord msg = iter.next().getValue();
-                if (matchHidden || (msg.getHide() == 0)) {
-                    messages.add(msg);
-                    limit--;
+                    return messages;
                 }
+            };
+        }
+
+        Message remove(String id) throws MessageNotFoundException {
+            lock.lock();
+            try {
+                long now = now();
+                reveal(now);
+                dispatch(now);
+
+                MessageRecord msg = queue.get(id);
+
+                if (msg == null || msg.isExpired(now)) throw new MessageNotFoundException();
+
+                queue.remove(id);
+                unindex(msg);
+                return msg.snapshot(now);
+            } finally {
+                lock.unlock();
             }
+        }
 
-            return messages;
+        List<Message> remove(String marker, Long limit, Boolean matchHidden, Long wait) {
+            return perform(removing(marker, limit, matchHidden), wait);
         }
 
-        synchronized Message remove(String id) throws MessageNotFoundException {
-            clean();
+        Operation removing(final String marker, final Long limit, final Boolean matchHidden) {
+            return new Operation() {
+                List<Message> attempt(long now) {
+                    List<Message> messages = new ArrayList<Message>();
 
-            MessageRecord msg = queue.remove(id);
+                    for (MessageRecord msg : select(marker, limit, matchHidden, now)) {
+                        queue.remove(msg.id);
+                        unindex(msg);
+                        messages.add(msg.snapshot(now));
+                    }
 
+                    return messages;
+                }
+            };
+        }
 
-            if (msg == null) throw new MessageNotFoundException();
+        List<Message> update(String marker, Long limit, Boolean matchHidden, Long ttl, Long hide, Long wait) {
+            return perform(updating(marker, limit, matchHidden, ttl, hide), wait);
+        }
 
-            return msg;
+        Operation updating(final String marker, final Long limit, final Boolean matchHidden, final Long ttl,
+                           final Long hide) {
+            return new Operation() {
+                List<Message> attempt(long now) {
+                    List<Message> messages = new ArrayList<Message>();
+
+                    for (MessageRecord msg : select(marker, limit, matchHidden, now)) {
+                        unindex(msg);
+                        msg.update(ttl, hide, now);
+                        index(msg, now);
+                        messages.add(msg.snapshot(now));
+                    }
+
+                    return messages;
+                }
+            };
         }
 
-        synchronized List<Message> remove(String marker, Long limit, Boolean matchHidden, Long wait) {
-            clean();
-            List<Message> messages = new ArrayList<Message>();
+        Message update(String messageId, Long ttl, Long hide) throws MessageNotFoundException {
+            lock.lock();
+            try {
+                long now = now();
+                reveal(now);
 
-            Iterator<Entry<String, MessageRecord>> iter;
-            if (marker != null) iter = queue.newIteratorFrom(marker);
-            else iter = queue.newIterator();
+                MessageRecord msg = queue.get(messageId);
+                if (msg == null || msg.isExpired(now)) throw new MessageNotFoundException();
 
-            if (limit == null) limit = -1l;
-            if (matchHidden == null) matchHidden = false;
+                unindex(msg);
+                msg.update(ttl, hide, now);
+                index(msg, now);
+                dispatch(now);
 
-            while ((limit != 0) && (iter.hasNext())) {
-                MessageRecord msg = iter.next().getValue();
-                if (matchHidden || (msg.getHide() == 0)) {
-                    messages.add(msg);
-                    limit--;
-                    iter.remove();
+                return msg.snapshot(now);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Run a list operation, waiting up to wait seconds for it to match something if it does not at first.
+         *
+         * @param op The operation to run.
+         * @param wait The number of seconds to wait, or null not to wait.
+         * @return The messages matched, which may be empty, or null if the queue has been retired and the operation
+         * should be retried against its replacement.
+         */
+        List<Message> perform(Operation op, Long wait) {
+            lock.lock();
+            try {
+                if (retired) return wait != null && wait > 0 ? null : Collections.<Message>emptyList();
+
+                long now = now();
+                reveal(now);
+                dispatch(now);
+
+                List<Message> messages = op.attempt(now);
+                dispatch(now);
+
+                if (!messages.isEmpty() || wait == null || wait <= 0) return messages;
+
+                return block(op, now + wait * 1000);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Run a list operation without blocking.  If it does not match anything at first and wait is given, a waiter
+         * is left on the queue, and the handler is called later from the timer: either with the messages handed over
+         * by whichever thread makes them available, or with an empty list once wait seconds have passed.
+         *
+         * @param op The operation to run.
+         * @param wait The number of seconds to wait, or null not to wait.
+         * @param timer The executor on which timeouts and reveals are scheduled, and deferred handlers are run.
+         * @param handler Called exactly once with the messages matched, which may be empty, or with null if the queue
+         * has been retired and the operation should be retried against its replacement.
+         * @return A Runnable which abandons the waiter left on the queue, so that a caller no longer interested in the
+         * result stops holding messages back from others, or null if no waiter was left.
+         */
+        Runnable perform(Operation op, Long wait, ScheduledExecutorService timer, Handler handler) {
+            List<Message> messages;
+
+            lock.lock();
+            try {
+                if (retired) {
+                    messages = wait != null && wait > 0 ? null : Collections.<Message>emptyList();
+                } else {
+                    long now = now();
+                    reveal(now);
+                    dispatch(now);
+
+                    messages = op.attempt(now);
+                    dispatch(now);
+
+                    if (messages.isEmpty() && wait != null && wait > 0) {
+                        final CallbackWaiter w = new CallbackWaiter(op, timer, handler);
+                        waiters.addLast(w);
+                        w.expire(wait * 1000);
+                        if (waiters.peekFirst() == w) w.wake();
+                        return new Runnable() {
+                            public void run() {
+                                w.abandon();
+                            }
+                        };
+                    }
                 }
+            } finally {
+                lock.unlock();
             }
 
-            return messages;
+            handler.handle(messages);
+            return null;
+        }
+
+        /**
+         * Park the calling thread until a producer hands it the result of op, or the deadline passes.  Must be called
+         * with the queue locked.
+         *
+         * @param op The operation to wait on.
+         * @param deadline The time, as returned by now(), at which to give up.
+         * @return The messages handed over, or an empty list if the deadline passed first.
+         */
+        private List<Message> block(Operation op, long deadline) {
+            BlockingWaiter w = new BlockingWaiter(op);
+            waiters.addLast(w);
+
+            try {
+                while (w.result == null) {
+                    long now = now();
+                    if (now >= deadline) break;
+
+                    long until = deadline;
+                    if (waiters.peekFirst() == w && !hidden.isEmpty())
+                        until = Math.min(until, hidden.first().revealAt);
+
+                    if (until > now) w.ready.await(until - now, TimeUnit.MILLISECONDS);
+
+                    if (w.result == null) {
+                        now = now();
+                        reveal(now);
+                        dispatch(now);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (w.result == null) leave(w);
+            }
+
+            return w.result == null ? new ArrayList<Message>() : w.result;
+        }
+
+        /**
+         * Remove a waiter which is giving up, handing the responsibility for revealing messages on if it was first.
+         *
+         * @param w The waiter to be removed.
+         */
+        private void leave(Waiter w) {
+            boolean first = waiters.peekFirst() == w;
+            waiters.remove(w);
+            if (first && !waiters.isEmpty()) waiters.peekFirst().wake();
         }
 
-        synchronized List<Message> update(String marker, Long limit, Boolean matchHidden, Long ttl, Long hide, Long wait) {
-            clean();
-            List<Message> messages = new ArrayList<Message>();
+        /**
+         * Offer any newly available messages to the waiters, in the order they arrived.  Each waiter whose operation
+         * matches something is removed and handed its result.  Must be called with the queue locked.
+         *
+         * @param now The current time, as returned by now().
+         */
+        private void dispatch(long now) {
+            if (!pending) return;
+            pending = false;
 
-            Iterator<Entry<String, MessageRecord>> iter;
-            if (marker != null) iter = queue.newIteratorFrom(marker);
-            else iter = queue.newIterator();
+            Waiter first = waiters.peekFirst();
+            Iterator<Waiter> iter = waiters.iterator();
 
-            if (limit == null) limit = -1l;
-            if (matchHidden == null) matchHidden = false;
+            while (iter.hasNext() && !isEmpty(now)) {
+                Waiter w = iter.next();
+                List<Message> messages = w.op.attempt(now);
 
-            while ((limit != 0) && (iter.hasNext())) {
-                MessageRecord msg = iter.next().getValue();
-                if (matchHidden || (msg.getHide() == 0)) {
-                    messages.add(msg);
-                    limit--;
-                    msg.update(ttl, hide);
+                if (!messages.isEmpty()) {
+                    iter.remove();
+                    w.deliver(messages);
                 }
             }
 
-            return messages;
+            if (!waiters.isEmpty() && waiters.peekFirst() != first) waiters.peekFirst().wake();
         }
 
-        synchronized Message update(String messageId, Long ttl, Long hide) throws MessageNotFoundException {
-            clean();
+        /**
+         * Find the records matched by a marker, limit and matchHidden.  When hidden messages are excluded only the
+         * visible index is walked, so the cost is proportional to the number of records returned rather than the
+         * depth of the queue.
+         *
+         * @param marker The id of the message preceding the first to be matched, or null to start at the front.
+         * @param limit The maximum number of records to match, or null for no limit.
+         * @param matchHidden Whether hidden messages should be matched.
+         * @param now The current time, as returned by now().
+         * @return The matched records, in insertion order.
+         */
+        private List<MessageRecord> select(String marker, Long limit, Boolean matchHidden, long now) {
+            List<MessageRecord> records = new ArrayList<MessageRecord>();
+            long remaining = limit == null ? -1l : limit;
+
+            Iterator<MessageRecord> iter;
+            if (matchHidden != null && matchHidden) {
+                Iterator<Entry<String, MessageRecord>> entries;
+                if (marker != null) entries = queue.newIteratorFrom(marker);
+                else entries = queue.newIterator();
+
+                while ((remaining != 0) && (entries.hasNext())) {
+                    MessageRecord msg = entries.next().getValue();
+                    if (msg.isExpired(now)) continue;
+                    records.add(msg);
+                    remaining--;
+                }
+                return records;
+            } else if (marker != null) {
+                MessageRecord from = queue.get(marker);
+                if (from == null) return records;
+                iter = visible.tailMap(from.seq, false).values().iterator();
+            } else {
+                iter = visible.values().iterator();
+            }
 
-            MessageRecord msg = queue.get(messageId);
-            if (msg == null) throw new MessageNotFoundException();
+            while ((remaining != 0) && (iter.hasNext())) {
+                MessageRecord msg = iter.next();
+                if (msg.isExpired(now)) continue;
+                records.add(msg);
+                remaining--;
+            }
 
-            msg.update(ttl, hide);
+            return records;
+        }
 
-            return msg;
+        /**
+         * Add a record to the expiry index, and to the visible or hidden index as appropriate.
+         *
+         * @param msg The record to be indexed.
+         * @param now The current time, as returned by now().
+         */
+        private void index(MessageRecord msg, long now) {
+            expiry.add(msg);
+            msg.inHidden = msg.isHidden(now);
+            if (msg.inHidden) {
+                hidden.add(msg);
+                if (hidden.first() == msg && !waiters.isEmpty()) waiters.peekFirst().wake();
+            } else {
+                visible.put(msg.seq, msg);
+                pending = true;
+            }
         }
 
-        void clean() {
-            Iterator<Entry<String, MessageRecord>> iter = queue.newIterator();
+        /**
+         * Remove a record from every index.  Must be called before any of the deadlines the indexes are ordered by
+         * are changed.
+         *
+         * @param msg The record to be removed.
+         */
+        private void unindex(MessageRecord msg) {
+            expiry.remove(msg);
+            if (msg.inHidden) hidden.remove(msg);
+            else visible.remove(msg.seq);
+        }
 
-            while (iter.hasNext()) {
-                MessageRecord msg = iter.next().getValue();
+        /**
+         * Move every record whose hide has run out back to the visible index.  Only the records which changed state
+         * are visited.
+         *
+         * @param now The current time, as returned by now().
+         */
+        private void reveal(long now) {
+            while (!hidden.isEmpty() && hidden.first().revealAt <= now) {
+                MessageRecord msg = hidden.pollFirst();
+                msg.inHidden = false;
+                visible.put(msg.seq, msg);
+                pending = true;
+            }
+        }
 
-                msg.tick();
+        /**
+         * Drop expired records, in order of expiry, until there are none left or the slice is over.  Called by the
+         * Reaper rather than on the request path.
+         *
+         * @param slice The slice of time granted by the Reaper.
+         * @return True if every expired record has been dropped.
+         */
+        boolean reap(Reaper.Slice slice) {
+            lock.lock();
+            try {
+                long now = now();
+                int count = 0;
+
+                while (!expiry.isEmpty() && expiry.first().isExpired(now)) {
+                    MessageRecord msg = expiry.first();
+                    queue.remove(msg.id);
+                    unindex(msg);
+
+                    if ((++count & 63) == 0 && slice.isOver()) break;
+                }
 
-                if (msg.getTtl() == 0) iter.remove();
+                slice.reclaimed(count);
+                return expiry.isEmpty() || !expiry.first().isExpired(now);
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -0,0 +1,760 @@
+/*
+* Copyright (C) 2011 OpenStack LLC.
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package org.openstack.burrow.backend.memory;
+
+import org.openstack.burrow.backend.AsyncBackend;
+import org.openstack.burrow.backend.BurrowException;
+import org.openstack.burrow.backend.BurrowRuntimeException;
+import org.openstack.burrow.backend.Reaper;
+import org.openstack.burrow.backend.Scheduler;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * An in-memory backend which partitions accounts across a number of shards.  Each shard is a Memory backend driven by
+ * a single thread of its own: every request for an account is run on that account's shard thread, as is the shard's
+ * reaping, so a shard's data is only ever touched by one thread and shards proceed in parallel.
+ *
+ * Requests with a wait leave a waiter on their queue rather than occupying the shard thread, and are completed by
+ * the request that makes messages available, or by the shard thread's timer.  A waiter whose future is cancelled, or
+ * fails when the request's timeout runs out, is taken off its queue at once.
+ *
+ * GetAccounts and DeleteAccounts consult every shard and merge the results, so accounts are listed in the order
+ * they were created, just as a single Memory backend would list them.
+ */
+public class ShardedMemory implements AsyncBackend {
+    private final Shard[] shards;
+
+    /**
+     * Orders account entries by order of creation.
+     */
+    private static final Comparator<Entry<String, MemoryAccount>> BY_CREATION =
+            new Comparator<Entry<String, MemoryAccount>>() {
+        public int compare(Entry<String, MemoryAccount> a, Entry<String, MemoryAccount> b) {
+            long x = a.getValue().seq, y = b.getValue().seq;
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    /**
+     * A Memory backend with the thread that drives it.
+     */
+    private static class Shard {
+        final ScheduledExecutorService executor;
+        final Reaper reaper;
+        final Memory memory;
+
+        Shard(final int index) {
+            ScheduledThreadPoolExecutor thread = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "burrow-shard-" + index);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // A waiter answered during shutdown cancels its timer, which must not hold the thread up until it is due.
+            thread.setRemoveOnCancelPolicy(true);
+            executor = thread;
+            reaper = new Reaper(executor, Reaper.DEFAULT_PERIOD, Reaper.DEFAULT_SLICE, TimeUnit.MILLISECONDS);
+            memory = new Memory(reaper);
+        }
+
+        /**
+         * Run a task on the shard thread.
+         *
+         * @param task The task to run.
+         * @return A future completed with the task's result, or exceptionally with whatever it threw.
+         */
+        <T> CompletableFuture<T> submit(final Callable<T> task) {
+            final CompletableFuture<T> result = new CompletableFuture<T>();
+
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        result.complete(task.call());
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                }
+            });
+
+            return result;
+        }
+    }
+
+    /**
+     * A list request to be run on a shard thread without blocking it.
+     */
+    private interface ShardOperation {
+        void run(Shard shard, CompletableFuture<List<Message>> result);
+    }
+
+    /**
+     * Construct a ShardedMemory backend with one shard per available processor.
+     */
+    public ShardedMemory() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a ShardedMemory backend.
+     *
+     * @param count The number of shards.
+     */
+    public ShardedMemory(int count) {
+        if (count < 1) throw new IllegalArgumentException("There must be at least one shard.");
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) shards[i] = new Shard(i);
+    }
+
+    /**
+     * The shard threads are started with the backend, so there is nothing more to start.
+     */
+    public void start() {
+        if (shards[0].executor.isShutdown()) throw new IllegalStateException("Backend has been shut down.");
+    }
+
+    /**
+     * Stop every shard thread.  Requests made afterwards are rejected.
+     */
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.reaper.shutdown();
+            shard.executor.shutdown();
+        }
+    }
+
+    /**
+     * Stop every shard thread, once it has run the requests queued for it and timed out any which are waiting for
+     * messages.  Requests made afterwards are rejected.
+     *
+     * @param timeout The most time to wait for the shard threads.
+     * @param unit The unit of the timeout.
+     * @return True if every shard thread finished in time.
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shutdown();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard shard : shards) {
+            if (!shard.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+        }
+        return true;
+    }
+
+    private Shard shardFor(String account) {
+        if (account == null) throw new IllegalArgumentException("Account identifier may not be null.");
+        return shards[(HashedList.spread(account.hashCode()) & 0x7fffffff) % shards.length];
+    }
+
+    /**
+     * Wait for a future, unwrapping the exception thrown by the request if it failed.
+     */
+    private static <T> T await(Future<T> future) throws BurrowException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BurrowRuntimeException("Interrupted while waiting for a shard.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BurrowException) throw (BurrowException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new BurrowRuntimeException(cause);
+        }
+    }
+
+    /**
+     * Get a future which completes when every one of the given futures has.
+     */
+    private static CompletableFuture<Void> allOf(List<? extends CompletableFuture<?>> parts) {
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[parts.size()]));
+    }
+
+    /**
+     * Give a request's future the request's timeout, after which it fails with a TimeoutException.  A list request
+     * still waiting on its queue then takes its waiter off the queue.
+     */
+    private static <T> CompletableFuture<T> within(Long timeout, CompletableFuture<T> future) {
+        return timeout == null ? future : Scheduler.orTimeout(future, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a list request on its account's shard thread.
+     */
+    private CompletableFuture<List<Message>> perform(String account, final ShardOperation op) {
+        final Shard shard = shardFor(account);
+        final CompletableFuture<List<Message>> result = new CompletableFuture<List<Message>>();
+
+        shard.executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    op.run(shard, result);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Find the accounts following a marker across all shards, in order of creation.
+     */
+    private CompletableFuture<List<Entry<String, MemoryAccount>>> selectAccounts(final String marker, Long limit) {
+        final long max = limit == null ? -1l : limit;
+        CompletableFuture<Long> from;
+
+        if (marker == null) {
+            from = CompletableFuture.completedFuture(-1l);
+        } else {
+            final Shard shard = shardFor(marker);
+            from = shard.submit(new Callable<Long>() {
+                public Long call() {
+                    return shard.memory.accountSeq(marker);
+                }
+            });
+        }
+
+        return from.thenCompose(new Function<Long, CompletionStage<List<Entry<String, MemoryAccount>>>>() {
+            public CompletionStage<List<Entry<String, MemoryAccount>>> apply(final Long seq) {
+                if (seq == null)
+                    return CompletableFuture.completedFuture(Collections.<Entry<String, MemoryAccount>>emptyList());
+
+                final List<CompletableFuture<List<Entry<String, MemoryAccount>>>> parts =
+                        new ArrayList<CompletableFuture<List<Entry<String, MemoryAccount>>>>();
+
+                for (final Shard shard : shards) {
+                    parts.add(shard.submit(new Callable<List<Entry<String, MemoryAccount>>>() {
+                        public List<Entry<String, MemoryAccount>> call() {
+                            return shard.memory.accountsAfter(seq, max);
+                        }
+                    }));
+                }
+
+                return allOf(parts).thenApply(
+                        new Function<Void, List<Entry<String, MemoryAccount>>>() {
+                    public List<Entry<String, MemoryAccount>> apply(Void ignored) {
+                        List<Entry<String, MemoryAccount>> merged = new ArrayList<Entry<String, MemoryAccount>>();
+                        for (CompletableFuture<List<Entry<String, MemoryAccount>>> part : parts)
+                            merged.addAll(part.join());
+
+                        Collections.sort(merged, BY_CREATION);
+                        if (max >= 0 && merged.size() > max) merged = merged.subList(0, (int) max);
+                        return merged;
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Execute a CreateMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the created message, or null if the queue did not
+     *         return any information.
+     */
+    public Message execute(CreateMessage request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a DeleteAccounts request.
+     *
+     * @param request The request to execute.
+     * @return A list of Account instances populated with any information returned
+     *         about the accounts, or null if no information was returned.
+     */
+    public List<Account> execute(DeleteAccounts request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a DeleteMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the deleted message, or null if the queue did not
+     *         return any information.
+     */
+    public Message execute(DeleteMessage request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a DeleteMessages request.
+     *
+     * @param request The request to execute.
+     * @return A list of Message instances populated with any information returned
+     *         by the queue about the deleted messages, or null if the queue did
+     *         not return any information.
+     */
+    public List<Message> execute(DeleteMessages request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a DeleteQueues request.
+     *
+     * @param request The request to execute.
+     * @return A list of Queue instances populated with any information returned
+     *         about the queues, or null if no information was returned.
+     */
+    public List<Queue> execute(DeleteQueues request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a GetAccounts request.
+     *
+     * @param request The request to execute.
+     * @return A list of Account instances populated with any information returned
+     *         about the accounts, or null if no information was returned.
+     */
+    public List<Account> execute(GetAccounts request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a GetMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the message, or null if the queue did not return any
+     *         information.
+     */
+    public Message execute(GetMessage request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a GetMessages request.
+     *
+     * @param request The request to execute.
+     * @return A list of Message instances populated with any information returned
+     *         by the queue about the messages, or null if the queue did not
+     *         return any information.
+     */
+    public List<Message> execute(GetMessages request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute a GetQueues request.
+     *
+     * @param request The request to execute.
+     * @return A list of Queue instances populated with any information returned
+     *         by the queue about the queues, or null if the queue did not return
+     *         any information.
+     */
+    public List<Queue> execute(GetQueues request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute an UpdateMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the message, or null if the queue did not return any
+     *         information.
+     */
+    public Message execute(UpdateMessage request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Execute an UpdateMessages request.
+     *
+     * @param request The request to execute.
+     * @return A list of Message instances populated with any information returned
+     *         by the queue about the messages, or null if the queue did not
+     *         return any information.
+     */
+    public List<Message> execute(UpdateMessages request) throws BurrowException {
+        return await(executeAsync(request));
+    }
+
+    /**
+     * Asynchronously executes a CreateMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the created message, or null if the queue did not
+     *         return any information.
+     */
+    public Future<Message> executeAsync(CreateMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a CreateMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final CreateMessage request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        final Shard shard = shardFor(request.getQueue().getAccount().getId());
+        return within(request.getTimeout(), shard.submit(new Callable<Message>() {
+            public Message call() {
+                return shard.memory.execute(request);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a DeleteAccounts request.
+     *
+     * @param request The request to execute.
+     * @return A list of Account instances populated with any information returned
+     *         about the accounts, or null if no information was returned.
+     */
+    public Future<List<Account>> executeAsync(DeleteAccounts request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteAccounts request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Account>> executeStage(DeleteAccounts request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+
+        return within(request.getTimeout(), selectAccounts(request.getMarker(), request.getLimit()).thenCompose(
+                new Function<List<Entry<String, MemoryAccount>>, CompletionStage<List<Account>>>() {
+            public CompletionStage<List<Account>> apply(List<Entry<String, MemoryAccount>> selected) {
+                final List<CompletableFuture<Account>> parts = new ArrayList<CompletableFuture<Account>>();
+
+                for (final Entry<String, MemoryAccount> e : selected) {
+                    final Shard shard = shardFor(e.getKey());
+                    parts.add(shard.submit(new Callable<Account>() {
+                        public Account call() {
+                            return shard.memory.deleteAccount(e.getKey(), e.getValue()) ? new Account(e.getKey()) : null;
+                        }
+                    }));
+                }
+
+                return allOf(parts).thenApply(
+                        new Function<Void, List<Account>>() {
+                    public List<Account> apply(Void ignored) {
+                        List<Account> deleted = new ArrayList<Account>();
+                        for (CompletableFuture<Account> part : parts) {
+                            if (part.join() != null) deleted.add(part.join());
+                        }
+                        return deleted;
+                    }
+                });
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a DeleteMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the deleted message, or null if the queue did not
+     *         return any information.
+     */
+    public Future<Message> executeAsync(DeleteMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final DeleteMessage request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        final Shard shard = shardFor(request.getQueue().getAccount().getId());
+        return within(request.getTimeout(), shard.submit(new Callable<Message>() {
+            public Message call() throws Exception {
+                return shard.memory.execute(request);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a DeleteMessages request.
+     *
+     * @param request The request to execute.
+     * @return A list of Message instances populated with any information returned
+     *         by the queue about the deleted messages, or null if the queue did
+     *         not return any information.
+     */
+    public Future<List<Message>> executeAsync(DeleteMessages request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteMessages request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Message>> executeStage(final DeleteMessages request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        return within(request.getTimeout(), perform(request.getQueue().getAccount().getId(), new ShardOperation() {
+            public void run(Shard shard, CompletableFuture<List<Message>> result) {
+                shard.memory.execute(request, shard.executor, result);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a DeleteQueues request.
+     *
+     * @param request The request to execute.
+     * @return A list of Queue instances populated with any information returned
+     *         about the queues, or null if no information was returned.
+     */
+    public Future<List<Queue>> executeAsync(DeleteQueues request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a DeleteQueues request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Queue>> executeStage(final DeleteQueues request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        final Shard shard = shardFor(request.getAccount().getId());
+        return within(request.getTimeout(), shard.submit(new Callable<List<Queue>>() {
+            public List<Queue> call() throws Exception {
+                return shard.memory.execute(request);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a GetAccounts request.
+     *
+     * @param request The request to execute.
+     * @return A list of Account instances populated with any information returned
+     *         about the accounts, or null if no information was returned.
+     */
+    public Future<List<Account>> executeAsync(GetAccounts request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetAccounts request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Account>> executeStage(GetAccounts request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+
+        return within(request.getTimeout(), selectAccounts(request.getMarker(), request.getLimit()).thenApply(
+                new Function<List<Entry<String, MemoryAccount>>, List<Account>>() {
+            public List<Account> apply(List<Entry<String, MemoryAccount>> selected) {
+                List<Account> accounts = new ArrayList<Account>();
+                for (Entry<String, MemoryAccount> e : selected) accounts.add(new Account(e.getKey()));
+                return accounts;
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a GetMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the message, or null if the queue did not return any
+     *         information.
+     */
+    public Future<Message> executeAsync(GetMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final GetMessage request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        final Shard shard = shardFor(request.getQueue().getAccount().getId());
+        return within(request.getTimeout(), shard.submit(new Callable<Message>() {
+            public Message call() throws Exception {
+                return shard.memory.execute(request);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a GetMessages request.
+     *
+     * @param request The request to execute.
+     * @return A list of Message instances populated with any information returned
+     *         by the queue about the messages, or null if the queue did not
+     *         return any information.
+     */
+    public Future<List<Message>> executeAsync(GetMessages request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetMessages request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Message>> executeStage(final GetMessages request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        return within(request.getTimeout(), perform(request.getQueue().getAccount().getId(), new ShardOperation() {
+            public void run(Shard shard, CompletableFuture<List<Message>> result) {
+                shard.memory.execute(request, shard.executor, result);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes a GetQueues request.
+     *
+     * @param request The request to execute.
+     * @return A list of Queue instances populated with any information returned
+     *         by the queue about the queues, or null if the queue did not return
+     *         any information.
+     */
+    public Future<List<Queue>> executeAsync(GetQueues request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes a GetQueues request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Queue>> executeStage(final GetQueues request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        final Shard shard = shardFor(request.getAccount().getId());
+        return within(request.getTimeout(), shard.submit(new Callable<List<Queue>>() {
+            public List<Queue> call() throws Exception {
+                return shard.memory.execute(request);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes an UpdateMessage request.
+     *
+     * @param request The request to execute.
+     * @return A Message instance populated with any information returned by the
+     *         queue about the message, or null if the queue did not return any
+     *         information.
+     */
+    public Future<Message> executeAsync(UpdateMessage request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes an UpdateMessage request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<Message> executeStage(final UpdateMessage request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        final Shard shard = shardFor(request.getQueue().getAccount().getId());
+        return within(request.getTimeout(), shard.submit(new Callable<Message>() {
+            public Message call() throws Exception {
+                return shard.memory.execute(request);
+            }
+        }));
+    }
+
+    /**
+     * Asynchronously executes an UpdateMessages request.
+     *
+     * @param request The request to execute.
+     * @return A list of Message instances populated with any information returned
+     *         by the queue about the messages, or null if the queue did not
+     *         return any information.
+     */
+    public Future<List<Message>> executeAsync(UpdateMessages request) {
+        return executeStage(request);
+    }
+
+    /**
+     * Executes an UpdateMessages request without blocking, returning a stage to which further
+     * requests may be chained.
+     *
+     * @param request The request to execute.
+     * @return A stage completed as executeAsync(request) would be.
+     */
+    public CompletableFuture<List<Message>> executeStage(final UpdateMessages request) {
+        if (request == null)
+                throw new IllegalArgumentException("Request may not be null");
+        return within(request.getTimeout(), perform(request.getQueue().getAccount().getId(), new ShardOperation() {
+            public void run(Shard shard, CompletableFuture<List<Message>> result) {
+                shard.memory.execute(request, shard.executor, result);
+            }
+        }));
+    }
+}
@@ -19,5 +19,5 @@ package org.openstack.burrow.client.methods;
 /**
  *  Interface for AccountListRequest
  */
-public interface AccountListRequest {
+public interface AccountListRequest extends Request {
 }
@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Queue;
 
 /**
@@ -29,6 +31,7 @@ public class CreateMessage implements SingleMessageRequest {
   private Long hide;
   private String id;
   private Queue queue;
+  private Long timeout;
   private Long ttl;
 
     /**
@@ -44,6 +47,7 @@ public class CreateMessage implements SingleMessageRequest {
     this.body = body;
     this.ttl = null;
     this.hide = null;
+    this.timeout = null;
   }
 
     /**
@@ -54,13 +58,15 @@ public class CreateMessage implements SingleMessageRequest {
      * @param body  The message body as a String
      * @param ttl   The message ttl as a Long
      * @param hide  The message hide as a Long
+     * @param timeout The timeout in milliseconds as a Long
      */
-  private CreateMessage(Queue queue, String id, String body, Long ttl, Long hide) {
+  private CreateMessage(Queue queue, String id, String body, Long ttl, Long hide, Long timeout) {
     this.queue = queue;
     this.id = id;
     this.body = body;
     this.ttl = ttl;
     this.hide = hide;
+    this.timeout = timeout;
   }
 
     /**
@@ -103,6 +109,14 @@ public class CreateMessage implements SingleMessageRequest {
     return ttl;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for CreateMessage with the hide time set
      * @param hide The hide time for a message as a Long
@@ -110,7 +124,7 @@ public class CreateMessage implements SingleMessageRequest {
      *         time
      */
   public CreateMessage withHide(long hide) {
-    return new CreateMessage(queue, id, body, ttl, hide);
+    return new CreateMessage(queue, id, body, ttl, hide, timeout);
   }
 
     /**
@@ -120,6 +134,19 @@ public class CreateMessage implements SingleMessageRequest {
      *         be alive
      */
   public CreateMessage withTtl(long ttl) {
-    return new CreateMessage(queue, id, body, ttl, hide);
+    return new CreateMessage(queue, id, body, ttl, hide, timeout);
+  }
+
+    /**
+     * Constructor for CreateMessage with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A CreateMessage request object with the timeout set
+     */
+  public CreateMessage withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new CreateMessage(queue, id, body, ttl, hide, unit.toMillis(timeout));
   }
 }
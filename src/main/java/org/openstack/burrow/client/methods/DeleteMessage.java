@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Queue;
 
 /**
@@ -27,6 +29,7 @@ public class DeleteMessage implements SingleMessageRequest {
   private String id;
   private Boolean matchHidden;
   private Queue queue;
+  private Long timeout;
 
     /**
      * Public Constructor for DeleteMessage.  Takes in a Queue and a message id.
@@ -37,6 +40,7 @@ public class DeleteMessage implements SingleMessageRequest {
     this.queue = queue;
     this.id = id;
     this.matchHidden = null;
+    this.timeout = null;
   }
 
     /**
@@ -45,11 +49,13 @@ public class DeleteMessage implements SingleMessageRequest {
      * @param queue A Queue object to which the Message is supposed to be added
      * @param id    The message id as a String
      * @param matchHidden A Boolean that signifies if hidden messages should be matched
+     * @param timeout The timeout in milliseconds as a Long
      */
-  private DeleteMessage(Queue queue, String id, Boolean matchHidden) {
+  private DeleteMessage(Queue queue, String id, Boolean matchHidden, Long timeout) {
     this.queue = queue;
     this.id = id;
     this.matchHidden = matchHidden;
+    this.timeout = timeout;
   }
 
 
@@ -77,12 +83,33 @@ public class DeleteMessage implements SingleMessageRequest {
     return queue;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for DeleteMessage with the matchHidden flag set
      * @param matchHidden The matchHidden flag as a Boolean
      * @return A DeleteMessage request object with matchHidden set
      */
   public DeleteMessage withMatchHidden(boolean matchHidden) {
-    return new DeleteMessage(queue, id, matchHidden);
+    return new DeleteMessage(queue, id, matchHidden, timeout);
+  }
+
+    /**
+     * Constructor for DeleteMessage with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A DeleteMessage request object with the timeout set
+     */
+  public DeleteMessage withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new DeleteMessage(queue, id, matchHidden, unit.toMillis(timeout));
   }
 }
@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Queue;
 
 /**
@@ -31,6 +33,7 @@ public class DeleteMessages implements MessageListRequest {
   private String marker;
   private Boolean matchHidden;
   private Queue queue;
+  private Long timeout;
   private Long wait;
 
     /**
@@ -43,6 +46,7 @@ public class DeleteMessages implements MessageListRequest {
     this.matchHidden = null;
     this.detail = null;
     this.wait = null;
+    this.timeout = null;
   }
 
     /**
@@ -55,14 +59,16 @@ public class DeleteMessages implements MessageListRequest {
      * @param detail A String denoting which attributes of a message to return
      * @param wait   A Long denoting the amount of time to wait for a Message to show up in
      *               a queue
+     * @param timeout The timeout in milliseconds as a Long
      */
   private DeleteMessages(Queue queue, String marker, Long limit, Boolean matchHidden,
-      String detail, Long wait) {
+      String detail, Long wait, Long timeout) {
     this.queue = queue;
     this.marker = marker;
     this.matchHidden = matchHidden;
     this.detail = detail;
     this.wait = wait;
+    this.timeout = timeout;
   }
 
     /**
@@ -114,13 +120,21 @@ public class DeleteMessages implements MessageListRequest {
     return wait;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for DeleteMessages with a detail filter set
      * @param detail A String denoting which attributes of a message to return
      * @return A DeleteMessages object with the detail set accordingly
      */
   public DeleteMessages withDetail(String detail) {
-    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait);
+    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
   }
 
     /**
@@ -129,7 +143,7 @@ public class DeleteMessages implements MessageListRequest {
      * @return A DeleteMessages object with the limit set accordingly
      */
   public DeleteMessages withLimit(long limit) {
-    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait);
+    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
   }
 
     /**
@@ -138,7 +152,7 @@ public class DeleteMessages implements MessageListRequest {
      * @return A DeleteMessages object with the marker set accordingly
      */
   public DeleteMessages withMarker(String marker) {
-    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait);
+    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
   }
 
     /**
@@ -147,7 +161,7 @@ public class DeleteMessages implements MessageListRequest {
      * @return A DeleteMessages request object with matchHidden set
      */
   public DeleteMessages withMatchHidden(boolean matchHidden) {
-    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait);
+    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
   }
 
     /**
@@ -156,6 +170,20 @@ public class DeleteMessages implements MessageListRequest {
      * @return A DeleteMessages request object with the wait set
      */
   public DeleteMessages withWait(long wait) {
-    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait);
+    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
+  }
+
+    /**
+     * Constructor for DeleteMessages with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A DeleteMessages request object with the timeout set
+     */
+  public DeleteMessages withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new DeleteMessages(queue, marker, limit, matchHidden, detail, wait,
+        unit.toMillis(timeout));
   }
 }
@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Account;
 
 /**
@@ -29,6 +31,7 @@ public class DeleteQueues implements QueueListRequest {
   private String detail;
   private Long limit;
   private String marker;
+  private Long timeout;
 
     /**
      * Public Constructor for DeleteQueues that takes an Account as an argument
@@ -39,6 +42,7 @@ public class DeleteQueues implements QueueListRequest {
     this.marker = null;
     this.limit = null;
     this.detail = null;
+    this.timeout = null;
   }
 
     /**
@@ -48,12 +52,14 @@ public class DeleteQueues implements QueueListRequest {
      * @param marker A String denoting a range to limit matching of message Ids to
      * @param limit  A Long denoting the number of messages to match
      * @param detail A String denoting which attributes of a message to return
+     * @param timeout The timeout in milliseconds as a Long
      */
-  private DeleteQueues(Account account, String marker, Long limit, String detail) {
+  private DeleteQueues(Account account, String marker, Long limit, String detail, Long timeout) {
     this.account = account;
     this.marker = marker;
     this.limit = limit;
     this.detail = detail;
+    this.timeout = timeout;
   }
 
     /**
@@ -88,13 +94,21 @@ public class DeleteQueues implements QueueListRequest {
     return marker;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for DeleteQueues with a detail filter set
      * @param detail A String denoting which attributes of a message to return
      * @return A DeleteQueues object with the detail set accordingly
      */
   public DeleteQueues withDetail(String detail) {
-    return new DeleteQueues(account, marker, limit, detail);
+    return new DeleteQueues(account, marker, limit, detail, timeout);
   }
 
     /**
@@ -103,7 +117,7 @@ public class DeleteQueues implements QueueListRequest {
      * @return A DeleteQueues object with the limit set accordingly
      */
   public DeleteQueues withLimit(long limit) {
-    return new DeleteQueues(account, marker, limit, detail);
+    return new DeleteQueues(account, marker, limit, detail, timeout);
   }
 
     /**
@@ -112,6 +126,19 @@ public class DeleteQueues implements QueueListRequest {
      * @return A DeleteQueues object with the marker set accordingly
      */
   public DeleteQueues withMarker(String marker) {
-    return new DeleteQueues(account, marker, limit, detail);
+    return new DeleteQueues(account, marker, limit, detail, timeout);
+  }
+
+    /**
+     * Constructor for DeleteQueues with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A DeleteQueues request object with the timeout set
+     */
+  public DeleteQueues withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new DeleteQueues(account, marker, limit, detail, unit.toMillis(timeout));
   }
 }
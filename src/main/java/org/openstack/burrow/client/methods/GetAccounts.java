@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * GetAccounts is a request object that is executed by the client.  A GetAccounts object
  * has several filters including detail - the details of an object to return, limit -
@@ -25,6 +27,7 @@ public class GetAccounts implements AccountListRequest {
   private String detail;
   private Long limit;
   private String marker;
+  private Long timeout;
 
     /**
      * Public Constructor for GetAccounts that takes no arguments
@@ -33,6 +36,7 @@ public class GetAccounts implements AccountListRequest {
     this.marker = null;
     this.limit = null;
     this.detail = null;
+    this.timeout = null;
   }
 
     /**
@@ -40,11 +44,13 @@ public class GetAccounts implements AccountListRequest {
      * @param marker A String denoting a range to limit matching of message Ids to
      * @param limit  A Long denoting the number of messages to match
      * @param detail A String denoting which attributes of a message to return
+     * @param timeout The timeout in milliseconds as a Long
      */
-  private GetAccounts(String marker, Long limit, String detail) {
+  private GetAccounts(String marker, Long limit, String detail, Long timeout) {
     this.marker = marker;
     this.limit = limit;
     this.detail = detail;
+    this.timeout = timeout;
   }
 
     /**
@@ -71,13 +77,21 @@ public class GetAccounts implements AccountListRequest {
     return marker;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for GetAccounts with a detail filter set
      * @param detail A String denoting which attributes of a message to return
      * @return A GetAccounts object with the detail set accordingly
      */
   public GetAccounts withDetail(String detail) {
-    return new GetAccounts(marker, limit, detail);
+    return new GetAccounts(marker, limit, detail, timeout);
   }
 
     /**
@@ -86,7 +100,7 @@ public class GetAccounts implements AccountListRequest {
      * @return A GetAccounts object with the limit set accordingly
      */
   public GetAccounts withLimit(long limit) {
-    return new GetAccounts(marker, limit, detail);
+    return new GetAccounts(marker, limit, detail, timeout);
   }
 
     /**
@@ -95,6 +109,19 @@ public class GetAccounts implements AccountListRequest {
      * @return A GetAccounts object with the marker set accordingly
      */
   public GetAccounts withMarker(String marker) {
-    return new GetAccounts(marker, limit, detail);
+    return new GetAccounts(marker, limit, detail, timeout);
+  }
+
+    /**
+     * Constructor for GetAccounts with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A GetAccounts request object with the timeout set
+     */
+  public GetAccounts withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new GetAccounts(marker, limit, detail, unit.toMillis(timeout));
   }
 }
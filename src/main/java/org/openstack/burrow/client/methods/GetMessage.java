@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Queue;
 
 /**
@@ -31,6 +33,7 @@ public class GetMessage implements SingleMessageRequest {
   private String id;
   private Boolean matchHidden;
   private Queue queue;
+  private Long timeout;
   private Long wait;
 
     /**
@@ -44,6 +47,7 @@ public class GetMessage implements SingleMessageRequest {
     this.matchHidden = null;
     this.detail = null;
     this.wait = null;
+    this.timeout = null;
   }
 
     /**
@@ -55,13 +59,16 @@ public class GetMessage implements SingleMessageRequest {
      * @param detail A String denoting which attributes of a message to return
      * @param wait   A Long denoting the amount of time to wait for a Message to show up in
      *               a queue
+     * @param timeout The timeout in milliseconds as a Long
      */
-  private GetMessage(Queue queue, String id, Boolean matchHidden, String detail, Long wait) {
+  private GetMessage(Queue queue, String id, Boolean matchHidden, String detail, Long wait,
+      Long timeout) {
     this.queue = queue;
     this.id = id;
     this.matchHidden = matchHidden;
     this.detail = detail;
     this.wait = wait;
+    this.timeout = timeout;
   }
 
     /**
@@ -105,13 +112,21 @@ public class GetMessage implements SingleMessageRequest {
     return wait;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for GetMessage with detail set
      * @param detail The detail as a string
      * @return A GetMessage request object with matchHidden set
      */
   public GetMessage withDetail(String detail) {
-    return new GetMessage(queue, id, matchHidden, detail, wait);
+    return new GetMessage(queue, id, matchHidden, detail, wait, timeout);
   }
 
     /**
@@ -120,7 +135,7 @@ public class GetMessage implements SingleMessageRequest {
      * @return A GetMessage request object with matchHidden set
      */
   public GetMessage withMatchHidden(boolean matchHidden) {
-    return new GetMessage(queue, id, matchHidden, detail, wait);
+    return new GetMessage(queue, id, matchHidden, detail, wait, timeout);
   }
 
     /**
@@ -129,6 +144,19 @@ public class GetMessage implements SingleMessageRequest {
      * @return A GetMessages request object with the wait set
      */
   public GetMessage withWait(long wait) {
-    return new GetMessage(queue, id, matchHidden, detail, wait);
+    return new GetMessage(queue, id, matchHidden, detail, wait, timeout);
+  }
+
+    /**
+     * Constructor for GetMessage with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A GetMessage request object with the timeout set
+     */
+  public GetMessage withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new GetMessage(queue, id, matchHidden, detail, wait, unit.toMillis(timeout));
   }
 }
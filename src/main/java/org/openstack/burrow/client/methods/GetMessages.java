@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Queue;
 
 /**
@@ -32,6 +34,7 @@ public class GetMessages implements MessageListRequest {
     private String marker;
     private Boolean matchHidden;
     private Queue queue;
+    private Long timeout;
     private Long wait;
 
     /**
@@ -45,6 +48,7 @@ public class GetMessages implements MessageListRequest {
         this.matchHidden = null;
         this.detail = null;
         this.wait = null;
+        this.timeout = null;
     }
 
     /**
@@ -57,16 +61,18 @@ public class GetMessages implements MessageListRequest {
      *               a queue
      * @param marker A String denoting a range to limit matching of message Ids to
      * @param limit  A Long denoting the number of messages to match
+     * @param timeout The timeout in milliseconds as a Long
      */
 
   private GetMessages(Queue queue, String marker, Long limit, Boolean matchHidden, String detail,
-      Long wait) {
+      Long wait, Long timeout) {
     this.queue = queue;
     this.marker = marker;
     this.limit = limit;
     this.matchHidden = matchHidden;
     this.detail = detail;
     this.wait = wait;
+    this.timeout = timeout;
   }
 
     /**
@@ -118,6 +124,14 @@ public class GetMessages implements MessageListRequest {
         return wait;
     }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+    public Long getTimeout() {
+        return timeout;
+    }
+
     /**
      * Constructor for GetMessages with a detail filter set
      * @param detail A String denoting which attributes of a message to return
@@ -125,7 +139,7 @@ public class GetMessages implements MessageListRequest {
      */
 
   public GetMessages withDetail(String detail) {
-    return new GetMessages(queue, marker, limit, matchHidden, detail, wait);
+    return new GetMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
   }
 
     /**
@@ -134,7 +148,7 @@ public class GetMessages implements MessageListRequest {
      * @return A GetMessages object with the limit set accordingly
      */
   public GetMessages withLimit(long limit) {
-     return new GetMessages(queue, marker, limit, matchHidden, detail, wait);
+     return new GetMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
    }
 
     /**
@@ -143,7 +157,7 @@ public class GetMessages implements MessageListRequest {
      * @return A GetMessages object with the marker set accordingly
      */
     public GetMessages withMarker(String marker) {
-        return new GetMessages(queue, marker, limit, matchHidden, detail, wait);
+        return new GetMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
     }
 
     /**
@@ -152,7 +166,7 @@ public class GetMessages implements MessageListRequest {
      * @return A GetMessages request object with matchHidden set
      */
     public GetMessages withMatchHidden(boolean matchHidden) {
-        return new GetMessages(queue, marker, limit, matchHidden, detail, wait);
+        return new GetMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
     }
 
     /**
@@ -161,7 +175,20 @@ public class GetMessages implements MessageListRequest {
      * @return A GetMessages request object with the wait set
      */
     public GetMessages withWait(long wait) {
-        return new GetMessages(queue, marker, limit, matchHidden, detail, wait);
+        return new GetMessages(queue, marker, limit, matchHidden, detail, wait, timeout);
     }
 
+    /**
+     * Constructor for GetMessages with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A GetMessages request object with the timeout set
+     */
+    public GetMessages withTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Timeout must be positive.");
+        return new GetMessages(queue, marker, limit, matchHidden, detail, wait,
+            unit.toMillis(timeout));
+    }
 }
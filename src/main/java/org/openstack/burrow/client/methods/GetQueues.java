@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Account;
 
 /**
@@ -28,6 +30,7 @@ public class GetQueues implements QueueListRequest {
   private Account account;
   private Long limit;
   private String marker;
+  private Long timeout;
 
     /**
      * Public Constructor for GetQueues that takes an Account as an argument
@@ -37,6 +40,7 @@ public class GetQueues implements QueueListRequest {
     this.account = account;
     this.marker = null;
     this.limit = null;
+    this.timeout = null;
   }
 
     /**
@@ -45,11 +49,13 @@ public class GetQueues implements QueueListRequest {
      * @param account The Account to delete the queues of
      * @param marker A String denoting a range to limit matching of message Ids to
      * @param limit  A Long denoting the number of messages to match
+     * @param timeout The timeout in milliseconds as a Long
      */
-  private GetQueues(Account account, String marker, Long limit) {
+  private GetQueues(Account account, String marker, Long limit, Long timeout) {
     this.account = account;
     this.marker = marker;
     this.limit = limit;
+    this.timeout = timeout;
   }
 
     /**
@@ -76,13 +82,21 @@ public class GetQueues implements QueueListRequest {
     return marker;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for GetQueues with a limit filter set
      * @param limit A Long denoting the number of messages to match
      * @return A GetQueues object with the limit set accordingly
      */
   public GetQueues withLimit(long limit) {
-    return new GetQueues(account, marker, limit);
+    return new GetQueues(account, marker, limit, timeout);
   }
 
     /**
@@ -91,6 +105,19 @@ public class GetQueues implements QueueListRequest {
      * @return A GetQueues object with the marker set accordingly
      */
   public GetQueues withMarker(String marker) {
-    return new GetQueues(account, marker, limit);
+    return new GetQueues(account, marker, limit, timeout);
+  }
+
+    /**
+     * Constructor for GetQueues with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return A GetQueues request object with the timeout set
+     */
+  public GetQueues withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new GetQueues(account, marker, limit, unit.toMillis(timeout));
   }
 }
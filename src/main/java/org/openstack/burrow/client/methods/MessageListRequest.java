@@ -21,6 +21,6 @@ import org.openstack.burrow.client.Queue;
 /**
  *  Interface for MessageListRequest
  */
-public interface MessageListRequest {
+public interface MessageListRequest extends Request {
   public Queue getQueue();
 }
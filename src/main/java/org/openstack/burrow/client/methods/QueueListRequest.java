@@ -21,6 +21,6 @@ import org.openstack.burrow.client.Account;
 /**
  *  Interface for QueueListRequest
  */
-public interface QueueListRequest {
+public interface QueueListRequest extends Request {
   public Account getAccount();
 }
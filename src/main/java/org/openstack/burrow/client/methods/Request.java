@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.client.methods;
+
+/**
+ *  Interface for Request, implemented by every request object
+ */
+public interface Request {
+  /**
+   * A getter function that returns the time within which the request must be answered
+   * @return The timeout in milliseconds as a Long, or null if there is none
+   */
+  public Long getTimeout();
+}
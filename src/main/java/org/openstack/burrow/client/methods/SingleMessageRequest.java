@@ -21,7 +21,7 @@ import org.openstack.burrow.client.Queue;
 /**
  * Interface for a SingleMessageRequest
  */
-public interface SingleMessageRequest {
+public interface SingleMessageRequest extends Request {
   public String getId();
 
   public Queue getQueue();
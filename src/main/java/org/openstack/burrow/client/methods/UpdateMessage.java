@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Queue;
 
 /**
@@ -32,6 +34,7 @@ public class UpdateMessage implements SingleMessageRequest {
   private String id;
   private Boolean matchHidden;
   private Queue queue;
+  private Long timeout;
   private Long ttl;
   private Long wait;
 
@@ -46,6 +49,7 @@ public class UpdateMessage implements SingleMessageRequest {
     this.ttl = null;
     this.hide = null;
     this.detail = null;
+    this.timeout = null;
   }
 
     /**
@@ -59,9 +63,10 @@ public class UpdateMessage implements SingleMessageRequest {
      *               a queue
      * @param hide  The message hide as a Long
      * @param ttl   The message ttl as a Long
+     * @param timeout The timeout in milliseconds as a Long
      */
   private UpdateMessage(Queue queue, String id, Boolean matchHidden, Long ttl, Long hide,
-      String detail, Long wait) {
+      String detail, Long wait, Long timeout) {
     this.queue = queue;
     this.id = id;
     this.matchHidden = matchHidden;
@@ -69,6 +74,7 @@ public class UpdateMessage implements SingleMessageRequest {
     this.hide = hide;
     this.detail = detail;
     this.wait = wait;
+    this.timeout = timeout;
   }
 
     /**
@@ -128,13 +134,21 @@ public class UpdateMessage implements SingleMessageRequest {
     return wait;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for UpdateMessage with a detail filter set
      * @param detail A String denoting which attributes of a message to return
      * @return A UpdateMessage object with the detail set accordingly
      */
   public UpdateMessage withDetail(String detail) {
-    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -144,7 +158,7 @@ public class UpdateMessage implements SingleMessageRequest {
      *         of time
      */
   public UpdateMessage withHide(long hide) {
-    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -153,7 +167,7 @@ public class UpdateMessage implements SingleMessageRequest {
      * @return A UpdateMessage request object with matchHidden set
      */
   public UpdateMessage withMatchHidden(boolean matchHidden) {
-    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -163,7 +177,7 @@ public class UpdateMessage implements SingleMessageRequest {
      *         be alive
      */
   public UpdateMessage withTtl(long ttl) {
-    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -172,6 +186,20 @@ public class UpdateMessage implements SingleMessageRequest {
      * @return A UpdateMessage request object with the wait set
      */
   public UpdateMessage withWait(long wait) {
-    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait, timeout);
+  }
+
+    /**
+     * Constructor for UpdateMessage with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return An UpdateMessage request object with the timeout set
+     */
+  public UpdateMessage withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new UpdateMessage(queue, id, matchHidden, ttl, hide, detail, wait,
+        unit.toMillis(timeout));
   }
 }
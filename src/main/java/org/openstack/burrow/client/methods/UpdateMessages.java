@@ -16,6 +16,8 @@
 
 package org.openstack.burrow.client.methods;
 
+import java.util.concurrent.TimeUnit;
+
 import org.openstack.burrow.client.Queue;
 
 /**
@@ -34,6 +36,7 @@ public class UpdateMessages implements MessageListRequest {
   private String marker;
   private Boolean matchHidden;
   private Queue queue;
+  private Long timeout;
   private Long ttl;
   private Long wait;
 
@@ -50,6 +53,7 @@ public class UpdateMessages implements MessageListRequest {
     this.hide = null;
     this.detail = null;
     this.wait = null;
+    this.timeout = null;
   }
 
     /**
@@ -64,9 +68,10 @@ public class UpdateMessages implements MessageListRequest {
      * @param ttl   The message ttl as a Long
      * @param marker A String denoting a range to limit matching of message Ids to
      * @param limit  A Long denoting the number of messages to match
+     * @param timeout The timeout in milliseconds as a Long
      */
   private UpdateMessages(Queue queue, String marker, Long limit, Boolean matchHidden, Long ttl,
-      Long hide, String detail, Long wait) {
+      Long hide, String detail, Long wait, Long timeout) {
     this.queue = queue;
     this.marker = marker;
     this.limit = limit;
@@ -75,6 +80,7 @@ public class UpdateMessages implements MessageListRequest {
     this.hide = hide;
     this.detail = detail;
     this.wait = wait;
+    this.timeout = timeout;
   }
 
     /**
@@ -142,13 +148,21 @@ public class UpdateMessages implements MessageListRequest {
     return wait;
   }
 
+    /**
+     * A getter function that returns the time within which the request must be answered
+     * @return The timeout in milliseconds as a Long, or null if there is none
+     */
+  public Long getTimeout() {
+    return timeout;
+  }
+
     /**
      * Constructor for UpdateMessages with a detail filter set
      * @param detail A String denoting which attributes of a message to return
      * @return A UpdateMessages object with the detail set accordingly
      */
   public UpdateMessages withDetail(String detail) {
-    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -158,7 +172,7 @@ public class UpdateMessages implements MessageListRequest {
      *         of time
      */
   public UpdateMessages withHide(long hide) {
-    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -167,7 +181,7 @@ public class UpdateMessages implements MessageListRequest {
      * @return A UpdateMessages object with the limit set accordingly
      */
   public UpdateMessages withLimit(long limit) {
-    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -176,7 +190,7 @@ public class UpdateMessages implements MessageListRequest {
      * @return A UpdateMessages object with the marker set accordingly
      */
   public UpdateMessages withMarker(String marker) {
-    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -185,7 +199,7 @@ public class UpdateMessages implements MessageListRequest {
      * @return A UpdateMessages request object with matchHidden set
      */
   public UpdateMessages withMatchHidden(boolean matchHidden) {
-    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
      /**
@@ -195,7 +209,7 @@ public class UpdateMessages implements MessageListRequest {
      *         be alive
      */
   public UpdateMessages withTtl(long ttl) {
-    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait, timeout);
   }
 
     /**
@@ -204,6 +218,20 @@ public class UpdateMessages implements MessageListRequest {
      * @return A UpdateMessages request object with the wait set
      */
   public UpdateMessages withWait(long wait) {
-    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait);
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait, timeout);
+  }
+
+    /**
+     * Constructor for UpdateMessages with a timeout set.  A request not answered within the
+     * timeout fails, and whatever connection or waiter it holds is released.
+     * @param timeout The time within which the request must be answered
+     * @param unit The unit of the timeout
+     * @return An UpdateMessages request object with the timeout set
+     */
+  public UpdateMessages withTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0)
+      throw new IllegalArgumentException("Timeout must be positive.");
+    return new UpdateMessages(queue, marker, limit, matchHidden, ttl, hide, detail, wait,
+        unit.toMillis(timeout));
   }
 }
@@ -8,8 +8,12 @@ import org.openstack.burrow.client.Queue;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class MergeSorter implements Runnable {
     public static int DEF_MAXFAILURES = 10, DEF_JOBTIMEOUT = 10;
@@ -24,47 +28,88 @@ public class MergeSorter implements Runnable {
         this.back = back;
         Account account = new Account(accountId);
         this.inQueue = new Queue(account, inQueueId);
-        this.inQueue = new Queue(account, outQueueId);
+        this.outQueue = new Queue(account, outQueueId);
         this.jobTimeout = DEF_JOBTIMEOUT;
         this.maxFailures = DEF_MAXFAILURES;
         this.failed = 0;
     }
 
+    /**
+     * Run the worker until it gives up after too many failures. Only this thread waits; the requests themselves are
+     * chained by start().
+     */
     public void run() {
-        ArrayDeque<Message> jobs = new ArrayDeque<Message>();
-        while (true) {
-            while (jobs.size() < 2) {
-                Future<List<Message>> future =
-                        back.executeAsync(inQueue.updateMessages().withLimit(2).withMatchHidden(false).withHide(jobTimeout));
-                try {
-                    jobs.addAll(future.get());
-                } catch (InterruptedException ie) {
-                    //Something is wrong, bail.
-                    return;
-                } catch (ExecutionException ee) {
-                    failed++;
-                    if (failed > maxFailures) return; //Probably something better to do here..
-                }
-            }
+        try {
+            start().toCompletableFuture().get();
+        } catch (InterruptedException ie) {
+            //Something is wrong, bail.
+        } catch (ExecutionException ee) {
+            //start() never completes exceptionally.
+        }
+    }
 
-            int[] merged = merge(Encoder.unpack(jobs.pop().getBody()), Encoder.unpack(jobs.pop().getBody()));
+    /**
+     * Start the worker as a chain of stages: claim two jobs, merge them, push the result, delete the jobs, repeat.
+     *
+     * @return A stage completed once more than maxFailures requests have failed.
+     */
+    public CompletionStage<Void> start() {
+        CompletableFuture<Void> done = new CompletableFuture<Void>();
+        next(new ArrayDeque<Message>(), done);
+        return done;
+    }
 
-            Future<Message> pushed = back.executeAsync(
-                         outQueue.createMessage(Arrays.hashCode(merged) + "+" + System.currentTimeMillis(), Encoder.pack(merged)));
+    private void next(final ArrayDeque<Message> jobs, final CompletableFuture<Void> done) {
+        while (!done.isDone()) {
+            CompletableFuture<?> step = (jobs.size() < 2 ? claim(jobs) : push(jobs.pop(), jobs.pop())).toCompletableFuture();
 
-            try {
-                pushed.get();
-            } catch (InterruptedException ie) {
-                return; //Because, that's why.
-            } catch (ExecutionException ee) {
-                //Message push failed, count on constituent jobs to timeout and unhide.
-                //Don't want to unhide them manually in case another worker has already claimed them.
-                failed++;
-                if (failed > maxFailures) return; //Probably something better to do here..
+            if (!step.isDone()) {
+                step.whenComplete(new BiConsumer<Object, Throwable>() {
+                    public void accept(Object ignored, Throwable failure) {
+                        if (settle(failure != null, done)) next(jobs, done);
+                    }
+                });
+                return;
             }
+
+            //Already complete, so loop here instead of recursing through the callback.
+            if (!settle(step.isCompletedExceptionally(), done)) return;
         }
     }
 
+    private boolean settle(boolean failure, CompletableFuture<Void> done) {
+        if (failure && ++failed > maxFailures) {
+            done.complete(null); //Probably something better to do here..
+            return false;
+        }
+        return true;
+    }
+
+    private CompletionStage<Void> claim(final ArrayDeque<Message> jobs) {
+        return back.executeStage(inQueue.updateMessages().withLimit(2).withMatchHidden(false).withHide(jobTimeout))
+                .thenAccept(new Consumer<List<Message>>() {
+                    public void accept(List<Message> claimed) {
+                        if (claimed != null) jobs.addAll(claimed);
+                    }
+                });
+    }
+
+    private CompletionStage<Void> push(final Message a, final Message b) {
+        int[] merged = merge(Encoder.unpack(a.getBody()), Encoder.unpack(b.getBody()));
+
+        //If the push fails, count on the constituent jobs to timeout and unhide.
+        //Don't want to unhide them manually in case another worker has already claimed them.
+        return back.executeStage(
+                outQueue.createMessage(Arrays.hashCode(merged) + "+" + System.currentTimeMillis(), Encoder.pack(merged)))
+                .thenCompose(new Function<Message, CompletionStage<Void>>() {
+                    public CompletionStage<Void> apply(Message pushed) {
+                        return CompletableFuture.allOf(
+                                back.executeStage(inQueue.deleteMessage(a.getId())).toCompletableFuture(),
+                                back.executeStage(inQueue.deleteMessage(b.getId())).toCompletableFuture());
+                    }
+                });
+    }
+
     private int[] merge(int[] A, int[] B) {
         int a = 0, b = 0, r = 0;
         int[] result = new int[A.length + B.length];
@@ -0,0 +1,883 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import org.openstack.burrow.backend.AsyncBackend;
+import org.openstack.burrow.backend.BurrowException;
+import org.openstack.burrow.backend.BurrowRuntimeException;
+import org.openstack.burrow.backend.CommandException;
+import org.openstack.burrow.backend.HttpProtocolException;
+import org.openstack.burrow.backend.ProtocolException;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.CreateMessage;
+import org.openstack.burrow.client.methods.DeleteAccounts;
+import org.openstack.burrow.client.methods.DeleteMessage;
+import org.openstack.burrow.client.methods.DeleteMessages;
+import org.openstack.burrow.client.methods.DeleteQueues;
+import org.openstack.burrow.client.methods.GetAccounts;
+import org.openstack.burrow.client.methods.GetMessage;
+import org.openstack.burrow.client.methods.GetMessages;
+import org.openstack.burrow.client.methods.GetQueues;
+import org.openstack.burrow.client.methods.Request;
+import org.openstack.burrow.client.methods.UpdateMessage;
+import org.openstack.burrow.client.methods.UpdateMessages;
+
+/**
+ * Http2 extends BaseHttp and provides asynchronous service over HTTP/2, using
+ * the java.net.http client of Java 16 and later. Every request to a server,
+ * long polls included, is a stream multiplexed over one connection, so many
+ * parallel long polls no longer tie up a socket each. Requests are built and
+ * responses handled by the same code as for Http, so that the backends behave
+ * alike; a server which does not speak HTTP/2 is spoken to in HTTP/1.1. The
+ * JDK has had java.net.http since Java 11, but only from Java 16 does
+ * cancelling a sendAsync future abort its exchange; before that a cancelled or
+ * timed out long poll kept its stream open, and the messages it then took
+ * were lost. Being for Java 16, it is built apart from the rest of the
+ * library, and only by a JDK new enough for it.
+ * <p>
+ * There is no ConcurrencyLimiter, as the server bounds the streams in flight
+ * on each connection itself.
+ */
+public class Http2 extends BaseHttp implements AsyncBackend {
+  private final HttpClient client;
+
+  /**
+   * Constructor for Http2 that takes a host name and a port number as
+   * arguments
+   * 
+   * @param host A host name as a String
+   * @param port A port number as an int
+   */
+  public Http2(String host, int port) {
+    this(new Endpoints(host, port));
+  }
+
+  /**
+   * Constructor for Http2 that takes the servers to which to send requests as
+   * an argument. Each request is sent to whichever server the Endpoints
+   * choose.
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   */
+  public Http2(Endpoints endpoints) {
+    this(endpoints, HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build());
+  }
+
+  /**
+   * Constructor for Http2 that takes the servers to which to send requests and
+   * the HttpClient with which to send them as arguments, for when the client
+   * needs configuring, as for TLS
+   * 
+   * @param endpoints The Endpoints to which to send requests
+   * @param client The HttpClient with which to send requests
+   */
+  public Http2(Endpoints endpoints, HttpClient client) {
+    super(endpoints);
+    if (client == null)
+      throw new IllegalArgumentException("Client may not be null.");
+    this.client = client;
+  }
+
+  /**
+   * The HttpClient starts its selector thread when it is built, so there is
+   * nothing more to start.
+   */
+  @Override
+  public void start() {
+    if (inFlight.isClosed())
+      throw new IllegalStateException("Backend has been shut down.");
+  }
+
+  /**
+   * Cancel every request in flight, which resets its stream, and stop probing
+   * the servers. Requests made afterwards are rejected. The HttpClient has no
+   * way to be closed before Java 21, and closes its connections once it is no
+   * longer referenced.
+   */
+  @Override
+  public void shutdown() {
+    inFlight.close();
+    inFlight.cancelAll();
+    endpoints.shutdown();
+  }
+
+  /**
+   * Reject new requests and wait for those in flight to finish, then cancel
+   * any which have not as shutdown() does.
+   * 
+   * @param timeout The most time to wait for requests in flight
+   * @param unit The unit of the timeout
+   * @return True if every request in flight finished in time
+   * @throws InterruptedException Thrown if interrupted while waiting
+   */
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    boolean drained = inFlight.await(timeout, unit);
+    shutdown();
+    return drained;
+  }
+
+  /**
+   * Executes a CreateMessage request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The CreateMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(CreateMessage request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a DeleteAccounts request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The DeleteAccounts request object to execute
+   * @return A List of Message objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Account> execute(DeleteAccounts request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a DeleteMessage request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The DeleteMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(DeleteMessage request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a DeleteMessages request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The DeleteMessages request object to execute
+   * @return A List of Message objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Message> execute(DeleteMessages request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a DeleteQueues request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The DeleteQueues request object to execute
+   * @return A List of Queue objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Queue> execute(DeleteQueues request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a GetAccounts request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The GetAccounts request object to execute
+   * @return A List of Account objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Account> execute(GetAccounts request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a GetMessage request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The GetMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(GetMessage request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a GetMessages request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The GetMessages request object to execute
+   * @return A List of Message objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Message> execute(GetMessages request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a GetQueues request by calling .get() on the executeAsync response
+   * 
+   * @param request The GetQueues request object to execute
+   * @return A List of Queue objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Queue> execute(GetQueues request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a UpdateMessage request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The UpdateMessage request object to execute
+   * @return A Message object
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public Message execute(UpdateMessage request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a UpdateMessages request by calling .get() on the executeAsync
+   * response
+   * 
+   * @param request The UpdateMessages request object to execute
+   * @return A List of Message objects
+   * @throws CommandException Thrown if cannot process the request
+   * @throws ProtocolException Thrown if an error occurs while executing the
+   *           Http request
+   */
+  @Override
+  public List<Message> execute(UpdateMessages request) throws CommandException, ProtocolException {
+    try {
+      return executeAsync(request).get();
+    } catch (InterruptedException e) {
+      throw new BurrowRuntimeException("InterruptedException executing HTTP request", e);
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof CommandException)
+        throw (CommandException) t;
+      if (t instanceof ProtocolException)
+        throw (ProtocolException) t;
+      throw new BurrowRuntimeException("ExecutionException executing HTTP request", e);
+    }
+  }
+
+  /**
+   * Executes a CreateMessage request by sending it on an HTTP/2 stream
+   * 
+   * @param request The CreateMessage request object to execute
+   * @return A CompletableFuture<Message> object
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(CreateMessage request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a CreateMessage request through executeStage
+   * 
+   * @param request The CreateMessage request object to execute
+   * @return A Future<Message> object
+   */
+  @Override
+  public Future<Message> executeAsync(CreateMessage request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteAccounts request by sending it on an HTTP/2 stream
+   * 
+   * @param request The DeleteAccounts request object to execute
+   * @return A CompletableFuture<List<Account>> object
+   */
+  @Override
+  public CompletableFuture<List<Account>> executeStage(DeleteAccounts request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Account>>() {
+      public List<Account> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleAccountHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteAccounts request through executeStage
+   * 
+   * @param request The DeleteAccounts request object to execute
+   * @return A Future<List<Account>> object
+   */
+  @Override
+  public Future<List<Account>> executeAsync(DeleteAccounts request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteMessage request by sending it on an HTTP/2 stream
+   * 
+   * @param request The DeleteMessage request object to execute
+   * @return A CompletableFuture<Message> object
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(DeleteMessage request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteMessage request through executeStage
+   * 
+   * @param request The DeleteMessage request object to execute
+   * @return A Future<Message> object
+   */
+  @Override
+  public Future<Message> executeAsync(DeleteMessage request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteMessages request by sending it on an HTTP/2 stream
+   * 
+   * @param request The DeleteMessages request object to execute
+   * @return A CompletableFuture<List<Message>> object
+   */
+  @Override
+  public CompletableFuture<List<Message>> executeStage(DeleteMessages request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Message>>() {
+      public List<Message> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteMessages request through executeStage
+   * 
+   * @param request The DeleteMessages request object to execute
+   * @return A Future<List<Message>> object
+   */
+  @Override
+  public Future<List<Message>> executeAsync(DeleteMessages request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a DeleteQueues request by sending it on an HTTP/2 stream
+   * 
+   * @param request The DeleteQueues request object to execute
+   * @return A CompletableFuture<List<Queue>> object
+   */
+  @Override
+  public CompletableFuture<List<Queue>> executeStage(DeleteQueues request) {
+    final Account account = request.getAccount();
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Queue>>() {
+      public List<Queue> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleQueueHttpResponse(account, response);
+      }
+    });
+  }
+
+  /**
+   * Executes a DeleteQueues request through executeStage
+   * 
+   * @param request The DeleteQueues request object to execute
+   * @return A Future<List<Queue>> object
+   */
+  @Override
+  public Future<List<Queue>> executeAsync(DeleteQueues request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetAccounts request by sending it on an HTTP/2 stream
+   * 
+   * @param request The GetAccounts request object to execute
+   * @return A CompletableFuture<List<Account>> object
+   */
+  @Override
+  public CompletableFuture<List<Account>> executeStage(GetAccounts request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Account>>() {
+      public List<Account> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleAccountHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetAccounts request through executeStage
+   * 
+   * @param request The GetAccounts request object to execute
+   * @return A Future<List<Account>> object
+   */
+  @Override
+  public Future<List<Account>> executeAsync(GetAccounts request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetMessage request by sending it on an HTTP/2 stream
+   * 
+   * @param request The GetMessage request object to execute
+   * @return A CompletableFuture<Message> object
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(GetMessage request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetMessage request through executeStage
+   * 
+   * @param request The GetMessage request object to execute
+   * @return A Future<Message> object
+   */
+  @Override
+  public Future<Message> executeAsync(GetMessage request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetMessages request by sending it on an HTTP/2 stream
+   * 
+   * @param request The GetMessages request object to execute
+   * @return A CompletableFuture<List<Message>> object
+   */
+  @Override
+  public CompletableFuture<List<Message>> executeStage(GetMessages request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Message>>() {
+      public List<Message> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetMessages request through executeStage
+   * 
+   * @param request The GetMessages request object to execute
+   * @return A Future<List<Message>> object
+   */
+  @Override
+  public Future<List<Message>> executeAsync(GetMessages request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes a GetQueues request by sending it on an HTTP/2 stream
+   * 
+   * @param request The GetQueues request object to execute
+   * @return A CompletableFuture<List<Queue>> object
+   */
+  @Override
+  public CompletableFuture<List<Queue>> executeStage(GetQueues request) {
+    final Account account = request.getAccount();
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Queue>>() {
+      public List<Queue> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleQueueHttpResponse(account, response);
+      }
+    });
+  }
+
+  /**
+   * Executes a GetQueues request through executeStage
+   * 
+   * @param request The GetQueues request object to execute
+   * @return A Future<List<Queue>> object
+   */
+  @Override
+  public Future<List<Queue>> executeAsync(GetQueues request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes an UpdateMessage request by sending it on an HTTP/2 stream
+   * 
+   * @param request The UpdateMessage request object to execute
+   * @return A CompletableFuture<Message> object
+   */
+  @Override
+  public CompletableFuture<Message> executeStage(UpdateMessage request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<Message>() {
+      public Message handle(HttpResponse response) throws BurrowException {
+        return handleSingleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes an UpdateMessage request through executeStage
+   * 
+   * @param request The UpdateMessage request object to execute
+   * @return A Future<Message> object
+   */
+  @Override
+  public Future<Message> executeAsync(UpdateMessage request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Executes an UpdateMessages request by sending it on an HTTP/2 stream
+   * 
+   * @param request The UpdateMessages request object to execute
+   * @return A CompletableFuture<List<Message>> object
+   */
+  @Override
+  public CompletableFuture<List<Message>> executeStage(UpdateMessages request) {
+    return send(request, getHttpRequest(request), new ResponseHandler<List<Message>>() {
+      public List<Message> handle(HttpResponse response) throws BurrowException {
+        return handleMultipleMessageHttpResponse(response);
+      }
+    });
+  }
+
+  /**
+   * Executes an UpdateMessages request through executeStage
+   * 
+   * @param request The UpdateMessages request object to execute
+   * @return A Future<List<Message>> object
+   */
+  @Override
+  public Future<List<Message>> executeAsync(UpdateMessages request) {
+    return executeStage(request);
+  }
+
+  /**
+   * Sends a request to the server the Endpoints choose, decoding the response
+   * with the given handler once it has arrived. Cancelling the returned stage,
+   * or its timing out, which fails it with a TimeoutException, cancels the
+   * exchange, which resets its stream.
+   * 
+   * @param request The request object, whose timeout the exchange is given
+   * @param httpRequest The request, as built for Http
+   * @param handler The handler which decodes the response
+   * @return A CompletableFuture completed when the exchange is
+   */
+  private <T> CompletableFuture<T> send(Request request, HttpUriRequest httpRequest,
+      final ResponseHandler<T> handler) {
+    final HttpStage<T> stage = new HttpStage<T>();
+    try {
+      inFlight.track(stage);
+      if (request.getTimeout() != null)
+        stage.orTimeout(request.getTimeout(), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      stage.completeExceptionally(e);
+      return stage;
+    }
+    final Endpoint endpoint = endpoints.choose();
+    java.net.http.HttpRequest outgoing;
+    try {
+      outgoing = toRequest(httpRequest, endpoint.getHost());
+    } catch (IOException e) {
+      endpoint.release();
+      stage.completeExceptionally(e);
+      return stage;
+    }
+    final CompletableFuture<java.net.http.HttpResponse<byte[]>> exchange =
+        client.sendAsync(outgoing, BodyHandlers.ofByteArray());
+    stage.attach(exchange);
+    exchange.whenComplete(new BiConsumer<java.net.http.HttpResponse<byte[]>, Throwable>() {
+      public void accept(java.net.http.HttpResponse<byte[]> response, Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null)
+          failure = failure.getCause();
+        if (failure == null)
+          endpoint.succeeded();
+        else if (!(failure instanceof CancellationException))
+          endpoint.failed();
+        endpoint.release();
+        if (failure != null) {
+          stage.completeExceptionally(failure);
+          return;
+        }
+        try {
+          stage.complete(handler.handle(toHttpResponse(response)));
+        } catch (BurrowException e) {
+          stage.completeExceptionally(e);
+        } catch (HttpException e) {
+          // Thrown by ResponseContentEncoding
+          stage.completeExceptionally(new HttpProtocolException("Error decoding HTTP response: "
+              + e));
+        } catch (RuntimeException e) {
+          stage.completeExceptionally(e);
+        }
+      }
+    });
+    return stage;
+  }
+
+  /**
+   * Converts a request built for Http to one for the java.net.http client,
+   * sent to the given server
+   * 
+   * @param httpRequest The request, as built for Http
+   * @param target The server to which to send it
+   * @return The request for the java.net.http client
+   * @throws IOException Thrown if the request's entity cannot be read
+   */
+  private java.net.http.HttpRequest toRequest(HttpUriRequest httpRequest, HttpHost target)
+      throws IOException {
+    URI uri;
+    try {
+      uri = URIUtils.rewriteURI(httpRequest.getURI(), target);
+    } catch (URISyntaxException e) {
+      throw new IOException("Unable to route request to " + target + ": " + e);
+    }
+    java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri);
+    BodyPublisher body = BodyPublishers.noBody();
+    if (httpRequest instanceof HttpEntityEnclosingRequest) {
+      HttpEntity entity = ((HttpEntityEnclosingRequest) httpRequest).getEntity();
+      if (entity != null) {
+        body = BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity));
+        if (entity.getContentType() != null)
+          builder.header(HTTP.CONTENT_TYPE, entity.getContentType().getValue());
+        if (entity.getContentEncoding() != null)
+          builder.header(HTTP.CONTENT_ENCODING, entity.getContentEncoding().getValue());
+      }
+    }
+    for (Header header : httpRequest.getAllHeaders())
+      builder.header(header.getName(), header.getValue());
+    // The equivalent of the AcceptEncoding interceptor.
+    if (getCompression() != null)
+      builder.header("Accept-Encoding", GZIP + "," + DEFLATE);
+    return builder.method(httpRequest.getMethod(), body).build();
+  }
+
+  /**
+   * Converts a response from the java.net.http client to an HttpResponse as
+   * Http would have received it, decompressed if need be
+   * 
+   * @param response The response from the java.net.http client
+   * @return An HttpResponse
+   * @throws HttpException Thrown if the response's content coding is not
+   *           supported
+   */
+  private static HttpResponse toHttpResponse(java.net.http.HttpResponse<byte[]> response)
+      throws HttpException {
+    int statusCode = response.statusCode();
+    ProtocolVersion version =
+        response.version() == HttpClient.Version.HTTP_2 ? new ProtocolVersion("HTTP", 2, 0)
+            : HttpVersion.HTTP_1_1;
+    String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, Locale.ENGLISH);
+    BasicHttpResponse httpResponse = new BasicHttpResponse(version, statusCode, reason);
+    for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+      for (String value : header.getValue())
+        httpResponse.addHeader(header.getKey(), value);
+    }
+    // As with HttpClient, responses which cannot have a body have no entity.
+    if (statusCode != HttpStatus.SC_NO_CONTENT && statusCode != HttpStatus.SC_NOT_MODIFIED) {
+      ByteArrayEntity entity = new ByteArrayEntity(response.body());
+      entity.setContentType(httpResponse.getFirstHeader(HTTP.CONTENT_TYPE));
+      entity.setContentEncoding(httpResponse.getFirstHeader(HTTP.CONTENT_ENCODING));
+      httpResponse.setEntity(entity);
+      try {
+        new ResponseContentEncoding().process(httpResponse, new BasicHttpContext());
+      } catch (IOException e) {
+        // Nothing is read until the entity is.
+        throw new HttpException("Unable to decode response: " + e);
+      }
+    }
+    return httpResponse;
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import org.apache.http.conn.scheme.SchemeSocketFactory;
+import org.apache.http.params.HttpParams;
+
+/**
+ * UnixSocketFactory connects HttpClient to a burrow server listening on a Unix
+ * domain socket, whatever the host and port of the request. Registered for the
+ * http scheme, it lets Http speak the same protocol to a co-located server
+ * without going through TCP loopback. Unix domain sockets need Java 16 or
+ * later, so this is built apart from the rest of the library, and Http loads
+ * it by name.
+ */
+class UnixSocketFactory implements SchemeSocketFactory {
+  private final File path;
+
+  /**
+   * Construct a UnixSocketFactory.
+   *
+   * @param path The socket file the server listens on.
+   */
+  UnixSocketFactory(File path) {
+    if (path == null)
+      throw new IllegalArgumentException("Socket path may not be null.");
+    this.path = path;
+  }
+
+  public Socket createSocket(HttpParams params) {
+    return new UnixSocket(path);
+  }
+
+  public Socket connectSocket(Socket sock, InetSocketAddress remoteAddress,
+      InetSocketAddress localAddress, HttpParams params) throws IOException {
+    UnixSocket socket = sock instanceof UnixSocket ? (UnixSocket) sock : new UnixSocket(path);
+    socket.connect();
+    return socket;
+  }
+
+  public boolean isSecure(Socket sock) {
+    return false;
+  }
+
+  /**
+   * A Socket over a Unix domain SocketChannel, which cannot be had from the
+   * channel itself. Only what HttpClient uses is supported. Reads honor the
+   * socket timeout, since HttpClient's stale connection check relies on it.
+   */
+  static class UnixSocket extends Socket {
+    private final File path;
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    private volatile int soTimeout = 0;
+    private volatile boolean closed = false;
+    private boolean inputShutdown = false;
+    private boolean outputShutdown = false;
+    private final InputStream in = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return UnixSocket.this.read(ByteBuffer.wrap(b, off, len));
+      }
+    };
+    private final OutputStream out = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        UnixSocket.this.write(ByteBuffer.wrap(b, off, len));
+      }
+    };
+
+    UnixSocket(File path) {
+      this.path = path;
+    }
+
+    synchronized void connect() throws IOException {
+      if (closed)
+        throw new SocketException("Socket is closed");
+      if (channel != null)
+        throw new SocketException("Already connected");
+      SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+      try {
+        channel.connect(UnixDomainSocketAddress.of(path.getPath()));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        key = channel.register(selector, 0);
+      } catch (IOException e) {
+        channel.close();
+        if (selector != null)
+          selector.close();
+        throw e;
+      }
+      this.channel = channel;
+    }
+
+    private int read(ByteBuffer dst) throws IOException {
+      checkOpen();
+      if (inputShutdown)
+        return -1;
+      while (true) {
+        int n = channel.read(dst);
+        if (n != 0 || !dst.hasRemaining())
+          return n;
+        if (!await(SelectionKey.OP_READ, soTimeout))
+          throw new SocketTimeoutException("Read timed out");
+      }
+    }
+
+    private void write(ByteBuffer src) throws IOException {
+      checkOpen();
+      if (outputShutdown)
+        throw new SocketException("Socket output is shutdown");
+      while (src.hasRemaining()) {
+        if (channel.write(src) == 0)
+          await(SelectionKey.OP_WRITE, 0);
+      }
+    }
+
+    /**
+     * Wait until the channel is ready.
+     *
+     * @param ops The operation to wait for.
+     * @param timeout The time to wait in milliseconds, or 0 to wait forever.
+     * @return False if the time ran out first.
+     */
+    private boolean await(int ops, int timeout) throws IOException {
+      int selected;
+      try {
+        key.interestOps(ops);
+        selected = selector.select(timeout);
+        selector.selectedKeys().clear();
+        key.interestOps(0);
+      } catch (ClosedSelectorException e) {
+        // Closed by another thread, as when a connection is aborted.
+        throw new SocketException("Socket is closed");
+      } catch (CancelledKeyException e) {
+        throw new SocketException("Socket is closed");
+      }
+      return selected > 0 || timeout == 0;
+    }
+
+    private void checkOpen() throws SocketException {
+      if (closed)
+        throw new SocketException("Socket is closed");
+      if (channel == null)
+        throw new SocketException("Socket is not connected");
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      checkOpen();
+      return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      checkOpen();
+      return out;
+    }
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+      connect();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (closed)
+        return;
+      closed = true;
+      try {
+        if (channel != null)
+          channel.close();
+      } finally {
+        if (selector != null)
+          selector.close();
+      }
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+      checkOpen();
+      channel.shutdownInput();
+      inputShutdown = true;
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+      checkOpen();
+      channel.shutdownOutput();
+      outputShutdown = true;
+    }
+
+    @Override
+    public boolean isConnected() {
+      return channel != null;
+    }
+
+    @Override
+    public boolean isBound() {
+      return channel != null;
+    }
+
+    @Override
+    public boolean isClosed() {
+      return closed;
+    }
+
+    @Override
+    public boolean isInputShutdown() {
+      return inputShutdown;
+    }
+
+    @Override
+    public boolean isOutputShutdown() {
+      return outputShutdown;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+      if (timeout < 0)
+        throw new IllegalArgumentException("Timeout may not be negative.");
+      soTimeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+      return soTimeout;
+    }
+
+    // TCP options mean nothing to a Unix domain socket.
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+    }
+
+    @Override
+    public boolean getTcpNoDelay() {
+      return true;
+    }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) {
+    }
+
+    @Override
+    public int getSoLinger() {
+      return -1;
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) {
+    }
+
+    @Override
+    public boolean getKeepAlive() {
+      return false;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) {
+    }
+
+    @Override
+    public int getSendBufferSize() {
+      return 8192;
+    }
+
+    @Override
+    public void setReceiveBufferSize(int size) {
+    }
+
+    @Override
+    public int getReceiveBufferSize() {
+      return 8192;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+      // The server is on this host, if not at any address.
+      return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public int getPort() {
+      return 0;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+      return UnixDomainSocketAddress.of(path.getPath());
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+      return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+      return -1;
+    }
+
+    @Override
+    public String toString() {
+      return "UnixSocket[" + path + "]";
+    }
+  }
+}
@@ -17,9 +17,13 @@
 package org.openstack.burrow;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
 import org.openstack.burrow.backend.AsyncBackend;
+import org.openstack.burrow.backend.MessageNotFoundException;
 import org.openstack.burrow.client.Account;
 import org.openstack.burrow.client.Message;
 import org.openstack.burrow.client.Queue;
@@ -133,4 +137,35 @@ abstract class AsyncClientTest extends ClientTest {
       throw e.getCause();
     }
   }
+
+  /**
+   * Chain create, claim and delete stages, and check that a failure in the
+   * chain reaches its end.
+   * 
+   * @throws Throwable
+   */
+  public void testChainedStages() throws Throwable {
+    final String id = "testChainedStages";
+    List<Message> claimed = asyncBackend.executeStage(queue.createMessage(id, "body")).thenCompose(
+        new Function<Message, CompletionStage<List<Message>>>() {
+          public CompletionStage<List<Message>> apply(Message created) {
+            return asyncBackend.executeStage(queue.updateMessages().withHide(100L));
+          }
+        }).toCompletableFuture().get();
+    assertEquals(1, claimed.size());
+    assertEquals(id, claimed.get(0).getId());
+
+    CompletableFuture<Message> deleted = asyncBackend.executeStage(queue.deleteMessage(id).withMatchHidden(true))
+        .thenCompose(new Function<Message, CompletionStage<Message>>() {
+          public CompletionStage<Message> apply(Message first) {
+            return asyncBackend.executeStage(queue.deleteMessage(id).withMatchHidden(true));
+          }
+        }).toCompletableFuture();
+    try {
+      deleted.get();
+      fail("second deleteMessage should have failed");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof MessageNotFoundException);
+    }
+  }
 }
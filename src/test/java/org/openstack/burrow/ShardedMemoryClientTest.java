@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow;
+
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.openstack.burrow.backend.memory.ShardedMemory;
+
+public class ShardedMemoryClientTest extends AsyncClientTest {
+  public static Test suite() {
+    return new TestSuite(ShardedMemoryClientTest.class);
+  }
+
+  public ShardedMemoryClientTest(String testName) {
+    super(testName, new ShardedMemory(4));
+  }
+}
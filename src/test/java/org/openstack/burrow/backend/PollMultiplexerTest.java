@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import junit.framework.TestCase;
+
+import org.openstack.burrow.backend.memory.AsyncMemory;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.DeleteMessages;
+
+public class PollMultiplexerTest extends TestCase {
+
+  /**
+   * An AsyncMemory which counts the DeleteMessages requests outstanding.
+   */
+  private static class CountingMemory extends AsyncMemory {
+    final AtomicInteger outstanding = new AtomicInteger();
+    final AtomicInteger maxOutstanding = new AtomicInteger();
+    final List<CompletableFuture<List<Message>>> sent =
+        new ArrayList<CompletableFuture<List<Message>>>();
+
+    @Override
+    public CompletableFuture<List<Message>> executeStage(DeleteMessages request) {
+      int now = outstanding.incrementAndGet();
+      while (true) {
+        int max = maxOutstanding.get();
+        if (now <= max || maxOutstanding.compareAndSet(max, now))
+          break;
+      }
+      final CompletableFuture<List<Message>> response = super.executeStage(request);
+      synchronized (this) {
+        sent.add(response);
+      }
+      // Count the response out before the caller sees it, so that any poll the
+      // caller sends in return is not counted as overlapping this one.
+      final CompletableFuture<List<Message>> counted = new CompletableFuture<List<Message>>();
+      response.whenComplete(new BiConsumer<List<Message>, Throwable>() {
+        public void accept(List<Message> messages, Throwable failure) {
+          outstanding.decrementAndGet();
+          if (failure == null)
+            counted.complete(messages);
+          else
+            counted.completeExceptionally(failure);
+        }
+      });
+      counted.whenComplete(new BiConsumer<List<Message>, Throwable>() {
+        public void accept(List<Message> messages, Throwable failure) {
+          if (counted.isCancelled())
+            response.cancel(true);
+        }
+      });
+      return counted;
+    }
+  }
+
+  public void testDeliversFromManyQueuesOverFewPolls() throws Exception {
+    CountingMemory memory = new CountingMemory();
+    PollMultiplexer multiplexer = new PollMultiplexer(memory, 2, 1, null);
+    Account account = new Account("account");
+    final CountDownLatch delivered = new CountDownLatch(6);
+    final List<String> bodies = new ArrayList<String>();
+    try {
+      for (int i = 0; i < 8; i++) {
+        multiplexer.watch(account.Queue("queue" + i), new MessageHandler() {
+          public void handle(Message message) {
+            synchronized (bodies) {
+              bodies.add(message.getBody());
+            }
+            delivered.countDown();
+          }
+        });
+      }
+      assertEquals(8, multiplexer.getWatched());
+      // Two queues stay empty, so each poll of them waits out its second.
+      for (int i = 0; i < 8; i++) {
+        if (i != 1 && i != 4)
+          memory.execute(account.Queue("queue" + i).createMessage("m" + i, "queue" + i));
+      }
+      assertTrue(delivered.await(10, TimeUnit.SECONDS));
+      assertTrue(memory.maxOutstanding.get() <= 2);
+      assertTrue(multiplexer.getPolling() <= 2);
+      synchronized (bodies) {
+        assertEquals(6, bodies.size());
+        for (int i = 0; i < 8; i++) {
+          if (i != 1 && i != 4)
+            assertTrue(bodies.contains("queue" + i));
+        }
+      }
+    } finally {
+      multiplexer.shutdown();
+      memory.shutdown();
+    }
+  }
+
+  public void testReportsFailedHandlers() throws Exception {
+    CountingMemory memory = new CountingMemory();
+    final List<String> failed = new ArrayList<String>();
+    final CountDownLatch done = new CountDownLatch(2);
+    PollMultiplexer multiplexer =
+        new PollMultiplexer(memory, 1, 1, null, PollMultiplexer.DEFAULT_BASE_DELAY,
+            PollMultiplexer.DEFAULT_MAX_DELAY, TimeUnit.MILLISECONDS, Scheduler.getDefault(),
+            new PollMultiplexer.FailureHandler() {
+              public void failed(Queue queue, Message message, RuntimeException e) {
+                synchronized (failed) {
+                  failed.add(queue.getId() + "/" + message.getId() + ": " + e.getMessage());
+                }
+                done.countDown();
+              }
+            });
+    final List<String> handled = new ArrayList<String>();
+    Queue queue = new Account("account").Queue("queue");
+    try {
+      memory.execute(queue.createMessage("1", "bad"));
+      memory.execute(queue.createMessage("2", "good"));
+      multiplexer.watch(queue, new MessageHandler() {
+        public void handle(Message message) {
+          if (message.getBody().equals("bad"))
+            throw new IllegalStateException("bad message");
+          synchronized (handled) {
+            handled.add(message.getId());
+          }
+          done.countDown();
+        }
+      });
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      synchronized (failed) {
+        assertEquals(1, failed.size());
+        assertEquals("queue/1: bad message", failed.get(0));
+      }
+      synchronized (handled) {
+        assertEquals(1, handled.size());
+        assertEquals("2", handled.get(0));
+      }
+    } finally {
+      multiplexer.shutdown();
+      memory.shutdown();
+    }
+  }
+
+  public void testRejectsPollsWhichDoNotWait() {
+    CountingMemory memory = new CountingMemory();
+    try {
+      new PollMultiplexer(memory, 2, 0, null);
+      fail("Accepted a poll which does not wait");
+    } catch (IllegalArgumentException e) {
+      // This is expected.
+    } finally {
+      memory.shutdown();
+    }
+  }
+
+  public void testUnwatchCancelsPoll() throws Exception {
+    CountingMemory memory = new CountingMemory();
+    PollMultiplexer multiplexer = new PollMultiplexer(memory, 4, 30, null);
+    Queue queue = new Account("account").Queue("queue");
+    try {
+      multiplexer.watch(queue, new MessageHandler() {
+        public void handle(Message message) {
+          // No messages are sent.
+        }
+      });
+      try {
+        multiplexer.watch(queue, new MessageHandler() {
+          public void handle(Message message) {
+            // No messages are sent.
+          }
+        });
+        fail("Watched a queue twice");
+      } catch (IllegalStateException e) {
+        // This is expected.
+      }
+      while (memory.outstanding.get() < 1)
+        Thread.sleep(1);
+      assertTrue(multiplexer.unwatch(queue));
+      assertFalse(multiplexer.unwatch(queue));
+      synchronized (memory) {
+        assertTrue(memory.sent.get(0).isCancelled());
+      }
+      while (multiplexer.getPolling() > 0)
+        Thread.sleep(1);
+      assertEquals(0, multiplexer.getWatched());
+      assertEquals(1, memory.sent.size());
+    } finally {
+      multiplexer.shutdown();
+      memory.shutdown();
+    }
+  }
+}
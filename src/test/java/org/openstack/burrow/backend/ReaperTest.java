@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class ReaperTest extends TestCase {
+
+  /**
+   * A target with a fixed amount of work per sweep, doing one item per slice.
+   */
+  private static class Countdown implements Reaper.Target {
+    final int perSweep;
+    int remaining;
+
+    Countdown(int perSweep) {
+      this.perSweep = perSweep;
+      this.remaining = perSweep;
+    }
+
+    public boolean reap(Reaper.Slice slice) {
+      slice.reclaimed(1);
+      if (--remaining > 0) return false;
+      remaining = perSweep;
+      return true;
+    }
+  }
+
+  public void testSweepsSpanSlices() {
+    Reaper reaper = new Reaper(1, 1, TimeUnit.HOURS);
+    try {
+      reaper.register(new Countdown(3));
+
+      for (int i = 0; i < 7; i++)
+        reaper.runOnce();
+
+      assertEquals(7, reaper.getReclaimed());
+      assertEquals(2, reaper.getSweeps());
+    } finally {
+      reaper.shutdown();
+    }
+  }
+
+  public void testLag() throws Exception {
+    Reaper reaper = new Reaper(1, 1, TimeUnit.HOURS);
+    try {
+      Countdown target = new Countdown(1000);
+      reaper.register(target);
+      Thread.sleep(50);
+      reaper.runOnce();
+
+      assertTrue("Lag should cover an unfinished sweep", reaper.getLag(TimeUnit.MILLISECONDS) >= 50);
+
+      reaper.unregister(target);
+      assertEquals(0, reaper.getLag(TimeUnit.MILLISECONDS));
+    } finally {
+      reaper.shutdown();
+    }
+  }
+}
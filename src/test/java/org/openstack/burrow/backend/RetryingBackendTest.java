@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.openstack.burrow.backend.memory.AsyncMemory;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.GetQueues;
+
+public class RetryingBackendTest extends TestCase {
+
+  /**
+   * An AsyncMemory whose GetQueues requests are answered by the test.
+   */
+  private static class StubMemory extends AsyncMemory {
+    final List<CompletableFuture<List<Queue>>> sent = new ArrayList<CompletableFuture<List<Queue>>>();
+    int failures = 0;
+
+    @Override
+    public synchronized CompletableFuture<List<Queue>> executeStage(GetQueues request) {
+      CompletableFuture<List<Queue>> response = new CompletableFuture<List<Queue>>();
+      sent.add(response);
+      if (failures > 0) {
+        failures--;
+        response.completeExceptionally(new IOException("Connection reset"));
+      }
+      return response;
+    }
+
+    synchronized int getSent() {
+      return sent.size();
+    }
+  }
+
+  public void testRetries() throws Exception {
+    StubMemory memory = new StubMemory();
+    RetryingBackend backend = new RetryingBackend(memory, 3, 1, 5, TimeUnit.MILLISECONDS, false);
+    Account account = new Account("account");
+
+    memory.failures = 2;
+    CompletableFuture<List<Queue>> response = backend.executeStage(account.getQueues());
+    while (memory.getSent() < 3)
+      Thread.sleep(1);
+    memory.sent.get(2).complete(new ArrayList<Queue>());
+    assertTrue(response.get().isEmpty());
+
+    memory.failures = 4;
+    try {
+      backend.execute(account.getQueues());
+      fail("Retried more than 3 times");
+    } catch (BurrowRuntimeException e) {
+      assertTrue(e.getCause().getCause() instanceof IOException);
+    }
+    assertEquals(7, memory.getSent());
+  }
+
+  public void testCommandExceptionsAreNotRetried() throws Exception {
+    RetryingBackend backend = new RetryingBackend(new AsyncMemory());
+    try {
+      backend.executeStage(new Account("nobody").getQueues()).get();
+      fail("Found queues in an empty backend");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CommandException);
+    }
+  }
+
+  public void testHedge() throws Exception {
+    StubMemory memory = new StubMemory();
+    RetryingBackend backend = new RetryingBackend(memory, 0, 1, 1, TimeUnit.MILLISECONDS, true);
+    Account account = new Account("account");
+
+    // Nothing is hedged until enough responses have been timed.
+    for (int i = 0; i < RetryingBackend.MIN_SAMPLES; i++) {
+      CompletableFuture<List<Queue>> response = backend.executeStage(account.getQueues());
+      memory.sent.get(i).complete(new ArrayList<Queue>());
+      response.get();
+    }
+    assertEquals(RetryingBackend.MIN_SAMPLES, memory.getSent());
+
+    CompletableFuture<List<Queue>> response = backend.executeStage(account.getQueues());
+    while (memory.getSent() < RetryingBackend.MIN_SAMPLES + 2)
+      Thread.sleep(1);
+    List<Queue> queues = new ArrayList<Queue>();
+    memory.sent.get(RetryingBackend.MIN_SAMPLES + 1).complete(queues);
+    assertSame(queues, response.get());
+    assertTrue(memory.sent.get(RetryingBackend.MIN_SAMPLES).isCancelled());
+  }
+}
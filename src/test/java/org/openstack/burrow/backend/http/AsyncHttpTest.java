@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
+import org.openstack.burrow.client.methods.GetAccounts;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncHttpTest extends TestCase {
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  private ScheduledExecutorService probes;
+  private volatile long delay = 0;
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/v1.0", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        byte[] body = "[\"a\", \"b\"]".getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+    // Probes are never run, so only requests change the endpoint's health.
+    probes = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @Override
+  protected void tearDown() {
+    server.stop(0);
+    serverThreads.shutdownNow();
+    probes.shutdownNow();
+  }
+
+  public void testTimeoutIsNotCountedAgainstServer() throws Exception {
+    Endpoints endpoints =
+        new Endpoints(Arrays.asList(new HttpHost("localhost", server.getAddress().getPort())),
+            3600000, Endpoints.DEFAULT_PROBE_TIMEOUT, probes);
+    Endpoint endpoint = endpoints.getEndpoints().get(0);
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+    int limit = limiter.getLimit();
+    AsyncHttp http = new AsyncHttp(endpoints, limiter);
+    try {
+      delay = 1000;
+      for (int i = 0; i < Endpoints.FAILURE_THRESHOLD; i++) {
+        try {
+          http.executeAsync(new GetAccounts().withTimeout(50, TimeUnit.MILLISECONDS)).get();
+          fail("Request outlived its timeout");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // The endpoint is released last, once the request has been accounted.
+        while (endpoint.getOutstanding() > 0)
+          Thread.sleep(1);
+      }
+      assertTrue(endpoint.isHealthy());
+      assertEquals(limit, limiter.getLimit());
+      delay = 0;
+      assertEquals(2, http.executeAsync(new GetAccounts()).get().size());
+    } finally {
+      http.shutdown();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.openstack.burrow.backend.HttpProtocolException;
+import org.openstack.burrow.backend.MessageHandler;
+import org.openstack.burrow.client.Message;
+
+public class BaseHttpTest extends TestCase {
+
+  private static HttpResponse response(InputStream content) {
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    InputStreamEntity entity = new InputStreamEntity(content, -1);
+    entity.setContentType("application/json; charset=UTF-8");
+    response.setEntity(entity);
+    return response;
+  }
+
+  public void testStreamMessages() throws Exception {
+    final byte[] json =
+        "[{\"id\": \"1\", \"body\": \"a\"}, {\"id\": \"2\", \"body\": \"b\"}]".getBytes("UTF-8");
+    final int[] read = {0};
+    final List<String> seen = new ArrayList<String>();
+
+    // Count how much of the body had been read when each message arrived.
+    InputStream content = new ByteArrayInputStream(json) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        int count = super.read(b, off, Math.min(len, 8));
+        if (count > 0) read[0] += count;
+        return count;
+      }
+
+      @Override
+      public synchronized int available() {
+        // Like a socket, where the rest of the body has not arrived yet.
+        return 0;
+      }
+    };
+
+    final List<Integer> readAt = new ArrayList<Integer>();
+    boolean listed =
+        BaseHttp.handleMultipleMessageHttpResponse(response(content), new MessageHandler() {
+          public void handle(Message message) {
+            seen.add(message.getId());
+            readAt.add(read[0]);
+          }
+        });
+
+    assertTrue(listed);
+    assertEquals(2, seen.size());
+    assertEquals("1", seen.get(0));
+    assertEquals("2", seen.get(1));
+    assertTrue("First message waited for the whole body", readAt.get(0) < json.length);
+  }
+
+  public void testMalformedReleasesEntity() throws Exception {
+    final boolean[] closed = {false};
+    InputStream content = new ByteArrayInputStream("[{\"id\": \"1\"} {".getBytes("UTF-8")) {
+      @Override
+      public void close() throws IOException {
+        closed[0] = true;
+      }
+    };
+
+    try {
+      BaseHttp.handleMultipleMessageHttpResponse(response(content));
+      fail("Accepted a malformed response");
+    } catch (HttpProtocolException e) {
+      // This is expected.
+    }
+    assertTrue(closed[0]);
+  }
+}
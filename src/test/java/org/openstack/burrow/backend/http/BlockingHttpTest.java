@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.openstack.burrow.backend.CommandException;
+import org.openstack.burrow.backend.HttpProtocolException;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.methods.GetAccounts;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class BlockingHttpTest extends TestCase {
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  private final Set<Integer> clientPorts =
+      Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger concurrent = new AtomicInteger();
+  private final AtomicInteger maxConcurrent = new AtomicInteger();
+  private volatile long delay = 0;
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/v1.0", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        requests.incrementAndGet();
+        int now = concurrent.incrementAndGet();
+        while (true) {
+          int max = maxConcurrent.get();
+          if (now <= max || maxConcurrent.compareAndSet(max, now))
+            break;
+        }
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        concurrent.decrementAndGet();
+        boolean found = exchange.getRequestURI().getPath().equals("/v1.0");
+        byte[] body = (found ? "[\"a\", \"b\"]" : "Not found").getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", found ? "application/json" : "text/plain");
+        exchange.sendResponseHeaders(found ? 200 : 404, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    // The queues of the account "slow" are listed one byte at a time.
+    server.createContext("/v1.0/slow", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = "[\"a\", \"b\"]".getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+          for (byte b : body) {
+            out.write(b);
+            out.flush();
+            Thread.sleep(200);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        out.close();
+      }
+    });
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() {
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  public void testReusesConnection() throws Exception {
+    BlockingHttp http = new BlockingHttp("localhost", server.getAddress().getPort());
+    try {
+      assertEquals(2, http.execute(new GetAccounts()).size());
+      try {
+        http.execute(new Account("nobody").getQueues());
+        fail("Found queues for a missing account");
+      } catch (CommandException e) {
+        // This is expected.
+      }
+      assertEquals(2, http.execute(new GetAccounts()).size());
+      assertEquals(1, clientPorts.size());
+      assertEquals(1, http.getIdle(http.getEndpoints().getEndpoints().get(0)));
+    } finally {
+      http.shutdown();
+    }
+  }
+
+  public void testTimeout() throws Exception {
+    BlockingHttp http = new BlockingHttp("localhost", server.getAddress().getPort());
+    try {
+      delay = 1000;
+      long start = System.nanoTime();
+      try {
+        http.execute(new GetAccounts().withTimeout(100, TimeUnit.MILLISECONDS));
+        fail("Request outlived its timeout");
+      } catch (HttpProtocolException e) {
+        // This is expected.
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+      assertEquals(0, http.getIdle(http.getEndpoints().getEndpoints().get(0)));
+      delay = 0;
+      assertEquals(2, http.execute(new GetAccounts().withTimeout(5, TimeUnit.SECONDS)).size());
+    } finally {
+      http.shutdown();
+    }
+  }
+
+  public void testTimeoutBoundsSlowBody() throws Exception {
+    BlockingHttp http = new BlockingHttp("localhost", server.getAddress().getPort());
+    try {
+      // Each byte comes well within the timeout, but the whole body does not.
+      long start = System.nanoTime();
+      try {
+        http.execute(new Account("slow").getQueues().withTimeout(300, TimeUnit.MILLISECONDS));
+        fail("Request outlived its timeout");
+      } catch (HttpProtocolException e) {
+        // This is expected.
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+      assertEquals(0, http.getIdle(http.getEndpoints().getEndpoints().get(0)));
+      assertEquals(2, http.execute(new GetAccounts().withTimeout(5, TimeUnit.SECONDS)).size());
+    } finally {
+      http.shutdown();
+    }
+  }
+
+  public void testTimedOutRequestIsNotResent() throws Exception {
+    BlockingHttp http = new BlockingHttp("localhost", server.getAddress().getPort());
+    try {
+      assertEquals(2, http.execute(new GetAccounts()).size());
+      delay = 500;
+      try {
+        http.execute(new GetAccounts().withTimeout(100, TimeUnit.MILLISECONDS));
+        fail("Request outlived its timeout");
+      } catch (HttpProtocolException e) {
+        // This is expected.
+      }
+      delay = 0;
+      assertEquals(2, http.execute(new GetAccounts()).size());
+      assertEquals(3, requests.get());
+    } finally {
+      http.shutdown();
+    }
+  }
+
+  public void testTimeoutsDoNotEjectServers() throws Exception {
+    ScheduledExecutorService probes = Executors.newSingleThreadScheduledExecutor();
+    int port = server.getAddress().getPort();
+    // Probes are never run, so only requests change the endpoints' health.
+    Endpoints endpoints =
+        new Endpoints(Arrays.asList(new HttpHost("localhost", port), new HttpHost("127.0.0.1",
+            port)), 3600000, Endpoints.DEFAULT_PROBE_TIMEOUT, probes);
+    final BlockingHttp http = new BlockingHttp(endpoints, 1, Http.DEFAULT_IDLE_TIMEOUT);
+    List<Thread> holders = new ArrayList<Thread>();
+    try {
+      delay = 1000;
+      for (int i = 0; i < 2; i++) {
+        Thread holder = new Thread(new Runnable() {
+          public void run() {
+            try {
+              http.execute(new GetAccounts());
+            } catch (Exception e) {
+              // Only holding the connection matters.
+            }
+          }
+        });
+        holder.start();
+        holders.add(holder);
+        while (concurrent.get() <= i)
+          Thread.sleep(1);
+      }
+
+      // Every connection is in use, so each request times out waiting for one.
+      long start = System.nanoTime();
+      for (int i = 0; i < 2 * Endpoints.FAILURE_THRESHOLD; i++) {
+        try {
+          http.execute(new GetAccounts().withTimeout(50, TimeUnit.MILLISECONDS));
+          fail("Request outlived its timeout");
+        } catch (HttpProtocolException e) {
+          // This is expected.
+        }
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+      for (Endpoint endpoint : endpoints.getEndpoints())
+        assertTrue(endpoint.isHealthy());
+      for (Thread holder : holders)
+        holder.join();
+
+      // The servers are slower than each request's timeout.
+      for (int i = 0; i < 2 * Endpoints.FAILURE_THRESHOLD; i++) {
+        try {
+          http.execute(new GetAccounts().withTimeout(50, TimeUnit.MILLISECONDS));
+          fail("Request outlived its timeout");
+        } catch (HttpProtocolException e) {
+          // This is expected.
+        }
+      }
+      for (Endpoint endpoint : endpoints.getEndpoints())
+        assertTrue(endpoint.isHealthy());
+    } finally {
+      http.shutdown();
+      probes.shutdownNow();
+    }
+  }
+
+  public void testBoundsConcurrency() throws Exception {
+    Endpoints endpoints = new Endpoints("localhost", server.getAddress().getPort());
+    final BlockingHttp http = new BlockingHttp(endpoints, 2, Http.DEFAULT_IDLE_TIMEOUT);
+    final AtomicInteger succeeded = new AtomicInteger();
+    delay = 20;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          try {
+            if (http.execute(new GetAccounts()).size() == 2)
+              succeeded.incrementAndGet();
+          } catch (Exception e) {
+            // Counted as not succeeding.
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads)
+      thread.join();
+    http.shutdown();
+    assertEquals(8, succeeded.get());
+    assertTrue(maxConcurrent.get() <= 2);
+    assertTrue(clientPorts.size() <= 2);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import junit.framework.TestCase;
+
+import org.apache.http.nio.reactor.IOReactorException;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.GetQueues;
+
+public class CoalescingBackendTest extends TestCase {
+
+  /**
+   * An AsyncHttp whose GetQueues requests are answered by the test.
+   */
+  private static class StubHttp extends AsyncHttp {
+    final List<CompletableFuture<List<Queue>>> sent = new ArrayList<CompletableFuture<List<Queue>>>();
+
+    StubHttp() throws IOReactorException {
+      super("localhost", 8080);
+    }
+
+    @Override
+    public synchronized CompletableFuture<List<Queue>> executeStage(GetQueues request) {
+      CompletableFuture<List<Queue>> response = new CompletableFuture<List<Queue>>();
+      sent.add(response);
+      return response;
+    }
+  }
+
+  public void testSharedResponse() throws Exception {
+    StubHttp http = new StubHttp();
+    CoalescingBackend backend = new CoalescingBackend(http);
+    Account account = new Account("account");
+
+    CompletableFuture<List<Queue>> first = backend.executeStage(account.getQueues());
+    CompletableFuture<List<Queue>> second = backend.executeStage(account.getQueues());
+    CompletableFuture<List<Queue>> other = backend.executeStage(account.getQueues().withLimit(1));
+    assertEquals(2, http.sent.size());
+
+    List<Queue> queues = new ArrayList<Queue>();
+    queues.add(account.Queue("queue"));
+    http.sent.get(0).complete(queues);
+    assertEquals(queues, first.get());
+    assertEquals(queues, second.get());
+    assertNotSame(first.get(), second.get());
+    assertFalse(other.isDone());
+
+    // Once answered, the next request is sent afresh.
+    backend.executeStage(account.getQueues());
+    assertEquals(3, http.sent.size());
+  }
+
+  public void testCancel() throws Exception {
+    StubHttp http = new StubHttp();
+    CoalescingBackend backend = new CoalescingBackend(http);
+    Account account = new Account("account");
+
+    CompletableFuture<List<Queue>> first = backend.executeStage(account.getQueues());
+    CompletableFuture<List<Queue>> second = backend.executeStage(account.getQueues());
+    first.cancel(true);
+    assertFalse(http.sent.get(0).isCancelled());
+    second.cancel(true);
+    assertTrue(http.sent.get(0).isCancelled());
+
+    CompletableFuture<List<Queue>> third = backend.executeStage(account.getQueues());
+    assertEquals(2, http.sent.size());
+    http.sent.get(1).complete(new ArrayList<Queue>());
+    assertTrue(third.get().isEmpty());
+  }
+}
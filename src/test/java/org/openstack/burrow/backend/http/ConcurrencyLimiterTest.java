@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+public class ConcurrencyLimiterTest extends TestCase {
+
+  /**
+   * Records the order in which requests are started.
+   */
+  private static class Start implements Runnable {
+    final List<String> started;
+    final String name;
+
+    Start(List<String> started, String name) {
+      this.started = started;
+      this.name = name;
+    }
+
+    public void run() {
+      started.add(name);
+    }
+  }
+
+  public void testQueueing() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 4, 0.5, 1);
+    List<String> started = new ArrayList<String>();
+
+    limiter.acquire("a", new Start(started, "a1"));
+    limiter.acquire("a", new Start(started, "a2"));
+    // Account a has its share of the limit, but b may still go ahead.
+    limiter.acquire("a", new Start(started, "a3"));
+    limiter.acquire("b", new Start(started, "b1"));
+    limiter.acquire(null, new Start(started, "c1"));
+    assertEquals(4, started.size());
+    assertEquals(1, limiter.getQueued());
+    try {
+      limiter.acquire("b", new Start(started, "b2"));
+      fail("Queued more than the maximum");
+    } catch (RejectedExecutionException e) {
+      // This is expected.
+    }
+
+    limiter.release("a", System.nanoTime(), -1, false);
+    assertEquals(5, started.size());
+    assertEquals("a3", started.get(4));
+    assertEquals(4, limiter.getInFlight());
+    assertEquals(0, limiter.getQueued());
+  }
+
+  public void testAbandonedRequestsLeaveQueue() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 2);
+    List<String> started = new ArrayList<String>();
+
+    assertNull(limiter.acquire(null, new Start(started, "a")));
+    Runnable abandonB = limiter.acquire(null, new Start(started, "b"));
+    Runnable abandonC = limiter.acquire(null, new Start(started, "c"));
+    abandonB.run();
+    abandonC.run();
+    assertEquals(0, limiter.getQueued());
+
+    // The abandoned requests no longer count against the queue.
+    limiter.acquire(null, new Start(started, "d"));
+    limiter.acquire(null, new Start(started, "e"));
+    limiter.release(null, System.nanoTime(), -1, false);
+    assertEquals("d", started.get(1));
+    assertEquals(2, started.size());
+  }
+
+  public void testStartingFinishedRequestsDoesNotRecurse() {
+    final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 100000);
+    final List<String> started = new ArrayList<String>();
+
+    limiter.acquire(null, new Start(started, "first"));
+    for (int i = 0; i < 100000; i++) {
+      // As a request finished while waiting does, release as soon as started.
+      limiter.acquire(null, new Runnable() {
+        public void run() {
+          started.add("finished");
+          limiter.release(null, System.nanoTime(), -1, false);
+        }
+      });
+    }
+    limiter.release(null, System.nanoTime(), -1, false);
+    assertEquals(100001, started.size());
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(0, limiter.getQueued());
+  }
+
+  public void testAdapts() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 20, 1, 100);
+    List<String> started = new ArrayList<String>();
+
+    // Prompt responses while the limit is in use raise it.
+    for (int i = 0; i < 100; i++) {
+      limiter.acquire(null, new Start(started, "x"));
+      while (limiter.getInFlight() < limiter.getLimit())
+        limiter.acquire(null, new Start(started, "x"));
+      limiter.release(null, System.nanoTime(), 1000000, false);
+    }
+    int raised = limiter.getLimit();
+    assertTrue(raised > 10);
+
+    // A drop cuts it, but only once for requests sent before the cut.
+    long sent = System.nanoTime();
+    limiter.release(null, sent, -1, true);
+    limiter.release(null, sent, -1, true);
+    assertEquals((int) (raised * 0.9), limiter.getLimit(), 1);
+
+    // So does a round trip far longer than the shortest.
+    int cut = limiter.getLimit();
+    limiter.release(null, System.nanoTime(), 10000000, false);
+    assertTrue(limiter.getLimit() < cut);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import junit.framework.TestCase;
+
+public class ContentInflaterTest extends TestCase {
+  private static final String BODY;
+
+  static {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 2000; i++)
+      body.append("{\"id\": \"").append(i).append("\", \"body\": \"message ").append(i).append("\"},");
+    BODY = body.toString();
+  }
+
+  public void testChunks() throws Exception {
+    ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+    DeflaterOutputStream out = new GZIPOutputStream(gzip);
+    out.write(BODY.getBytes("UTF-8"));
+    out.close();
+
+    ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+    out = new DeflaterOutputStream(zlib);
+    out.write(BODY.getBytes("UTF-8"));
+    out.close();
+
+    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+    out = new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    out.write(BODY.getBytes("UTF-8"));
+    out.close();
+
+    // Bodies arrive in pieces of any size, down to single bytes.
+    for (int chunk : new int[] {1, 7, 4096}) {
+      assertEquals(BODY, inflate("gzip", gzip.toByteArray(), chunk));
+      assertEquals(BODY, inflate("deflate", zlib.toByteArray(), chunk));
+      assertEquals(BODY, inflate("deflate", raw.toByteArray(), chunk));
+    }
+    assertNull(ContentInflater.forEncoding("identity"));
+  }
+
+  public void testCorrupt() throws Exception {
+    ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+    DeflaterOutputStream out = new GZIPOutputStream(gzip);
+    out.write(BODY.getBytes("UTF-8"));
+    out.close();
+    byte[] coded = gzip.toByteArray();
+
+    byte[] truncated = new byte[coded.length - 4];
+    System.arraycopy(coded, 0, truncated, 0, truncated.length);
+    try {
+      inflate("gzip", truncated, 100);
+      fail("Accepted a truncated body");
+    } catch (ZipException e) {
+      // This is expected.
+    }
+
+    byte[] badCrc = coded.clone();
+    badCrc[badCrc.length - 8] ^= 1;
+    try {
+      inflate("gzip", badCrc, 100);
+      fail("Accepted a body with a bad CRC");
+    } catch (ZipException e) {
+      // This is expected.
+    }
+
+    try {
+      ContentInflater.forEncoding("compress");
+      fail("Accepted an unsupported encoding");
+    } catch (ZipException e) {
+      // This is expected.
+    }
+  }
+
+  private static String inflate(String encoding, byte[] coded, int chunk) throws Exception {
+    final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+    ContentInflater inflater = ContentInflater.forEncoding(encoding);
+    for (int i = 0; i < coded.length; i += chunk) {
+      inflater.inflate(ByteBuffer.wrap(coded, i, Math.min(chunk, coded.length - i)),
+          new ContentInflater.Sink() {
+            public void write(ByteBuffer buf) {
+              decoded.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+              buf.position(buf.limit());
+            }
+          });
+    }
+    inflater.finish();
+    return decoded.toString("UTF-8");
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
+
+public class EndpointsTest extends TestCase {
+  private ScheduledExecutorService executor;
+  private Endpoints endpoints;
+
+  @Override
+  protected void setUp() {
+    // Probes are run by hand, so the schedule never fires.
+    executor = Executors.newSingleThreadScheduledExecutor();
+    endpoints =
+        new Endpoints(Arrays.asList(new HttpHost("a", 8080), new HttpHost("b", 8080)), 3600000,
+            Endpoints.DEFAULT_PROBE_TIMEOUT, executor);
+  }
+
+  @Override
+  protected void tearDown() {
+    endpoints.shutdown();
+    executor.shutdown();
+  }
+
+  public void testChoosesLeastOutstanding() {
+    Endpoint a = endpoints.getEndpoints().get(0);
+    Endpoint b = endpoints.getEndpoints().get(1);
+    for (int i = 0; i < 10; i++)
+      endpoints.choose();
+    assertEquals(5, a.getOutstanding());
+    assertEquals(5, b.getOutstanding());
+
+    a.release();
+    a.release();
+    assertSame(a, endpoints.choose());
+    assertEquals(4, a.getOutstanding());
+  }
+
+  public void testEjectsAndReadmits() {
+    Endpoint a = endpoints.getEndpoints().get(0);
+    Endpoint b = endpoints.getEndpoints().get(1);
+    for (int i = 0; i < Endpoints.FAILURE_THRESHOLD; i++) {
+      assertTrue(a.isHealthy());
+      a.failed();
+    }
+    assertFalse(a.isHealthy());
+    for (int i = 0; i < 10; i++)
+      assertSame(b, endpoints.choose());
+
+    // With every endpoint ejected, requests go to the least loaded regardless.
+    b.probed(false);
+    assertSame(a, endpoints.choose());
+
+    a.probed(true);
+    assertTrue(a.isHealthy());
+    for (int i = 0; i < 10; i++)
+      assertSame(a, endpoints.choose());
+  }
+
+  public void testProbesRunInParallel() throws Exception {
+    // A server which accepts connections but never answers, so every probe
+    // blocks until it times out or the server goes away.
+    final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+    final List<Socket> accepted = new ArrayList<Socket>();
+    Thread acceptor = new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (true) {
+            Socket socket = server.accept();
+            synchronized (accepted) {
+              accepted.add(socket);
+            }
+          }
+        } catch (IOException e) {
+          // The server has been closed.
+        }
+      }
+    });
+    acceptor.start();
+    HttpHost host = new HttpHost("localhost", server.getLocalPort());
+    Endpoints silent = new Endpoints(Arrays.asList(host, host, host), 3600000, 60000, executor);
+    try {
+      silent.probeAll();
+      // A second round does not probe servers still being probed.
+      silent.probeAll();
+      // Probed one at a time, only one connection would be open until the
+      // first probe timed out, a minute from now.
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      while (true) {
+        synchronized (accepted) {
+          if (accepted.size() >= 3)
+            break;
+        }
+        if (System.nanoTime() > deadline)
+          fail("Probes were not run in parallel");
+        Thread.sleep(1);
+      }
+    } finally {
+      server.close();
+      acceptor.join();
+      synchronized (accepted) {
+        for (Socket socket : accepted)
+          socket.close();
+      }
+    }
+    for (Endpoint endpoint : silent.getEndpoints()) {
+      while (endpoint.isHealthy())
+        Thread.sleep(1);
+    }
+    synchronized (accepted) {
+      assertEquals(3, accepted.size());
+    }
+    silent.shutdown();
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.openstack.burrow.backend.HttpProtocolException;
+import org.openstack.burrow.backend.Reaper;
+import org.openstack.burrow.backend.http.Endpoints.Endpoint;
+import org.openstack.burrow.client.methods.GetAccounts;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpTest extends TestCase {
+  private HttpServer server;
+  private ExecutorService serverThreads;
+  private Reaper reaper;
+  private final Set<Integer> clientPorts =
+      Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+  private final AtomicInteger concurrent = new AtomicInteger();
+  private final AtomicInteger maxConcurrent = new AtomicInteger();
+  private volatile long delay = 0;
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/v1.0", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        int now = concurrent.incrementAndGet();
+        while (true) {
+          int max = maxConcurrent.get();
+          if (now <= max || maxConcurrent.compareAndSet(max, now))
+            break;
+        }
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        concurrent.decrementAndGet();
+        byte[] body = "[\"a\", \"b\"]".getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    serverThreads = Executors.newCachedThreadPool();
+    server.setExecutor(serverThreads);
+    server.start();
+    // Runs only when the test says so.
+    reaper = new Reaper(1, 1, TimeUnit.HOURS);
+  }
+
+  @Override
+  protected void tearDown() {
+    reaper.shutdown();
+    server.stop(0);
+    serverThreads.shutdownNow();
+  }
+
+  public void testPoolBoundsConnections() throws Exception {
+    int port = server.getAddress().getPort();
+    final Http http = new Http("localhost", port, 2, 2, Http.DEFAULT_IDLE_TIMEOUT, reaper);
+    final AtomicInteger succeeded = new AtomicInteger();
+    delay = 20;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          try {
+            if (http.execute(new GetAccounts()).size() == 2)
+              succeeded.incrementAndGet();
+          } catch (Exception e) {
+            // Counted as not succeeding.
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads)
+      thread.join();
+    try {
+      assertEquals(8, succeeded.get());
+      assertTrue(maxConcurrent.get() <= 2);
+      assertTrue(clientPorts.size() <= 2);
+      assertTrue(http.getPooled() <= 2);
+    } finally {
+      http.shutdown();
+    }
+  }
+
+  public void testEvictorClosesIdleConnections() throws Exception {
+    Http http = new Http("localhost", server.getAddress().getPort(), 2, 2, 50, reaper);
+    try {
+      assertEquals(2, http.execute(new GetAccounts()).size());
+      assertEquals(1, http.getPooled());
+
+      reaper.runOnce();
+      assertEquals(1, http.getPooled());
+
+      // Only a lower bound on the idle time matters here.
+      Thread.sleep(100);
+      reaper.runOnce();
+      assertEquals(0, http.getPooled());
+      assertEquals(1, reaper.getReclaimed());
+
+      assertEquals(2, http.execute(new GetAccounts()).size());
+      assertEquals(2, clientPorts.size());
+    } finally {
+      http.shutdown();
+    }
+  }
+
+  public void testTimeoutsDoNotEjectServer() throws Exception {
+    ScheduledExecutorService probes = Executors.newSingleThreadScheduledExecutor();
+    // Probes are never run, so only requests change the endpoint's health.
+    Endpoints endpoints =
+        new Endpoints(Arrays.asList(new HttpHost("localhost", server.getAddress().getPort())),
+            3600000, Endpoints.DEFAULT_PROBE_TIMEOUT, probes);
+    Endpoint endpoint = endpoints.getEndpoints().get(0);
+    final Http http = new Http(endpoints, 1, 1, Http.DEFAULT_IDLE_TIMEOUT, reaper);
+    try {
+      delay = 1000;
+      Thread holder = new Thread(new Runnable() {
+        public void run() {
+          try {
+            http.execute(new GetAccounts());
+          } catch (Exception e) {
+            // Only holding the connection matters.
+          }
+        }
+      });
+      holder.start();
+      while (concurrent.get() < 1)
+        Thread.sleep(1);
+
+      // The only connection is in use, so each request times out waiting for it.
+      long start = System.nanoTime();
+      for (int i = 0; i < Endpoints.FAILURE_THRESHOLD; i++) {
+        try {
+          http.execute(new GetAccounts().withTimeout(50, TimeUnit.MILLISECONDS));
+          fail("Request outlived its timeout");
+        } catch (HttpProtocolException e) {
+          // This is expected.
+        }
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+      assertTrue(endpoint.isHealthy());
+      holder.join();
+
+      // The server is slower than each request's timeout.
+      for (int i = 0; i < Endpoints.FAILURE_THRESHOLD; i++) {
+        try {
+          http.execute(new GetAccounts().withTimeout(50, TimeUnit.MILLISECONDS));
+          fail("Request outlived its timeout");
+        } catch (HttpProtocolException e) {
+          // This is expected.
+        }
+      }
+      assertTrue(endpoint.isHealthy());
+    } finally {
+      http.shutdown();
+      probes.shutdownNow();
+    }
+  }
+
+  public void testKeepAliveIsCappedByIdleTimeout() {
+    Http.KeepAliveStrategy strategy = new Http.KeepAliveStrategy(30000);
+
+    HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    assertEquals(30000, strategy.getKeepAliveDuration(response, new BasicHttpContext()));
+
+    response.setHeader("Keep-Alive", "timeout=5, max=100");
+    assertEquals(5000, strategy.getKeepAliveDuration(response, new BasicHttpContext()));
+
+    response.setHeader("Keep-Alive", "timeout=60");
+    assertEquals(30000, strategy.getKeepAliveDuration(response, new BasicHttpContext()));
+  }
+}
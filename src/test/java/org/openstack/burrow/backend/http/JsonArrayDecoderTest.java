@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+
+public class JsonArrayDecoderTest extends TestCase {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private List<String> decode(String json, int chunk) throws IOException, JSONException {
+    final List<String> ids = new ArrayList<String>();
+    JsonArrayDecoder decoder = new JsonArrayDecoder(UTF_8, new JsonArrayDecoder.Handler() {
+      public void handle(JsonReader element) throws IOException, JSONException {
+        ids.add(BaseHttp.readId(element));
+      }
+    });
+
+    byte[] bytes = json.getBytes(UTF_8);
+    for (int off = 0; off < bytes.length; off += chunk)
+      decoder.decode(ByteBuffer.wrap(bytes, off, Math.min(chunk, bytes.length - off)));
+    decoder.finish();
+    return ids;
+  }
+
+  public void testChunks() throws Exception {
+    String json =
+        " [ {\"id\": \"a]\\\"}, b\", \"extra\": [{}, [1, 2]]}, \"café\", 42 ,\n"
+            + "{\"id\": \"日本\"}, -7 ] ";
+    String[] expected = {"a]\"}, b", "café", "42", "日本", "-7"};
+
+    // Every chunk size splits the array, and multibyte characters, somewhere
+    // different.
+    for (int chunk = 1; chunk <= json.length(); chunk++) {
+      List<String> ids = decode(json, chunk);
+      assertEquals("chunk size " + chunk, expected.length, ids.size());
+      for (int i = 0; i < expected.length; i++)
+        assertEquals("chunk size " + chunk, expected[i], ids.get(i));
+    }
+
+    assertTrue(decode("[]", 1).isEmpty());
+  }
+
+  public void testMalformed() throws Exception {
+    String[] inputs =
+        {"{\"id\": \"a\"}", "[\"a\",]", "[\"a\" \"b\"]", "[\"a\"", "[\"a\"] x", "[{\"x\": 1}]"};
+
+    for (String input : inputs) {
+      try {
+        decode(input, 3);
+        fail("Accepted malformed input: " + input);
+      } catch (JSONException e) {
+        // This is expected.
+      }
+    }
+  }
+}
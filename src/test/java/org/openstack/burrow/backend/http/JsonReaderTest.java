@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.json.JSONException;
+import org.openstack.burrow.client.Message;
+
+public class JsonReaderTest extends TestCase {
+
+  public void testMessages() throws Exception {
+    StringBuilder longBody = new StringBuilder();
+    for (int i = 0; i < 3000; i++)
+      longBody.append(i % 7 == 0 ? "\\n" : "x");
+
+    String json =
+        "[ {\"id\": \"a\", \"body\": \"one\\u0021\", \"ttl\": 30, \"hide\": 0},\n"
+            + " {\"extra\": {\"nested\": [1, 2.5, true, null]}, \"id\": \"b\", \"body\": \""
+            + longBody + "\", \"ttl\": 60, \"hide\": null} ]";
+    JsonReader reader = new JsonReader(new StringReader(json));
+
+    reader.beginArray();
+    Message a = new MessageResponse(reader);
+    Message b = new MessageResponse(reader);
+    reader.endArray();
+
+    assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+    assertEquals("a", a.getId());
+    assertEquals("one!", a.getBody());
+    assertEquals(30, a.getTtl());
+    assertEquals(0, a.getHide());
+    assertEquals("b", b.getId());
+    assertEquals(longBody.toString().replace("\\n", "\n"), b.getBody());
+    assertEquals(60, b.getTtl());
+  }
+
+  public void testIds() throws Exception {
+    JsonReader reader = new JsonReader(new StringReader("[\"q1\", {\"id\": \"q2\"}]"));
+
+    reader.beginArray();
+    assertEquals("q1", BaseHttp.readId(reader));
+    assertEquals("q2", BaseHttp.readId(reader));
+    assertFalse(reader.hasNext());
+    reader.endArray();
+  }
+
+  public void testMalformed() throws Exception {
+    String[] inputs = {"[{\"id\" \"a\"}]", "[1 2]", "[\"open", "[tru]", "{} {}"};
+
+    for (String input : inputs) {
+      JsonReader reader = new JsonReader(new StringReader(input));
+      try {
+        reader.skipValue();
+        reader.peek();
+        fail("Accepted malformed input: " + input);
+      } catch (JSONException e) {
+        // This is expected.
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.memory;
+
+import junit.framework.TestCase;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class AsyncMemoryTest extends TestCase {
+    private ExecutorService executor;
+    private AsyncMemory backend;
+    private Queue queue;
+
+    protected void setUp() {
+        executor = AsyncMemory.defaultExecutor();
+        backend = new AsyncMemory(executor);
+        queue = new Queue(new Account("account"), "queue");
+    }
+
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testWaitDoesNotBlockCaller() throws Exception {
+        Future<List<Message>> waiting = backend.executeAsync(queue.deleteMessages().withWait(10));
+
+        assertFalse(waiting.isDone());
+        assertEquals(1, backend.getWaiting("account", "queue"));
+
+        backend.executeAsync(queue.createMessage("1", "body")).get();
+        List<Message> messages = waiting.get(5, TimeUnit.SECONDS);
+
+        if (messages.size() != 1 || !messages.get(0).getId().equals("1"))
+            fail("Waiting request was not handed the new message.");
+    }
+
+    public void testCancelWaiting() throws Exception {
+        Future<List<Message>> waiting = backend.executeAsync(queue.deleteMessages().withWait(10));
+
+        if (!waiting.cancel(true) || !waiting.isCancelled())
+            fail("Waiting request could not be cancelled.");
+
+        assertEquals(0, backend.getWaiting("account", "queue"));
+        backend.executeAsync(queue.createMessage("1", "body")).get();
+
+        if (backend.executeAsync(queue.getMessage("1")).get() == null)
+            fail("Cancelled request consumed a message created after it was cancelled.");
+    }
+
+    public void testCancelWithoutInterruptReleasesWaiter() throws Exception {
+        Future<List<Message>> waiting = backend.executeAsync(queue.deleteMessages().withWait(10));
+
+        if (!waiting.cancel(false) || !waiting.isCancelled())
+            fail("Waiting request could not be cancelled.");
+
+        assertEquals(0, backend.getWaiting("account", "queue"));
+        backend.executeAsync(queue.createMessage("1", "body")).get();
+
+        if (backend.executeAsync(queue.getMessage("1")).get() == null)
+            fail("Cancelled request consumed a message created after it was cancelled.");
+    }
+
+    public void testTimeoutReleasesWaiter() throws Exception {
+        Future<List<Message>> waiting =
+                backend.executeAsync(queue.deleteMessages().withWait(10).withTimeout(100, TimeUnit.MILLISECONDS));
+
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            fail("Request outlived its timeout.");
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TimeoutException))
+                fail("Request failed with " + e.getCause() + " rather than timing out.");
+        }
+
+        // The waiter is taken off the queue by the thread which timed the request out, just after it fails.
+        for (int i = 0; i < 5000 && backend.getWaiting("account", "queue") > 0; i++)
+            Thread.sleep(1);
+
+        assertEquals(0, backend.getWaiting("account", "queue"));
+        backend.executeAsync(queue.createMessage("1", "body")).get();
+
+        if (backend.executeAsync(queue.getMessage("1")).get() == null)
+            fail("Timed out request consumed a message created after it gave up.");
+    }
+
+    public void testGracefulShutdownWaitsForRequests() throws Exception {
+        Future<List<Message>> waiting = backend.executeAsync(queue.deleteMessages().withWait(10));
+        Thread creating = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                    // The synchronous call runs on this thread, so is not refused.
+                    backend.execute(queue.createMessage("1", "body"));
+                } catch (Exception e) {
+                    // The waiting request then times out, failing the test.
+                }
+            }
+        });
+        creating.start();
+
+        if (!backend.shutdown(5, TimeUnit.SECONDS))
+            fail("Waiting request did not finish before the deadline.");
+        if (!waiting.isDone() || waiting.get().size() != 1)
+            fail("Shutdown did not wait for the waiting request.");
+
+        try {
+            backend.executeAsync(queue.getMessage("1")).get();
+            fail("Request made after shutdown was not rejected.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        creating.join();
+    }
+
+    public void testShutdownCancelsRequestsPastDeadline() throws Exception {
+        Future<List<Message>> waiting = backend.executeAsync(queue.deleteMessages().withWait(10));
+
+        if (backend.shutdown(100, TimeUnit.MILLISECONDS))
+            fail("Waiting request finished before a message was created.");
+        if (!waiting.isCancelled())
+            fail("Request still waiting at the deadline was not cancelled.");
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.memory;
+
+import junit.framework.TestCase;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentHashedListTest extends TestCase {
+
+    public void testPutGetRemove() {
+        ConcurrentHashedList<String, Integer> list = new ConcurrentHashedList<String, Integer>();
+
+        list.put("1", 10000);
+        list.put("2", 2);
+        list.put("1", 1);
+
+        if (list.get("1") != 1 || list.get("2") != 2)
+            fail("Wrong values retrieved after put.");
+
+        if (list.putIfAbsent("2", 20) != 2)
+            fail("putIfAbsent replaced an existing value.");
+
+        if (list.putIfAbsent("3", 3) != null || list.get("3") != 3)
+            fail("putIfAbsent did not insert an absent key.");
+
+        if (list.remove("3", 4) || !list.containsKey("3"))
+            fail("remove(key, value) removed a key associated with another value.");
+
+        if (list.remove("1") != 1 || list.containsKey("1"))
+            fail("remove did not remove key '1'.");
+
+        list.remove("2");
+        list.remove("3");
+
+        if (!list.isEmpty())
+            fail("List reports nonempty after removal of all elements.");
+    }
+
+    public void testIteratorOrder() {
+        ConcurrentHashedList<String, Integer> list = new ConcurrentHashedList<String, Integer>();
+
+        list.put("1", 1);
+        list.put("2", 2);
+        list.put("3", 3);
+        list.put("4", 4);
+        list.put("0", 0);
+        list.update("1", 5);
+        list.put("1", 5);
+
+        Iterator<Entry<String, Integer>> iterator = list.newIteratorFrom("2");
+        int[] expected = {3, 4, 0, 5};
+
+        for (int i = 0; i < expected.length; i++) {
+            Entry<String, Integer> e = iterator.next();
+
+            if (e.getValue() != expected[i])
+                fail("Value '" + e.getValue() + "' was retrieved out of order, expected '" + expected[i] + "'.");
+
+            if (e.getValue() == 4) iterator.remove();
+        }
+
+        if (iterator.hasNext())
+            fail("Iterator returned too many entries.");
+
+        if (list.get("4") != null)
+            fail("Expected null from get of removed key, found: '" + list.get("4") + "'.");
+
+        if (list.newIteratorFrom("DNE").hasNext())
+            fail("Iterator from a nonexistent marker should be empty.");
+    }
+
+    public void testIterateWhileWriting() throws Throwable {
+        final ConcurrentHashedList<Integer, Integer> list = new ConcurrentHashedList<Integer, Integer>();
+        final int count = 20000;
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread writer = new Thread() {
+            public void run() {
+                started.countDown();
+                for (int i = 0; i < count; i++) {
+                    list.put(i, i);
+                    if (i % 3 == 0) list.remove(i / 2);
+                }
+            }
+        };
+
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    started.await();
+                    for (int pass = 0; pass < 50; pass++) {
+                        int last = -1;
+                        Iterator<Entry<Integer, Integer>> iterator = list.newIterator();
+                        while (iterator.hasNext()) {
+                            int key = iterator.next().getKey();
+                            if (key <= last) throw new AssertionError("Key " + key + " followed " + last);
+                            last = key;
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        if (failure.get() != null) throw failure.get();
+
+        for (int i = count / 2; i < count; i++) {
+            if (list.get(i) == null)
+                fail("Key " + i + " was lost.");
+        }
+    }
+}
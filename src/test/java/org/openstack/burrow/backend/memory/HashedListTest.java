@@ -166,4 +166,59 @@ public class HashedListTest extends TestCase {
         if (list.get("3") != null)
             fail("Expected null from get of removed key, found: '" + list.get("3") + "'.");
     }
+
+    public void testCollidingKeys() {
+        HashedList<String, Integer> list = new HashedList<String, Integer>();
+
+        // "Aa" and "BB" share a hash code.
+        list.put("Aa", 1);
+        list.put("BB", 2);
+
+        if (list.get("Aa") != 1 || list.get("BB") != 2)
+            fail("Colliding keys were not kept distinct.");
+
+        list.remove("Aa");
+
+        if (list.get("BB") != 2)
+            fail("Expected 'BB'->2 after removal of colliding key, found: " + list.get("BB"));
+
+        if (list.containsKey("Aa"))
+            fail("containsKey reports removed colliding key existent.");
+    }
+
+    public void testGrowAndShrink() {
+        HashedList<String, Integer> list = new HashedList<String, Integer>();
+        int count = 100000;
+
+        for (int i = 0; i < count; i++) list.put("key" + i, i);
+
+        if (list.table.length < count / HashedList.MAX_LOAD)
+            fail("Table did not grow, capacity is " + list.table.length + " for " + count + " entries.");
+
+        for (int i = 0; i < count; i++) {
+            if (list.get("key" + i) != i)
+                fail("Wrong value associated with key 'key" + i + "' after growth.");
+        }
+
+        Iterator<Entry<String, Integer>> iterator = list.newIteratorFrom("key" + (count - 3));
+        for (int i = count - 2; i < count; i++) {
+            if (iterator.next().getValue() != i)
+                fail("Insertion order was not preserved across growth.");
+        }
+
+        for (int i = 0; i < count; i += 2) list.remove("key" + i);
+
+        for (int i = 1; i < count; i += 2) {
+            if (list.get("key" + i) != i)
+                fail("Wrong value associated with key 'key" + i + "' after removals.");
+        }
+
+        for (int i = 1; i < count; i += 2) list.remove("key" + i);
+
+        if (!list.isEmpty())
+            fail("List reports nonempty after removal of all elements.");
+
+        if (list.table.length != HashedList.MIN_CAPACITY)
+            fail("Table did not shrink, capacity is " + list.table.length + " when empty.");
+    }
 }
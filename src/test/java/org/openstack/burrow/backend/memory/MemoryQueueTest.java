@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.memory;
+
+import junit.framework.TestCase;
+import org.openstack.burrow.backend.MessageNotFoundException;
+import org.openstack.burrow.backend.Reaper;
+import org.openstack.burrow.client.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryQueueTest extends TestCase {
+
+    /**
+     * A MemoryQueue whose clock only moves when the test advances it.
+     */
+    private static class ManualClockQueue extends MemoryQueue {
+        long time = 0;
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+
+    public void testRemainingTimeRoundsUp() throws Exception {
+        ManualClockQueue queue = new ManualClockQueue();
+
+        queue.put("1", "body", 5l, 3l);
+        queue.time = 100;
+        Message msg = queue.get("1");
+
+        if (msg.getTtl() != 5 || msg.getHide() != 3)
+            fail("Expected ttl=5 hide=3 shortly after creation, found ttl=" + msg.getTtl() + " hide=" + msg.getHide());
+
+        if (!queue.get(null, null, false, null).isEmpty())
+            fail("Hidden message was returned.");
+    }
+
+    public void testReturnedMessagesAreSnapshots() throws Exception {
+        MemoryQueue queue = new MemoryQueue();
+
+        Message before = queue.put("1", "body", 100l, 0l);
+        queue.update("1", 10l, 20l);
+
+        if (before.getTtl() != 100 || before.getHide() != 0)
+            fail("A previously returned message changed after an update.");
+    }
+
+    public void testExpiry() throws Exception {
+        MemoryQueue queue = new MemoryQueue();
+
+        queue.put("1", "body", 100l, 0l);
+        queue.put("2", "body", 100l, 0l);
+        queue.update("2", 0l, null);
+
+        try {
+            queue.get("2");
+            fail("Message with a ttl of 0 was not expired.");
+        } catch (MessageNotFoundException e) {
+        }
+
+        if (queue.get(null, null, true, null).size() != 1)
+            fail("Expected exactly one message to survive.");
+    }
+
+    public void testExpiresInDeadlineOrder() throws Exception {
+        ManualClockQueue queue = new ManualClockQueue();
+
+        queue.put("1", "body", 30l, 0l);
+        queue.put("2", "body", 10l, 0l);
+        queue.put("3", "body", 20l, 0l);
+
+        String[] expected = { "2", "3", "1" };
+        for (int i = 0; i < expected.length; i++) {
+            queue.time = 15000 + i * 10000;
+            Reaper.Slice slice = new Reaper.Slice(System.nanoTime() + 1000000000l);
+            if (!queue.reap(slice) || slice.getReclaimed() != 1)
+                fail("Expected one message reaped at " + queue.time + "ms, found " + slice.getReclaimed() + ".");
+
+            try {
+                queue.get(expected[i]);
+                fail("Message '" + expected[i] + "' survived its deadline.");
+            } catch (MessageNotFoundException e) {
+            }
+
+            for (int j = i + 1; j < expected.length; j++) {
+                if (queue.get(expected[j]).getTtl() != (j - i) * 10 - 5)
+                    fail("Message '" + expected[j] + "' was disturbed before its deadline.");
+            }
+        }
+
+        if (!queue.isEmpty())
+            fail("Expected every message to have expired.");
+    }
+
+    public void testClaimSkipsHidden() throws Exception {
+        MemoryQueue queue = new MemoryQueue();
+
+        for (int i = 0; i < 10; i++) queue.put(Integer.toString(i), "body", 100l, 0l);
+
+        List<Message> claimed = queue.update(null, 4l, false, null, 100l, null);
+        claimed.addAll(queue.update(null, 4l, false, null, 100l, null));
+
+        for (int i = 0; i < claimed.size(); i++) {
+            if (!claimed.get(i).getId().equals(Integer.toString(i)))
+                fail("Claim returned message '" + claimed.get(i).getId() + "' out of order, expected '" + i + "'.");
+        }
+
+        List<Message> rest = queue.get("1", null, false, null);
+        if (rest.size() != 2 || !rest.get(0).getId().equals("8"))
+            fail("Expected the two unclaimed messages following a hidden marker.");
+
+        queue.update("3", null, 0l);
+        if (!queue.get(null, 1l, false, null).get(0).getId().equals("3"))
+            fail("Revealed message did not return to its original position.");
+
+        if (queue.get(null, null, true, null).size() != 10)
+            fail("Expected all messages when matching hidden.");
+    }
+
+    public void testWaitIsHandedNewMessage() throws Exception {
+        final MemoryQueue queue = new MemoryQueue();
+        final List<List<Message>> results = Collections.synchronizedList(new ArrayList<List<Message>>());
+
+        Thread consumer = new Thread() {
+            public void run() {
+                results.add(queue.remove(null, 1l, false, 10l));
+            }
+        };
+
+        consumer.start();
+        while (queue.getWaiting() == 0 && consumer.isAlive()) Thread.sleep(1);
+        queue.put("1", "body", 100l, 0l);
+        // The consumer waits for 10 seconds, so finishing well within that means it was handed the message.
+        consumer.join(5000);
+
+        if (consumer.isAlive())
+            fail("Waiting consumer was not woken by the new message.");
+
+        if (results.size() != 1 || results.get(0).size() != 1 || !results.get(0).get(0).getId().equals("1"))
+            fail("Waiting consumer was not handed the new message.");
+
+        if (!queue.isEmpty())
+            fail("Message handed to a waiting remove was left in the queue.");
+    }
+
+    public void testWaitSeesRevealedMessage() throws Exception {
+        MemoryQueue queue = new MemoryQueue();
+
+        queue.put("1", "body", 100l, 1l);
+        List<Message> messages = queue.get(null, null, false, 5l);
+
+        if (messages.size() != 1)
+            fail("Waiting get did not see the message once its hide ran out.");
+
+        // The snapshot is taken when the message is handed over, so a hide of zero shows it was not handed over early.
+        if (messages.get(0).getHide() != 0)
+            fail("Waiting get returned the message before its hide ran out.");
+    }
+
+    public void testWaitTimesOut() throws Exception {
+        MemoryQueue queue = new MemoryQueue();
+
+        if (!queue.get(null, null, false, 1l).isEmpty())
+            fail("Expected an empty result from an empty queue.");
+
+        if (!queue.retire())
+            fail("Queue could not be retired once the waiter had left.");
+
+        if (queue.put("1", "body", null, null) != null)
+            fail("A retired queue accepted a message.");
+    }
+
+    public void testReap() throws Exception {
+        MemoryQueue queue = new MemoryQueue();
+
+        for (int i = 0; i < 100; i++) queue.put(Integer.toString(i), "body", 100l, 0l);
+        queue.update(null, 40l, false, 0l, null, null);
+
+        if (queue.get(null, null, true, null).size() != 60)
+            fail("Expired messages were returned before being reaped.");
+
+        Reaper.Slice slice = new Reaper.Slice(System.nanoTime() + 1000000000l);
+        if (!queue.reap(slice) || slice.getReclaimed() != 40)
+            fail("Expected 40 messages reaped, found " + slice.getReclaimed() + ".");
+
+        if (queue.retire())
+            fail("A queue holding live messages was retired.");
+    }
+
+    public void testCallbackWaiter() throws Exception {
+        MemoryQueue queue = new MemoryQueue();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final LinkedBlockingQueue<List<Message>> results = new LinkedBlockingQueue<List<Message>>();
+        MemoryQueue.Handler handler = new MemoryQueue.Handler() {
+            public void handle(List<Message> messages) {
+                results.add(messages);
+            }
+        };
+
+        try {
+            queue.perform(queue.removing(null, null, false), 10l, timer, handler);
+            queue.perform(queue.getting(null, null, false), 1l, timer, handler);
+            if (!results.isEmpty())
+                fail("Handler was called before any message arrived.");
+
+            queue.put("1", "body", 100l, 0l);
+            List<Message> first = results.poll(5, TimeUnit.SECONDS);
+            if (first == null || first.size() != 1)
+                fail("First waiter was not handed the new message.");
+
+            List<Message> second = results.poll(5, TimeUnit.SECONDS);
+            if (second == null || !second.isEmpty())
+                fail("Second waiter should have timed out empty, the first removed the message.");
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.memory;
+
+import junit.framework.TestCase;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ShardedMemoryTest extends TestCase {
+    public void testShutdownHandsQueuedMessagesToWaiters() throws Exception {
+        final ShardedMemory backend = new ShardedMemory(1);
+        Account account = new Account("account");
+        Queue queue = account.Queue("queue");
+        Queue blocker = account.Queue("blocker");
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<List<Message>> waiting =
+                backend.executeStage(queue.deleteMessages().withWait(10)).toCompletableFuture();
+        // The blocker's waiter is answered on the shard thread, which then runs this and holds the thread up.
+        backend.executeStage(blocker.deleteMessages().withWait(10)).thenRun(new Runnable() {
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        backend.executeStage(blocker.createMessage("b", "body"));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Message> creating =
+                backend.executeStage(queue.createMessage("1", "body")).toCompletableFuture();
+        backend.shutdown();
+        release.countDown();
+
+        assertTrue(backend.shutdown(5, TimeUnit.SECONDS));
+        creating.get(5, TimeUnit.SECONDS);
+        List<Message> messages = waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(1, messages.size());
+        assertEquals("1", messages.get(0).getId());
+    }
+}
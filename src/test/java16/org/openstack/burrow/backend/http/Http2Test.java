@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.openstack.burrow.backend.CommandException;
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.Message;
+import org.openstack.burrow.client.Queue;
+import org.openstack.burrow.client.methods.GetAccounts;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests Http2 against the JDK's HTTP server, which only speaks HTTP/1.1, so
+ * the client falls back to it; the request and response handling is the same
+ * whichever version is spoken.
+ */
+public class Http2Test extends TestCase {
+  private HttpServer server;
+  private Http2 http;
+  private volatile String requestEncoding;
+  private volatile String requestBody;
+
+  @Override
+  protected void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/v1.0", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/v1.0")) {
+          respond(exchange, 200, "[\"a\", \"b\"]", false);
+        } else if (path.equals("/v1.0/account/queue/message")) {
+          requestEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+          InputStream in = exchange.getRequestBody();
+          if ("gzip".equals(requestEncoding))
+            in = new GZIPInputStream(in);
+          requestBody = new String(readAll(in), "UTF-8");
+          boolean gzip = "gzip,deflate".equals(exchange.getRequestHeaders().getFirst(
+              "Accept-Encoding"));
+          respond(exchange, 201, "{\"id\": \"message\", \"ttl\": 10, \"hide\": 0}", gzip);
+        } else {
+          exchange.sendResponseHeaders(404, -1);
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+    http = new Http2("localhost", server.getAddress().getPort());
+  }
+
+  @Override
+  protected void tearDown() {
+    server.stop(0);
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[1024];
+    int n;
+    while ((n = in.read(buf)) != -1)
+      out.write(buf, 0, n);
+    return out.toByteArray();
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body, boolean gzip)
+      throws IOException {
+    byte[] bytes = body.getBytes("UTF-8");
+    if (gzip) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      GZIPOutputStream out = new GZIPOutputStream(compressed);
+      out.write(bytes);
+      out.close();
+      bytes = compressed.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  public void testResponses() throws Exception {
+    List<Account> accounts = http.execute(new GetAccounts());
+    assertEquals(2, accounts.size());
+    assertEquals("b", accounts.get(1).getId());
+
+    try {
+      http.executeStage(new Account("nobody").getQueues()).get();
+      fail("Found queues for a missing account");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CommandException);
+    }
+  }
+
+  public void testCompression() throws Exception {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 200; i++)
+      body.append("compressible ");
+    http.setCompression(BaseHttp.GZIP);
+    Queue queue = new Queue(new Account("account"), "queue");
+    Message message = http.execute(queue.createMessage("message", body.toString()));
+    assertEquals("message", message.getId());
+    assertEquals("gzip", requestEncoding);
+    assertEquals(body.toString(), requestBody);
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 OpenStack LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.openstack.burrow.backend.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.openstack.burrow.client.Account;
+import org.openstack.burrow.client.methods.GetAccounts;
+
+public class UnixSocketFactoryTest extends TestCase {
+  private static final String RESPONSE =
+      "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: 10\r\n\r\n"
+          + "[\"a\", \"b\"]";
+
+  private File socket;
+  private ServerSocketChannel server;
+  private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+  private volatile int connections = 0;
+
+  @Override
+  protected void setUp() throws IOException {
+    socket = new File(Files.createTempDirectory("burrow").toFile(), "burrow.sock");
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(socket.getPath()));
+    Thread serving = new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (true)
+            serve(server.accept());
+        } catch (IOException e) {
+          // The server has been closed.
+        }
+      }
+    });
+    serving.setDaemon(true);
+    serving.start();
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    server.close();
+    socket.delete();
+    socket.getParentFile().delete();
+  }
+
+  /**
+   * Answers every request on a connection with the same list of accounts.
+   */
+  private void serve(SocketChannel channel) throws IOException {
+    connections++;
+    ByteBuffer buf = ByteBuffer.allocate(8192);
+    StringBuilder request = new StringBuilder();
+    try {
+      while (channel.read(buf) != -1) {
+        buf.flip();
+        while (buf.hasRemaining())
+          request.append((char) buf.get());
+        buf.clear();
+        int end = request.indexOf("\r\n\r\n");
+        if (end != -1) {
+          requests.add(request.substring(0, request.indexOf("\r\n")));
+          request.delete(0, end + 4);
+          channel.write(ByteBuffer.wrap(RESPONSE.getBytes("US-ASCII")));
+        }
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  public void testRequestsOverSocket() throws Exception {
+    Http http = new Http(socket);
+    try {
+      for (int i = 0; i < 2; i++) {
+        List<Account> accounts = http.execute(new GetAccounts());
+        assertEquals(2, accounts.size());
+        assertEquals("a", accounts.get(0).getId());
+        assertEquals("b", accounts.get(1).getId());
+      }
+    } finally {
+      http.shutdown();
+    }
+    assertEquals(2, requests.size());
+    assertTrue(requests.get(0).startsWith("GET /v1.0"));
+    // The connection was kept alive and reused.
+    assertEquals(1, connections);
+  }
+}